@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.api.mqtt.datatypes.MqttQoS;
+import org.mqttbee.api.mqtt.mqtt5.message.connect.Mqtt5ConnectRestrictions;
+import org.mqttbee.mqtt.MqttClientConnectionData;
+import org.mqttbee.mqtt.MqttClientData;
+import org.mqttbee.mqtt.MqttClientExecutorConfigImpl;
+import org.mqttbee.mqtt.MqttServerConnectionData;
+import org.mqttbee.mqtt.MqttVersion;
+import org.mqttbee.mqtt.datatypes.MqttClientIdentifierImpl;
+import org.mqttbee.mqtt.datatypes.MqttVariableByteInteger;
+import org.mqttbee.mqtt.ioc.ChannelComponent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Connected channels and encoded packets for the codec benchmarks.
+ *
+ * @author Silvio Giebl
+ */
+public class CodecBenchmarkUtil {
+
+    public static final String TOPIC = "devices/device-0042/sensors/temperature";
+    public static final int TOPIC_ALIAS_MAXIMUM = 16;
+
+    /**
+     * Creates a channel with client and server connection data as after a successful connect.
+     *
+     * @param mqttVersion the MQTT version of the client.
+     * @return the connected channel without any handlers.
+     */
+    @NotNull
+    public static EmbeddedChannel createConnectedChannel(@NotNull final MqttVersion mqttVersion) {
+        final EmbeddedChannel channel = new EmbeddedChannel();
+        final MqttClientData clientData =
+                new MqttClientData(mqttVersion, Objects.requireNonNull(MqttClientIdentifierImpl.from("benchmark")),
+                        "localhost", 1883, false, false, false, MqttClientExecutorConfigImpl.DEFAULT,
+                        WriteBufferWaterMark.DEFAULT, null);
+        clientData.to(channel);
+        ChannelComponent.create(channel, clientData);
+        clientData.setClientConnectionData(
+                new MqttClientConnectionData(60, 0, Mqtt5ConnectRestrictions.DEFAULT_RECEIVE_MAXIMUM,
+                        TOPIC_ALIAS_MAXIMUM, Mqtt5ConnectRestrictions.DEFAULT_MAXIMUM_PACKET_SIZE_NO_LIMIT, null,
+                        false, true, true, channel));
+        clientData.setServerConnectionData(
+                new MqttServerConnectionData(Mqtt5ConnectRestrictions.DEFAULT_RECEIVE_MAXIMUM, TOPIC_ALIAS_MAXIMUM,
+                        MqttVariableByteInteger.MAXIMUM_PACKET_SIZE_LIMIT, MqttQoS.EXACTLY_ONCE, true, true, true,
+                        true));
+        return channel;
+    }
+
+    /**
+     * Encodes the variable header and payload of a QoS 1 PUBLISH packet with packet identifier 1 and no properties.
+     *
+     * @param mqttVersion the MQTT version of the packet.
+     * @param payloadSize the size of the payload.
+     * @return the PUBLISH packet without the fixed header.
+     */
+    @NotNull
+    public static ByteBuf encodePublishBody(@NotNull final MqttVersion mqttVersion, final int payloadSize) {
+        final byte[] topic = TOPIC.getBytes(StandardCharsets.UTF_8);
+        final ByteBuf body = Unpooled.buffer();
+        body.writeShort(topic.length);
+        body.writeBytes(topic);
+        body.writeShort(1);
+        if (mqttVersion == MqttVersion.MQTT_5_0) {
+            body.writeByte(0); // property length
+        }
+        for (int i = 0; i < payloadSize; i++) {
+            body.writeByte(i);
+        }
+        return body;
+    }
+
+    /**
+     * Encodes a complete QoS 1 PUBLISH packet with packet identifier 1 and no properties.
+     *
+     * @param mqttVersion the MQTT version of the packet.
+     * @param payloadSize the size of the payload.
+     * @return the PUBLISH packet including the fixed header.
+     */
+    @NotNull
+    public static ByteBuf encodePublish(@NotNull final MqttVersion mqttVersion, final int payloadSize) {
+        final ByteBuf body = encodePublishBody(mqttVersion, payloadSize);
+        final ByteBuf packet = Unpooled.buffer(1 + 4 + body.readableBytes());
+        packet.writeByte(0b0011_0010);
+        MqttVariableByteInteger.encode(body.readableBytes(), packet);
+        packet.writeBytes(body);
+        body.release();
+        return packet;
+    }
+
+    private CodecBenchmarkUtil() {
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.codec.decoder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.mqttbee.mqtt.MqttVersion;
+import org.mqttbee.mqtt.codec.CodecBenchmarkUtil;
+import org.mqttbee.mqtt.ioc.ChannelComponent;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks decoding of PUBLISH packets through the {@link MqttDecoder} including the fixed header.
+ *
+ * @author Silvio Giebl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MqttDecoderBenchmark {
+
+    @Param({"MQTT_3_1_1", "MQTT_5_0"})
+    public MqttVersion mqttVersion;
+
+    @Param({"16", "1024"})
+    public int payloadSize;
+
+    private EmbeddedChannel channel;
+    private ByteBuf packet;
+
+    @Setup
+    public void setUp() {
+        channel = CodecBenchmarkUtil.createConnectedChannel(mqttVersion);
+        channel.pipeline().addLast(MqttDecoder.NAME, ChannelComponent.get(channel).decoder());
+        packet = CodecBenchmarkUtil.encodePublish(mqttVersion, payloadSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.close();
+        packet.release();
+    }
+
+    @Benchmark
+    public Object decodePublish() {
+        channel.writeInbound(packet.retainedDuplicate());
+        return channel.readInbound();
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.codec.decoder.mqtt3;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.mqttbee.mqtt.MqttClientConnectionData;
+import org.mqttbee.mqtt.MqttClientData;
+import org.mqttbee.mqtt.MqttVersion;
+import org.mqttbee.mqtt.codec.CodecBenchmarkUtil;
+import org.mqttbee.mqtt.codec.decoder.MqttDecoderException;
+import org.mqttbee.mqtt.message.publish.MqttPublishWrapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the {@link Mqtt3PublishDecoder} without the fixed header and pipeline overhead.
+ *
+ * @author Silvio Giebl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Mqtt3PublishDecoderBenchmark {
+
+    private static final int FLAGS_QOS_1 = 0b0010;
+
+    @Param({"0", "16", "1024", "65536"})
+    public int payloadSize;
+
+    private final Mqtt3PublishDecoder decoder = new Mqtt3PublishDecoder();
+    private EmbeddedChannel channel;
+    private MqttClientConnectionData clientConnectionData;
+    private ByteBuf body;
+
+    @Setup
+    public void setUp() {
+        channel = CodecBenchmarkUtil.createConnectedChannel(MqttVersion.MQTT_3_1_1);
+        clientConnectionData = MqttClientData.from(channel).getRawClientConnectionData();
+        body = CodecBenchmarkUtil.encodePublishBody(MqttVersion.MQTT_3_1_1, payloadSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.close();
+        body.release();
+    }
+
+    @Benchmark
+    public MqttPublishWrapper decode() throws MqttDecoderException {
+        return decoder.decode(FLAGS_QOS_1, body.duplicate(), clientConnectionData);
+    }
+
+}
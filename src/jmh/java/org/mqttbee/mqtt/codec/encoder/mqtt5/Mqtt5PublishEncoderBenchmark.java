@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.codec.encoder.mqtt5;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.ImmutableIntArray;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.mqttbee.api.mqtt.datatypes.MqttQoS;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.TopicAliasUsage;
+import org.mqttbee.mqtt.MqttVersion;
+import org.mqttbee.mqtt.codec.CodecBenchmarkUtil;
+import org.mqttbee.mqtt.codec.encoder.MqttMessageEncoder;
+import org.mqttbee.mqtt.datatypes.MqttTopicImpl;
+import org.mqttbee.mqtt.datatypes.MqttUTF8StringImpl;
+import org.mqttbee.mqtt.datatypes.MqttUserPropertiesImpl;
+import org.mqttbee.mqtt.datatypes.MqttUserPropertyImpl;
+import org.mqttbee.mqtt.message.publish.MqttPublish;
+import org.mqttbee.mqtt.message.publish.MqttPublishWrapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static org.mqttbee.mqtt.message.publish.MqttPublishWrapper.DEFAULT_NO_TOPIC_ALIAS;
+
+/**
+ * Benchmarks encoding of PUBLISH packets with the {@link Mqtt5PublishEncoder} with and without user properties and
+ * topic alias.
+ *
+ * @author Silvio Giebl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Mqtt5PublishEncoderBenchmark {
+
+    @Param({"0", "8"})
+    public int userPropertyCount;
+
+    @Param({"false", "true"})
+    public boolean topicAlias;
+
+    @Param({"16", "1024"})
+    public int payloadSize;
+
+    private EmbeddedChannel channel;
+    private MqttPublishWrapper publishWrapper;
+
+    @Setup
+    public void setUp() {
+        channel = CodecBenchmarkUtil.createConnectedChannel(MqttVersion.MQTT_5_0);
+
+        final ImmutableList.Builder<MqttUserPropertyImpl> userProperties = ImmutableList.builder();
+        for (int i = 0; i < userPropertyCount; i++) {
+            userProperties.add(new MqttUserPropertyImpl(Objects.requireNonNull(MqttUTF8StringImpl.from("key" + i)),
+                    Objects.requireNonNull(MqttUTF8StringImpl.from("value" + i))));
+        }
+        final MqttPublish publish =
+                new MqttPublish(Objects.requireNonNull(MqttTopicImpl.from(CodecBenchmarkUtil.TOPIC)),
+                        ByteBuffer.wrap(new byte[payloadSize]), MqttQoS.AT_LEAST_ONCE, false,
+                        MqttPublish.MESSAGE_EXPIRY_INTERVAL_INFINITY, null, null, null, null,
+                        TopicAliasUsage.HAS_NOT, MqttUserPropertiesImpl.of(userProperties.build()),
+                        Mqtt5PublishEncoder.PROVIDER);
+        // an existing topic alias replaces the topic name with an empty string
+        publishWrapper = publish.wrap(1, false, topicAlias ? 1 : DEFAULT_NO_TOPIC_ALIAS, false, ImmutableIntArray.of());
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.close();
+    }
+
+    @Benchmark
+    public int encode() {
+        final MqttMessageEncoder encoder = publishWrapper.getEncoder();
+        final ByteBuf out = encoder.allocateBuffer(channel);
+        encoder.encode(out, channel);
+        final int length = out.readableBytes();
+        out.release();
+        return length;
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.handler.publish;
+
+import io.reactivex.subscribers.TestSubscriber;
+import org.mqttbee.mqtt.datatypes.MqttTopicFilterImpl;
+import org.mqttbee.mqtt.datatypes.MqttTopicImpl;
+import org.mqttbee.util.collections.ScNodeList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link MqttSubscriptionFlows#findMatching(MqttTopicImpl, ScNodeList)} of the {@link
+ * MqttSubscriptionFlowTree} and the {@link MqttSubscriptionFlowTrie} with a growing number of topic filters.
+ * <p>
+ * Every 10th topic filter contains a single level wildcard and every 100th topic filter a multi level wildcard.
+ *
+ * @author Silvio Giebl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MqttSubscriptionFlowTreeBenchmark {
+
+    private static final int TOPIC_COUNT = 1024;
+    private static final int DEVICE_COUNT = 1000;
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int filterCount;
+
+    @Param({"tree", "trie"})
+    public String implementation;
+
+    private MqttSubscriptionFlows flows;
+    private final MqttTopicImpl[] topics = new MqttTopicImpl[TOPIC_COUNT];
+    private int topicIndex;
+
+    @Setup
+    public void setUp() {
+        flows = implementation.equals("trie") ? new MqttSubscriptionFlowTrie() : new MqttSubscriptionFlowTree();
+        for (int i = 0; i < filterCount; i++) {
+            final String topicFilter;
+            if (i % 100 == 0) {
+                topicFilter = "devices/" + (i % DEVICE_COUNT) + "/#";
+            } else if (i % 10 == 0) {
+                topicFilter = "devices/+/sensors/" + i;
+            } else {
+                topicFilter = "devices/" + (i % DEVICE_COUNT) + "/sensors/" + i;
+            }
+            // the incoming publish service is not used by the subscription flows
+            final MqttSubscriptionFlow flow = new MqttSubscriptionFlow(new TestSubscriber<>(), null);
+            flows.subscribe(Objects.requireNonNull(MqttTopicFilterImpl.from(topicFilter)), flow);
+        }
+        for (int i = 0; i < TOPIC_COUNT; i++) {
+            final int filter = (i * 7919) % filterCount;
+            topics[i] = Objects.requireNonNull(
+                    MqttTopicImpl.from("devices/" + (filter % DEVICE_COUNT) + "/sensors/" + filter));
+        }
+    }
+
+    @Benchmark
+    public ScNodeList<MqttIncomingPublishFlow> findMatching() {
+        final ScNodeList<MqttIncomingPublishFlow> matchingFlows = new ScNodeList<>();
+        flows.findMatching(topics[topicIndex++ & (TOPIC_COUNT - 1)], matchingFlows);
+        return matchingFlows;
+    }
+
+}
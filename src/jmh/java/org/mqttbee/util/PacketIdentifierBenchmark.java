@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.util;
+
+import org.mqttbee.util.collections.IntMap;
+import org.mqttbee.util.collections.SparseIntMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the packet identifier churn of the outgoing QoS flows: acknowledging the oldest in-flight message
+ * (returning its packet identifier and removing it from the map) and sending a new one (getting a packet identifier
+ * and putting it into the map).
+ * <p>
+ * With the {@code random} release pattern a random in-flight message is acknowledged instead of the oldest, as it
+ * happens if the server acknowledges out of order or QoS 1 and 2 flows are mixed.
+ *
+ * @author Silvio Giebl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketIdentifierBenchmark {
+
+    private static final int MAX_ID = UnsignedDataTypes.UNSIGNED_SHORT_MAX_VALUE;
+    private static final Object VALUE = new Object();
+    private static final int RANDOM_RELEASE_ORDER_LENGTH = 1 << 16;
+
+    @Param({"16", "1024", "65535"})
+    public int inFlight;
+
+    @Param({"inOrder", "random"})
+    public String releasePattern;
+
+    private Ranges ranges;
+    private IdBitmap idBitmap;
+    private IntMap<Object> intMap;
+    private SparseIntMap<Object> sparseIntMap;
+    private int[] inFlightIds;
+    private int[] releaseOrder;
+    private int release;
+
+    @Setup
+    public void setUp() {
+        ranges = new Ranges(1, MAX_ID);
+        idBitmap = new IdBitmap(1, MAX_ID);
+        intMap = new IntMap<>(MAX_ID);
+        sparseIntMap = new SparseIntMap<>(MAX_ID);
+        inFlightIds = new int[inFlight];
+        for (int i = 0; i < inFlight; i++) {
+            final int id = ranges.getId();
+            idBitmap.getId();
+            intMap.put(id, VALUE);
+            sparseIntMap.put(id, VALUE);
+            inFlightIds[i] = id;
+        }
+        if ("random".equals(releasePattern)) {
+            final Random random = new Random(0);
+            releaseOrder = new int[RANDOM_RELEASE_ORDER_LENGTH];
+            for (int i = 0; i < releaseOrder.length; i++) {
+                releaseOrder[i] = random.nextInt(inFlight);
+            }
+        } else {
+            releaseOrder = new int[inFlight];
+            for (int i = 0; i < inFlight; i++) {
+                releaseOrder[i] = i;
+            }
+        }
+    }
+
+    @Benchmark
+    public int ranges() {
+        ranges.returnId(released());
+        return next(ranges.getId());
+    }
+
+    @Benchmark
+    public int idBitmap() {
+        idBitmap.returnId(released());
+        return next(idBitmap.getId());
+    }
+
+    @Benchmark
+    public int intMap() {
+        final int id = released();
+        intMap.remove(id);
+        intMap.put(id, VALUE);
+        return next(id);
+    }
+
+    @Benchmark
+    public int sparseIntMap() {
+        final int id = released();
+        sparseIntMap.remove(id);
+        sparseIntMap.put(id, VALUE);
+        return next(id);
+    }
+
+    @Benchmark
+    public int rangesAndIntMap() {
+        final int oldId = released();
+        ranges.returnId(oldId);
+        intMap.remove(oldId);
+        final int id = ranges.getId();
+        intMap.put(id, VALUE);
+        return next(id);
+    }
+
+    private int released() {
+        return inFlightIds[releaseOrder[release]];
+    }
+
+    private int next(final int id) {
+        inFlightIds[releaseOrder[release]] = id;
+        if (++release == releaseOrder.length) {
+            release = 0;
+        }
+        return id;
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.util.collections;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks a batch of {@link SpscIterableChunkedArrayQueue#offer(Object) offers} followed by iterating over the
+ * elements and polling them, like the incoming publish flows use the queue.
+ *
+ * @author Silvio Giebl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpscIterableChunkedArrayQueueBenchmark {
+
+    private static final int CHUNK_SIZE = 64;
+    private static final Object ELEMENT = new Object();
+
+    @Param({"16", "64", "1024"})
+    public int batchSize;
+
+    private SpscIterableChunkedArrayQueue<Object> queue;
+
+    @Setup
+    public void setUp() {
+        queue = new SpscIterableChunkedArrayQueue<>(batchSize, CHUNK_SIZE);
+    }
+
+    @Benchmark
+    public int offerIteratePoll() {
+        for (int i = 0; i < batchSize; i++) {
+            queue.offer(ELEMENT);
+        }
+        int count = 0;
+        for (final Object ignored : queue) {
+            count++;
+        }
+        while (queue.poll() != null) {
+            count--;
+        }
+        return count;
+    }
+
+}
@@ -17,6 +17,8 @@
 
 package org.mqttbee.api.mqtt;
 
+import com.google.common.base.Preconditions;
+import io.netty.channel.WriteBufferWaterMark;
 import org.mqttbee.annotations.NotNull;
 import org.mqttbee.api.mqtt.datatypes.MqttClientIdentifier;
 import org.mqttbee.api.mqtt.mqtt3.Mqtt3ClientBuilder;
@@ -36,6 +38,7 @@ public class MqttClientBuilder {
     private int serverPort = 1883;
     private boolean usesSSL;
     private MqttClientExecutorConfigImpl executorConfig = MqttClientExecutorConfigImpl.DEFAULT;
+    private WriteBufferWaterMark writeBufferWaterMark = WriteBufferWaterMark.DEFAULT;
 
     MqttClientBuilder() {
     }
@@ -77,14 +80,34 @@ public class MqttClientBuilder {
         return this;
     }
 
+    /**
+     * Sets the water marks of the write buffer of the connection. Outgoing PUBLISH messages are not written and no more
+     * PUBLISH messages are requested from the publish flowables while the bytes in the write buffer exceed the high
+     * water mark until they fall below the low water mark again. This bounds the memory used by fast producers to the
+     * speed of the connection.
+     *
+     * @param low  the low water mark in bytes.
+     * @param high the high water mark in bytes, must not be lower than the low water mark.
+     * @return this builder.
+     */
+    @NotNull
+    public MqttClientBuilder withWriteBufferWaterMarks(final int low, final int high) {
+        Preconditions.checkArgument(low >= 0, "Low water mark must not be negative.");
+        Preconditions.checkArgument(high >= low, "High water mark must not be lower than the low water mark.");
+        this.writeBufferWaterMark = new WriteBufferWaterMark(low, high);
+        return this;
+    }
+
     @NotNull
     public Mqtt3ClientBuilder usingMqtt3() {
-        return new Mqtt3ClientBuilder(identifier, serverHost, serverPort, usesSSL, executorConfig);
+        return new Mqtt3ClientBuilder(
+                identifier, serverHost, serverPort, usesSSL, executorConfig, writeBufferWaterMark);
     }
 
     @NotNull
     public Mqtt5ClientBuilder usingMqtt5() {
-        return new Mqtt5ClientBuilder(identifier, serverHost, serverPort, usesSSL, executorConfig);
+        return new Mqtt5ClientBuilder(
+                identifier, serverHost, serverPort, usesSSL, executorConfig, writeBufferWaterMark);
     }
 
 }
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.api.mqtt.exceptions;
+
+/**
+ * The acknowledgement of a QoS 1 or QoS 2 PUBLISH was not received in the acknowledgement timeout.
+ *
+ * @author Silvio Giebl
+ */
+public class AckTimeoutException extends Exception {
+
+    public AckTimeoutException() {
+        super("Acknowledgement of the PUBLISH was not received in the timeout");
+    }
+
+}
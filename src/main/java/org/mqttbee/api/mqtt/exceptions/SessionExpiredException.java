@@ -0,0 +1,32 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.api.mqtt.exceptions;
+
+/**
+ * The server did not resume the session of the client, so the unacknowledged messages of the session can not be
+ * resent.
+ *
+ * @author Silvio Giebl
+ */
+public class SessionExpiredException extends Exception {
+
+    public SessionExpiredException() {
+        super("Session of the MQTT client was not present on the server");
+    }
+
+}
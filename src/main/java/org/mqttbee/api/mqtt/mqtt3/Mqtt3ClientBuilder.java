@@ -17,6 +17,7 @@
 
 package org.mqttbee.api.mqtt.mqtt3;
 
+import io.netty.channel.WriteBufferWaterMark;
 import org.mqttbee.annotations.NotNull;
 import org.mqttbee.mqtt.MqttClientData;
 import org.mqttbee.mqtt.MqttClientExecutorConfigImpl;
@@ -35,16 +36,19 @@ public class Mqtt3ClientBuilder {
     private final int serverPort;
     private final boolean usesSSL;
     private final MqttClientExecutorConfigImpl executorConfig;
+    private final WriteBufferWaterMark writeBufferWaterMark;
 
     public Mqtt3ClientBuilder(
             @NotNull final MqttClientIdentifierImpl identifier, @NotNull final String serverHost, final int serverPort,
-            final boolean usesSSL, @NotNull final MqttClientExecutorConfigImpl executorConfig) {
+            final boolean usesSSL, @NotNull final MqttClientExecutorConfigImpl executorConfig,
+            @NotNull final WriteBufferWaterMark writeBufferWaterMark) {
 
         this.identifier = identifier;
         this.serverHost = serverHost;
         this.serverPort = serverPort;
         this.usesSSL = usesSSL;
         this.executorConfig = executorConfig;
+        this.writeBufferWaterMark = writeBufferWaterMark;
     }
 
     @NotNull
@@ -54,7 +58,7 @@ public class Mqtt3ClientBuilder {
 
     private MqttClientData buildClientData() {
         return new MqttClientData(MqttVersion.MQTT_3_1_1, identifier, serverHost, serverPort, usesSSL, false, false,
-                executorConfig, null);
+                executorConfig, writeBufferWaterMark, null);
     }
 
 }
@@ -62,6 +62,15 @@ public interface Mqtt3Publish extends Mqtt3Message, Mqtt3SubscribeResult {
     @NotNull
     byte[] getPayloadAsBytes();
 
+    /**
+     * Releases the buffer which backs the payload of a received PUBLISH packet if zero copy incoming payloads are
+     * enabled. The payload must not be accessed by the caller afterwards. Must be called exactly once for every
+     * delivery of a received PUBLISH packet when zero copy is enabled, otherwise the buffer is leaked. A PUBLISH packet
+     * which matches multiple subscriptions is delivered once to each of them, so each of them must release it. Does
+     * nothing if the payload was copied.
+     */
+    void release();
+
     /**
      * @return the QoS of this PUBLISH packet.
      */
@@ -18,6 +18,7 @@
 package org.mqttbee.api.mqtt.mqtt5;
 
 import dagger.internal.Preconditions;
+import io.netty.channel.WriteBufferWaterMark;
 import org.mqttbee.annotations.NotNull;
 import org.mqttbee.annotations.Nullable;
 import org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5AdvancedClientData;
@@ -39,6 +40,7 @@ public class Mqtt5ClientBuilder {
     private final int serverPort;
     private final boolean usesSSL;
     private final MqttClientExecutorConfigImpl executorConfig;
+    private final WriteBufferWaterMark writeBufferWaterMark;
 
     private boolean followsRedirects = false;
     private boolean allowsServerReAuth = false;
@@ -46,7 +48,8 @@ public class Mqtt5ClientBuilder {
 
     public Mqtt5ClientBuilder(
             @NotNull final MqttClientIdentifierImpl identifier, @NotNull final String serverHost, final int serverPort,
-            final boolean usesSSL, @NotNull final MqttClientExecutorConfigImpl executorConfig) {
+            final boolean usesSSL, @NotNull final MqttClientExecutorConfigImpl executorConfig,
+            @NotNull final WriteBufferWaterMark writeBufferWaterMark) {
 
         Preconditions.checkNotNull(identifier);
         Preconditions.checkNotNull(serverHost);
@@ -56,6 +59,7 @@ public class Mqtt5ClientBuilder {
         this.serverPort = serverPort;
         this.usesSSL = usesSSL;
         this.executorConfig = executorConfig;
+        this.writeBufferWaterMark = writeBufferWaterMark;
     }
 
     @NotNull
@@ -84,7 +88,7 @@ public class Mqtt5ClientBuilder {
 
     private MqttClientData buildClientData() {
         return new MqttClientData(MqttVersion.MQTT_5_0, identifier, serverHost, serverPort, usesSSL, followsRedirects,
-                allowsServerReAuth, executorConfig, advancedClientData);
+                allowsServerReAuth, executorConfig, writeBufferWaterMark, advancedClientData);
     }
 
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.api.mqtt.mqtt5.advanced;
+
+/**
+ * Policy if the acknowledgement of an outgoing QoS 1 or QoS 2 PUBLISH or PUBREL is not received in the acknowledgement
+ * timeout.
+ *
+ * @author Silvio Giebl
+ */
+public enum Mqtt5AckTimeoutPolicy {
+
+    /**
+     * Resends the PUBLISH with the DUP flag or the PUBREL and waits for the acknowledgement again. MQTT 5 only allows
+     * resending when a session is resumed, so this policy should only be used with servers which tolerate resending on
+     * the same connection.
+     */
+    RESEND,
+    /**
+     * Emits the result of the PUBLISH with an {@link org.mqttbee.api.mqtt.exceptions.AckTimeoutException
+     * AckTimeoutException} and releases its packet identifier. A late acknowledgement for the packet identifier may
+     * be attributed to a following PUBLISH which reuses the packet identifier.
+     */
+    FAIL
+
+}
@@ -17,13 +17,18 @@
 
 package org.mqttbee.api.mqtt.mqtt5.advanced;
 
+import com.google.common.base.Preconditions;
 import org.mqttbee.annotations.NotNull;
+import org.mqttbee.api.mqtt.mqtt5.advanced.metrics.Mqtt5Metrics;
 import org.mqttbee.api.mqtt.mqtt5.advanced.qos1.Mqtt5IncomingQoS1ControlProvider;
 import org.mqttbee.api.mqtt.mqtt5.advanced.qos1.Mqtt5OutgoingQoS1ControlProvider;
 import org.mqttbee.api.mqtt.mqtt5.advanced.qos2.Mqtt5IncomingQoS2ControlProvider;
 import org.mqttbee.api.mqtt.mqtt5.advanced.qos2.Mqtt5OutgoingQoS2ControlProvider;
 import org.mqttbee.mqtt.advanced.MqttAdvancedClientData;
 
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author Silvio Giebl
  */
@@ -33,6 +38,26 @@ public class Mqtt5AdvancedClientDataBuilder {
     private Mqtt5OutgoingQoS1ControlProvider outgoingQoS1ControlProvider;
     private Mqtt5IncomingQoS2ControlProvider incomingQoS2ControlProvider;
     private Mqtt5OutgoingQoS2ControlProvider outgoingQoS2ControlProvider;
+    private File outgoingQoSFlowPersistenceDirectory;
+    private File incomingQoSFlowPersistenceDirectory;
+    private boolean zeroCopyIncomingPayloads;
+    private boolean subscriptionFlowTrie;
+    private int topicMatchCacheSize = MqttAdvancedClientData.DEFAULT_TOPIC_MATCH_CACHE_SIZE;
+    private Mqtt5FlushStrategy flushStrategy = MqttAdvancedClientData.DEFAULT_FLUSH_STRATEGY;
+    private boolean flushAcksOnReadComplete;
+    private boolean messageRecycling;
+    private boolean packetIdentifierBitmap;
+    private long reconnectInitialDelayNanos;
+    private long reconnectMaxDelayNanos;
+    private int offlinePublishQueueMaximumPublishes;
+    private long offlinePublishQueueMaximumBytes;
+    private Mqtt5OfflinePublishOverflow offlinePublishOverflow =
+            MqttAdvancedClientData.DEFAULT_OFFLINE_PUBLISH_OVERFLOW;
+    private Mqtt5Metrics metrics = MqttAdvancedClientData.DEFAULT_METRICS;
+    private int publishTraceSampleInterval;
+    private long ackTimeoutNanos;
+    private Mqtt5AckTimeoutPolicy ackTimeoutPolicy = MqttAdvancedClientData.DEFAULT_ACK_TIMEOUT_POLICY;
+    private boolean adaptiveInFlightWindow;
 
     @NotNull
     public Mqtt5AdvancedClientDataBuilder withIncomingQoS1ControlProvider(
@@ -66,10 +91,260 @@ public class Mqtt5AdvancedClientDataBuilder {
         return this;
     }
 
+    /**
+     * Stores the state of outgoing QoS 1 and QoS 2 flows in a journal in the given directory, so unacknowledged
+     * PUBLISH and PUBREL messages survive a restart of the JVM.
+     *
+     * @param directory the directory of the journal files. It must not be shared with other clients.
+     * @return this builder.
+     */
+    @NotNull
+    public Mqtt5AdvancedClientDataBuilder withOutgoingQoSFlowPersistence(@NotNull final File directory) {
+        this.outgoingQoSFlowPersistenceDirectory = directory;
+        return this;
+    }
+
+    /**
+     * Stores the state of incoming QoS 2 flows in a file in the given directory, so PUBLISH messages are not
+     * delivered twice after a restart of the JVM.
+     *
+     * @param directory the directory of the persistence file. It must not be shared with other clients.
+     * @return this builder.
+     */
+    @NotNull
+    public Mqtt5AdvancedClientDataBuilder withIncomingQoSFlowPersistence(@NotNull final File directory) {
+        this.incomingQoSFlowPersistenceDirectory = directory;
+        return this;
+    }
+
+    /**
+     * Lets the payload of received PUBLISH messages reference the pooled network buffer instead of copying it.
+     * <p>
+     * Every received {@link org.mqttbee.api.mqtt.mqtt5.message.publish.Mqtt5Publish Mqtt5Publish} must then be
+     * released exactly once via {@link org.mqttbee.api.mqtt.mqtt5.message.publish.Mqtt5Publish#release()
+     * release()} after its payload was consumed. Unreleased messages are reported by the Netty leak detector.
+     *
+     * @param zeroCopy whether payloads of received PUBLISH messages are not copied.
+     * @return this builder.
+     */
+    @NotNull
+    public Mqtt5AdvancedClientDataBuilder withZeroCopyIncomingPayloads(final boolean zeroCopy) {
+        this.zeroCopyIncomingPayloads = zeroCopy;
+        return this;
+    }
+
+    /**
+     * Matches the topics of received PUBLISH messages against the subscriptions with a trie of interned topic levels
+     * instead of a tree of topic level strings. This scales better for clients with a large number of subscriptions.
+     *
+     * @param trie whether the subscriptions are matched with a trie of interned topic levels.
+     * @return this builder.
+     */
+    @NotNull
+    public Mqtt5AdvancedClientDataBuilder withSubscriptionFlowTrie(final boolean trie) {
+        this.subscriptionFlowTrie = trie;
+        return this;
+    }
+
+    /**
+     * Sets the maximum amount of topics of received PUBLISH messages for which the matching subscriptions are cached.
+     * The least recently used topic is evicted if the cache is full. The cache is invalidated on every subscribe,
+     * unsubscribe and cancellation of a subscription.
+     *
+     * @param size the maximum amount of cached topics, 0 disables the cache. The default is {@value
+     *             MqttAdvancedClientData#DEFAULT_TOPIC_MATCH_CACHE_SIZE}.
+     * @return this builder.
+     */
+    @NotNull
+    public Mqtt5AdvancedClientDataBuilder withTopicMatchCacheSize(final int size) {
+        Preconditions.checkArgument(size >= 0);
+        this.topicMatchCacheSize = size;
+        return this;
+    }
+
+    /**
+     * Sets the strategy for batching and flushing outgoing PUBLISH messages.
+     *
+     * @param flushStrategy the flush strategy. The default is {@link Mqtt5FlushStrategy#ADAPTIVE}.
+     * @return this builder.
+     */
+    @NotNull
+    public Mqtt5AdvancedClientDataBuilder withFlushStrategy(@NotNull final Mqtt5FlushStrategy flushStrategy) {
+        this.flushStrategy = Preconditions.checkNotNull(flushStrategy);
+        return this;
+    }
+
+    /**
+     * Writes the acknowledgements which are sent while a read from the connection is handled (PUBREC for QoS 2 PUBLISH
+     * messages if the incoming QoS flows are not persisted and for duplicates, PUBCOMP for PUBREL messages) without
+     * flushing them individually and flushes them once after all messages of the read are handled. A read of many QoS 2
+     * messages then results in a single write to the connection.
+     * <p>
+     * PUBACKs and PUBCOMPs which are sent after the PUBLISH messages were consumed by the application are not written
+     * during a read. They are always flushed once per batch of acknowledgements, independent of this option.
+     *
+     * @param flushOnReadComplete whether acknowledgements are flushed once per read instead of once per message.
+     * @return this builder.
+     */
+    @NotNull
+    public Mqtt5AdvancedClientDataBuilder withFlushAcksOnReadComplete(final boolean flushOnReadComplete) {
+        this.flushAcksOnReadComplete = flushOnReadComplete;
+        return this;
+    }
+
+    /**
+     * Takes the per message objects of the client from pools instead of allocating them for every message.
+     * <p>
+     * Every {@link org.mqttbee.api.mqtt.mqtt5.message.publish.Mqtt5PublishResult Mqtt5PublishResult} should then be
+     * {@link org.mqttbee.api.mqtt.mqtt5.message.publish.Mqtt5PublishResult#recycle() recycled} after it was consumed.
+     * Results which are not recycled are garbage collected as usual.
+     *
+     * @param recycling whether per message objects are recycled.
+     * @return this builder.
+     */
+    @NotNull
+    public Mqtt5AdvancedClientDataBuilder withMessageRecycling(final boolean recycling) {
+        this.messageRecycling = recycling;
+        return this;
+    }
+
+    /**
+     * Allocates packet identifiers with a bitmap instead of a list of free ranges. Allocating and returning a packet
+     * identifier then takes constant time and does not allocate, even if acknowledgements arrive out of order.
+     *
+     * @param bitmap whether packet identifiers are allocated with a bitmap.
+     * @return this builder.
+     */
+    @NotNull
+    public Mqtt5AdvancedClientDataBuilder withPacketIdentifierBitmap(final boolean bitmap) {
+        this.packetIdentifierBitmap = bitmap;
+        return this;
+    }
+
+    /**
+     * Reconnects the client automatically if the connection is closed without a DISCONNECT initiated by the client.
+     * <p>
+     * The reconnect uses the CONNECT of the last successful connect. If its Session Expiry Interval is greater than 0,
+     * it is sent without Clean Start, so the session is resumed and the unacknowledged PUBLISH and PUBREL messages are
+     * resent. The delay before an attempt doubles with every failed attempt up to the maximum delay and is randomized
+     * between half and the full delay, so many clients which lost their connection at the same time do not reconnect
+     * at the same time.
+     *
+     * @param initialDelay the delay before the first reconnect attempt.
+     * @param maxDelay     the maximum delay before a reconnect attempt.
+     * @param timeUnit     the time unit of the delays.
+     * @return this builder.
+     */
+    @NotNull
+    public Mqtt5AdvancedClientDataBuilder withAutomaticReconnect(
+            final long initialDelay, final long maxDelay, @NotNull final TimeUnit timeUnit) {
+
+        Preconditions.checkArgument(initialDelay > 0);
+        Preconditions.checkArgument(maxDelay >= initialDelay);
+        this.reconnectInitialDelayNanos = timeUnit.toNanos(initialDelay);
+        this.reconnectMaxDelayNanos = timeUnit.toNanos(maxDelay);
+        return this;
+    }
+
+    /**
+     * Buffers the PUBLISH messages of already subscribed publish flowables while the client is not connected instead of
+     * emitting their results with a {@link org.mqttbee.api.mqtt.exceptions.NotConnectedException
+     * NotConnectedException}. The buffered PUBLISH messages are sent after the next CONNACK, so the publish flowables
+     * do not have to be resubscribed after a reconnect. Publish flowables may also be subscribed while the client is
+     * not connected.
+     *
+     * @param maximumPublishes the maximum amount of buffered PUBLISH messages.
+     * @param maximumBytes     the maximum amount of bytes of the topics and payloads of the buffered PUBLISH messages.
+     * @param overflow         the policy if the buffer is full. The default is {@link
+     *                         Mqtt5OfflinePublishOverflow#DROP_OLDEST}.
+     * @return this builder.
+     */
+    @NotNull
+    public Mqtt5AdvancedClientDataBuilder withOfflinePublishQueue(
+            final int maximumPublishes, final long maximumBytes, @NotNull final Mqtt5OfflinePublishOverflow overflow) {
+
+        Preconditions.checkArgument(maximumPublishes > 0);
+        Preconditions.checkArgument(maximumBytes > 0);
+        this.offlinePublishQueueMaximumPublishes = maximumPublishes;
+        this.offlinePublishQueueMaximumBytes = maximumBytes;
+        this.offlinePublishOverflow = Preconditions.checkNotNull(overflow);
+        return this;
+    }
+
+    /**
+     * Records metrics of the client: the in-flight outgoing QoS 1 and QoS 2 publishes and their acknowledgement
+     * latencies, the queued incoming publishes and blocked incoming flows, the hits, misses and evictions of the topic
+     * match cache, the bytes and packets per type of the decoder and encoder and the round trip time of pings.
+     *
+     * @param metrics the metrics registry. The default is {@link Mqtt5Metrics#noop()}.
+     * @return this builder.
+     */
+    @NotNull
+    public Mqtt5AdvancedClientDataBuilder withMetrics(@NotNull final Mqtt5Metrics metrics) {
+        this.metrics = Preconditions.checkNotNull(metrics);
+        return this;
+    }
+
+    /**
+     * Records the timestamps of the stages an outgoing PUBLISH passes in the client for a random sample of the
+     * publishes. The timestamps are available with {@link
+     * org.mqttbee.api.mqtt.mqtt5.message.publish.Mqtt5PublishResult#getTrace() Mqtt5PublishResult.getTrace()}, so the
+     * latency of a PUBLISH can be attributed to the client or the server.
+     *
+     * @param sampleInterval on average 1 of this amount of publishes is traced, 1 traces every PUBLISH.
+     * @return this builder.
+     */
+    @NotNull
+    public Mqtt5AdvancedClientDataBuilder withPublishTracing(final int sampleInterval) {
+        Preconditions.checkArgument(sampleInterval > 0);
+        this.publishTraceSampleInterval = sampleInterval;
+        return this;
+    }
+
+    /**
+     * Times out the acknowledgements of outgoing QoS 1 and QoS 2 publishes, so a lost acknowledgement does not occupy
+     * a packet identifier forever. The deadlines are tracked with a hashed timer wheel with a resolution of 1/16 of the
+     * timeout.
+     *
+     * @param timeout  the time to wait for a PUBACK, PUBREC or PUBCOMP.
+     * @param timeUnit the time unit of the timeout.
+     * @param policy   the policy if an acknowledgement is not received in the timeout.
+     * @return this builder.
+     */
+    @NotNull
+    public Mqtt5AdvancedClientDataBuilder withAckTimeout(
+            final long timeout, @NotNull final TimeUnit timeUnit, @NotNull final Mqtt5AckTimeoutPolicy policy) {
+
+        Preconditions.checkArgument(timeout > 0);
+        this.ackTimeoutNanos = timeUnit.toNanos(timeout);
+        this.ackTimeoutPolicy = Preconditions.checkNotNull(policy);
+        return this;
+    }
+
+    /**
+     * Adapts the amount of outgoing QoS 1 and QoS 2 publishes in flight to the measured round trip times of their
+     * acknowledgements instead of always filling the Receive Maximum of the server. The window grows while the round
+     * trip times stay close to their minimum and shrinks if publishes queue up at the server or acknowledgements time
+     * out. It never exceeds the Receive Maximum of the server.
+     *
+     * @param adaptiveInFlightWindow whether the in-flight window is adapted.
+     * @return this builder.
+     */
+    @NotNull
+    public Mqtt5AdvancedClientDataBuilder withAdaptiveInFlightWindow(final boolean adaptiveInFlightWindow) {
+        this.adaptiveInFlightWindow = adaptiveInFlightWindow;
+        return this;
+    }
+
     @NotNull
     public Mqtt5AdvancedClientData builder() {
         return new MqttAdvancedClientData(incomingQoS1ControlProvider, outgoingQoS1ControlProvider,
-                incomingQoS2ControlProvider, outgoingQoS2ControlProvider);
+                incomingQoS2ControlProvider, outgoingQoS2ControlProvider, outgoingQoSFlowPersistenceDirectory,
+                incomingQoSFlowPersistenceDirectory, zeroCopyIncomingPayloads, subscriptionFlowTrie,
+                topicMatchCacheSize, flushStrategy, flushAcksOnReadComplete,
+                messageRecycling, packetIdentifierBitmap, reconnectInitialDelayNanos, reconnectMaxDelayNanos,
+                offlinePublishQueueMaximumPublishes, offlinePublishQueueMaximumBytes, offlinePublishOverflow, metrics,
+                publishTraceSampleInterval, ackTimeoutNanos, ackTimeoutPolicy, adaptiveInFlightWindow);
     }
 
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.api.mqtt.mqtt5.advanced;
+
+/**
+ * Strategy for batching and flushing outgoing PUBLISH packets.
+ * <p>
+ * With every strategy the outgoing PUBLISH packets are flushed as soon as no more PUBLISH packets are queued and
+ * queued PUBLISH packets are not written while the connection is not writable.
+ *
+ * @author Silvio Giebl
+ */
+public enum Mqtt5FlushStrategy {
+
+    /**
+     * Handles the queued PUBLISH packets in small batches and flushes after every batch.
+     */
+    LATENCY_FIRST,
+    /**
+     * Handles the queued PUBLISH packets in large batches and flushes only if no more PUBLISH packets are queued or a
+     * large amount of bytes is written since the last flush.
+     */
+    THROUGHPUT_FIRST,
+    /**
+     * Sizes the batches from the amount of queued PUBLISH packets and flushes if no more PUBLISH packets are queued,
+     * a moderate amount of bytes is written or a short time passed since the last flush.
+     */
+    ADAPTIVE
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.api.mqtt.mqtt5.advanced;
+
+/**
+ * Policy for PUBLISH messages which are buffered while the client is not connected if the buffer is full.
+ * <p>
+ * The results of dropped PUBLISH messages are emitted with a
+ * {@link org.mqttbee.api.mqtt.exceptions.NotConnectedException NotConnectedException}.
+ *
+ * @author Silvio Giebl
+ */
+public enum Mqtt5OfflinePublishOverflow {
+
+    /**
+     * Drops the oldest buffered PUBLISH messages until the new PUBLISH message fits into the buffer.
+     */
+    DROP_OLDEST,
+    /**
+     * Drops the new PUBLISH message.
+     */
+    DROP_NEWEST,
+    /**
+     * Blocks the thread of the producer of the new PUBLISH message until it fits into the buffer.
+     */
+    BLOCK
+
+}
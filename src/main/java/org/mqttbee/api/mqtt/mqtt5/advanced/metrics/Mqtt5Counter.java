@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.api.mqtt.mqtt5.advanced.metrics;
+
+/**
+ * Counter of a {@link Mqtt5Metrics metrics registry} which can be incremented and decremented.
+ * <p>
+ * The methods are called on the hot path of the client, so they must not block and should not allocate.
+ *
+ * @author Silvio Giebl
+ */
+public interface Mqtt5Counter {
+
+    /**
+     * Adds 1 to this counter.
+     */
+    void increment();
+
+    /**
+     * Subtracts 1 from this counter.
+     */
+    void decrement();
+
+    /**
+     * Adds the given amount to this counter.
+     *
+     * @param amount the amount to add, may be negative.
+     */
+    void add(long amount);
+
+    /**
+     * @return the current value of this counter.
+     */
+    long get();
+
+}
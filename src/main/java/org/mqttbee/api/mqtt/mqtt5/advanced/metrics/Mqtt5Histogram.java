@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.api.mqtt.mqtt5.advanced.metrics;
+
+/**
+ * Histogram of a {@link Mqtt5Metrics metrics registry} which records the distribution of values, for example
+ * latencies in nanoseconds.
+ * <p>
+ * {@link #record(long)} is called on the hot path of the client, so it must not block and should not allocate.
+ *
+ * @author Silvio Giebl
+ */
+public interface Mqtt5Histogram {
+
+    /**
+     * Records a value.
+     *
+     * @param value the value to record. Negative values are recorded as 0.
+     */
+    void record(long value);
+
+    /**
+     * @return the count of recorded values.
+     */
+    long getCount();
+
+    /**
+     * @return the maximum recorded value or 0 if no value was recorded.
+     */
+    long getMax();
+
+    /**
+     * Returns the value at the given percentile of the recorded values. The value may be approximated.
+     *
+     * @param percentile the percentile between 0 and 100.
+     * @return the value at the percentile or 0 if no value was recorded.
+     */
+    long getValueAtPercentile(double percentile);
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.api.mqtt.mqtt5.advanced.metrics;
+
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.api.mqtt.mqtt5.message.Mqtt5MessageType;
+import org.mqttbee.mqtt.metrics.MqttNoopMetrics;
+import org.mqttbee.mqtt.metrics.MqttRecordingMetrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the metrics of a client.
+ * <p>
+ * Implement this interface to export the metrics of the client to a monitoring system. The counters and histograms
+ * are requested once per client and cached by the client, so they are not looked up by name on the hot path.
+ *
+ * @author Silvio Giebl
+ */
+public interface Mqtt5Metrics {
+
+    /**
+     * Gauge of the outgoing QoS 1 and QoS 2 publishes which are not completely acknowledged yet.
+     */
+    String OUTGOING_PUBLISHES_IN_FLIGHT = "mqtt.outgoing.publishes.inflight";
+    /**
+     * Histogram of the nanoseconds between writing a QoS 1 PUBLISH and receiving its PUBACK.
+     */
+    String OUTGOING_QOS1_LATENCY = "mqtt.outgoing.qos1.latency";
+    /**
+     * Histogram of the nanoseconds between writing a QoS 2 PUBLISH and receiving its PUBCOMP.
+     */
+    String OUTGOING_QOS2_LATENCY = "mqtt.outgoing.qos2.latency";
+    /**
+     * Counter of the incoming publishes which are queued because they were not delivered to all matching flows yet.
+     */
+    String INCOMING_PUBLISHES_QUEUED = "mqtt.incoming.publishes.queued";
+    /**
+     * Counter of the times an incoming publish flow blocked the delivery of the incoming publishes because it did not
+     * request more publishes.
+     */
+    String INCOMING_FLOWS_BLOCKED = "mqtt.incoming.flows.blocked";
+    /**
+     * Counter of the incoming publishes whose matching flows were found in the topic match cache.
+     */
+    String TOPIC_MATCH_CACHE_HITS = "mqtt.incoming.topicmatchcache.hits";
+    /**
+     * Counter of the incoming publishes whose topic had to be matched against the subscriptions.
+     */
+    String TOPIC_MATCH_CACHE_MISSES = "mqtt.incoming.topicmatchcache.misses";
+    /**
+     * Counter of the topics which were evicted from the full topic match cache.
+     */
+    String TOPIC_MATCH_CACHE_EVICTIONS = "mqtt.incoming.topicmatchcache.evictions";
+    /**
+     * Counter of the bytes of all decoded MQTT packets.
+     */
+    String DECODED_BYTES = "mqtt.decoder.bytes";
+    /**
+     * Prefix of the counters of the decoded MQTT packets per type, see {@link #packets(String, Mqtt5MessageType)}.
+     */
+    String DECODED_PACKETS_PREFIX = "mqtt.decoder.packets.";
+    /**
+     * Counter of the bytes of all encoded MQTT packets.
+     */
+    String ENCODED_BYTES = "mqtt.encoder.bytes";
+    /**
+     * Prefix of the counters of the encoded MQTT packets per type, see {@link #packets(String, Mqtt5MessageType)}.
+     */
+    String ENCODED_PACKETS_PREFIX = "mqtt.encoder.packets.";
+    /**
+     * Histogram of the nanoseconds between writing a PINGREQ and receiving its PINGRESP.
+     */
+    String PING_ROUND_TRIP_TIME = "mqtt.ping.rtt";
+
+    /**
+     * Returns the name of the counter of MQTT packets of the given type, for example {@code
+     * mqtt.decoder.packets.publish}.
+     *
+     * @param prefix the prefix, {@link #DECODED_PACKETS_PREFIX} or {@link #ENCODED_PACKETS_PREFIX}.
+     * @param type   the MQTT message type.
+     * @return the name of the counter.
+     */
+    @NotNull
+    static String packets(@NotNull final String prefix, @NotNull final Mqtt5MessageType type) {
+        return prefix + type.name().toLowerCase();
+    }
+
+    /**
+     * @return metrics which do not record anything. This is the default.
+     */
+    @NotNull
+    static Mqtt5Metrics noop() {
+        return MqttNoopMetrics.INSTANCE;
+    }
+
+    /**
+     * @return metrics which record in memory with lock-free counters and log-linear histograms with a relative error of
+     * about 3%. The recorded values can be read from the counters and histograms returned for the names.
+     */
+    @NotNull
+    static Mqtt5Metrics recording() {
+        return new MqttRecordingMetrics();
+    }
+
+    /**
+     * Returns the counter with the given name. Returns the same counter for the same name.
+     *
+     * @param name the name of the counter.
+     * @return the counter.
+     */
+    @NotNull
+    Mqtt5Counter counter(@NotNull String name);
+
+    /**
+     * Returns the histogram with the given name. Returns the same histogram for the same name.
+     *
+     * @param name the name of the histogram.
+     * @return the histogram.
+     */
+    @NotNull
+    Mqtt5Histogram histogram(@NotNull String name);
+
+    /**
+     * Registers a gauge with the given name. The value is only read when the metrics are exported and may be read from
+     * any thread, so it can be slightly out of date.
+     *
+     * @param name  the name of the gauge.
+     * @param value the supplier of the value of the gauge.
+     */
+    void gauge(@NotNull String name, @NotNull LongSupplier value);
+
+}
@@ -72,6 +72,29 @@ public interface Mqtt5Publish extends Mqtt5Message, Mqtt5SubscribeResult {
     @NotNull
     byte[] getPayloadAsBytes();
 
+    /**
+     * Releases the buffer which backs the payload of a received PUBLISH packet if zero copy incoming payloads are
+     * enabled or of a PUBLISH packet which was {@link #encodeOnce() encoded once}. The payload must not be accessed by
+     * the caller afterwards. Must be called exactly once for every delivery of a received PUBLISH packet and once for
+     * every PUBLISH packet which was encoded once, otherwise the buffer is leaked. A received PUBLISH packet which
+     * matches multiple subscriptions is delivered once to each of them, so each of them must release it. Does nothing
+     * if the payload is not backed by a buffer.
+     */
+    void release();
+
+    /**
+     * Encodes this PUBLISH packet once into a buffer which is shared by all clients the returned PUBLISH packet is
+     * published with. Only the fixed header, the topic, the packet identifier and the topic alias are encoded per
+     * connection, the properties and the payload are written from the shared buffer without copying.
+     * <p>
+     * The returned PUBLISH packet must be {@link #release() released} after publishing it with all clients has
+     * completed.
+     *
+     * @return the PUBLISH packet with the same content backed by the shared encoded buffer.
+     */
+    @NotNull
+    Mqtt5Publish encodeOnce();
+
     /**
      * @return the QoS of this PUBLISH packet.
      */
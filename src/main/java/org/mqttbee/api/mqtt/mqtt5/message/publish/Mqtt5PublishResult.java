@@ -37,6 +37,22 @@ public interface Mqtt5PublishResult {
     @Nullable
     Throwable getError();
 
+    /**
+     * @return the timestamps of the stages the PUBLISH passed in the client or null if the PUBLISH was not sampled for
+     * tracing, see {@link org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5AdvancedClientDataBuilder#withPublishTracing(int)
+     * withPublishTracing}.
+     */
+    @Nullable
+    Mqtt5PublishTrace getTrace();
+
+    /**
+     * Returns this result to the pool of the client if message recycling is enabled with {@link
+     * org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5AdvancedClientDataBuilder#withMessageRecycling(boolean)
+     * withMessageRecycling}. This result must not be accessed afterwards. Must be called at most once for every result.
+     * Does nothing if message recycling is not enabled.
+     */
+    void recycle();
+
 
     interface Mqtt5QoS1Result extends Mqtt5PublishResult {
         @NotNull
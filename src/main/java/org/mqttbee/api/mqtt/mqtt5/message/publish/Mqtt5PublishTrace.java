@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.api.mqtt.mqtt5.message.publish;
+
+import org.mqttbee.annotations.DoNotImplement;
+
+/**
+ * Timestamps of the stages an outgoing PUBLISH passed in the client, recorded if publish tracing is enabled with
+ * {@link org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5AdvancedClientDataBuilder#withPublishTracing(int)
+ * withPublishTracing}.
+ * <p>
+ * All timestamps are {@link System#nanoTime()} values, so only differences between them are meaningful. A timestamp
+ * is 0 if the PUBLISH did not reach the stage. If the PUBLISH was resent after a reconnect, the written and flushed
+ * timestamps are the ones of the last send.
+ * <ul>
+ * <li>queued to dequeued: waiting in the outgoing queue of the client</li>
+ * <li>dequeued to packet identifier: waiting for a free packet identifier</li>
+ * <li>packet identifier to written: persisting the outgoing QoS flow</li>
+ * <li>written to flushed: waiting in the outbound buffer of the connection</li>
+ * <li>flushed to acknowledged: waiting for the PUBACK or PUBCOMP of the server</li>
+ * </ul>
+ *
+ * @author Silvio Giebl
+ */
+@DoNotImplement
+public interface Mqtt5PublishTrace {
+
+    /**
+     * @return the time when the PUBLISH was queued for sending.
+     */
+    long getQueuedNanos();
+
+    /**
+     * @return the time when the PUBLISH was taken from the outgoing queue.
+     */
+    long getDequeuedNanos();
+
+    /**
+     * @return the time when a packet identifier was assigned to the PUBLISH. Same as the dequeued time for QoS 0.
+     */
+    long getPacketIdentifierNanos();
+
+    /**
+     * @return the time when the PUBLISH was written to the connection.
+     */
+    long getWrittenNanos();
+
+    /**
+     * @return the time when the PUBLISH was written to the socket.
+     */
+    long getFlushedNanos();
+
+    /**
+     * @return the time when the PUBACK or PUBCOMP was received or 0 for QoS 0.
+     */
+    long getAcknowledgedNanos();
+
+}
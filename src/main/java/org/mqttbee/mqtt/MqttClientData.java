@@ -19,6 +19,7 @@ package org.mqttbee.mqtt;
 
 import com.google.common.base.Preconditions;
 import io.netty.channel.Channel;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.util.AttributeKey;
 import org.mqttbee.annotations.NotNull;
 import org.mqttbee.annotations.Nullable;
@@ -29,6 +30,7 @@ import org.mqttbee.api.mqtt.mqtt5.Mqtt5ServerConnectionData;
 import org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5AdvancedClientData;
 import org.mqttbee.mqtt.advanced.MqttAdvancedClientData;
 import org.mqttbee.mqtt.datatypes.MqttClientIdentifierImpl;
+import org.mqttbee.mqtt.metrics.MqttClientMetrics;
 
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -55,7 +57,10 @@ public class MqttClientData implements Mqtt5ClientData {
     private final boolean followsRedirects;
     private final boolean allowsServerReAuth;
     private final MqttClientExecutorConfigImpl executorConfig;
+    private final WriteBufferWaterMark writeBufferWaterMark;
     private final MqttAdvancedClientData advancedClientData;
+    private final MqttClientSession session;
+    private final MqttClientMetrics metrics;
     private MqttClientConnectionData clientConnectionData;
     private MqttServerConnectionData serverConnectionData;
 
@@ -64,6 +69,7 @@ public class MqttClientData implements Mqtt5ClientData {
             @NotNull final String serverHost, final int serverPort, final boolean usesSSL,
             final boolean followsRedirects, final boolean allowsServerReAuth,
             @NotNull final MqttClientExecutorConfigImpl executorConfig,
+            @NotNull final WriteBufferWaterMark writeBufferWaterMark,
             @Nullable final MqttAdvancedClientData advancedClientData) {
 
         this.mqttVersion = mqttVersion;
@@ -76,7 +82,12 @@ public class MqttClientData implements Mqtt5ClientData {
         this.followsRedirects = followsRedirects;
         this.allowsServerReAuth = allowsServerReAuth;
         this.executorConfig = executorConfig;
+        this.writeBufferWaterMark = writeBufferWaterMark;
         this.advancedClientData = advancedClientData;
+        this.session = new MqttClientSession(mqttVersion, executorConfig.getRxJavaScheduler(), advancedClientData);
+        this.metrics = new MqttClientMetrics(
+                (advancedClientData == null) ? MqttAdvancedClientData.DEFAULT_METRICS : advancedClientData.getMetrics(),
+                session);
     }
 
     @NotNull
@@ -150,6 +161,11 @@ public class MqttClientData implements Mqtt5ClientData {
         return executorConfig;
     }
 
+    @NotNull
+    public WriteBufferWaterMark getWriteBufferWaterMark() {
+        return writeBufferWaterMark;
+    }
+
     @NotNull
     public Optional<Mqtt5AdvancedClientData> getAdvancedClientData() {
         return Optional.ofNullable(advancedClientData);
@@ -160,6 +176,16 @@ public class MqttClientData implements Mqtt5ClientData {
         return advancedClientData;
     }
 
+    @NotNull
+    public MqttClientSession getSession() {
+        return session;
+    }
+
+    @NotNull
+    public MqttClientMetrics getMetrics() {
+        return metrics;
+    }
+
     @NotNull
     @Override
     public Optional<Mqtt5ClientConnectionData> getClientConnectionData() {
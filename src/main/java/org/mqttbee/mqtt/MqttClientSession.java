@@ -0,0 +1,333 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt;
+
+import io.reactivex.Emitter;
+import io.reactivex.Scheduler;
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.annotations.Nullable;
+import org.mqttbee.api.mqtt.datatypes.MqttQoS;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
+import org.mqttbee.mqtt.advanced.MqttAdvancedClientData;
+import org.mqttbee.mqtt.handler.publish.MqttOfflinePublishQueue;
+import org.mqttbee.mqtt.handler.publish.MqttOutgoingPublishService;
+import org.mqttbee.mqtt.handler.publish.MqttOutgoingQoSHandler;
+import org.mqttbee.mqtt.handler.publish.MqttPublishWithFlow;
+import org.mqttbee.mqtt.message.publish.MqttPublishWrapper;
+import org.mqttbee.mqtt.message.publish.MqttQoSMessage;
+import org.mqttbee.mqtt.message.publish.pubrel.MqttPubRel;
+import org.mqttbee.mqtt.persistence.file.IncomingQoSFlowFilePersistence;
+import org.mqttbee.mqtt.persistence.file.OutgoingQoSFlowFilePersistence;
+import org.mqttbee.util.IdAllocator;
+import org.mqttbee.util.IdBitmap;
+import org.mqttbee.util.Ranges;
+import org.mqttbee.util.UnsignedDataTypes;
+import org.mqttbee.util.collections.SparseIntMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * State of the outgoing QoS 1 and QoS 2 flows of a client which survives the connection they were started on.
+ * <p>
+ * The flow state is only accessed by the {@link MqttOutgoingQoSHandler} of the current connection on its event loop. A
+ * connection only hands the session over after it is closed, so the accesses of consecutive connections are ordered by
+ * the reconnect. The offline publish queue and the current outgoing QoS handler are accessed concurrently.
+ * <p>
+ * If the outgoing QoS flows are persisted to files, the persistence belongs to the session and is opened once when the
+ * client is created. The flows recovered from a previous run are added to the session before the first CONNECT is
+ * sent, see {@link #getRecovery()}, so they are resent or expired like the flows of a previous connection. The
+ * persistence of the incoming QoS 2 flows also belongs to the session and is recovered before the first CONNECT. The
+ * persistences are closed while the client is disconnected and does not reconnect automatically, see {@link #close()}.
+ * <p>
+ * The {@link MqttOutgoingPublishService} also belongs to the session, so the publish flowables and the credit of the
+ * flows in flight survive reconnects.
+ *
+ * @author Silvio Giebl
+ */
+@NotThreadSafe
+public class MqttClientSession {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MqttClientSession.class);
+
+    private final int maxPacketIdentifier;
+    private final IdAllocator packetIdentifiers;
+    private final SparseIntMap<MqttPublishWithFlow> outgoingPublishes;
+    private final SparseIntMap<MqttPubRel> outgoingPubRels;
+    private final SparseIntMap<MqttQoS> quarantinedPacketIdentifiers;
+    private final MqttOfflinePublishQueue offlinePublishes;
+    private volatile MqttOutgoingQoSHandler outgoingQoSHandler;
+    private final MqttVersion mqttVersion;
+    private final File outgoingQoSFlowPersistenceDirectory;
+    private final File incomingQoSFlowPersistenceDirectory;
+    private volatile OutgoingQoSFlowFilePersistence outgoingQoSFlowPersistence;
+    private volatile IncomingQoSFlowFilePersistence incomingQoSFlowPersistence; // set when opened successfully
+    private CompletableFuture<Void> recovery;
+    private boolean closed;
+    private final MqttOutgoingPublishService outgoingPublishService;
+    private final Emitter<Mqtt5PublishResult> recoveredAckFlow = new Emitter<Mqtt5PublishResult>() {
+        @Override
+        public void onNext(@NotNull final Mqtt5PublishResult result) {
+            LOGGER.debug("Completed recovered outgoing QoS flow {}", result);
+            outgoingPublishService.request(1);
+        }
+
+        @Override
+        public void onError(@NotNull final Throwable error) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    };
+    private int maxRecoveredPacketIdentifier;
+    private int recoveredPublishes;
+
+    MqttClientSession(
+            @NotNull final MqttVersion mqttVersion, @NotNull final Scheduler rxJavaScheduler,
+            @Nullable final MqttAdvancedClientData advanced) {
+
+        final boolean packetIdentifierBitmap = (advanced != null) && advanced.isPacketIdentifierBitmap();
+        maxPacketIdentifier = MqttOutgoingQoSHandler.getPubReceiveMaximum(UnsignedDataTypes.UNSIGNED_SHORT_MAX_VALUE);
+        // lowest first allocation keeps the packet identifiers of the in-flight publishes below the receive maximum
+        packetIdentifiers = packetIdentifierBitmap ? new IdBitmap(1, maxPacketIdentifier) :
+                new Ranges(1, maxPacketIdentifier);
+        outgoingPublishes = new SparseIntMap<>(maxPacketIdentifier);
+        outgoingPubRels = new SparseIntMap<>(maxPacketIdentifier);
+        quarantinedPacketIdentifiers = new SparseIntMap<>(maxPacketIdentifier);
+        offlinePublishes = ((advanced != null) && advanced.isOfflinePublishQueue()) ?
+                new MqttOfflinePublishQueue(advanced.getOfflinePublishQueueMaximumPublishes(),
+                        advanced.getOfflinePublishQueueMaximumBytes(), advanced.getOfflinePublishOverflow(),
+                        advanced.isMessageRecycling()) : null;
+        outgoingPublishService = new MqttOutgoingPublishService(rxJavaScheduler, offlinePublishes != null);
+
+        this.mqttVersion = mqttVersion;
+        outgoingQoSFlowPersistenceDirectory =
+                (advanced == null) ? null : advanced.getOutgoingQoSFlowPersistenceDirectory();
+        incomingQoSFlowPersistenceDirectory =
+                (advanced == null) ? null : advanced.getIncomingQoSFlowPersistenceDirectory();
+        recovery = open(true);
+    }
+
+    /**
+     * Opens the file persistences of the QoS flows.
+     *
+     * @param recover whether the outgoing QoS flows of a previous run are added to the session. The session already
+     *                contains all flows if the persistences are reopened after {@link #close()}.
+     * @return a future which completes when the persistences are opened.
+     */
+    @NotNull
+    private CompletableFuture<Void> open(final boolean recover) {
+        final CompletableFuture<Void> outgoingRecovery;
+        if (outgoingQoSFlowPersistenceDirectory == null) {
+            outgoingRecovery = CompletableFuture.completedFuture(null);
+        } else {
+            outgoingQoSFlowPersistence =
+                    new OutgoingQoSFlowFilePersistence(outgoingQoSFlowPersistenceDirectory, mqttVersion);
+            outgoingRecovery = (recover ? outgoingQoSFlowPersistence.open(this::recover)
+                    .thenRun(this::reserveRecoveredPacketIdentifiers) :
+                    outgoingQoSFlowPersistence.open(message -> {})).exceptionally(throwable -> {
+                LOGGER.error("Recovering the outgoing QoS flows failed", throwable);
+                return null;
+            });
+        }
+
+        final CompletableFuture<Void> incomingRecovery;
+        if (incomingQoSFlowPersistenceDirectory == null) {
+            incomingRecovery = CompletableFuture.completedFuture(null);
+        } else {
+            // PUBRECs are only kept in memory if opening the file fails
+            final IncomingQoSFlowFilePersistence persistence =
+                    new IncomingQoSFlowFilePersistence(incomingQoSFlowPersistenceDirectory, mqttVersion);
+            incomingRecovery = persistence.open()
+                    .thenRun(() -> incomingQoSFlowPersistence = persistence)
+                    .exceptionally(throwable -> {
+                        LOGGER.error("Recovering the incoming QoS flows failed", throwable);
+                        return null;
+                    });
+        }
+        return CompletableFuture.allOf(outgoingRecovery, incomingRecovery);
+    }
+
+    /**
+     * Closes the file persistences of the QoS flows after all pending writes, so their files are unmapped while the
+     * client is not connected and does not reconnect automatically. The next connect reopens them, see {@link
+     * #getRecovery()}.
+     *
+     * @return a future which completes when the persistences are closed.
+     */
+    @NotNull
+    public synchronized CompletableFuture<Void> close() {
+        if (!closed) {
+            closed = true;
+            recovery = recovery.thenCompose(ignored -> {
+                final OutgoingQoSFlowFilePersistence outgoing = outgoingQoSFlowPersistence;
+                final IncomingQoSFlowFilePersistence incoming = incomingQoSFlowPersistence;
+                outgoingQoSFlowPersistence = null;
+                incomingQoSFlowPersistence = null;
+                return CompletableFuture.allOf(
+                        (outgoing == null) ? CompletableFuture.completedFuture(null) : outgoing.close(),
+                        (incoming == null) ? CompletableFuture.completedFuture(null) : incoming.close());
+            });
+        }
+        return recovery;
+    }
+
+    private void recover(@NotNull final MqttQoSMessage message) {
+        final int packetIdentifier = message.getPacketIdentifier();
+        if ((packetIdentifier <= 0) || (packetIdentifier > maxPacketIdentifier)) {
+            LOGGER.warn("Recovered outgoing QoS flow with invalid packet identifier {}, discarding it",
+                    packetIdentifier);
+            final OutgoingQoSFlowFilePersistence persistence = outgoingQoSFlowPersistence;
+            assert persistence != null;
+            persistence.discard(packetIdentifier);
+            return;
+        }
+        if (message instanceof MqttPublishWrapper) {
+            outgoingPublishes.put(packetIdentifier,
+                    new MqttPublishWithFlow(((MqttPublishWrapper) message).getWrapped(), recoveredAckFlow));
+            recoveredPublishes++;
+        } else if (message instanceof MqttPubRel) {
+            outgoingPubRels.put(packetIdentifier, (MqttPubRel) message);
+        }
+        maxRecoveredPacketIdentifier = Math.max(maxRecoveredPacketIdentifier, packetIdentifier);
+    }
+
+    /**
+     * Allocates the packet identifiers of the recovered flows, so they are not used for new flows. The allocator is not
+     * used before, so it allocates the identifiers in ascending order. The recovered publishes take credit of the
+     * outgoing publish service until their results are emitted, as they count towards the receive maximum.
+     */
+    private void reserveRecoveredPacketIdentifiers() {
+        if (recoveredPublishes > 0) {
+            outgoingPublishService.request(-recoveredPublishes);
+        }
+        for (int i = 1; i <= maxRecoveredPacketIdentifier; i++) {
+            packetIdentifiers.getId();
+        }
+        for (int packetIdentifier = 1; packetIdentifier <= maxRecoveredPacketIdentifier; packetIdentifier++) {
+            if ((outgoingPublishes.get(packetIdentifier) == null) && (outgoingPubRels.get(packetIdentifier) == null)) {
+                packetIdentifiers.returnId(packetIdentifier);
+            }
+        }
+    }
+
+    /**
+     * @return the highest packet identifier of outgoing QoS 1 and QoS 2 publishes. Flows of a previous connection may
+     * use packet identifiers above the receive maximum of the current connection.
+     */
+    public int getMaxPacketIdentifier() {
+        return maxPacketIdentifier;
+    }
+
+    /**
+     * @return the allocator of the packet identifiers of outgoing QoS 1 and QoS 2 publishes.
+     */
+    @NotNull
+    public IdAllocator getPacketIdentifiers() {
+        return packetIdentifiers;
+    }
+
+    /**
+     * @return the QoS 1 and QoS 2 publishes which are not completely acknowledged by their packet identifier.
+     */
+    @NotNull
+    public SparseIntMap<MqttPublishWithFlow> getOutgoingPublishes() {
+        return outgoingPublishes;
+    }
+
+    /**
+     * @return the PUBRELs which were sent but not acknowledged with a PUBCOMP yet by their packet identifier.
+     */
+    @NotNull
+    public SparseIntMap<MqttPubRel> getOutgoingPubRels() {
+        return outgoingPubRels;
+    }
+
+    /**
+     * @return the QoS of the flows which failed as their acknowledgement timed out by their packet identifier. The
+     * server may still use the packet identifiers, so they are not returned to the allocator until a late
+     * acknowledgement is received or the session ends.
+     */
+    @NotNull
+    public SparseIntMap<MqttQoS> getQuarantinedPacketIdentifiers() {
+        return quarantinedPacketIdentifiers;
+    }
+
+    /**
+     * @return the persistence of the outgoing QoS flows of this session or null if the flows are only kept in memory.
+     */
+    @Nullable
+    public OutgoingQoSFlowFilePersistence getOutgoingQoSFlowPersistence() {
+        return outgoingQoSFlowPersistence;
+    }
+
+    /**
+     * @return the persistence of the PUBRECs of the incoming QoS 2 flows of this session or null if they are only kept
+     * in memory.
+     */
+    @Nullable
+    public IncomingQoSFlowFilePersistence getIncomingQoSFlowPersistence() {
+        return incomingQoSFlowPersistence;
+    }
+
+    /**
+     * @return a future which completes when the flows of a previous run are recovered from the persistence. The session
+     * must not be used by a connection before. Reopens the persistences if they were {@link #close() closed}.
+     */
+    @NotNull
+    public synchronized CompletableFuture<Void> getRecovery() {
+        if (closed) {
+            closed = false;
+            recovery = recovery.thenCompose(ignored -> open(false));
+        }
+        return recovery;
+    }
+
+    /**
+     * @return the service which ingests the publish flowables of the client.
+     */
+    @NotNull
+    public MqttOutgoingPublishService getOutgoingPublishService() {
+        return outgoingPublishService;
+    }
+
+    /**
+     * @return the buffer for publishes while the client is not connected or null if they are not buffered.
+     */
+    @Nullable
+    public MqttOfflinePublishQueue getOfflinePublishes() {
+        return offlinePublishes;
+    }
+
+    /**
+     * @return the outgoing QoS handler of the current connection after its CONNACK or null if not connected.
+     */
+    @Nullable
+    public MqttOutgoingQoSHandler getOutgoingQoSHandler() {
+        return outgoingQoSHandler;
+    }
+
+    public void setOutgoingQoSHandler(@Nullable final MqttOutgoingQoSHandler outgoingQoSHandler) {
+        this.outgoingQoSHandler = outgoingQoSHandler;
+    }
+
+}
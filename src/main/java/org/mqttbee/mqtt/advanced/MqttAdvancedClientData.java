@@ -17,33 +17,100 @@
 
 package org.mqttbee.mqtt.advanced;
 
+import org.mqttbee.annotations.NotNull;
 import org.mqttbee.annotations.Nullable;
+import org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5AckTimeoutPolicy;
 import org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5AdvancedClientData;
+import org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5FlushStrategy;
+import org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5OfflinePublishOverflow;
+import org.mqttbee.api.mqtt.mqtt5.advanced.metrics.Mqtt5Metrics;
 import org.mqttbee.api.mqtt.mqtt5.advanced.qos1.Mqtt5IncomingQoS1ControlProvider;
 import org.mqttbee.api.mqtt.mqtt5.advanced.qos1.Mqtt5OutgoingQoS1ControlProvider;
 import org.mqttbee.api.mqtt.mqtt5.advanced.qos2.Mqtt5IncomingQoS2ControlProvider;
 import org.mqttbee.api.mqtt.mqtt5.advanced.qos2.Mqtt5OutgoingQoS2ControlProvider;
+import org.mqttbee.mqtt.metrics.MqttNoopMetrics;
+
+import java.io.File;
 
 /**
  * @author Silvio Giebl
  */
 public class MqttAdvancedClientData implements Mqtt5AdvancedClientData {
 
+    public static final int DEFAULT_TOPIC_MATCH_CACHE_SIZE = 1024;
+    @NotNull
+    public static final Mqtt5FlushStrategy DEFAULT_FLUSH_STRATEGY = Mqtt5FlushStrategy.ADAPTIVE;
+    @NotNull
+    public static final Mqtt5OfflinePublishOverflow DEFAULT_OFFLINE_PUBLISH_OVERFLOW =
+            Mqtt5OfflinePublishOverflow.DROP_OLDEST;
+    @NotNull
+    public static final Mqtt5Metrics DEFAULT_METRICS = MqttNoopMetrics.INSTANCE;
+    @NotNull
+    public static final Mqtt5AckTimeoutPolicy DEFAULT_ACK_TIMEOUT_POLICY = Mqtt5AckTimeoutPolicy.RESEND;
+
     private final Mqtt5IncomingQoS1ControlProvider incomingQoS1ControlProvider;
     private final Mqtt5OutgoingQoS1ControlProvider outgoingQoS1ControlProvider;
     private final Mqtt5IncomingQoS2ControlProvider incomingQoS2ControlProvider;
     private final Mqtt5OutgoingQoS2ControlProvider outgoingQoS2ControlProvider;
+    private final File outgoingQoSFlowPersistenceDirectory;
+    private final File incomingQoSFlowPersistenceDirectory;
+    private final boolean zeroCopyIncomingPayloads;
+    private final boolean subscriptionFlowTrie;
+    private final int topicMatchCacheSize;
+    private final Mqtt5FlushStrategy flushStrategy;
+    private final boolean flushAcksOnReadComplete;
+    private final boolean messageRecycling;
+    private final boolean packetIdentifierBitmap;
+    private final long reconnectInitialDelayNanos;
+    private final long reconnectMaxDelayNanos;
+    private final int offlinePublishQueueMaximumPublishes;
+    private final long offlinePublishQueueMaximumBytes;
+    private final Mqtt5OfflinePublishOverflow offlinePublishOverflow;
+    private final Mqtt5Metrics metrics;
+    private final int publishTraceSampleInterval;
+    private final long ackTimeoutNanos;
+    private final Mqtt5AckTimeoutPolicy ackTimeoutPolicy;
+    private final boolean adaptiveInFlightWindow;
 
     public MqttAdvancedClientData(
             @Nullable final Mqtt5IncomingQoS1ControlProvider incomingQoS1ControlProvider,
             @Nullable final Mqtt5OutgoingQoS1ControlProvider outgoingQoS1ControlProvider,
             @Nullable final Mqtt5IncomingQoS2ControlProvider incomingQoS2ControlProvider,
-            @Nullable final Mqtt5OutgoingQoS2ControlProvider outgoingQoS2ControlProvider) {
+            @Nullable final Mqtt5OutgoingQoS2ControlProvider outgoingQoS2ControlProvider,
+            @Nullable final File outgoingQoSFlowPersistenceDirectory,
+            @Nullable final File incomingQoSFlowPersistenceDirectory, final boolean zeroCopyIncomingPayloads,
+            final boolean subscriptionFlowTrie, final int topicMatchCacheSize,
+            @NotNull final Mqtt5FlushStrategy flushStrategy, final boolean flushAcksOnReadComplete,
+            final boolean messageRecycling, final boolean packetIdentifierBitmap,
+            final long reconnectInitialDelayNanos, final long reconnectMaxDelayNanos,
+            final int offlinePublishQueueMaximumPublishes, final long offlinePublishQueueMaximumBytes,
+            @NotNull final Mqtt5OfflinePublishOverflow offlinePublishOverflow, @NotNull final Mqtt5Metrics metrics,
+            final int publishTraceSampleInterval, final long ackTimeoutNanos,
+            @NotNull final Mqtt5AckTimeoutPolicy ackTimeoutPolicy, final boolean adaptiveInFlightWindow) {
 
         this.incomingQoS1ControlProvider = incomingQoS1ControlProvider;
         this.outgoingQoS1ControlProvider = outgoingQoS1ControlProvider;
         this.incomingQoS2ControlProvider = incomingQoS2ControlProvider;
         this.outgoingQoS2ControlProvider = outgoingQoS2ControlProvider;
+        this.outgoingQoSFlowPersistenceDirectory = outgoingQoSFlowPersistenceDirectory;
+        this.incomingQoSFlowPersistenceDirectory = incomingQoSFlowPersistenceDirectory;
+        this.zeroCopyIncomingPayloads = zeroCopyIncomingPayloads;
+        this.subscriptionFlowTrie = subscriptionFlowTrie;
+        this.topicMatchCacheSize = topicMatchCacheSize;
+        this.flushStrategy = flushStrategy;
+        this.flushAcksOnReadComplete = flushAcksOnReadComplete;
+        this.messageRecycling = messageRecycling;
+        this.packetIdentifierBitmap = packetIdentifierBitmap;
+        this.reconnectInitialDelayNanos = reconnectInitialDelayNanos;
+        this.reconnectMaxDelayNanos = reconnectMaxDelayNanos;
+        this.offlinePublishQueueMaximumPublishes = offlinePublishQueueMaximumPublishes;
+        this.offlinePublishQueueMaximumBytes = offlinePublishQueueMaximumBytes;
+        this.offlinePublishOverflow = offlinePublishOverflow;
+        this.metrics = metrics;
+        this.publishTraceSampleInterval = publishTraceSampleInterval;
+        this.ackTimeoutNanos = ackTimeoutNanos;
+        this.ackTimeoutPolicy = ackTimeoutPolicy;
+        this.adaptiveInFlightWindow = adaptiveInFlightWindow;
     }
 
     @Nullable
@@ -66,4 +133,102 @@ public class MqttAdvancedClientData implements Mqtt5AdvancedClientData {
         return outgoingQoS2ControlProvider;
     }
 
+    @Nullable
+    public File getOutgoingQoSFlowPersistenceDirectory() {
+        return outgoingQoSFlowPersistenceDirectory;
+    }
+
+    @Nullable
+    public File getIncomingQoSFlowPersistenceDirectory() {
+        return incomingQoSFlowPersistenceDirectory;
+    }
+
+    public boolean isZeroCopyIncomingPayloads() {
+        return zeroCopyIncomingPayloads;
+    }
+
+    public boolean isSubscriptionFlowTrie() {
+        return subscriptionFlowTrie;
+    }
+
+    public int getTopicMatchCacheSize() {
+        return topicMatchCacheSize;
+    }
+
+    @NotNull
+    public Mqtt5FlushStrategy getFlushStrategy() {
+        return flushStrategy;
+    }
+
+    public boolean isFlushAcksOnReadComplete() {
+        return flushAcksOnReadComplete;
+    }
+
+    public boolean isMessageRecycling() {
+        return messageRecycling;
+    }
+
+    public boolean isPacketIdentifierBitmap() {
+        return packetIdentifierBitmap;
+    }
+
+    public boolean isAutomaticReconnect() {
+        return reconnectInitialDelayNanos > 0;
+    }
+
+    public long getReconnectInitialDelayNanos() {
+        return reconnectInitialDelayNanos;
+    }
+
+    public long getReconnectMaxDelayNanos() {
+        return reconnectMaxDelayNanos;
+    }
+
+    public boolean isOfflinePublishQueue() {
+        return offlinePublishQueueMaximumPublishes > 0;
+    }
+
+    public int getOfflinePublishQueueMaximumPublishes() {
+        return offlinePublishQueueMaximumPublishes;
+    }
+
+    public long getOfflinePublishQueueMaximumBytes() {
+        return offlinePublishQueueMaximumBytes;
+    }
+
+    @NotNull
+    public Mqtt5OfflinePublishOverflow getOfflinePublishOverflow() {
+        return offlinePublishOverflow;
+    }
+
+    @NotNull
+    public Mqtt5Metrics getMetrics() {
+        return metrics;
+    }
+
+    public boolean isPublishTracing() {
+        return publishTraceSampleInterval > 0;
+    }
+
+    public int getPublishTraceSampleInterval() {
+        return publishTraceSampleInterval;
+    }
+
+    public boolean isAckTimeout() {
+        return ackTimeoutNanos > 0;
+    }
+
+    public long getAckTimeoutNanos() {
+        return ackTimeoutNanos;
+    }
+
+    @NotNull
+    public Mqtt5AckTimeoutPolicy getAckTimeoutPolicy() {
+        return ackTimeoutPolicy;
+    }
+
+    public boolean isAdaptiveInFlightWindow() {
+        return adaptiveInFlightWindow;
+    }
+
 }
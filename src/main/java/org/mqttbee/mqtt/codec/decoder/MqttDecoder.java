@@ -78,8 +78,8 @@ public class MqttDecoder extends ByteToMessageDecoder {
             final int fixedHeaderLength = in.readerIndex() - readerIndexBeforeFixedHeader;
             final int packetSize = fixedHeaderLength + remainingLength;
 
-            final MqttClientConnectionData clientConnectionData =
-                    MqttClientData.from(ctx.channel()).getRawClientConnectionData();
+            final MqttClientData clientData = MqttClientData.from(ctx.channel());
+            final MqttClientConnectionData clientConnectionData = clientData.getRawClientConnectionData();
             assert clientConnectionData != null;
             if (packetSize > clientConnectionData.getMaximumPacketSize()) {
                 throw new MqttDecoderException(Mqtt5DisconnectReasonCode.PACKET_TOO_LARGE,
@@ -98,6 +98,7 @@ public class MqttDecoder extends ByteToMessageDecoder {
             }
 
             final MqttMessage message = decoder.decode(flags, in.readSlice(remainingLength), clientConnectionData);
+            clientData.getMetrics().onDecoded(messageType, packetSize);
 
             if (message != null) {
                 out.add(message);
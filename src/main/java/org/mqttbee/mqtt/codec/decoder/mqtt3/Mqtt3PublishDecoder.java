@@ -76,13 +76,19 @@ public class Mqtt3PublishDecoder implements MqttMessageDecoder {
 
         final int payloadLength = in.readableBytes();
         ByteBuffer payload = null;
+        ByteBuf payloadBuffer = null;
         if (payloadLength > 0) {
-            payload = ByteBufferUtil.allocate(payloadLength, ChannelAttributes.useDirectBufferForPayload(channel));
-            in.readBytes(payload);
-            payload.position(0);
+            if (ChannelAttributes.retainIncomingPayloadBuffer(channel) && (in.nioBufferCount() == 1)) {
+                payloadBuffer = in.readRetainedSlice(payloadLength);
+                payload = payloadBuffer.nioBuffer();
+            } else {
+                payload = ByteBufferUtil.allocate(payloadLength, ChannelAttributes.useDirectBufferForPayload(channel));
+                in.readBytes(payload);
+                payload.position(0);
+            }
         }
 
-        final MqttPublish publish = Mqtt3PublishView.wrapped(topic, payload, qos, retain);
+        final MqttPublish publish = Mqtt3PublishView.wrapped(topic, payload, qos, retain, payloadBuffer);
 
         return Mqtt3PublishView.wrapped(publish, packetIdentifier, dup);
     }
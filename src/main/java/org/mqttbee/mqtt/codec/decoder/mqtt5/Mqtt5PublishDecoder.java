@@ -208,20 +208,28 @@ public class Mqtt5PublishDecoder implements MqttMessageDecoder {
 
         final int payloadLength = in.readableBytes();
         ByteBuffer payload = null;
+        ByteBuf payloadBuffer = null;
         if (payloadLength > 0) {
-            payload = ByteBufferUtil.allocate(payloadLength, ChannelAttributes.useDirectBufferForPayload(channel));
-            in.readBytes(payload);
-            payload.position(0);
-
             if (payloadFormatIndicator == Mqtt5PayloadFormatIndicator.UTF_8) {
                 if (ChannelAttributes.validatePayloadFormat(channel)) {
-                    if (!Utf8.isWellFormed(ByteBufferUtil.getBytes(payload))) {
+                    final byte[] payloadBytes = new byte[payloadLength];
+                    in.getBytes(in.readerIndex(), payloadBytes);
+                    if (!Utf8.isWellFormed(payloadBytes)) {
                         throw new MqttDecoderException(
                                 Mqtt5DisconnectReasonCode.PAYLOAD_FORMAT_INVALID,
                                 "payload is not valid UTF-8");
                     }
                 }
             }
+
+            if (ChannelAttributes.retainIncomingPayloadBuffer(channel) && (in.nioBufferCount() == 1)) {
+                payloadBuffer = in.readRetainedSlice(payloadLength);
+                payload = payloadBuffer.nioBuffer();
+            } else {
+                payload = ByteBufferUtil.allocate(payloadLength, ChannelAttributes.useDirectBufferForPayload(channel));
+                in.readBytes(payload);
+                payload.position(0);
+            }
         }
 
         final MqttUserPropertiesImpl userProperties = MqttUserPropertiesImpl.build(userPropertiesBuilder);
@@ -229,7 +237,7 @@ public class Mqtt5PublishDecoder implements MqttMessageDecoder {
         final MqttPublish publish =
                 new MqttPublish(topic, payload, qos, retain, messageExpiryInterval, payloadFormatIndicator,
                         contentType, responseTopic, correlationData, topicAliasUsage, userProperties,
-                        Mqtt5PublishEncoder.PROVIDER);
+                        Mqtt5PublishEncoder.PROVIDER, payloadBuffer);
 
         final ImmutableIntArray subscriptionIdentifiers =
                 (subscriptionIdentifiersBuilder == null) ? DEFAULT_NO_SUBSCRIPTION_IDENTIFIERS :
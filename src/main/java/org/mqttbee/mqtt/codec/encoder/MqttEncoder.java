@@ -18,16 +18,30 @@
 package org.mqttbee.mqtt.codec.encoder;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.EncoderException;
 import io.netty.handler.codec.MessageToByteEncoder;
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.mqtt.MqttClientData;
 import org.mqttbee.mqtt.message.MqttMessage;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.nio.ByteBuffer;
 
 /**
  * Main encoder for MQTT messages which delegates to the individual {@link MqttMessageEncoder}s.
+ * <p>
+ * Large direct payloads of {@link MqttMessageEncoderWithPayload}s are not copied. Only the headers are encoded to an
+ * allocated byte buffer, the payload is wrapped and both are written as one composite byte buffer, so the transport
+ * can write the payload to the socket directly.
+ * <p>
+ * MQTT messages with a template of {@link MqttMessageEncoderWithTemplate}s are written the same way: only the
+ * connection specific header is encoded, the shared template is appended without copying.
  *
  * @author Silvio Giebl
  */
@@ -37,11 +51,92 @@ public class MqttEncoder extends MessageToByteEncoder<MqttMessage> {
 
     public static final String NAME = "encoder.mqtt5";
 
+    /**
+     * Minimum payload size for which wrapping the payload is cheaper than copying it.
+     */
+    static final int WRAP_PAYLOAD_MIN_SIZE = 1024;
+
     @Inject
     MqttEncoder() {
         super(MqttMessage.class, true);
     }
 
+    @Override
+    public void write(final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise)
+            throws Exception {
+
+        if (msg instanceof MqttMessage) {
+            final MqttMessageEncoder encoder = ((MqttMessage) msg).getEncoder();
+            if (encoder instanceof MqttMessageEncoderWithTemplate) {
+                final MqttMessageEncoderWithTemplate templateEncoder = (MqttMessageEncoderWithTemplate) encoder;
+                final ByteBuf template = templateEncoder.getTemplate(ctx.channel());
+                if (template != null) {
+                    writeEncoded(ctx, (MqttMessage) msg, encodeWithTemplate(templateEncoder, template, ctx.channel()),
+                            promise);
+                    return;
+                }
+            }
+            if (encoder instanceof MqttMessageEncoderWithPayload) {
+                final MqttMessageEncoderWithPayload payloadEncoder = (MqttMessageEncoderWithPayload) encoder;
+                final ByteBuffer payload = payloadEncoder.getPayload();
+                if ((payload != null) && payload.isDirect() && (payload.remaining() >= WRAP_PAYLOAD_MIN_SIZE)) {
+                    writeEncoded(ctx, (MqttMessage) msg,
+                            encodeWithWrappedPayload(payloadEncoder, payload, ctx.channel()), promise);
+                    return;
+                }
+            }
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    private static void writeEncoded(
+            @NotNull final ChannelHandlerContext ctx, @NotNull final MqttMessage message, @NotNull final ByteBuf out,
+            @NotNull final ChannelPromise promise) {
+
+        MqttClientData.from(ctx.channel()).getMetrics().onEncoded(message.getType(), out.readableBytes());
+        ctx.write(out, promise);
+    }
+
+    @NotNull
+    private static ByteBuf encodeWithWrappedPayload(
+            @NotNull final MqttMessageEncoderWithPayload encoder, @NotNull final ByteBuffer payload,
+            @NotNull final Channel channel) {
+
+        final ByteBuf out;
+        try {
+            out = encoder.allocateBufferWithoutPayload(channel);
+        } catch (final Throwable t) {
+            throw new EncoderException(t);
+        }
+        try {
+            encoder.encodeWithoutPayload(out, channel);
+        } catch (final Throwable t) {
+            out.release();
+            throw new EncoderException(t);
+        }
+        return channel.alloc().compositeDirectBuffer(2).addComponents(true, out, Unpooled.wrappedBuffer(payload));
+    }
+
+    @NotNull
+    private static ByteBuf encodeWithTemplate(
+            @NotNull final MqttMessageEncoderWithTemplate encoder, @NotNull final ByteBuf template,
+            @NotNull final Channel channel) {
+
+        final ByteBuf out;
+        try {
+            out = encoder.allocateBufferWithoutTemplate(channel);
+        } catch (final Throwable t) {
+            throw new EncoderException(t);
+        }
+        try {
+            encoder.encodeWithoutTemplate(out, channel);
+            return channel.alloc().compositeDirectBuffer(2).addComponents(true, out, template.retainedDuplicate());
+        } catch (final Throwable t) {
+            out.release();
+            throw new EncoderException(t);
+        }
+    }
+
     @Override
     protected ByteBuf allocateBuffer(
             final ChannelHandlerContext ctx, final MqttMessage message, final boolean preferDirect) {
@@ -52,6 +147,7 @@ public class MqttEncoder extends MessageToByteEncoder<MqttMessage> {
     @Override
     protected void encode(final ChannelHandlerContext ctx, final MqttMessage message, final ByteBuf out) {
         message.getEncoder().encode(out, ctx.channel());
+        MqttClientData.from(ctx.channel()).getMetrics().onEncoded(message.getType(), out.readableBytes());
     }
 
 }
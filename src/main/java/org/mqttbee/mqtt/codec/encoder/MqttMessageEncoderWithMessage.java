@@ -49,12 +49,26 @@ public abstract class MqttMessageEncoderWithMessage<M extends MqttMessage>
     @NotNull
     @Override
     public ByteBuf allocateBuffer(@NotNull final Channel channel) {
+        return allocateBuffer(channel, 0);
+    }
+
+    /**
+     * Allocates a byte buffer with the correct size for the MQTT message without the given amount of bytes which are
+     * written separately.
+     *
+     * @param channel        the channel where the allocated byte buffer will be written to.
+     * @param separateLength the amount of bytes of the MQTT message which are written separately.
+     * @return the allocated byte buffer.
+     */
+    @NotNull
+    protected ByteBuf allocateBuffer(@NotNull final Channel channel, final int separateLength) {
         final int maximumPacketSize = MqttServerConnectionData.getMaximumPacketSize(channel);
         final int encodedLength = encodedLength(maximumPacketSize);
         if (encodedLength < 0) {
             throw new MqttMaximumPacketSizeExceededException(message, maximumPacketSize);
         }
-        return channel.alloc().ioBuffer(encodedLength, encodedLength);
+        final int length = encodedLength - separateLength;
+        return channel.alloc().ioBuffer(length, length);
     }
 
     @Override
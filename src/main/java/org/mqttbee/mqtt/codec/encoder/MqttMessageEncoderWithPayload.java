@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.codec.encoder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoder for a MQTT message with a payload which can be written separately instead of being copied into the encoded
+ * byte buffer.
+ *
+ * @author Silvio Giebl
+ */
+public interface MqttMessageEncoderWithPayload extends MqttMessageEncoder {
+
+    /**
+     * @return the payload of the MQTT message or null if it does not have a payload.
+     */
+    @Nullable
+    ByteBuffer getPayload();
+
+    /**
+     * Encodes the given MQTT message without its payload.
+     *
+     * @param out     the byte buffer to encode to.
+     * @param channel the channel where the given byte buffer will be written to.
+     */
+    void encodeWithoutPayload(@NotNull ByteBuf out, @NotNull Channel channel);
+
+    /**
+     * Allocates a byte buffer with the correct size for the given MQTT message without its payload.
+     *
+     * @param channel the channel where the allocated byte buffer will be written to.
+     * @return the allocated byte buffer.
+     */
+    @NotNull
+    ByteBuf allocateBufferWithoutPayload(@NotNull Channel channel);
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.codec.encoder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.annotations.Nullable;
+
+/**
+ * Encoder for a MQTT message whose connection independent end is encoded once into a template which is shared by all
+ * connections the MQTT message is written to. Only the connection specific header is encoded per connection.
+ *
+ * @author Silvio Giebl
+ */
+public interface MqttMessageEncoderWithTemplate extends MqttMessageEncoder {
+
+    /**
+     * Returns the template of the MQTT message if it can be used for the given channel.
+     *
+     * @param channel the channel where the MQTT message will be written to.
+     * @return the template or null if the MQTT message does not have a template or it can not be used for the
+     *         channel.
+     */
+    @Nullable
+    ByteBuf getTemplate(@NotNull Channel channel);
+
+    /**
+     * Encodes the given MQTT message without the part contained in its template.
+     *
+     * @param out     the byte buffer to encode to.
+     * @param channel the channel where the given byte buffer will be written to.
+     */
+    void encodeWithoutTemplate(@NotNull ByteBuf out, @NotNull Channel channel);
+
+    /**
+     * Allocates a byte buffer with the correct size for the given MQTT message without the part contained in its
+     * template.
+     *
+     * @param channel the channel where the allocated byte buffer will be written to.
+     * @return the allocated byte buffer.
+     */
+    @NotNull
+    ByteBuf allocateBufferWithoutTemplate(@NotNull Channel channel);
+
+}
@@ -20,8 +20,10 @@ package org.mqttbee.mqtt.codec.encoder.mqtt3;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import org.mqttbee.annotations.NotNull;
+import org.mqttbee.annotations.Nullable;
 import org.mqttbee.api.mqtt.datatypes.MqttQoS;
 import org.mqttbee.api.mqtt.mqtt3.message.Mqtt3MessageType;
+import org.mqttbee.mqtt.codec.encoder.MqttMessageEncoderWithPayload;
 import org.mqttbee.mqtt.codec.encoder.provider.MqttPublishEncoderProvider;
 import org.mqttbee.mqtt.codec.encoder.provider.MqttWrappedMessageEncoderProvider;
 import org.mqttbee.mqtt.codec.encoder.provider.MqttWrappedMessageEncoderProvider.ThreadLocalMqttWrappedMessageEncoderProvider;
@@ -34,7 +36,8 @@ import java.nio.ByteBuffer;
 /**
  * @author Silvio Giebl
  */
-public class Mqtt3PublishEncoder extends Mqtt3WrappedMessageEncoder<MqttPublish, MqttPublishWrapper> {
+public class Mqtt3PublishEncoder extends Mqtt3WrappedMessageEncoder<MqttPublish, MqttPublishWrapper>
+        implements MqttMessageEncoderWithPayload {
 
     private static final MqttPublishEncoderProvider WRAPPER_PROVIDER =
             new MqttPublishEncoderProvider(Mqtt3PubAckEncoder.PROVIDER, Mqtt3PubRecEncoder.PROVIDER);
@@ -63,9 +66,27 @@ public class Mqtt3PublishEncoder extends Mqtt3WrappedMessageEncoder<MqttPublish,
 
     @Override
     public void encode(@NotNull final ByteBuf out, @NotNull final Channel channel) {
+        encodeWithoutPayload(out, channel);
+        encodePayload(out);
+    }
+
+    @Override
+    public void encodeWithoutPayload(@NotNull final ByteBuf out, @NotNull final Channel channel) {
         encodeFixedHeader(out);
         encodeVariableHeader(out);
-        encodePayload(out);
+    }
+
+    @Nullable
+    @Override
+    public ByteBuffer getPayload() {
+        return wrapped.getRawPayload();
+    }
+
+    @NotNull
+    @Override
+    public ByteBuf allocateBufferWithoutPayload(@NotNull final Channel channel) {
+        final ByteBuffer payload = getPayload();
+        return allocateBuffer(channel, (payload == null) ? 0 : payload.remaining());
     }
 
     private void encodeFixedHeader(@NotNull final ByteBuf out) {
@@ -19,12 +19,16 @@ package org.mqttbee.mqtt.codec.encoder.mqtt5;
 
 import com.google.common.primitives.ImmutableIntArray;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import org.mqttbee.annotations.NotNull;
+import org.mqttbee.annotations.Nullable;
 import org.mqttbee.api.mqtt.datatypes.MqttQoS;
 import org.mqttbee.api.mqtt.mqtt5.message.Mqtt5MessageType;
 import org.mqttbee.mqtt.MqttServerConnectionData;
 import org.mqttbee.mqtt.codec.encoder.MqttMessageEncoder;
+import org.mqttbee.mqtt.codec.encoder.MqttMessageEncoderWithPayload;
+import org.mqttbee.mqtt.codec.encoder.MqttMessageEncoderWithTemplate;
 import org.mqttbee.mqtt.codec.encoder.provider.MqttMessageWrapperEncoderApplier;
 import org.mqttbee.mqtt.codec.encoder.provider.MqttPublishEncoderProvider;
 import org.mqttbee.mqtt.codec.encoder.provider.MqttWrappedMessageEncoderProvider;
@@ -93,6 +97,31 @@ public class Mqtt5PublishEncoder extends Mqtt5WrappedMessageEncoder<MqttPublish,
         encodeNullableProperty(CORRELATION_DATA, message.getRawCorrelationData(), out);
     }
 
+    /**
+     * Encodes the connection independent properties and the payload of the given PUBLISH message into a template which
+     * can be shared by all connections the PUBLISH message is written to.
+     * <p>
+     * The Topic Name, the Packet Identifier and the Topic Alias are not part of the template as they depend on the
+     * connection.
+     *
+     * @param publish the PUBLISH message.
+     * @return the template which contains the properties followed by the payload.
+     */
+    @NotNull
+    public static ByteBuf encodeTemplate(@NotNull final MqttPublish publish) {
+        final Mqtt5PublishEncoder encoder = new Mqtt5PublishEncoder();
+        encoder.apply(publish);
+        final ByteBuffer payload = publish.getRawPayload();
+        final int length = encoder.propertyLength() + ((payload == null) ? 0 : payload.remaining());
+        final ByteBuf template = PooledByteBufAllocator.DEFAULT.directBuffer(length, length);
+        encoder.encodeFixedProperties(template);
+        publish.getUserProperties().encode(template);
+        if (payload != null) {
+            template.writeBytes(payload.duplicate());
+        }
+        return template;
+    }
+
     @NotNull
     @Override
     public MqttMessageEncoder wrap(@NotNull final MqttPublishWrapper wrapper) {
@@ -101,7 +130,8 @@ public class Mqtt5PublishEncoder extends Mqtt5WrappedMessageEncoder<MqttPublish,
 
 
     public static class Mqtt5PublishWrapperEncoder extends
-            Mqtt5MessageWrapperEncoder<MqttPublishWrapper, MqttPublish, MqttPublishEncoderProvider, Mqtt5PublishEncoder> {
+            Mqtt5MessageWrapperEncoder<MqttPublishWrapper, MqttPublish, MqttPublishEncoderProvider, Mqtt5PublishEncoder>
+            implements MqttMessageEncoderWithPayload, MqttMessageEncoderWithTemplate {
 
         private static final MqttPublishEncoderProvider PROVIDER =
                 new MqttPublishEncoderProvider(Mqtt5PubAckEncoder.PROVIDER, Mqtt5PubRecEncoder.PROVIDER);
@@ -138,11 +168,56 @@ public class Mqtt5PublishEncoder extends Mqtt5WrappedMessageEncoder<MqttPublish,
 
         @Override
         public void encode(@NotNull final ByteBuf out, @NotNull final Channel channel) {
+            encodeWithoutPayload(out, channel);
+            encodePayload(out);
+        }
+
+        @Override
+        public void encodeWithoutPayload(@NotNull final ByteBuf out, @NotNull final Channel channel) {
             final int maximumPacketSize = MqttServerConnectionData.getMaximumPacketSize(channel);
 
             encodeFixedHeader(out, maximumPacketSize);
             encodeVariableHeader(out, maximumPacketSize);
-            encodePayload(out);
+        }
+
+        @Nullable
+        @Override
+        public ByteBuffer getPayload() {
+            return message.getWrapped().getRawPayload();
+        }
+
+        @NotNull
+        @Override
+        public ByteBuf allocateBufferWithoutPayload(@NotNull final Channel channel) {
+            final ByteBuffer payload = getPayload();
+            return allocateBuffer(channel, (payload == null) ? 0 : payload.remaining());
+        }
+
+        @Nullable
+        @Override
+        public ByteBuf getTemplate(@NotNull final Channel channel) {
+            final ByteBuf template = message.getWrapped().getRawTemplate();
+            if ((template == null) || mustOmitProperties(MqttServerConnectionData.getMaximumPacketSize(channel))) {
+                return null;
+            }
+            return template;
+        }
+
+        @Override
+        public void encodeWithoutTemplate(@NotNull final ByteBuf out, @NotNull final Channel channel) {
+            final int maximumPacketSize = MqttServerConnectionData.getMaximumPacketSize(channel);
+
+            encodeFixedHeader(out, maximumPacketSize);
+            encodeTopicAndPacketIdentifier(out);
+            MqttVariableByteInteger.encode(propertyLength(maximumPacketSize), out);
+            encodeWrapperProperties(out);
+        }
+
+        @NotNull
+        @Override
+        public ByteBuf allocateBufferWithoutTemplate(@NotNull final Channel channel) {
+            final ByteBuf template = message.getWrapped().getRawTemplate();
+            return allocateBuffer(channel, (template == null) ? 0 : template.readableBytes());
         }
 
         private void encodeFixedHeader(@NotNull final ByteBuf out, final int maximumPacketSize) {
@@ -163,6 +238,11 @@ public class Mqtt5PublishEncoder extends Mqtt5WrappedMessageEncoder<MqttPublish,
         }
 
         private void encodeVariableHeader(@NotNull final ByteBuf out, final int maximumPacketSize) {
+            encodeTopicAndPacketIdentifier(out);
+            encodeProperties(out, maximumPacketSize);
+        }
+
+        private void encodeTopicAndPacketIdentifier(@NotNull final ByteBuf out) {
             final MqttPublish publish = message.getWrapped();
 
             if ((message.getTopicAlias() == DEFAULT_NO_TOPIC_ALIAS) || (message.isNewTopicAlias())) {
@@ -174,8 +254,6 @@ public class Mqtt5PublishEncoder extends Mqtt5WrappedMessageEncoder<MqttPublish,
             if (publish.getQos() != MqttQoS.AT_MOST_ONCE) {
                 out.writeShort(message.getPacketIdentifier());
             }
-
-            encodeProperties(out, maximumPacketSize);
         }
 
         private void encodeProperties(@NotNull final ByteBuf out, final int maximumPacketSize) {
@@ -184,7 +262,10 @@ public class Mqtt5PublishEncoder extends Mqtt5WrappedMessageEncoder<MqttPublish,
 
             wrappedEncoder.encodeFixedProperties(out);
             encodeOmissibleProperties(maximumPacketSize, out);
+            encodeWrapperProperties(out);
+        }
 
+        private void encodeWrapperProperties(@NotNull final ByteBuf out) {
             encodeShortProperty(TOPIC_ALIAS, message.getTopicAlias(), DEFAULT_NO_TOPIC_ALIAS, out);
 
             final ImmutableIntArray subscriptionIdentifiers = message.getSubscriptionIdentifiers();
@@ -199,11 +199,13 @@ public class MqttUTF8StringImpl implements MqttUTF8String {
     /**
      * Returns the UTF-8 encoded representation as a byte array. Converts from the UTF-16 encoded representation if
      * necessary.
+     * <p>
+     * The returned byte array is not copied and must not be modified.
      *
      * @return the UTF-8 encoded byte array.
      */
     @NotNull
-    byte[] toBinary() {
+    public byte[] toBinary() {
         if (binary == null) {
             binary = encode(string);
             conversions++;
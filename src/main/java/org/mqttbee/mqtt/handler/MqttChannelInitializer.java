@@ -24,6 +24,7 @@ import io.reactivex.SingleEmitter;
 import org.mqttbee.annotations.NotNull;
 import org.mqttbee.api.mqtt.mqtt5.message.connect.connack.Mqtt5ConnAck;
 import org.mqttbee.mqtt.MqttClientData;
+import org.mqttbee.mqtt.advanced.MqttAdvancedClientData;
 import org.mqttbee.mqtt.codec.encoder.MqttEncoder;
 import org.mqttbee.mqtt.message.connect.MqttConnect;
 import org.mqttbee.mqtt.handler.auth.MqttAuthHandler;
@@ -31,6 +32,7 @@ import org.mqttbee.mqtt.handler.auth.MqttDisconnectOnAuthHandler;
 import org.mqttbee.mqtt.handler.connect.MqttConnectHandler;
 import org.mqttbee.mqtt.handler.disconnect.MqttDisconnectHandler;
 import org.mqttbee.mqtt.ioc.ChannelComponent;
+import org.mqttbee.mqtt.netty.ChannelAttributes;
 
 /**
  * Default channel initializer.
@@ -56,6 +58,11 @@ public class MqttChannelInitializer extends ChannelInitializer<SocketChannel> {
     protected void initChannel(final SocketChannel channel) {
         final ChannelComponent channelComponent = ChannelComponent.create(channel, clientData);
 
+        final MqttAdvancedClientData advanced = clientData.getRawAdvancedClientData();
+        if ((advanced != null) && advanced.isZeroCopyIncomingPayloads()) {
+            ChannelAttributes.retainIncomingPayloadBuffer(true, channel);
+        }
+
         final ChannelPipeline pipeline = channel.pipeline();
         pipeline.addLast(MqttEncoder.NAME, channelComponent.encoder());
 
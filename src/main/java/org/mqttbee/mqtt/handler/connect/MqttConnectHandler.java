@@ -48,6 +48,8 @@ import org.mqttbee.mqtt.ioc.ChannelScope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Handles the connection to a MQTT Server.
  * <ul>
@@ -80,10 +82,19 @@ public class MqttConnectHandler extends ChannelInboundHandlerWithTimeout {
         this.clientData = clientData;
     }
 
+    /**
+     * Writes the CONNECT message after the outgoing QoS flows of a previous run are recovered, so the recovered flows
+     * are part of the session before the server decides whether it is present.
+     */
     @Override
     public void channelActive(final ChannelHandlerContext ctx) {
         addClientData(ctx.channel());
-        writeConnect(ctx);
+        final CompletableFuture<Void> recovery = clientData.getSession().getRecovery();
+        if (recovery.isDone()) {
+            writeConnect(ctx);
+        } else {
+            recovery.whenCompleteAsync((ignored, throwable) -> writeConnect(ctx), ctx.executor());
+        }
         ctx.fireChannelActive();
     }
 
@@ -148,7 +159,8 @@ public class MqttConnectHandler extends ChannelInboundHandlerWithTimeout {
      * If it contains an Error Code, the channel is closed.
      * <p>
      * Otherwise it is validated. Then this handler is removed from the pipeline and the {@link MqttPingHandler} and
-     * {@link MqttDisconnectOnConnAckHandler} are added to the pipeline.
+     * {@link MqttDisconnectOnConnAckHandler} are added to the pipeline. The outgoing QoS flows of the session are
+     * resumed before the CONNACK is emitted.
      *
      * @param connAck the CONNACK message.
      * @param channel the channel.
@@ -171,17 +183,21 @@ public class MqttConnectHandler extends ChannelInboundHandlerWithTimeout {
                 assert clientConnectionData != null;
                 final int keepAlive = clientConnectionData.getKeepAlive();
                 if (keepAlive > 0) {
-                    pipeline.addAfter(MqttEncoder.NAME, MqttPingHandler.NAME, new MqttPingHandler(keepAlive));
+                    pipeline.addAfter(MqttEncoder.NAME, MqttPingHandler.NAME,
+                            new MqttPingHandler(keepAlive, clientData.getMetrics()));
                 }
 
                 pipeline.addAfter(
                         MqttPingHandler.NAME, MqttSubscriptionHandler.NAME, channelComponent.subscriptionHandler());
-                pipeline.addAfter(
-                        MqttPingHandler.NAME, MqttIncomingQoSHandler.NAME, channelComponent.incomingQoSHandler());
-                pipeline.addAfter(
-                        MqttPingHandler.NAME, MqttOutgoingQoSHandler.NAME, channelComponent.outgoingQoSHandler());
+                final MqttIncomingQoSHandler incomingQoSHandler = channelComponent.incomingQoSHandler();
+                pipeline.addAfter(MqttPingHandler.NAME, MqttIncomingQoSHandler.NAME, incomingQoSHandler);
+                final MqttOutgoingQoSHandler outgoingQoSHandler = channelComponent.outgoingQoSHandler();
+                pipeline.addAfter(MqttPingHandler.NAME, MqttOutgoingQoSHandler.NAME, outgoingQoSHandler);
                 pipeline.addLast(MqttDisconnectOnConnAckHandler.NAME, channelComponent.disconnectOnConnAckHandler());
 
+                incomingQoSHandler.resumeSession(connAck.isSessionPresent());
+                outgoingQoSHandler.resumeSession(connAck.isSessionPresent());
+
                 connAckEmitter.onSuccess(connAck);
             }
         }
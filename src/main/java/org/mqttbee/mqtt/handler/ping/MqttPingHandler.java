@@ -27,12 +27,14 @@ import org.mqttbee.mqtt.message.ping.MqttPingReq;
 import org.mqttbee.mqtt.message.ping.MqttPingResp;
 import org.mqttbee.mqtt.handler.util.ChannelInboundHandlerWithTimeout;
 import org.mqttbee.mqtt.ioc.ChannelScope;
+import org.mqttbee.mqtt.metrics.MqttClientMetrics;
 
 /**
  * MQTT Keep Alive Handling.
  * <ul>
  * <li>Sends a PINGREQ message when no write has been performed for the Keep Alive interval.</li>
  * <li>Disconnects or closes the channel if the PINGRESP message is not received in the timeout.</li>
+ * <li>Records the round trip time from the PINGREQ to the PINGRESP message if metrics are enabled.</li>
  * </ul>
  *
  * @author Silvio Giebl
@@ -45,9 +47,12 @@ public class MqttPingHandler extends ChannelInboundHandlerWithTimeout {
     private static final int PING_RESP_TIMEOUT = 60; // TODO configurable
 
     private final int keepAlive;
+    private final MqttClientMetrics metrics;
+    private long pingReqNanos;
 
-    public MqttPingHandler(final int keepAlive) {
+    public MqttPingHandler(final int keepAlive, @NotNull final MqttClientMetrics metrics) {
         this.keepAlive = keepAlive;
+        this.metrics = metrics;
     }
 
     @Override
@@ -60,6 +65,10 @@ public class MqttPingHandler extends ChannelInboundHandlerWithTimeout {
     public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
         if (msg instanceof MqttPingResp) {
             cancelTimeout();
+            if (pingReqNanos != 0) {
+                metrics.getPingRoundTripTime().record(System.nanoTime() - pingReqNanos);
+                pingReqNanos = 0;
+            }
         } else {
             ctx.fireChannelRead(msg);
         }
@@ -68,6 +77,9 @@ public class MqttPingHandler extends ChannelInboundHandlerWithTimeout {
     @Override
     public void userEventTriggered(final ChannelHandlerContext ctx, final Object evt) {
         if ((evt instanceof IdleStateEvent) && ((IdleStateEvent) evt).state() == IdleState.WRITER_IDLE) {
+            if (metrics.isEnabled()) {
+                pingReqNanos = System.nanoTime();
+            }
             ctx.writeAndFlush(MqttPingReq.INSTANCE).addListener(this);
         } else {
             ctx.fireUserEventTriggered(evt);
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.handler.publish;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive limit of the outgoing QoS 1 and QoS 2 flows in flight, capped by the Receive Maximum of the server.
+ * <p>
+ * The window is adjusted with additive increase and multiplicative decrease from the round trip times of the PUBLISH
+ * packets to their PUBACK or PUBREC. It shrinks by half if a round trip time exceeds {@link #QUEUEING_FACTOR} times the
+ * minimum round trip time, which indicates that publishes queue up at the server or on the path to it, or if an
+ * acknowledgement times out. Otherwise it grows by one per window of acknowledgements, and by one per acknowledgement
+ * until the first decrease (slow start), so it reaches the bandwidth delay product of a high latency link quickly.
+ * <p>
+ * The window shrinks at most once per round trip, as the acknowledgements of the publishes which were already in flight
+ * do not reflect the decrease yet. The minimum round trip time is the minimum of the last {@link
+ * #MIN_RTT_INTERVAL_NANOS}, so the window adapts to a changed path.
+ *
+ * @author Silvio Giebl
+ */
+@NotThreadSafe
+class MqttInFlightWindow {
+
+    static final int INITIAL_WINDOW = 16;
+    static final int MIN_WINDOW = 2;
+    private static final int QUEUEING_FACTOR = 2;
+    private static final long MIN_RTT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final int maxWindow;
+    private int window;
+    private int acks;
+    private boolean slowStart = true;
+    private long minRtt = Long.MAX_VALUE;
+    private long intervalMinRtt = Long.MAX_VALUE;
+    private long intervalStartNanos;
+    private long decreaseBlockedUntilNanos;
+    private boolean decreased;
+
+    MqttInFlightWindow(final int maxWindow) {
+        this.maxWindow = maxWindow;
+        window = Math.min(INITIAL_WINDOW, maxWindow);
+    }
+
+    /**
+     * @return the maximum amount of QoS 1 and QoS 2 flows in flight.
+     */
+    int get() {
+        return window;
+    }
+
+    /**
+     * Adjusts the window from the round trip time of a PUBLISH to its PUBACK or PUBREC.
+     *
+     * @param rttNanos the round trip time in nanoseconds.
+     * @param nowNanos the current time in nanoseconds.
+     */
+    void onRoundTrip(final long rttNanos, final long nowNanos) {
+        updateMinRtt(rttNanos, nowNanos);
+        if (rttNanos > QUEUEING_FACTOR * minRtt) {
+            decrease(nowNanos, rttNanos);
+        } else {
+            increase();
+        }
+    }
+
+    /**
+     * Shrinks the window as an acknowledgement was not received in the acknowledgement timeout.
+     *
+     * @param nowNanos the current time in nanoseconds.
+     */
+    void onLoss(final long nowNanos) {
+        decrease(nowNanos, (minRtt == Long.MAX_VALUE) ? 0 : minRtt);
+    }
+
+    private void updateMinRtt(final long rttNanos, final long nowNanos) {
+        if (minRtt == Long.MAX_VALUE) {
+            intervalStartNanos = nowNanos;
+        }
+        intervalMinRtt = Math.min(intervalMinRtt, rttNanos);
+        if ((nowNanos - intervalStartNanos) >= MIN_RTT_INTERVAL_NANOS) {
+            minRtt = intervalMinRtt;
+            intervalMinRtt = Long.MAX_VALUE;
+            intervalStartNanos = nowNanos;
+        } else {
+            minRtt = Math.min(minRtt, rttNanos);
+        }
+    }
+
+    private void increase() {
+        if (window >= maxWindow) {
+            return;
+        }
+        if (slowStart) {
+            window++;
+        } else if (++acks >= window) {
+            acks = 0;
+            window++;
+        }
+    }
+
+    private void decrease(final long nowNanos, final long holdNanos) {
+        if (decreased && ((nowNanos - decreaseBlockedUntilNanos) < 0)) {
+            return;
+        }
+        decreased = true;
+        decreaseBlockedUntilNanos = nowNanos + holdNanos;
+        window = Math.max(MIN_WINDOW, window >> 1);
+        slowStart = false;
+        acks = 0;
+    }
+
+}
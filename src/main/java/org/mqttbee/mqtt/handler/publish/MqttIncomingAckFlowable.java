@@ -26,7 +26,6 @@ import org.mqttbee.mqtt.MqttClientConnectionData;
 import org.mqttbee.mqtt.MqttClientData;
 import org.mqttbee.mqtt.MqttServerConnectionData;
 import org.mqttbee.mqtt.message.publish.MqttPublish;
-import org.mqttbee.mqtt.ioc.ChannelComponent;
 import org.reactivestreams.Subscriber;
 
 /**
@@ -44,16 +43,23 @@ public class MqttIncomingAckFlowable extends Flowable<Mqtt5PublishResult> {
         this.clientData = clientData;
     }
 
+    /**
+     * Hands the publishes to the outgoing publish service of the session. If publishes are buffered while disconnected,
+     * the flowable may also be subscribed while the client is not connected. Its publishes are then requested when
+     * the client connects or buffered in the offline publish queue after a connection was closed.
+     */
     @Override
     protected void subscribeActual(final Subscriber<? super Mqtt5PublishResult> s) {
         final MqttClientConnectionData clientConnectionData = clientData.getRawClientConnectionData(); // TODO temp
         final MqttServerConnectionData serverConnectionData = clientData.getRawServerConnectionData(); // TODO temp
-        if ((clientConnectionData == null) || (serverConnectionData == null)) {
+        if ((clientData.getSession().getOfflinePublishes() == null) &&
+                ((clientConnectionData == null) || (serverConnectionData == null))) {
+
             EmptySubscription.error(new NotConnectedException(), s);
         } else {
-            final ChannelComponent channelComponent = ChannelComponent.get(clientConnectionData.getChannel());
-            final MqttOutgoingPublishService outgoingPublishService = channelComponent.outgoingPublishService();
-            final MqttPublishFlowables publishFlowables = channelComponent.publishFlowables();
+            final MqttOutgoingPublishService outgoingPublishService =
+                    clientData.getSession().getOutgoingPublishService();
+            final MqttPublishFlowables publishFlowables = outgoingPublishService.getPublishFlowables();
 
             final MqttIncomingAckFlow incomingAckFlow = new MqttIncomingAckFlow(s, outgoingPublishService);
             s.onSubscribe(incomingAckFlow);
@@ -169,8 +169,11 @@ public abstract class MqttIncomingPublishFlow implements Emitter<Mqtt5SubscribeR
         return referenced.decrementAndGet();
     }
 
-    void setBlocking() {
-        blocking.set(true);
+    /**
+     * @return whether this flow was not blocking before.
+     */
+    boolean setBlocking() {
+        return !blocking.getAndSet(true);
     }
 
     private void schedule(@NotNull final Runnable runnable) {
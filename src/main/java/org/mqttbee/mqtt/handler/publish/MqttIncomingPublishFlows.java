@@ -22,6 +22,8 @@ import org.mqttbee.annotations.NotNull;
 import org.mqttbee.annotations.Nullable;
 import org.mqttbee.api.mqtt.mqtt5.message.subscribe.suback.Mqtt5SubAckReasonCode;
 import org.mqttbee.api.mqtt.mqtt5.message.unsubscribe.unsuback.Mqtt5UnsubAckReasonCode;
+import org.mqttbee.mqtt.MqttClientData;
+import org.mqttbee.mqtt.advanced.MqttAdvancedClientData;
 import org.mqttbee.mqtt.datatypes.MqttTopicFilterImpl;
 import org.mqttbee.mqtt.datatypes.MqttTopicImpl;
 import org.mqttbee.mqtt.message.publish.MqttPublishWrapper;
@@ -32,6 +34,7 @@ import org.mqttbee.mqtt.message.unsubscribe.MqttUnsubscribeWrapper;
 import org.mqttbee.mqtt.message.unsubscribe.unsuback.MqttUnsubAck;
 import org.mqttbee.mqtt.message.unsubscribe.unsuback.mqtt3.Mqtt3UnsubAckView;
 import org.mqttbee.mqtt.ioc.ChannelScope;
+import org.mqttbee.mqtt.metrics.MqttClientMetrics;
 import org.mqttbee.util.collections.ScNodeList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +43,12 @@ import javax.annotation.concurrent.NotThreadSafe;
 import javax.inject.Inject;
 
 /**
+ * Finds the flows matching incoming PUBLISH messages.
+ * <p>
+ * The subscription flows matching a topic are cached in a bounded least recently used cache, see {@link
+ * MqttTopicMatchCache}. Every subscribe, unsubscribe and cancellation clears the cache, so it never references flows
+ * which were unsubscribed or cancelled.
+ *
  * @author Silvio Giebl
  */
 @ChannelScope
@@ -52,12 +61,24 @@ public class MqttIncomingPublishFlows {
     private final MqttSubscriptionFlows subscriptionFlows;
     @NotNull
     private final ScNodeList<MqttGlobalIncomingPublishFlow>[] globalFlows;
+    @Nullable
+    private final MqttTopicMatchCache matchCache;
+    @NotNull
+    private final MqttClientMetrics metrics;
 
     @Inject
     @SuppressWarnings("unchecked")
-    MqttIncomingPublishFlows(@NotNull final MqttSubscriptionFlows subscriptionFlows) {
+    MqttIncomingPublishFlows(
+            @NotNull final MqttClientData clientData, @NotNull final MqttSubscriptionFlows subscriptionFlows) {
+
         this.subscriptionFlows = subscriptionFlows;
         globalFlows = new ScNodeList[MqttGlobalIncomingPublishFlow.TYPE_COUNT];
+
+        final MqttAdvancedClientData advanced = clientData.getRawAdvancedClientData();
+        final int matchCacheSize = (advanced == null) ? MqttAdvancedClientData.DEFAULT_TOPIC_MATCH_CACHE_SIZE :
+                advanced.getTopicMatchCacheSize();
+        matchCache = (matchCacheSize == 0) ? null : new MqttTopicMatchCache(matchCacheSize);
+        metrics = clientData.getMetrics();
     }
 
     public void subscribe(
@@ -75,6 +96,7 @@ public class MqttIncomingPublishFlows {
 
     void subscribe(@NotNull final MqttTopicFilterImpl topicFilter, @NotNull final MqttSubscriptionFlow flow) {
         subscriptionFlows.subscribe(topicFilter, flow);
+        clearMatchCache();
     }
 
     public void unsubscribe(@NotNull final MqttUnsubscribeWrapper unsubscribe, @NotNull final MqttUnsubAck unsubAck) {
@@ -90,10 +112,18 @@ public class MqttIncomingPublishFlows {
 
     void unsubscribe(@NotNull final MqttTopicFilterImpl topicFilter) {
         subscriptionFlows.unsubscribe(topicFilter, null);
+        clearMatchCache();
     }
 
     public void cancel(@NotNull final MqttSubscriptionFlow flow) {
         subscriptionFlows.cancel(flow);
+        clearMatchCache();
+    }
+
+    private void clearMatchCache() {
+        if (matchCache != null) {
+            matchCache.clear();
+        }
     }
 
     @NotNull
@@ -103,11 +133,19 @@ public class MqttIncomingPublishFlows {
         return matchingFlows;
     }
 
+    /**
+     * Adds the flows matching the given publish to the given list.
+     *
+     * @param publish       the publish.
+     * @param matchingFlows the list the matching flows are added to.
+     */
     void findMatching(
             @NotNull final MqttPublishWrapper publish, final ScNodeList<MqttIncomingPublishFlow> matchingFlows) {
 
         final MqttTopicImpl topic = publish.getWrapped().getTopic();
-        if (subscriptionFlows.findMatching(topic, matchingFlows)) {
+        final boolean subscriptionFound = (matchCache == null) ? subscriptionFlows.findMatching(topic, matchingFlows) :
+                findMatchingCached(topic, matchingFlows);
+        if (subscriptionFound) {
             addAndReference(matchingFlows, globalFlows[MqttGlobalIncomingPublishFlow.TYPE_ALL_SUBSCRIPTIONS]);
         }
         addAndReference(matchingFlows, globalFlows[MqttGlobalIncomingPublishFlow.TYPE_ALL_PUBLISHES]);
@@ -119,6 +157,41 @@ public class MqttIncomingPublishFlows {
         }
     }
 
+    private boolean findMatchingCached(
+            @NotNull final MqttTopicImpl topic, @NotNull final ScNodeList<MqttIncomingPublishFlow> matchingFlows) {
+
+        assert matchCache != null;
+        final byte[] binary = topic.toBinary();
+        final MqttTopicMatchCache.Match match = matchCache.get(binary);
+        if (match != null) {
+            metrics.getTopicMatchCacheHits().increment();
+            final MqttIncomingPublishFlow[] flows = match.flows;
+            for (final MqttIncomingPublishFlow flow : flows) {
+                addAndReference(matchingFlows, flow);
+            }
+            return match.subscriptionFound;
+        }
+        metrics.getTopicMatchCacheMisses().increment();
+
+        final ScNodeList<MqttIncomingPublishFlow> foundFlows = new ScNodeList<>();
+        final boolean subscriptionFound = subscriptionFlows.findMatching(topic, foundFlows);
+        int flowCount = 0;
+        for (final MqttIncomingPublishFlow ignored : foundFlows) {
+            flowCount++;
+        }
+        final MqttIncomingPublishFlow[] flows = new MqttIncomingPublishFlow[flowCount];
+        int i = 0;
+        for (final MqttIncomingPublishFlow flow : foundFlows) {
+            flows[i++] = flow;
+            matchingFlows.add(flow); // already referenced by the subscription flows
+        }
+
+        if (matchCache.put(binary, new MqttTopicMatchCache.Match(flows, subscriptionFound))) {
+            metrics.getTopicMatchCacheEvictions().increment();
+        }
+        return subscriptionFound;
+    }
+
     public void subscribeGlobal(@NotNull final MqttGlobalIncomingPublishFlow flow) {
         final int type = flow.getType();
         ScNodeList<MqttGlobalIncomingPublishFlow> globalFlow = globalFlows[type];
@@ -54,7 +54,7 @@ public class MqttIncomingPublishFlowsWithId extends MqttIncomingPublishFlows {
             @NotNull final MqttClientData clientData, @NotNull final MqttSubscriptionFlows flowsWithoutIds,
             @NotNull final MqttSubscriptionFlows flowsWithIds) {
 
-        super(flowsWithoutIds);
+        super(clientData, flowsWithoutIds);
 
         final MqttClientConnectionData clientConnectionData = clientData.getRawClientConnectionData();
         assert clientConnectionData != null;
@@ -110,10 +110,9 @@ public class MqttIncomingPublishFlowsWithId extends MqttIncomingPublishFlows {
         }
     }
 
-    @NotNull
     @Override
-    public ScNodeList<MqttIncomingPublishFlow> findMatching(@NotNull final MqttPublishWrapper publish) {
-        final ScNodeList<MqttIncomingPublishFlow> matchingFlows = new ScNodeList<>();
+    void findMatching(
+            @NotNull final MqttPublishWrapper publish, final ScNodeList<MqttIncomingPublishFlow> matchingFlows) {
 
         final ImmutableIntArray subscriptionIdentifiers = publish.getSubscriptionIdentifiers();
         if (!subscriptionIdentifiers.isEmpty()) {
@@ -127,8 +126,6 @@ public class MqttIncomingPublishFlowsWithId extends MqttIncomingPublishFlows {
         }
 
         super.findMatching(publish, matchingFlows);
-
-        return matchingFlows;
     }
 
 }
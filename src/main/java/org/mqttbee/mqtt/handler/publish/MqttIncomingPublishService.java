@@ -18,12 +18,15 @@
 package org.mqttbee.mqtt.handler.publish;
 
 import io.netty.channel.EventLoop;
+import io.netty.util.Recycler;
 import io.reactivex.Scheduler;
 import org.mqttbee.annotations.NotNull;
 import org.mqttbee.mqtt.MqttClientConnectionData;
 import org.mqttbee.mqtt.MqttClientData;
+import org.mqttbee.mqtt.advanced.MqttAdvancedClientData;
 import org.mqttbee.mqtt.message.publish.MqttPublishWrapper;
 import org.mqttbee.mqtt.ioc.ChannelScope;
+import org.mqttbee.mqtt.metrics.MqttClientMetrics;
 import org.mqttbee.util.collections.ScNodeList;
 import org.mqttbee.util.collections.SpscIterableChunkedArrayQueue;
 
@@ -44,6 +47,8 @@ public class MqttIncomingPublishService {
     private final EventLoop nettyEventLoop;
 
     private final SpscIterableChunkedArrayQueue<QueueEntry> queue;
+    private final boolean recycle;
+    private final MqttClientMetrics metrics;
     private final AtomicBoolean requestOnBlocking = new AtomicBoolean();
 
     private final Runnable publishRunnable;
@@ -64,17 +69,22 @@ public class MqttIncomingPublishService {
 
         final int receiveMaximum = clientConnectionData.getReceiveMaximum();
         queue = new SpscIterableChunkedArrayQueue<>(receiveMaximum, 64);
+        final MqttAdvancedClientData advanced = clientData.getRawAdvancedClientData();
+        recycle = (advanced != null) && advanced.isMessageRecycling();
+        metrics = clientData.getMetrics();
 
         publishRunnable = this::runPublish;
     }
 
     public boolean onPublish(@NotNull final MqttPublishWrapper publish) {
         if (!queue.canOffer()) {
+            publish.getWrapped().release();
             return false; // flow control error
         }
-        final ScNodeList<MqttIncomingPublishFlow> flows = incomingPublishFlows.findMatching(publish);
-        final QueueEntry entry = new QueueEntry(publish, flows);
+        final QueueEntry entry = QueueEntry.of(publish, recycle);
+        incomingPublishFlows.findMatching(publish, entry.flows);
         queue.offer(entry);
+        metrics.getIncomingPublishesQueued().increment();
         if (scheduled.compareAndSet(false, true)) {
             rxEventLoop.schedule(publishRunnable);
         }
@@ -102,6 +112,7 @@ public class MqttIncomingPublishService {
                 if (flow.isCancelled()) {
                     flowIt.remove(); // no need to dereference as the flow will stay cancelled
                 } else if (requested > 0) {
+                    entry.publish.getWrapped().retain(); // every delivered publish is released by its consumer
                     flow.onNext(entry.publish.getWrapped());
                     flowIt.remove();
                     if ((flow.dereference() == 0) && flow.isUnsubscribed()) {
@@ -112,11 +123,16 @@ public class MqttIncomingPublishService {
             if (acknowledge) {
                 if (entry.flows.isEmpty()) {
                     queueIt.remove();
+                    metrics.getIncomingPublishesQueued().decrement();
+                    // the payload is released after the acknowledgement, as the QoS control providers may read it
                     incomingQoSHandler.ack(entry.publish); // TODO temp
+                    entry.recycle();
                 } else {
                     acknowledge = false;
                     for (final MqttIncomingPublishFlow flow : entry.flows) {
-                        flow.setBlocking();
+                        if (flow.setBlocking()) {
+                            metrics.getIncomingFlowsBlocked().increment();
+                        }
                     }
                 }
             } else if (requestOnBlocking.get()) {
@@ -141,16 +157,40 @@ public class MqttIncomingPublishService {
     }
 
 
+    /**
+     * Entry of the queue of incoming publishes. A recyclable entry is taken from a {@link Recycler} on the Netty event
+     * loop and returned to it on the incoming publish event loop when it is removed from the queue. Its list of flows
+     * is empty at that point and is reused with the entry.
+     */
     private static class QueueEntry {
 
-        private final MqttPublishWrapper publish;
-        private final ScNodeList<MqttIncomingPublishFlow> flows;
+        private static final Recycler<QueueEntry> RECYCLER = new Recycler<QueueEntry>() {
+            @Override
+            protected QueueEntry newObject(final Handle<QueueEntry> handle) {
+                return new QueueEntry(handle);
+            }
+        };
+
+        @NotNull
+        static QueueEntry of(@NotNull final MqttPublishWrapper publish, final boolean recycle) {
+            final QueueEntry entry = recycle ? RECYCLER.get() : new QueueEntry(null);
+            entry.publish = publish;
+            return entry;
+        }
 
-        private QueueEntry(
-                @NotNull final MqttPublishWrapper publish, @NotNull final ScNodeList<MqttIncomingPublishFlow> flows) {
+        private final Recycler.Handle<QueueEntry> handle;
+        private MqttPublishWrapper publish;
+        private final ScNodeList<MqttIncomingPublishFlow> flows = new ScNodeList<>();
 
-            this.publish = publish;
-            this.flows = flows;
+        private QueueEntry(final Recycler.Handle<QueueEntry> handle) {
+            this.handle = handle;
+        }
+
+        void recycle() {
+            if (handle != null) {
+                publish = null;
+                handle.recycle(this);
+            }
         }
 
     }
@@ -21,6 +21,7 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import org.jctools.queues.SpscChunkedArrayQueue;
 import org.mqttbee.annotations.NotNull;
+import org.mqttbee.annotations.Nullable;
 import org.mqttbee.api.mqtt.mqtt5.advanced.qos1.Mqtt5IncomingQoS1ControlProvider;
 import org.mqttbee.api.mqtt.mqtt5.advanced.qos2.Mqtt5IncomingQoS2ControlProvider;
 import org.mqttbee.mqtt.MqttClientConnectionData;
@@ -31,6 +32,7 @@ import org.mqttbee.mqtt.message.publish.puback.MqttPubAckBuilder;
 import org.mqttbee.mqtt.message.publish.pubcomp.MqttPubCompBuilder;
 import org.mqttbee.mqtt.message.publish.pubrec.MqttPubRec;
 import org.mqttbee.mqtt.message.publish.pubrec.MqttPubRecBuilder;
+import org.mqttbee.mqtt.persistence.IncomingQoSFlowPersistence;
 import org.mqttbee.mqtt.message.publish.pubrel.MqttPubRel;
 import org.mqttbee.mqtt.ioc.ChannelScope;
 import org.mqttbee.util.collections.IntMap;
@@ -52,16 +54,21 @@ public class MqttIncomingQoSHandler extends ChannelInboundHandlerAdapter {
     private final IntMap<MqttPubRec> pubRecs;
     private final IntMap<MqttPubRel> pubRels;
     private final IntMap<Boolean> pubComps;
+    private final IncomingQoSFlowPersistence persistence; // null if PUBRECs are only kept in memory
 
     private final SpscChunkedArrayQueue<MqttPublishWrapper> ackQueue;
     private final Runnable ackRunnable = this::runAck;
     private final AtomicInteger wip = new AtomicInteger();
 
+    private final boolean flushAcksOnReadComplete;
+    private boolean unflushedAcks;
+
     private ChannelHandlerContext ctx;
 
     @Inject
     MqttIncomingQoSHandler(
-            final Provider<MqttIncomingPublishService> incomingPublishServiceLazy, final MqttClientData clientData) {
+            final Provider<MqttIncomingPublishService> incomingPublishServiceLazy, final MqttClientData clientData,
+            @Nullable final IncomingQoSFlowPersistence persistence) {
 
         final MqttClientConnectionData clientConnectionData = clientData.getRawClientConnectionData();
         assert clientConnectionData != null;
@@ -71,7 +78,10 @@ public class MqttIncomingQoSHandler extends ChannelInboundHandlerAdapter {
         pubRecs = new IntMap<>(receiveMaximum);
         pubRels = new IntMap<>(receiveMaximum);
         pubComps = new IntMap<>(receiveMaximum);
+        this.persistence = persistence;
         ackQueue = new SpscChunkedArrayQueue<>(64, receiveMaximum);
+        final MqttAdvancedClientData advanced = clientData.getRawAdvancedClientData();
+        flushAcksOnReadComplete = (advanced != null) && advanced.isFlushAcksOnReadComplete();
     }
 
     @Override
@@ -79,6 +89,18 @@ public class MqttIncomingQoSHandler extends ChannelInboundHandlerAdapter {
         this.ctx = ctx;
     }
 
+    /**
+     * Discards the PUBRECs of a previous session if the server did not resume it, so new QoS 2 PUBLISHes which reuse
+     * their packet identifiers are not mistaken for duplicates. Must be called on the event loop after the CONNACK.
+     *
+     * @param sessionPresent whether the server resumed the session.
+     */
+    public void resumeSession(final boolean sessionPresent) {
+        if (!sessionPresent && (persistence != null)) {
+            persistence.clear();
+        }
+    }
+
     @Override
     public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
         if (msg instanceof MqttPublishWrapper) {
@@ -90,6 +112,15 @@ public class MqttIncomingQoSHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
+    @Override
+    public void channelReadComplete(final ChannelHandlerContext ctx) {
+        if (unflushedAcks) {
+            unflushedAcks = false;
+            ctx.flush();
+        }
+        ctx.fireChannelReadComplete();
+    }
+
     private void handlePublish(@NotNull final ChannelHandlerContext ctx, @NotNull final MqttPublishWrapper publish) {
         switch (publish.getWrapped().getQos()) {
             case AT_MOST_ONCE:
@@ -122,7 +153,11 @@ public class MqttIncomingQoSHandler extends ChannelInboundHandlerAdapter {
     private void handlePublishQoS2(
             @NotNull final ChannelHandlerContext ctx, @NotNull final MqttPublishWrapper publish) {
 
-        final MqttPubRec pubRec = pubRecs.get(publish.getPacketIdentifier());
+        MqttPubRec pubRec = pubRecs.get(publish.getPacketIdentifier());
+        if ((pubRec == null) && (persistence != null)) {
+            // a PUBREC recovered by the persistence means the PUBLISH was already delivered before a restart
+            pubRec = persistence.get(publish.getPacketIdentifier()).getNow(null);
+        }
         if (pubRec == null) {
             handleNewPublishQoS2(ctx, publish);
         } else {
@@ -146,31 +181,78 @@ public class MqttIncomingQoSHandler extends ChannelInboundHandlerAdapter {
         final MqttPubRec pubRec = pubRecBuilder.build();
         pubRecs.put(pubRec.getPacketIdentifier(), pubRec);
         getIncomingPublishService().onPublish(publish);
-        ctx.writeAndFlush(pubRec);
+        if (persistence == null) {
+            writeAndFlushAck(ctx, pubRec);
+        } else {
+            persistence.store(pubRec).whenCompleteAsync((ignored, throwable) -> writePersistedPubRec(ctx, pubRec),
+                    ctx.executor());
+        }
+    }
+
+    /**
+     * Writes a PUBREC only after it is persisted, so the server does not release the PUBLISH before a crash could
+     * lose the PUBREC. The PUBREC is also written if persisting it failed, as the PUBLISH was already delivered.
+     */
+    private void writePersistedPubRec(@NotNull final ChannelHandlerContext ctx, @NotNull final MqttPubRec pubRec) {
+        if (pubRecs.get(pubRec.getPacketIdentifier()) == pubRec) {
+            ctx.writeAndFlush(pubRec);
+        }
     }
 
     private void handleDupPublishQoS2(
             @NotNull final ChannelHandlerContext ctx, @NotNull final MqttPublishWrapper publish,
             @NotNull final MqttPubRec pubRec) {
 
+        publish.getWrapped().release(); // already delivered
         if (!publish.isDup()) {
             // TODO
             return;
         }
-        ctx.writeAndFlush(pubRec);
+        writeAndFlushAck(ctx, pubRec);
     }
 
     private void handlePubRel(@NotNull final ChannelHandlerContext ctx, @NotNull final MqttPubRel pubRel) {
         final int packetIdentifier = pubRel.getPacketIdentifier();
-        pubRecs.remove(packetIdentifier);
-        if (pubComps.remove(packetIdentifier) == null) {
+        final MqttPubRec pubRec = pubRecs.remove(packetIdentifier);
+        if (persistence != null) {
+            persistence.discard(packetIdentifier);
+        }
+        if (pubRec == null) {
+            // the PUBLISH was delivered before a restart or reconnect, so no acknowledgement of the application is
+            // pending
+            writePubComp(ctx, pubRel);
+            flushAck(ctx);
+        } else if (pubComps.remove(packetIdentifier) == null) {
             pubRels.put(packetIdentifier, pubRel);
         } else {
             writePubComp(ctx, pubRel);
+            flushAck(ctx);
+        }
+    }
+
+    private void writeAndFlushAck(@NotNull final ChannelHandlerContext ctx, @NotNull final Object ack) {
+        ctx.write(ack);
+        flushAck(ctx);
+    }
+
+    /**
+     * Flushes the written acknowledgements immediately or, if acknowledgements are flushed on read complete, once
+     * after all messages of the current read are handled.
+     */
+    private void flushAck(@NotNull final ChannelHandlerContext ctx) {
+        if (flushAcksOnReadComplete) {
+            unflushedAcks = true;
+        } else {
             ctx.flush();
         }
     }
 
+    /**
+     * Acknowledges the given publish on the event loop after it was delivered to all matching flows. Its payload is
+     * released after the acknowledgement is built, so the QoS control providers can still read it.
+     *
+     * @param publishWrapper the delivered publish.
+     */
     void ack(@NotNull final MqttPublishWrapper publishWrapper) {
         ackQueue.offer(publishWrapper);
         if (wip.getAndIncrement() == 0) {
@@ -192,6 +274,7 @@ public class MqttIncomingQoSHandler extends ChannelInboundHandlerAdapter {
                     flush |= ackQoS2(publishToAck);
                     break;
             }
+            publishToAck.getWrapped().release();
         }
         if (flush) {
             ctx.flush();
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.handler.publish;
+
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.annotations.Nullable;
+import org.mqttbee.api.mqtt.exceptions.NotConnectedException;
+import org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5OfflinePublishOverflow;
+import org.mqttbee.mqtt.message.publish.MqttPublish;
+import org.mqttbee.mqtt.message.publish.MqttPublishResult;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Bounded buffer for the publishes which are handed to the {@link MqttOutgoingQoSHandler} of a closed connection.
+ * <p>
+ * The buffer is limited by an amount of publishes and an amount of bytes of their topics and payloads. If a publish
+ * does not fit into the buffer, the {@link Mqtt5OfflinePublishOverflow overflow policy} decides whether older
+ * publishes or the new publish are dropped or the producer is blocked. A publish always fits into an empty buffer.
+ * <p>
+ * The buffered publishes are polled by the outgoing QoS handler of the next connection after its CONNACK. The buffer
+ * is only accessed on the rare path of a closed connection, so it is guarded by its monitor.
+ *
+ * @author Silvio Giebl
+ */
+@ThreadSafe
+public class MqttOfflinePublishQueue {
+
+    private final int maximumPublishes;
+    private final long maximumBytes;
+    private final Mqtt5OfflinePublishOverflow overflow;
+    private final boolean recycle;
+
+    private final ArrayDeque<MqttPublishWithFlow> queue = new ArrayDeque<>();
+    private long bytes;
+
+    public MqttOfflinePublishQueue(
+            final int maximumPublishes, final long maximumBytes, @NotNull final Mqtt5OfflinePublishOverflow overflow,
+            final boolean recycle) {
+
+        this.maximumPublishes = maximumPublishes;
+        this.maximumBytes = maximumBytes;
+        this.overflow = overflow;
+        this.recycle = recycle;
+    }
+
+    /**
+     * Buffers the given publish or drops it according to the overflow policy.
+     *
+     * @param publishWithFlow the publish.
+     * @param mayBlock        whether the calling thread may be blocked. If false, the publish is buffered beyond the
+     *                        limits instead of blocking.
+     */
+    public void offer(@NotNull final MqttPublishWithFlow publishWithFlow, final boolean mayBlock) {
+        final long size = size(publishWithFlow.getPublish());
+        synchronized (this) {
+            while (!fits(size)) {
+                switch (overflow) {
+                    case DROP_OLDEST:
+                        drop(poll());
+                        break;
+                    case DROP_NEWEST:
+                        drop(publishWithFlow);
+                        return;
+                    case BLOCK:
+                        if (!mayBlock) {
+                            add(publishWithFlow, size);
+                            return;
+                        }
+                        try {
+                            wait();
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            drop(publishWithFlow);
+                            return;
+                        }
+                        break;
+                }
+            }
+            add(publishWithFlow, size);
+        }
+    }
+
+    /**
+     * @return the oldest buffered publish or null if the buffer is empty.
+     */
+    @Nullable
+    public synchronized MqttPublishWithFlow poll() {
+        final MqttPublishWithFlow publishWithFlow = queue.poll();
+        if (publishWithFlow != null) {
+            bytes -= size(publishWithFlow.getPublish());
+            if (overflow == Mqtt5OfflinePublishOverflow.BLOCK) {
+                notifyAll();
+            }
+        }
+        return publishWithFlow;
+    }
+
+    public synchronized boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    private boolean fits(final long size) {
+        return queue.isEmpty() || ((queue.size() < maximumPublishes) && (bytes + size <= maximumBytes));
+    }
+
+    private void add(@NotNull final MqttPublishWithFlow publishWithFlow, final long size) {
+        queue.offer(publishWithFlow);
+        bytes += size;
+    }
+
+    private void drop(@NotNull final MqttPublishWithFlow publishWithFlow) {
+        publishWithFlow.getIncomingAckFlow()
+                .onNext(MqttPublishResult.of(publishWithFlow.getPublish(), new NotConnectedException(),
+                        publishWithFlow.getTrace(), recycle));
+    }
+
+    private static long size(@NotNull final MqttPublish publish) {
+        final ByteBuffer payload = publish.getRawPayload();
+        return publish.getTopic().encodedLength() + ((payload == null) ? 0 : payload.remaining());
+    }
+
+}
@@ -20,53 +20,88 @@ package org.mqttbee.mqtt.handler.publish;
 import io.reactivex.Flowable;
 import io.reactivex.FlowableSubscriber;
 import io.reactivex.Scheduler;
+import org.jctools.queues.MpscUnboundedArrayQueue;
 import org.mqttbee.annotations.NotNull;
-import org.mqttbee.mqtt.MqttClientData;
-import org.mqttbee.mqtt.MqttServerConnectionData;
-import org.mqttbee.mqtt.ioc.ChannelScope;
 import org.reactivestreams.Subscription;
 
-import javax.inject.Inject;
-import javax.inject.Named;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Ingests the publishes of all publish flowables of a client without serializing their producers.
+ * <p>
+ * The service belongs to the {@link org.mqttbee.mqtt.MqttClientSession session} of the client, so the publish
+ * flowables and their credit survive reconnects. Every publish flowable is subscribed by its own producer which hands
+ * its publishes to the {@link MqttOutgoingQoSHandler} of the current connection directly on the thread of the
+ * producer. The amount of publishes in flight is limited by credit. The total credit is the receive maximum of the
+ * current connection. Each waiting producer is granted a fair share of the available credit, at least 1 and at most
+ * {@link #MAX_CREDIT_BATCH}, so a slow producer can not starve the others. The credit is returned via {@link
+ * #request(long)} when the results of the publishes are emitted. A producer which used up its credit waits in a queue
+ * until credit is returned. Credit is only granted by the thread which currently drains the waiting producers,
+ * so the requests to a publish flowable are serialized.
+ * <p>
+ * No credit is granted while the channel is not writable, so fast producers are bounded by the speed the channel
+ * is written with and not by the heap. Granting resumes when the write buffer falls below the low water mark. While
+ * the client is disconnected, credit is only granted if publishes are buffered in the offline publish queue.
+ * <p>
+ * Flows which are still in flight when the client reconnects keep their credit until their results are emitted, as
+ * they count towards the receive maximum of the server. Only the difference of the receive maximums of the previous
+ * and the new connection is added, see {@link #attach(MqttOutgoingQoSHandler, int)}.
+ *
  * @author Silvio Giebl
  */
-@ChannelScope
-public class MqttOutgoingPublishService implements FlowableSubscriber<MqttPublishWithFlow> {
-
-    private final MqttOutgoingQoSHandler outgoingQoSHandler;
-    private final Scheduler.Worker rxEventLoop;
+public class MqttOutgoingPublishService implements FlowableSubscriber<Flowable<MqttPublishWithFlow>> {
 
-    private Subscription subscription;
+    private static final int MAX_CREDIT_BATCH = 64;
 
-    private final int receiveMaximum;
-
-    @Inject
-    MqttOutgoingPublishService(
-        final MqttOutgoingQoSHandler outgoingQoSHandler, final MqttPublishFlowables publishFlowables,
-        @Named("outgoingPublish") final Scheduler.Worker rxEventLoop, final MqttClientData clientData) {
-
-        final MqttServerConnectionData serverConnectionData = clientData.getRawServerConnectionData();
-        assert serverConnectionData != null;
+    private final Scheduler.Worker rxEventLoop;
+    private final MqttPublishFlowables publishFlowables;
+    private final boolean offlinePublishes;
+
+    private volatile MqttOutgoingQoSHandler outgoingQoSHandler;
+    private int pubReceiveMaximum;
+
+    private final AtomicLong credit = new AtomicLong();
+    private final MpscUnboundedArrayQueue<PublishProducer> waitingProducers = new MpscUnboundedArrayQueue<>(64);
+    private final AtomicInteger wip = new AtomicInteger();
+
+    /**
+     * @param rxJavaScheduler  the scheduler the results of the publishes are emitted on.
+     * @param offlinePublishes whether publishes are buffered in the offline publish queue while disconnected.
+     */
+    public MqttOutgoingPublishService(@NotNull final Scheduler rxJavaScheduler, final boolean offlinePublishes) {
+        rxEventLoop = rxJavaScheduler.createWorker();
+        publishFlowables = new MqttPublishFlowables(rxJavaScheduler.createWorker());
+        this.offlinePublishes = offlinePublishes;
+        publishFlowables.subscribe(this);
+    }
 
+    /**
+     * Hands the publishes of the producers to the given outgoing QoS handler of a new connection. Must be called on its
+     * event loop after its session was resumed.
+     * <p>
+     * The credit is adjusted by the difference of the receive maximums of the previous and the new connection, so the
+     * flows which are still in flight keep their credit.
+     *
+     * @param outgoingQoSHandler the outgoing QoS handler of the new connection.
+     * @param pubReceiveMaximum  the receive maximum of the new connection for QoS 1 and 2 publishes.
+     */
+    public void attach(@NotNull final MqttOutgoingQoSHandler outgoingQoSHandler, final int pubReceiveMaximum) {
         this.outgoingQoSHandler = outgoingQoSHandler;
-        this.rxEventLoop = rxEventLoop;
-
-        receiveMaximum = MqttOutgoingQoSHandler.getPubReceiveMaximum(serverConnectionData.getReceiveMaximum());
-
-        Flowable.mergeDelayError(publishFlowables).subscribe(this);
+        outgoingQoSHandler.setWritableListener(this::drainWaitingProducers);
+        final int previousPubReceiveMaximum = this.pubReceiveMaximum;
+        this.pubReceiveMaximum = pubReceiveMaximum;
+        request(pubReceiveMaximum - previousPubReceiveMaximum);
     }
 
     @Override
     public void onSubscribe(final Subscription s) {
-        subscription = s;
-        s.request(receiveMaximum);
+        s.request(Long.MAX_VALUE);
     }
 
     @Override
-    public void onNext(final MqttPublishWithFlow publishWithFlow) {
-        outgoingQoSHandler.publish(publishWithFlow);
+    public void onNext(final Flowable<MqttPublishWithFlow> publishFlowable) {
+        publishFlowable.subscribe(new PublishProducer());
     }
 
     @Override
@@ -79,8 +114,15 @@ public class MqttOutgoingPublishService implements FlowableSubscriber<MqttPublis
         // TODO does not happen as the flowable is global and never completed
     }
 
+    /**
+     * Returns credit for the given amount of publishes whose results were emitted. A negative amount takes credit, for
+     * example for flows recovered from a persistence which did not take credit.
+     *
+     * @param amount the amount of credit to return.
+     */
     public void request(final long amount) {
-        subscription.request(amount);
+        credit.addAndGet(amount);
+        drainWaitingProducers();
     }
 
     @NotNull
@@ -88,4 +130,117 @@ public class MqttOutgoingPublishService implements FlowableSubscriber<MqttPublis
         return rxEventLoop;
     }
 
+    @NotNull
+    MqttPublishFlowables getPublishFlowables() {
+        return publishFlowables;
+    }
+
+    /**
+     * @return whether credit can be granted: the channel of the current connection is writable or the client is
+     * disconnected and publishes are buffered in the offline publish queue.
+     */
+    private boolean canGrant() {
+        final MqttOutgoingQoSHandler outgoingQoSHandler = this.outgoingQoSHandler;
+        if (outgoingQoSHandler == null) {
+            return false;
+        }
+        return outgoingQoSHandler.isClosed() ? offlinePublishes : outgoingQoSHandler.isWritable();
+    }
+
+    private void waitForCredit(@NotNull final PublishProducer producer) {
+        waitingProducers.offer(producer);
+        drainWaitingProducers();
+    }
+
+    private void drainWaitingProducers() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        while (true) {
+            long credit;
+            // only this loop decreases the credit, so it can not be taken concurrently
+            while (((credit = this.credit.get()) > 0) && canGrant()) {
+                final int waiting = waitingProducers.size();
+                final PublishProducer producer = waitingProducers.poll();
+                if (producer == null) {
+                    break;
+                }
+                final long granted = Math.max(1, Math.min(credit / Math.max(waiting, 1), MAX_CREDIT_BATCH));
+                this.credit.addAndGet(-granted);
+                final long unused = producer.grant(granted);
+                if (unused > 0) {
+                    this.credit.addAndGet(unused);
+                }
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                break;
+            }
+        }
+    }
+
+
+    /**
+     * Subscriber of one publish flowable which requests only as many publishes as it was granted credit for.
+     */
+    private class PublishProducer implements FlowableSubscriber<MqttPublishWithFlow> {
+
+        private Subscription subscription;
+        private final AtomicLong outstanding = new AtomicLong();
+        private volatile boolean done;
+
+        @Override
+        public void onSubscribe(final Subscription s) {
+            subscription = s;
+            waitForCredit(this);
+        }
+
+        @Override
+        public void onNext(final MqttPublishWithFlow publishWithFlow) {
+            // credit is only granted after a handler was attached, a closed handler forwards to the offline queue
+            final MqttOutgoingQoSHandler outgoingQoSHandler = MqttOutgoingPublishService.this.outgoingQoSHandler;
+            assert outgoingQoSHandler != null;
+            outgoingQoSHandler.publish(publishWithFlow);
+            if (outstanding.decrementAndGet() == 0) {
+                waitForCredit(this);
+            }
+        }
+
+        @Override
+        public void onError(final Throwable t) {
+            // TODO must not happen if operator onErrorComplete is added
+            terminate();
+        }
+
+        @Override
+        public void onComplete() {
+            terminate();
+        }
+
+        private void terminate() {
+            done = true;
+            final long unused = outstanding.getAndSet(0);
+            if (unused > 0) {
+                request(unused);
+            }
+        }
+
+        /**
+         * Grants credit to this producer. Must only be called while draining the waiting producers.
+         *
+         * @param amount the amount of credit.
+         * @return the amount of credit which is not used as this producer is already done.
+         */
+        long grant(final long amount) {
+            outstanding.addAndGet(amount);
+            if (done) {
+                return outstanding.getAndSet(0);
+            }
+            subscription.request(amount);
+            return 0;
+        }
+
+    }
+
 }
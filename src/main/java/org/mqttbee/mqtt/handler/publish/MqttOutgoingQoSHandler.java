@@ -18,24 +18,40 @@
 package org.mqttbee.mqtt.handler.publish;
 
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
-import org.jctools.queues.SpscChunkedArrayQueue;
+import org.jctools.queues.MpscChunkedArrayQueue;
 import org.mqttbee.annotations.NotNull;
+import org.mqttbee.annotations.Nullable;
 import org.mqttbee.api.mqtt.datatypes.MqttQoS;
+import org.mqttbee.api.mqtt.exceptions.AckTimeoutException;
+import org.mqttbee.api.mqtt.exceptions.NotConnectedException;
+import org.mqttbee.api.mqtt.exceptions.SessionExpiredException;
 import org.mqttbee.api.mqtt.mqtt5.Mqtt5ServerConnectionData;
+import org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5AckTimeoutPolicy;
+import org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5FlushStrategy;
+import org.mqttbee.api.mqtt.mqtt5.advanced.metrics.Mqtt5Histogram;
 import org.mqttbee.api.mqtt.mqtt5.advanced.qos1.Mqtt5OutgoingQoS1ControlProvider;
 import org.mqttbee.api.mqtt.mqtt5.advanced.qos2.Mqtt5OutgoingQoS2ControlProvider;
 import org.mqttbee.api.mqtt.mqtt5.exceptions.Mqtt5MessageException;
 import org.mqttbee.mqtt.MqttClientData;
+import org.mqttbee.mqtt.MqttClientSession;
 import org.mqttbee.mqtt.MqttServerConnectionData;
+import org.mqttbee.mqtt.MqttVersion;
 import org.mqttbee.mqtt.advanced.MqttAdvancedClientData;
+import org.mqttbee.mqtt.codec.encoder.mqtt3.Mqtt3PubRelEncoder;
+import org.mqttbee.mqtt.codec.encoder.mqtt5.Mqtt5PubRelEncoder;
+import org.mqttbee.mqtt.codec.encoder.provider.MqttPubRelEncoderProvider;
 import org.mqttbee.mqtt.datatypes.MqttTopicImpl;
+import org.mqttbee.mqtt.datatypes.MqttUserPropertiesImpl;
 import org.mqttbee.mqtt.message.publish.MqttPublish;
 import org.mqttbee.mqtt.message.publish.MqttPublishResult;
 import org.mqttbee.mqtt.message.publish.MqttPublishResult.MqttQoS1Result;
 import org.mqttbee.mqtt.message.publish.MqttPublishResult.MqttQoS2Result;
+import org.mqttbee.mqtt.message.publish.MqttPublishTrace;
 import org.mqttbee.mqtt.message.publish.MqttPublishWrapper;
+import org.mqttbee.mqtt.message.publish.MqttQoSMessage;
 import org.mqttbee.mqtt.message.publish.MqttTopicAliasMapping;
 import org.mqttbee.mqtt.message.publish.puback.MqttPubAck;
 import org.mqttbee.mqtt.message.publish.pubcomp.MqttPubComp;
@@ -44,45 +60,211 @@ import org.mqttbee.mqtt.message.publish.pubrel.MqttPubRel;
 import org.mqttbee.mqtt.message.publish.pubrel.MqttPubRelBuilder;
 import org.mqttbee.mqtt.handler.subscribe.MqttSubscriptionHandler;
 import org.mqttbee.mqtt.ioc.ChannelScope;
-import org.mqttbee.util.Ranges;
+import org.mqttbee.mqtt.metrics.MqttClientMetrics;
+import org.mqttbee.mqtt.persistence.OutgoingQoSFlowPersistence;
+import org.mqttbee.mqtt.persistence.PersistenceCallback;
+import org.mqttbee.util.IdAllocator;
 import org.mqttbee.util.UnsignedDataTypes;
-import org.mqttbee.util.collections.IntMap;
+import org.mqttbee.util.collections.IntTimerWheel;
+import org.mqttbee.util.collections.SparseIntMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 
 import static org.mqttbee.mqtt.message.publish.MqttPublishWrapper.*;
 
 /**
+ * Handles the outgoing QoS 0, 1 and 2 flows of a connection.
+ * <p>
+ * The state of the QoS 1 and 2 flows is kept in the {@link MqttClientSession} of the client, so it survives the
+ * connection. If the session is resumed by the server, the unacknowledged PUBLISH and PUBREL messages are resent in
+ * the order of their packet identifiers, see {@link #resumeSession(boolean)}. After the connection is closed, this
+ * handler does not access the session anymore. Further publishes are handed to the {@link MqttOfflinePublishQueue}
+ * which is drained by the handler of the next connection, or fail if publishes are not buffered while disconnected.
+ *
  * @author Silvio Giebl
  */
 @ChannelScope
 public class MqttOutgoingQoSHandler extends ChannelInboundHandlerAdapter {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(MqttOutgoingQoSHandler.class);
+
     public static final String NAME = "qos.outgoing";
 
+    private static final int MAX_PUBLISHES_PER_PASS = 64;
+    private static final int MAX_PUBLISHES_PER_THROUGHPUT_PASS = 1024;
+    private static final int THROUGHPUT_FLUSH_BYTES = 256 * 1024;
+    private static final int ADAPTIVE_FLUSH_BYTES = 64 * 1024;
+    private static final long ADAPTIVE_FLUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int ACK_TIMEOUT_TICKS = 16;
+    private static final int ACK_TIMEOUT_WHEEL_SIZE = 64;
+    private static final int PARKED = -2;
+
+    private static final PersistenceCallback DISCARD_CALLBACK = new PersistenceCallback() {
+        @Override
+        public void onPersisted(final int count) {
+        }
+
+        @Override
+        public void onFailed(final int count, @NotNull final Throwable cause) {
+            LOGGER.error("Discarding {} outgoing QoS flows from the persistence failed", count, cause);
+        }
+    };
+
     public static int getPubReceiveMaximum(final int receiveMaximum) {
         final int max = UnsignedDataTypes.UNSIGNED_SHORT_MAX_VALUE - MqttSubscriptionHandler.MAX_SUB_PENDING;
         return Math.min(receiveMaximum, max);
     }
 
-    private final SpscChunkedArrayQueue<MqttPublishWithFlow> publishQueue;
+    private final MpscChunkedArrayQueue<MqttPublishWithFlow> publishQueue;
     private final Runnable publishRunnable = this::runPublish;
     private final AtomicInteger wip = new AtomicInteger();
-    private final Ranges packetIdentifiers;
-    private final IntMap<MqttPublishWithFlow> qos1Or2Publishes;
+    private final int pubReceiveMaximum;
+    private final IdAllocator packetIdentifiers;
+    private final SparseIntMap<MqttPublishWithFlow> qos1Or2Publishes;
+    private final SparseIntMap<MqttPubRel> pubRels;
+    private final SparseIntMap<MqttQoS> quarantined;
+    private final MqttPubRelEncoderProvider pubRelEncoderProvider;
+    private final MqttClientSession session;
+    private final OutgoingQoSFlowPersistence persistence;
+
+    // publishes (and their wrappers) which are not written yet as their QoS 1 or 2 flow is not persisted yet
+    private final ArrayDeque<MqttPublishWithFlow> unpersistedPublishes = new ArrayDeque<>(MAX_PUBLISHES_PER_PASS);
+    private final ArrayDeque<MqttPublishWrapper> unpersistedWrappers = new ArrayDeque<>(MAX_PUBLISHES_PER_PASS);
+    private final ArrayList<MqttQoSMessage> storeBatch = new ArrayList<>(MAX_PUBLISHES_PER_PASS);
+    private final PersistenceCallback storeCallback = new PersistenceCallback() {
+        @Override
+        public void onPersisted(final int count) {
+            onStored(count, null);
+        }
+
+        @Override
+        public void onFailed(final int count, @NotNull final Throwable cause) {
+            onStored(count, cause);
+        }
+    };
+    private final int[] discardBatch;
+    private int discardCount;
+
+    // PUBRELs of the current read burst which are stored and written with a single batch on read complete
+    private final ArrayList<MqttQoSMessage> pubRelBatch = new ArrayList<>(MAX_PUBLISHES_PER_PASS);
+    // PUBRELs which are not written yet as they are not persisted yet
+    private final ArrayDeque<MqttPubRel> unpersistedPubRels = new ArrayDeque<>(MAX_PUBLISHES_PER_PASS);
+    private final PersistenceCallback pubRelStoreCallback = new PersistenceCallback() {
+        @Override
+        public void onPersisted(final int count) {
+            onPubRelsStored(count);
+        }
+
+        @Override
+        public void onFailed(final int count, @NotNull final Throwable cause) {
+            LOGGER.error("Storing {} PUBRELs to the persistence failed", count, cause);
+            onPubRelsStored(count);
+        }
+    };
+    // PUBRELs with default values by packet identifier, reused as they are immutable
+    private final MqttPubRel[] defaultPubRels;
+    private MqttPubRelBuilder pubRelBuilder;
+
+    // packet identifiers of the flows of the resumed session which are not resent yet as the receive maximum of the
+    // server is reached, resent one by one when other flows are completed
+    private int[] unresentFlows;
+    private int unresentIndex;
+    private int unresentCount;
+    private int pendingResends;
+
+    private final Runnable offlinePublishRunnable = this::runOfflinePublishes;
+    private final AtomicInteger offlineWip = new AtomicInteger();
+
+    // QoS 1 and 2 publishes waiting for a free packet identifier, the publishes from the offline publish queue first
+    private final ArrayDeque<MqttPublishWithFlow> parkedOfflinePublishes = new ArrayDeque<>();
+    private final ArrayDeque<MqttPublishWithFlow> parkedPublishes = new ArrayDeque<>();
+    private final Runnable parkedPublishRunnable = this::runParkedPublishes;
+    private boolean parkedPublishScheduled;
+
+    private final Mqtt5FlushStrategy flushStrategy;
+    private final int flushBytes;
+    private final long flushNanos;
+    private final boolean recycle;
+    private final MqttClientMetrics metrics;
+    private final int traceSampleInterval;
+    private final IntTimerWheel ackTimeouts;
+    private final long ackTimeoutTickNanos;
+    private final Mqtt5AckTimeoutPolicy ackTimeoutPolicy;
+    private final Runnable ackTimeoutRunnable = this::runAckTimeouts;
+    private final IntConsumer ackTimeoutConsumer = this::onAckTimeout;
+    private boolean ackTimeoutScheduled;
+    private final MqttInFlightWindow inFlightWindow;
+    private boolean unflushed;
+    private int unflushedBytes;
+    private long unflushedSinceNanos;
+    private boolean paused;
+    private volatile Runnable writableListener;
+    private volatile boolean closed;
 
     private ChannelHandlerContext ctx; // TODO temp
 
     @Inject
-    MqttOutgoingQoSHandler(final MqttClientData clientData) {
+    MqttOutgoingQoSHandler(final MqttClientData clientData, final OutgoingQoSFlowPersistence persistence) {
         final Mqtt5ServerConnectionData serverConnectionData = clientData.getRawServerConnectionData();
         assert serverConnectionData != null;
 
-        final int pubReceiveMaximum = getPubReceiveMaximum(serverConnectionData.getReceiveMaximum());
-        publishQueue = new SpscChunkedArrayQueue<>(64, pubReceiveMaximum);
-        packetIdentifiers = new Ranges(1, pubReceiveMaximum);
-        qos1Or2Publishes = new IntMap<>(pubReceiveMaximum);
+        pubReceiveMaximum = getPubReceiveMaximum(serverConnectionData.getReceiveMaximum());
+        // the credit of the outgoing publish service limits the queued publishes to the highest receive maximum of the
+        // connections of the session, as credit granted on a previous connection may still be used on this one
+        publishQueue =
+                new MpscChunkedArrayQueue<>(64, getPubReceiveMaximum(UnsignedDataTypes.UNSIGNED_SHORT_MAX_VALUE));
+        session = clientData.getSession();
+        packetIdentifiers = session.getPacketIdentifiers();
+        qos1Or2Publishes = session.getOutgoingPublishes();
+        pubRels = session.getOutgoingPubRels();
+        quarantined = session.getQuarantinedPacketIdentifiers();
+        pubRelEncoderProvider = (clientData.getMqttVersion() == MqttVersion.MQTT_5_0) ? Mqtt5PubRelEncoder.PROVIDER :
+                Mqtt3PubRelEncoder.PROVIDER;
+        this.persistence = persistence;
+        discardBatch = new int[pubReceiveMaximum];
+        defaultPubRels = new MqttPubRel[pubReceiveMaximum + 1];
+
+        final MqttAdvancedClientData advanced = clientData.getRawAdvancedClientData();
+        flushStrategy =
+                (advanced == null) ? MqttAdvancedClientData.DEFAULT_FLUSH_STRATEGY : advanced.getFlushStrategy();
+        recycle = (advanced != null) && advanced.isMessageRecycling();
+        metrics = clientData.getMetrics();
+        traceSampleInterval = (advanced == null) ? 0 : advanced.getPublishTraceSampleInterval();
+        if ((advanced != null) && advanced.isAckTimeout()) {
+            ackTimeoutTickNanos = Math.max(1, advanced.getAckTimeoutNanos() / ACK_TIMEOUT_TICKS);
+            ackTimeoutPolicy = advanced.getAckTimeoutPolicy();
+            ackTimeouts = new IntTimerWheel(getPubReceiveMaximum(UnsignedDataTypes.UNSIGNED_SHORT_MAX_VALUE),
+                    ACK_TIMEOUT_WHEEL_SIZE, currentAckTimeoutTick());
+        } else {
+            ackTimeoutTickNanos = 0;
+            ackTimeoutPolicy = MqttAdvancedClientData.DEFAULT_ACK_TIMEOUT_POLICY;
+            ackTimeouts = null;
+        }
+        inFlightWindow = ((advanced != null) && advanced.isAdaptiveInFlightWindow()) ?
+                new MqttInFlightWindow(pubReceiveMaximum) : null;
+        switch (flushStrategy) {
+            case THROUGHPUT_FIRST:
+                flushBytes = THROUGHPUT_FLUSH_BYTES;
+                flushNanos = Long.MAX_VALUE;
+                break;
+            case ADAPTIVE:
+                flushBytes = ADAPTIVE_FLUSH_BYTES;
+                flushNanos = ADAPTIVE_FLUSH_NANOS;
+                break;
+            default:
+                flushBytes = 0;
+                flushNanos = 0;
+        }
     }
 
     @Override
@@ -90,32 +272,441 @@ public class MqttOutgoingQoSHandler extends ChannelInboundHandlerAdapter {
         this.ctx = ctx;
     }
 
+    /**
+     * Resumes the outgoing QoS 1 and 2 flows of the session after the CONNACK was received. Must be called on the event
+     * loop after this handler was added.
+     * <p>
+     * If the server resumed the session, the unacknowledged flows are resent in the order of their packet identifiers:
+     * the PUBREL if it was already sent, otherwise the PUBLISH with the DUP flag. At most as many flows as the receive
+     * maximum of the server are resent at once, the others are resent one by one when flows are completed. Otherwise
+     * the flows can not be completed anymore and their results are emitted with a {@link SessionExpiredException}.
+     * <p>
+     * Flows which were recovered from the persistence after the PUBREL was stored have no PUBLISH anymore. Their PUBREL
+     * is resent or discarded with the other flows, but they have no result.
+     * <p>
+     * The packet identifiers of flows which failed with an acknowledgement timeout are released, see {@link
+     * #resumeQuarantined()}, or returned if the session expired.
+     * <p>
+     * Afterwards this handler drains the publishes buffered while the client was not connected and takes over the
+     * producers of the outgoing publish service of the session.
+     *
+     * @param sessionPresent whether the server resumed the session.
+     */
+    public void resumeSession(final boolean sessionPresent) {
+        if (sessionPresent) {
+            resumeQuarantined();
+            resendSession();
+        } else {
+            expireSession();
+        }
+        session.setOutgoingQoSHandler(this);
+        drainOfflinePublishes();
+        session.getOutgoingPublishService().attach(this, pubReceiveMaximum);
+    }
+
+    private void expireSession() {
+        if (!quarantined.isEmpty()) {
+            quarantined.forEach((qos, packetIdentifier) -> packetIdentifiers.returnId(packetIdentifier));
+            quarantined.clear();
+        }
+        if (qos1Or2Publishes.isEmpty() && pubRels.isEmpty()) {
+            return;
+        }
+        qos1Or2Publishes.forEach((publishWithFlow, packetIdentifier) -> {
+            remove(packetIdentifier);
+            publishWithFlow.getIncomingAckFlow()
+                    .onNext(MqttPublishResult.of(publishWithFlow.getPublish(), new SessionExpiredException(),
+                            publishWithFlow.getTrace(), recycle));
+        });
+        // the remaining PUBRELs were recovered without their PUBLISH
+        pubRels.forEach((pubRel, packetIdentifier) -> remove(packetIdentifier));
+        discardPersisted();
+    }
+
+    /**
+     * Releases the packet identifiers of the flows which failed with an acknowledgement timeout on a previous
+     * connection. The server does not keep the state of QoS 1 flows across connections, so their packet identifiers are
+     * returned. The server may still hold the packet identifiers of QoS 2 flows, so a PUBREL is sent for them and they
+     * are returned when the PUBCOMP is received.
+     */
+    private void resumeQuarantined() {
+        if (quarantined.isEmpty()) {
+            return;
+        }
+        quarantined.forEach((qos, packetIdentifier) -> {
+            if (qos == MqttQoS.EXACTLY_ONCE) {
+                ctx.write(new MqttPubRel(packetIdentifier, MqttPubRel.DEFAULT_REASON_CODE, null,
+                        MqttUserPropertiesImpl.NO_USER_PROPERTIES, pubRelEncoderProvider));
+                unflushed = true;
+            } else {
+                quarantined.remove(packetIdentifier);
+                packetIdentifiers.returnId(packetIdentifier);
+            }
+        });
+        flush();
+    }
+
+    private void resendSession() {
+        if (qos1Or2Publishes.isEmpty() && pubRels.isEmpty()) {
+            return;
+        }
+        int resumed = 0;
+        for (int packetIdentifier = nextSessionPacketIdentifier(0); packetIdentifier >= 0;
+             packetIdentifier = nextSessionPacketIdentifier(packetIdentifier + 1)) {
+
+            if (resumed < pubReceiveMaximum) {
+                resend(packetIdentifier);
+            } else {
+                if (unresentFlows == null) {
+                    unresentFlows = new int[qos1Or2Publishes.size() + pubRels.size()];
+                }
+                unresentFlows[unresentCount++] = packetIdentifier;
+            }
+            resumed++;
+        }
+        unflushed = true;
+        flush();
+    }
+
+    /**
+     * Resends the flow of the resumed session with the given packet identifier: the PUBREL if it was already sent,
+     * otherwise the PUBLISH with the DUP flag.
+     *
+     * @return whether the flow is still in the session and was resent.
+     */
+    private boolean resend(final int packetIdentifier) {
+        final MqttPubRel pubRel = pubRels.get(packetIdentifier);
+        if (pubRel != null) {
+            ctx.write(pubRel);
+        } else {
+            final MqttPublishWithFlow publishWithFlow = qos1Or2Publishes.get(packetIdentifier);
+            if (publishWithFlow == null) {
+                return false;
+            }
+            write(publishWithFlow, wrapPublish(ctx.channel(), publishWithFlow.getPublish(), packetIdentifier, true));
+            onSent(publishWithFlow);
+        }
+        startAckTimeout(packetIdentifier);
+        return true;
+    }
+
+    /**
+     * Resends one unresent flow of the resumed session for every flow which was completed since the last call, so the
+     * flows in flight do not exceed the receive maximum of the server.
+     */
+    private void resendPending() {
+        while ((pendingResends > 0) && (unresentIndex < unresentCount)) {
+            if (resend(unresentFlows[unresentIndex++])) {
+                pendingResends--;
+            }
+        }
+        pendingResends = 0;
+        if (unresentIndex == unresentCount) {
+            unresentFlows = null;
+            unresentIndex = 0;
+            unresentCount = 0;
+        }
+        unflushed = true;
+        flush();
+    }
+
+    /**
+     * @return the lowest packet identifier of a flow of the session, which has a PUBLISH or a PUBREL, greater than or
+     * equal to the given packet identifier or -1 if there is none.
+     */
+    private int nextSessionPacketIdentifier(final int fromPacketIdentifier) {
+        final int publish = qos1Or2Publishes.nextKey(fromPacketIdentifier);
+        final int pubRel = pubRels.nextKey(fromPacketIdentifier);
+        if ((publish < 0) || (pubRel < 0)) {
+            return Math.max(publish, pubRel);
+        }
+        return Math.min(publish, pubRel);
+    }
+
+    /**
+     * Queues the given publish to be handled on the event loop. May be called concurrently by multiple producers.
+     *
+     * @param publishWithFlow the publish.
+     */
     void publish(@NotNull final MqttPublishWithFlow publishWithFlow) {
-        publishQueue.offer(publishWithFlow);
+        if ((traceSampleInterval > 0) && (publishWithFlow.getTrace() == null) &&
+                (ThreadLocalRandom.current().nextInt(traceSampleInterval) == 0)) {
+            publishWithFlow.setTrace(new MqttPublishTrace(System.nanoTime()));
+        }
+        if (closed) {
+            forward(publishWithFlow, true);
+            return;
+        }
+        final boolean queued = publishQueue.offer(publishWithFlow);
+        assert queued : "the credit of the outgoing publish service must not exceed the capacity of the queue";
         if (wip.getAndIncrement() == 0) {
             ctx.executor().execute(publishRunnable);
         }
     }
 
+    /**
+     * Handles a batch of publishes sized by the flush strategy. The QoS 1 and 2 publishes of one pass are stored with a
+     * single {@link OutgoingQoSFlowPersistence#storeAll(java.util.List, PersistenceCallback) batch} and are written
+     * after the batch is persisted. QoS 0 publishes are queued behind unpersisted publishes to keep the order.
+     * <p>
+     * Draining pauses while the channel is not writable and resumes when it becomes writable again.
+     */
     private void runPublish() {
-        final int working = Math.min(wip.get(), 64);
+        if (closed) {
+            forwardQueued();
+            return;
+        }
+        if (!ctx.channel().isWritable()) {
+            paused = true;
+            flush();
+            return;
+        }
+        final int working = publishesPerPass(wip.get());
         for (int i = 0; i < working; i++) {
-            handlePublish(ctx, publishQueue.poll());
+            handlePublish(ctx, publishQueue.poll(), false);
+        }
+        storeAndWrite();
+        final int remaining = wip.addAndGet(-working);
+        if (remaining > 0) {
+            ctx.executor().execute(publishRunnable);
+        }
+        flushIfNecessary(remaining == 0);
+    }
+
+    private void storeAndWrite() {
+        if (storeBatch.isEmpty()) {
+            writePersisted(0, null);
+        } else {
+            // a stored flow may reuse the packet identifier of a flow which was completed outside of a read burst
+            discardPersisted();
+            persistence.storeAll(storeBatch, storeCallback);
+            storeBatch.clear();
+        }
+    }
+
+    /**
+     * Forwards the queued publishes as the connection is closed, see {@link #forward(MqttPublishWithFlow, boolean)}.
+     */
+    private void forwardQueued() {
+        final int working = wip.get();
+        for (int i = 0; i < working; i++) {
+            forward(publishQueue.poll(), false);
         }
-        ctx.flush();
         if (wip.addAndGet(-working) > 0) {
             ctx.executor().execute(publishRunnable);
         }
     }
 
-    private void handlePublish(
-            @NotNull final ChannelHandlerContext ctx, @NotNull final MqttPublishWithFlow publishWithFlow) {
+    /**
+     * Hands the given publish, which can not be sent anymore as the connection is closed, to the offline publish queue
+     * and notifies the handler of the current connection if the client is already reconnected. If publishes are not
+     * buffered while disconnected, the result of the publish is emitted with a {@link NotConnectedException}.
+     *
+     * @param publishWithFlow the publish.
+     * @param mayBlock        whether the calling thread may be blocked by the offline publish queue.
+     */
+    private void forward(@NotNull final MqttPublishWithFlow publishWithFlow, final boolean mayBlock) {
+        final MqttOfflinePublishQueue offlinePublishes = session.getOfflinePublishes();
+        if (offlinePublishes == null) {
+            publishWithFlow.getIncomingAckFlow()
+                    .onNext(MqttPublishResult.of(publishWithFlow.getPublish(), new NotConnectedException(),
+                            publishWithFlow.getTrace(), recycle));
+            return;
+        }
+        offlinePublishes.offer(publishWithFlow, mayBlock);
+        final MqttOutgoingQoSHandler outgoingQoSHandler = session.getOutgoingQoSHandler();
+        if (outgoingQoSHandler != null) {
+            outgoingQoSHandler.drainOfflinePublishes();
+        }
+    }
+
+    /**
+     * Schedules draining the offline publish queue on the event loop. May be called concurrently.
+     */
+    private void drainOfflinePublishes() {
+        if ((session.getOfflinePublishes() != null) && (offlineWip.getAndIncrement() == 0)) {
+            ctx.executor().execute(offlinePublishRunnable);
+        }
+    }
+
+    /**
+     * Handles a batch of publishes from the offline publish queue like publishes of this connection. They are not
+     * limited by the flush strategy, so the buffer is drained at full speed. Their flows already occupy credit of the
+     * outgoing publish service of the session.
+     */
+    private void runOfflinePublishes() {
+        final MqttOfflinePublishQueue offlinePublishes = session.getOfflinePublishes();
+        assert offlinePublishes != null;
+        final int working = offlineWip.get();
+        int handled = 0;
+        MqttPublishWithFlow publishWithFlow;
+        while (!closed && (handled < MAX_PUBLISHES_PER_THROUGHPUT_PASS) &&
+                ((publishWithFlow = offlinePublishes.poll()) != null)) {
 
+            handlePublish(ctx, publishWithFlow, true);
+            handled++;
+        }
+        if (handled > 0) {
+            storeAndWrite();
+        }
+        final boolean idle = handled < MAX_PUBLISHES_PER_THROUGHPUT_PASS;
+        if (!idle || (offlineWip.addAndGet(-working) > 0)) {
+            ctx.executor().execute(offlinePublishRunnable);
+        }
+        flushIfNecessary(idle && (wip.get() == 0));
+    }
+
+    /**
+     * Schedules admitting the parked publishes and resending the pending flows of the resumed session on the event loop
+     * after packet identifiers were returned, so the acknowledgements of a read burst are handled with a single batch.
+     */
+    private void scheduleParkedPublishes() {
+        if (!parkedPublishScheduled &&
+                ((pendingResends > 0) || !parkedOfflinePublishes.isEmpty() || !parkedPublishes.isEmpty())) {
+            parkedPublishScheduled = true;
+            ctx.executor().execute(parkedPublishRunnable);
+        }
+    }
+
+    /**
+     * Resends the pending flows of the resumed session, see {@link #resendPending()}, then assigns the free packet
+     * identifiers to the parked publishes in the order they were parked and writes them like a pass of {@link
+     * #runPublish()}.
+     */
+    private void runParkedPublishes() {
+        parkedPublishScheduled = false;
+        if (closed) {
+            return;
+        }
+        if (pendingResends > 0) {
+            resendPending();
+        }
+        int admitted = 0;
+        MqttPublishWithFlow publishWithFlow;
+        while (!isInFlightWindowFull() && ((publishWithFlow = parkedOfflinePublishes.peek()) != null)) {
+            final int packetIdentifier = packetIdentifiers.getId();
+            if (packetIdentifier < 0) {
+                break;
+            }
+            parkedOfflinePublishes.poll();
+            handlePublishQoS1Or2(ctx, publishWithFlow, packetIdentifier);
+            admitted++;
+        }
+        while (!isInFlightWindowFull() && ((publishWithFlow = parkedPublishes.peek()) != null)) {
+            final int packetIdentifier = packetIdentifiers.getId();
+            if (packetIdentifier < 0) {
+                break;
+            }
+            parkedPublishes.poll();
+            handlePublishQoS1Or2(ctx, publishWithFlow, packetIdentifier);
+            admitted++;
+        }
+        if (admitted > 0) {
+            storeAndWrite();
+        }
+    }
+
+    /**
+     * Forwards the parked publishes as the connection is closed, see {@link #forward(MqttPublishWithFlow, boolean)}.
+     */
+    private void forwardParked() {
+        MqttPublishWithFlow publishWithFlow;
+        while ((publishWithFlow = parkedOfflinePublishes.poll()) != null) {
+            forward(publishWithFlow, false);
+        }
+        while ((publishWithFlow = parkedPublishes.poll()) != null) {
+            forward(publishWithFlow, false);
+        }
+    }
+
+    private int publishesPerPass(final int backlog) {
+        switch (flushStrategy) {
+            case THROUGHPUT_FIRST:
+                return Math.min(backlog, MAX_PUBLISHES_PER_THROUGHPUT_PASS);
+            case ADAPTIVE:
+                // half of the backlog keeps other tasks of the event loop responsive under sustained load
+                return Math.min(backlog,
+                        Math.min(Math.max(backlog >> 1, MAX_PUBLISHES_PER_PASS), MAX_PUBLISHES_PER_THROUGHPUT_PASS));
+            default:
+                return Math.min(backlog, MAX_PUBLISHES_PER_PASS);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(final ChannelHandlerContext ctx) {
+        if (ctx.channel().isWritable()) {
+            if (paused) {
+                paused = false;
+                runPublish();
+            }
+            final Runnable writableListener = this.writableListener;
+            if (writableListener != null) {
+                writableListener.run();
+            }
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) {
+        closed = true;
+        if (session.getOutgoingQoSHandler() == this) {
+            session.setOutgoingQoSHandler(null);
+        }
+        forwardParked();
+        if (paused) {
+            paused = false;
+            runPublish();
+        }
+        final Runnable writableListener = this.writableListener;
+        if (writableListener != null) {
+            writableListener.run();
+        }
+        ctx.fireChannelInactive();
+    }
+
+    /**
+     * Sets the listener which is notified on the event loop when the channel becomes writable again or is closed, as
+     * publishes are then forwarded to the offline publish queue.
+     *
+     * @param writableListener the listener.
+     */
+    void setWritableListener(@NotNull final Runnable writableListener) {
+        this.writableListener = writableListener;
+    }
+
+    /**
+     * @return whether the connection is closed, so publishes are forwarded to the offline publish queue.
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return whether the channel is writable. May be called concurrently.
+     */
+    boolean isWritable() {
+        return ctx.channel().isWritable();
+    }
+
+    /**
+     * @param offline whether the publish is from the offline publish queue.
+     * @return the packet identifier of the publish, {@link MqttPublishWrapper#NO_PACKET_IDENTIFIER_QOS_0} for QoS 0 or
+     * {@link #PARKED} if no packet identifier is free or the in-flight window is full.
+     */
+    private int handlePublish(
+            @NotNull final ChannelHandlerContext ctx, @NotNull final MqttPublishWithFlow publishWithFlow,
+            final boolean offline) {
+
+        final MqttPublishTrace trace = publishWithFlow.getTrace();
+        if (trace != null) {
+            trace.onDequeued(System.nanoTime());
+        }
         if (publishWithFlow.getPublish().getQos() == MqttQoS.AT_MOST_ONCE) {
             handlePublishQoS0(ctx, publishWithFlow);
-        } else {
-            handlePublishQoS1Or2(ctx, publishWithFlow);
+            return NO_PACKET_IDENTIFIER_QOS_0;
         }
+        return handlePublishQoS1Or2(ctx, publishWithFlow, offline);
     }
 
     private void handlePublishQoS0(
@@ -123,24 +714,200 @@ public class MqttOutgoingQoSHandler extends ChannelInboundHandlerAdapter {
 
         final MqttPublishWrapper publishWrapper =
                 wrapPublish(ctx.channel(), publishWithFlow.getPublish(), NO_PACKET_IDENTIFIER_QOS_0, false);
-        ctx.write(publishWrapper)
-                .addListener(future -> publishWithFlow.getIncomingAckFlow()
-                        .onNext(new MqttPublishResult(publishWithFlow.getPublish(), null)));
+        unpersistedPublishes.offer(publishWithFlow);
+        unpersistedWrappers.offer(publishWrapper);
     }
 
-    private void handlePublishQoS1Or2(
-            @NotNull final ChannelHandlerContext ctx, @NotNull final MqttPublishWithFlow publishWithFlow) {
+    /**
+     * Parks the QoS 1 or 2 publish if no packet identifier is free, the adaptive in-flight window or the receive maximum
+     * is full or publishes are already parked before it, so the publishes keep their order. The publishes of this
+     * connection are additionally parked behind the parked publishes from the offline publish queue.
+     * <p>
+     * The parked publishes still occupy the credit of the outgoing publish service until their results are emitted,
+     * so the amount of parked publishes is bounded by the credit.
+     */
+    private int handlePublishQoS1Or2(
+            @NotNull final ChannelHandlerContext ctx, @NotNull final MqttPublishWithFlow publishWithFlow,
+            final boolean offline) {
 
-        final int packetIdentifier = packetIdentifiers.getId();
+        final boolean parked = offline ? !parkedOfflinePublishes.isEmpty() :
+                (!parkedOfflinePublishes.isEmpty() || !parkedPublishes.isEmpty());
+        final int packetIdentifier = (parked || isInFlightWindowFull()) ? -1 : packetIdentifiers.getId();
         if (packetIdentifier < 0) {
-            // TODO must not happen
-            return;
+            (offline ? parkedOfflinePublishes : parkedPublishes).offer(publishWithFlow);
+            return PARKED;
+        }
+        handlePublishQoS1Or2(ctx, publishWithFlow, packetIdentifier);
+        return packetIdentifier;
+    }
+
+    private void handlePublishQoS1Or2(
+            @NotNull final ChannelHandlerContext ctx, @NotNull final MqttPublishWithFlow publishWithFlow,
+            final int packetIdentifier) {
+
+        final MqttPublishTrace trace = publishWithFlow.getTrace();
+        if (trace != null) {
+            trace.onPacketIdentifier(System.nanoTime());
         }
 
         qos1Or2Publishes.put(packetIdentifier, publishWithFlow);
         final MqttPublishWrapper publishWrapper =
                 wrapPublish(ctx.channel(), publishWithFlow.getPublish(), packetIdentifier, false);
-        ctx.write(publishWrapper);
+        storeBatch.add(publishWrapper);
+        unpersistedPublishes.offer(publishWithFlow);
+        unpersistedWrappers.offer(publishWrapper);
+    }
+
+    private void onStored(final int count, @Nullable final Throwable cause) {
+        if (ctx.executor().inEventLoop()) {
+            writeStored(count, cause);
+        } else {
+            ctx.executor().execute(() -> writeStored(count, cause));
+        }
+    }
+
+    private void writeStored(final int count, @Nullable final Throwable cause) {
+        writePersisted(count, cause);
+        flushIfNecessary(wip.get() == 0);
+    }
+
+    /**
+     * Writes the queued publishes up to and including the given count of persisted QoS 1 or 2 publishes, followed by
+     * all QoS 0 publishes which are not queued behind another unpersisted publish. The written publishes are not
+     * flushed, see {@link #flushIfNecessary(boolean)}.
+     * <p>
+     * If the connection is already closed, the QoS 1 or 2 publishes are left in the session to be resent after a
+     * reconnect and the QoS 0 publishes are {@link #forward(MqttPublishWithFlow, boolean) forwarded}.
+     *
+     * @param count the count of QoS 1 or 2 publishes which were persisted in the order they were queued.
+     * @param cause the cause if persisting the publishes failed, otherwise null.
+     */
+    private void writePersisted(int count, @Nullable final Throwable cause) {
+        MqttPublishWrapper publishWrapper;
+        while ((publishWrapper = unpersistedWrappers.peek()) != null) {
+            final boolean isQoS0 = publishWrapper.getPacketIdentifier() == NO_PACKET_IDENTIFIER_QOS_0;
+            if (!isQoS0) {
+                if (count == 0) {
+                    break;
+                }
+                count--;
+            }
+            unpersistedWrappers.poll();
+            final MqttPublishWithFlow publishWithFlow = unpersistedPublishes.poll();
+            if (closed) {
+                if (isQoS0) {
+                    forward(publishWithFlow, false);
+                }
+            } else if (isQoS0) {
+                write(publishWithFlow, publishWrapper).addListener(future -> publishWithFlow.getIncomingAckFlow()
+                        .onNext(MqttPublishResult.of(publishWithFlow.getPublish(), null, publishWithFlow.getTrace(),
+                                recycle)));
+                onWritten(publishWithFlow.getPublish());
+            } else if (cause == null) {
+                write(publishWithFlow, publishWrapper);
+                onWritten(publishWithFlow.getPublish());
+                onSent(publishWithFlow);
+                startAckTimeout(publishWrapper.getPacketIdentifier());
+            } else {
+                remove(publishWrapper.getPacketIdentifier());
+                publishWithFlow.getIncomingAckFlow()
+                        .onNext(MqttPublishResult.of(publishWithFlow.getPublish(), cause, publishWithFlow.getTrace(),
+                                recycle));
+            }
+        }
+        if ((cause != null) && !closed) {
+            discardPersisted();
+        }
+    }
+
+    private void onWritten(@NotNull final MqttPublish publish) {
+        if (!unflushed) {
+            unflushed = true;
+            if ((flushNanos != 0) && (flushNanos != Long.MAX_VALUE)) {
+                unflushedSinceNanos = System.nanoTime();
+            }
+        }
+        final ByteBuffer payload = publish.getRawPayload();
+        unflushedBytes += publish.getTopic().encodedLength() + ((payload == null) ? 0 : payload.remaining());
+    }
+
+    @NotNull
+    private ChannelFuture write(
+            @NotNull final MqttPublishWithFlow publishWithFlow, @NotNull final MqttPublishWrapper publishWrapper) {
+
+        final MqttPublishTrace trace = publishWithFlow.getTrace();
+        if (trace == null) {
+            return ctx.write(publishWrapper);
+        }
+        trace.onWritten(System.nanoTime());
+        return ctx.write(publishWrapper).addListener(trace);
+    }
+
+    /**
+     * @return whether the flows in flight reached the adaptive in-flight window or the receive maximum of the server.
+     * The receive maximum can be reached by credit granted on a previous connection with a higher receive maximum.
+     */
+    private boolean isInFlightWindowFull() {
+        return qos1Or2Publishes.size() >= ((inFlightWindow == null) ? pubReceiveMaximum : inFlightWindow.get());
+    }
+
+    private void onSent(@NotNull final MqttPublishWithFlow publishWithFlow) {
+        if (metrics.isEnabled() || (inFlightWindow != null)) {
+            publishWithFlow.setSentNanos(System.nanoTime());
+        }
+    }
+
+    /**
+     * Adapts the in-flight window to the round trip time of a PUBLISH to its PUBACK or PUBREC. The PUBCOMP is not used
+     * as its latency includes a second round trip.
+     */
+    private void onRoundTrip(@Nullable final MqttPublishWithFlow publishWithFlow) {
+        if ((inFlightWindow == null) || (publishWithFlow == null)) {
+            return;
+        }
+        final long sentNanos = publishWithFlow.getSentNanos();
+        if (sentNanos != 0) {
+            final long nanos = System.nanoTime();
+            inFlightWindow.onRoundTrip(nanos - sentNanos, nanos);
+        }
+    }
+
+    private void onAcknowledged(
+            @NotNull final MqttPublishWithFlow publishWithFlow, @NotNull final Mqtt5Histogram latency) {
+
+        final long sentNanos = publishWithFlow.getSentNanos();
+        final MqttPublishTrace trace = publishWithFlow.getTrace();
+        if ((sentNanos == 0) && (trace == null)) {
+            return;
+        }
+        final long nanos = System.nanoTime();
+        if (sentNanos != 0) {
+            latency.record(nanos - sentNanos);
+        }
+        if (trace != null) {
+            trace.onAcknowledged(nanos);
+        }
+    }
+
+    /**
+     * Flushes the written publishes if no more publishes are queued, the channel is not writable or the byte or time
+     * budget of the flush strategy is exceeded.
+     *
+     * @param idle whether no more publishes are queued.
+     */
+    private void flushIfNecessary(final boolean idle) {
+        if (unflushed && (idle || (unflushedBytes >= flushBytes) || !ctx.channel().isWritable() ||
+                ((flushNanos != Long.MAX_VALUE) && ((System.nanoTime() - unflushedSinceNanos) >= flushNanos)))) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (unflushed) {
+            unflushed = false;
+            unflushedBytes = 0;
+            ctx.flush();
+        }
     }
 
     private MqttPublishWrapper wrapPublish(
@@ -166,6 +933,13 @@ public class MqttOutgoingQoSHandler extends ChannelInboundHandlerAdapter {
         return publish.wrap(packetIdentifier, isDup, topicAlias, isNewTopicAlias, DEFAULT_NO_SUBSCRIPTION_IDENTIFIERS);
     }
 
+    @Override
+    public void channelReadComplete(final ChannelHandlerContext ctx) {
+        discardPersisted();
+        writePubRels();
+        ctx.fireChannelReadComplete();
+    }
+
     @Override
     public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
         if (msg instanceof MqttPubAck) {
@@ -180,6 +954,11 @@ public class MqttOutgoingQoSHandler extends ChannelInboundHandlerAdapter {
     }
 
     private void handlePubAck(@NotNull final ChannelHandlerContext ctx, @NotNull final MqttPubAck pubAck) {
+        final int packetIdentifier = pubAck.getPacketIdentifier();
+        if (releaseQuarantined(packetIdentifier) ||
+                !isInFlight(packetIdentifier, MqttQoS.AT_LEAST_ONCE, false, "PUBACK")) {
+            return;
+        }
         final MqttAdvancedClientData advanced = MqttClientData.from(ctx.channel()).getRawAdvancedClientData();
         if ((advanced != null)) {
             final Mqtt5OutgoingQoS1ControlProvider control = advanced.getOutgoingQoS1ControlProvider();
@@ -188,12 +967,13 @@ public class MqttOutgoingQoSHandler extends ChannelInboundHandlerAdapter {
             }
         }
 
-        final MqttPublishWithFlow publishWithFlow = remove(pubAck.getPacketIdentifier());
-        if ((publishWithFlow == null) || (publishWithFlow.getPublish().getQos() != MqttQoS.AT_LEAST_ONCE)) {
-            // TODO
-            return;
-        }
-        publishWithFlow.getIncomingAckFlow().onNext(new MqttQoS1Result(publishWithFlow.getPublish(), null, pubAck));
+        final MqttPublishWithFlow publishWithFlow = remove(packetIdentifier);
+        assert publishWithFlow != null;
+        onRoundTrip(publishWithFlow);
+        onAcknowledged(publishWithFlow, metrics.getOutgoingQoS1Latency());
+        publishWithFlow.getIncomingAckFlow()
+                .onNext(MqttQoS1Result.of(publishWithFlow.getPublish(), null, pubAck, publishWithFlow.getTrace(),
+                        recycle));
     }
 
     private void handlePubRec(@NotNull final ChannelHandlerContext ctx, @NotNull final MqttPubRec pubRec) {
@@ -205,6 +985,11 @@ public class MqttOutgoingQoSHandler extends ChannelInboundHandlerAdapter {
     }
 
     private void handlePubRecError(@NotNull final ChannelHandlerContext ctx, @NotNull final MqttPubRec pubRec) {
+        final int packetIdentifier = pubRec.getPacketIdentifier();
+        if (releaseQuarantined(packetIdentifier) ||
+                !isInFlight(packetIdentifier, MqttQoS.EXACTLY_ONCE, false, "PUBREC")) {
+            return;
+        }
         final MqttAdvancedClientData advanced = MqttClientData.from(ctx.channel()).getRawAdvancedClientData();
         if ((advanced != null)) {
             final Mqtt5OutgoingQoS2ControlProvider control = advanced.getOutgoingQoS2ControlProvider();
@@ -213,32 +998,126 @@ public class MqttOutgoingQoSHandler extends ChannelInboundHandlerAdapter {
             }
         }
 
-        final MqttPublishWithFlow publishWithFlow = remove(pubRec.getPacketIdentifier());
-        if ((publishWithFlow == null) || (publishWithFlow.getPublish().getQos() != MqttQoS.EXACTLY_ONCE)) {
-            // TODO
-            return;
-        }
+        final MqttPublishWithFlow publishWithFlow = remove(packetIdentifier);
+        assert publishWithFlow != null;
         publishWithFlow.getIncomingAckFlow()
-                .onNext(new MqttPublishResult(publishWithFlow.getPublish(),
-                        new Mqtt5MessageException(pubRec, "PUBREC contained an Error Code")));
+                .onNext(MqttPublishResult.of(publishWithFlow.getPublish(),
+                        new Mqtt5MessageException(pubRec, "PUBREC contained an Error Code"), publishWithFlow.getTrace(),
+                        recycle));
     }
 
+    /**
+     * Queues the PUBREL for a successful PUBREC to be stored and written with the other PUBRELs of the current read
+     * burst, see {@link #writePubRels()}.
+     * <p>
+     * A late PUBREC for a flow which failed with an acknowledgement timeout is answered with a PUBREL right away, so
+     * the server releases the packet identifier. The packet identifier is returned when the PUBCOMP is received.
+     */
     private void handlePubRecSuccess(@NotNull final ChannelHandlerContext ctx, @NotNull final MqttPubRec pubRec) {
-        final MqttPubRelBuilder pubRelBuilder = new MqttPubRelBuilder(pubRec);
-
+        final int packetIdentifier = pubRec.getPacketIdentifier();
+        if (isQuarantined(packetIdentifier)) {
+            ctx.write(getDefaultPubRel(pubRec));
+            unflushed = true;
+            flush();
+            return;
+        }
+        final MqttPublishWithFlow publishWithFlow = qos1Or2Publishes.get(packetIdentifier);
+        if (!isInFlight(packetIdentifier, MqttQoS.EXACTLY_ONCE, false, "PUBREC")) {
+            return;
+        }
+        Mqtt5OutgoingQoS2ControlProvider control = null;
         final MqttAdvancedClientData advanced = MqttClientData.from(ctx.channel()).getRawAdvancedClientData();
         if ((advanced != null)) {
-            final Mqtt5OutgoingQoS2ControlProvider control = advanced.getOutgoingQoS2ControlProvider();
-            if (control != null) {
-                control.onPubRec(pubRec, pubRelBuilder);
+            control = advanced.getOutgoingQoS2ControlProvider();
+        }
+
+        final MqttPubRel pubRel;
+        if (control == null) {
+            pubRel = getDefaultPubRel(pubRec);
+        } else {
+            if (pubRelBuilder == null) {
+                pubRelBuilder = new MqttPubRelBuilder(pubRec);
+            } else {
+                pubRelBuilder.reset(pubRec);
             }
+            control.onPubRec(pubRec, pubRelBuilder);
+            pubRel = pubRelBuilder.build();
+        }
+        onRoundTrip(publishWithFlow);
+        pubRels.put(packetIdentifier, pubRel);
+        pubRelBatch.add(pubRel);
+        // restarted when the PUBREL is written, so the PUBREL is not resent before it is persisted
+        if (ackTimeouts != null) {
+            ackTimeouts.cancel(packetIdentifier);
+        }
+    }
+
+    @NotNull
+    private MqttPubRel getDefaultPubRel(@NotNull final MqttPubRec pubRec) {
+        final int packetIdentifier = pubRec.getPacketIdentifier();
+        if ((packetIdentifier <= 0) || (packetIdentifier >= defaultPubRels.length)) {
+            return new MqttPubRelBuilder(pubRec).build();
+        }
+        MqttPubRel pubRel = defaultPubRels[packetIdentifier];
+        if (pubRel == null) {
+            pubRel = new MqttPubRelBuilder(pubRec).build();
+            defaultPubRels[packetIdentifier] = pubRel;
+        }
+        return pubRel;
+    }
+
+    /**
+     * Stores all PUBRELs queued since the last call with a single batch. They are written with a single flush after
+     * the batch is persisted, see {@link #writeStoredPubRels(int)}, so the server never releases a publish which the
+     * client would resend after a crash.
+     */
+    private void writePubRels() {
+        if (pubRelBatch.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < pubRelBatch.size(); i++) {
+            unpersistedPubRels.offer((MqttPubRel) pubRelBatch.get(i));
+        }
+        persistence.storeAll(pubRelBatch, pubRelStoreCallback);
+        pubRelBatch.clear();
+    }
+
+    private void onPubRelsStored(final int count) {
+        if (ctx.executor().inEventLoop()) {
+            writeStoredPubRels(count);
+        } else {
+            ctx.executor().execute(() -> writeStoredPubRels(count));
         }
+    }
 
-        final MqttPubRel pubRel = pubRelBuilder.build();
-        ctx.writeAndFlush(pubRel);
+    /**
+     * Writes the given count of persisted PUBRELs in the order they were stored. If storing them failed, they are
+     * written anyway, as the flows are still in flight in the session.
+     * <p>
+     * If the connection is already closed, the PUBRELs are left in the session to be resent after a reconnect. PUBRELs
+     * whose flow was removed in the meantime are not written.
+     *
+     * @param count the count of PUBRELs which were persisted in the order they were queued.
+     */
+    private void writeStoredPubRels(final int count) {
+        for (int i = 0; i < count; i++) {
+            final MqttPubRel pubRel = unpersistedPubRels.poll();
+            final int packetIdentifier = pubRel.getPacketIdentifier();
+            if (!closed && (pubRels.get(packetIdentifier) == pubRel)) {
+                ctx.write(pubRel);
+                startAckTimeout(packetIdentifier);
+                unflushed = true;
+            }
+        }
+        flush();
     }
 
     private void handlePubComp(@NotNull final ChannelHandlerContext ctx, @NotNull final MqttPubComp pubComp) {
+        final int packetIdentifier = pubComp.getPacketIdentifier();
+        if (releaseQuarantined(packetIdentifier) ||
+                !isInFlight(packetIdentifier, MqttQoS.EXACTLY_ONCE, true, "PUBCOMP")) {
+            return;
+        }
         final MqttAdvancedClientData advanced = MqttClientData.from(ctx.channel()).getRawAdvancedClientData();
         if ((advanced != null)) {
             final Mqtt5OutgoingQoS2ControlProvider control = advanced.getOutgoingQoS2ControlProvider();
@@ -247,17 +1126,194 @@ public class MqttOutgoingQoSHandler extends ChannelInboundHandlerAdapter {
             }
         }
 
-        final MqttPublishWithFlow publishWithFlow = remove(pubComp.getPacketIdentifier());
-        if ((publishWithFlow == null) || (publishWithFlow.getPublish().getQos() != MqttQoS.EXACTLY_ONCE)) {
-            // TODO
+        final MqttPublishWithFlow publishWithFlow = remove(packetIdentifier);
+        if (publishWithFlow == null) {
+            // the flow was recovered from the persistence after the PUBREL was stored, so it has no result
             return;
         }
-        publishWithFlow.getIncomingAckFlow().onNext(new MqttQoS2Result(publishWithFlow.getPublish(), null, pubComp));
+        onAcknowledged(publishWithFlow, metrics.getOutgoingQoS2Latency());
+        publishWithFlow.getIncomingAckFlow()
+                .onNext(MqttQoS2Result.of(publishWithFlow.getPublish(), null, pubComp, publishWithFlow.getTrace(),
+                        recycle));
     }
 
+    /**
+     * Checks that an acknowledgement belongs to a flow in flight which expects it. Other acknowledgements, for example
+     * duplicates or acknowledgements for packet identifiers which were never used, are dropped.
+     *
+     * @param packetIdentifier the packet identifier of the acknowledgement.
+     * @param qos              the QoS of the flows which expect the acknowledgement.
+     * @param pubRelSent       whether the flows which expect the acknowledgement already sent their PUBREL.
+     * @param name             the name of the acknowledgement for logging.
+     * @return whether a flow in flight expects the acknowledgement.
+     */
+    private boolean isInFlight(
+            final int packetIdentifier, @NotNull final MqttQoS qos, final boolean pubRelSent,
+            @NotNull final String name) {
+
+        if ((packetIdentifier > 0) && (packetIdentifier <= session.getMaxPacketIdentifier())) {
+            if (pubRelSent) {
+                if (pubRels.get(packetIdentifier) != null) {
+                    return true;
+                }
+            } else if (pubRels.get(packetIdentifier) == null) {
+                final MqttPublishWithFlow publishWithFlow = qos1Or2Publishes.get(packetIdentifier);
+                if ((publishWithFlow != null) && (publishWithFlow.getPublish().getQos() == qos)) {
+                    return true;
+                }
+            }
+        }
+        LOGGER.warn("Dropped {} with packet identifier {} as no flow in flight expects it", name, packetIdentifier);
+        return false;
+    }
+
+    /**
+     * Removes the completed flow with the given packet identifier and returns the packet identifier to the allocator.
+     *
+     * @param packetIdentifier the packet identifier of the flow.
+     * @return the publish of the flow or null if it was not in flight or recovered without its publish.
+     */
+    @Nullable
     private MqttPublishWithFlow remove(final int packetIdentifier) {
+        final MqttPublishWithFlow publishWithFlow = qos1Or2Publishes.remove(packetIdentifier);
+        if ((pubRels.remove(packetIdentifier) == null) && (publishWithFlow == null)) {
+            return null;
+        }
         packetIdentifiers.returnId(packetIdentifier);
-        return qos1Or2Publishes.remove(packetIdentifier);
+        onRemoved(packetIdentifier);
+        return publishWithFlow;
+    }
+
+    /**
+     * Removes the flow with the given packet identifier which failed with an acknowledgement timeout, but keeps its
+     * packet identifier allocated, as the server may still use it. The packet identifier is returned when a late
+     * acknowledgement is received, see {@link #releaseQuarantined(int)}, or when the session ends.
+     *
+     * @param packetIdentifier the packet identifier of the flow.
+     * @return the publish of the flow or null if it was recovered without its publish.
+     */
+    @Nullable
+    private MqttPublishWithFlow quarantine(final int packetIdentifier) {
+        final MqttPublishWithFlow publishWithFlow = qos1Or2Publishes.remove(packetIdentifier);
+        final boolean pubRelSent = pubRels.remove(packetIdentifier) != null;
+        quarantined.put(packetIdentifier,
+                pubRelSent ? MqttQoS.EXACTLY_ONCE : Objects.requireNonNull(publishWithFlow).getPublish().getQos());
+        onRemoved(packetIdentifier);
+        return publishWithFlow;
+    }
+
+    private void onRemoved(final int packetIdentifier) {
+        if (ackTimeouts != null) {
+            ackTimeouts.cancel(packetIdentifier);
+        }
+        if (discardCount == discardBatch.length) {
+            discardPersisted();
+        }
+        discardBatch[discardCount++] = packetIdentifier;
+        if (unresentIndex < unresentCount) {
+            pendingResends++;
+        }
+        scheduleParkedPublishes();
+    }
+
+    private boolean isQuarantined(final int packetIdentifier) {
+        return (packetIdentifier > 0) && (packetIdentifier <= session.getMaxPacketIdentifier()) &&
+                (quarantined.get(packetIdentifier) != null);
+    }
+
+    /**
+     * Returns the packet identifier of a flow which failed with an acknowledgement timeout to the allocator, as a late
+     * acknowledgement for it was received.
+     *
+     * @param packetIdentifier the packet identifier of the acknowledgement.
+     * @return whether the packet identifier was quarantined.
+     */
+    private boolean releaseQuarantined(final int packetIdentifier) {
+        if (!isQuarantined(packetIdentifier)) {
+            return false;
+        }
+        quarantined.remove(packetIdentifier);
+        packetIdentifiers.returnId(packetIdentifier);
+        scheduleParkedPublishes();
+        return true;
+    }
+
+    private int currentAckTimeoutTick() {
+        return (int) (System.nanoTime() / ackTimeoutTickNanos);
+    }
+
+    /**
+     * Starts or restarts the acknowledgement timeout of the flow with the given packet identifier if acknowledgement
+     * timeouts are enabled. The deadline is between {@link #ACK_TIMEOUT_TICKS} and one more tick later.
+     */
+    private void startAckTimeout(final int packetIdentifier) {
+        if (ackTimeouts == null) {
+            return;
+        }
+        ackTimeouts.schedule(packetIdentifier, currentAckTimeoutTick() + ACK_TIMEOUT_TICKS + 1);
+        if (!ackTimeoutScheduled) {
+            ackTimeoutScheduled = true;
+            ctx.executor().schedule(ackTimeoutRunnable, ackTimeoutTickNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Advances the acknowledgement timeouts every tick while flows are waiting for an acknowledgement.
+     */
+    private void runAckTimeouts() {
+        assert ackTimeouts != null;
+        ackTimeoutScheduled = false;
+        if (closed) {
+            return;
+        }
+        ackTimeouts.advance(currentAckTimeoutTick(), ackTimeoutConsumer);
+        discardPersisted();
+        flush();
+        if (!ackTimeouts.isEmpty()) {
+            ackTimeoutScheduled = true;
+            ctx.executor().schedule(ackTimeoutRunnable, ackTimeoutTickNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void onAckTimeout(final int packetIdentifier) {
+        final MqttPublishWithFlow publishWithFlow = qos1Or2Publishes.get(packetIdentifier);
+        final MqttPubRel pubRel = pubRels.get(packetIdentifier);
+        if ((publishWithFlow == null) && (pubRel == null)) {
+            return;
+        }
+        if (inFlightWindow != null) {
+            inFlightWindow.onLoss(System.nanoTime());
+        }
+        if (ackTimeoutPolicy == Mqtt5AckTimeoutPolicy.RESEND) {
+            if (pubRel != null) {
+                ctx.write(pubRel);
+            } else {
+                write(publishWithFlow,
+                        wrapPublish(ctx.channel(), publishWithFlow.getPublish(), packetIdentifier, true));
+                onSent(publishWithFlow);
+            }
+            unflushed = true;
+            startAckTimeout(packetIdentifier);
+        } else {
+            quarantine(packetIdentifier);
+            if (publishWithFlow != null) {
+                publishWithFlow.getIncomingAckFlow()
+                        .onNext(MqttPublishResult.of(publishWithFlow.getPublish(), new AckTimeoutException(),
+                                publishWithFlow.getTrace(), recycle));
+            }
+        }
+    }
+
+    /**
+     * Discards all completed flows since the last call with a single batch. Called at the end of every read burst and
+     * acknowledgement timeout tick and before every batch of stored flows, so the discard of a packet identifier is
+     * always appended before a new flow which reuses it is stored, as both happen on the event loop.
+     */
+    private void discardPersisted() {
+        if (discardCount > 0) {
+            persistence.discardAll(discardBatch, discardCount, DISCARD_CALLBACK);
+            discardCount = 0;
+        }
     }
 
 }
@@ -21,12 +21,9 @@ import io.reactivex.Flowable;
 import io.reactivex.Scheduler;
 import io.reactivex.internal.util.BackpressureHelper;
 import org.mqttbee.annotations.NotNull;
-import org.mqttbee.mqtt.ioc.ChannelScope;
 import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
 
-import javax.inject.Inject;
-import javax.inject.Named;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -35,7 +32,6 @@ import java.util.concurrent.atomic.AtomicLong;
 /**
  * @author Silvio Giebl
  */
-@ChannelScope
 public class MqttPublishFlowables extends Flowable<Flowable<MqttPublishWithFlow>> implements Subscription, Runnable {
 
     private static final int MAX_CONCURRENT_PUBLISH_FLOWABLES = 100;
@@ -50,8 +46,7 @@ public class MqttPublishFlowables extends Flowable<Flowable<MqttPublishWithFlow>
     private final LinkedBlockingQueue<Flowable<MqttPublishWithFlow>> queue;
     private final AtomicInteger wip = new AtomicInteger();
 
-    @Inject
-    MqttPublishFlowables(@Named("outgoingPublishFlows") final Scheduler.Worker rxEventLoop) {
+    MqttPublishFlowables(@NotNull final Scheduler.Worker rxEventLoop) {
         this.rxEventLoop = rxEventLoop;
 
         queue = new LinkedBlockingQueue<>(MAX_CONCURRENT_PUBLISH_FLOWABLES);
@@ -17,8 +17,12 @@
 
 package org.mqttbee.mqtt.handler.publish;
 
+import io.reactivex.Emitter;
 import org.mqttbee.annotations.NotNull;
+import org.mqttbee.annotations.Nullable;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
 import org.mqttbee.mqtt.message.publish.MqttPublish;
+import org.mqttbee.mqtt.message.publish.MqttPublishTrace;
 
 /**
  * @author Silvio Giebl
@@ -26,10 +30,12 @@ import org.mqttbee.mqtt.message.publish.MqttPublish;
 public class MqttPublishWithFlow {
 
     private final MqttPublish publish;
-    private final MqttIncomingAckFlow incomingAckFlow;
+    private final Emitter<Mqtt5PublishResult> incomingAckFlow;
+    private long sentNanos;
+    private MqttPublishTrace trace;
 
     public MqttPublishWithFlow(
-            @NotNull final MqttPublish publish, @NotNull final MqttIncomingAckFlow incomingAckFlow) {
+            @NotNull final MqttPublish publish, @NotNull final Emitter<Mqtt5PublishResult> incomingAckFlow) {
 
         this.publish = publish;
         this.incomingAckFlow = incomingAckFlow;
@@ -40,9 +46,37 @@ public class MqttPublishWithFlow {
         return publish;
     }
 
+    /**
+     * @return the emitter of the result of the publish, usually the {@link MqttIncomingAckFlow} of its publish
+     * flowable.
+     */
     @NotNull
-    public MqttIncomingAckFlow getIncomingAckFlow() {
+    public Emitter<Mqtt5PublishResult> getIncomingAckFlow() {
         return incomingAckFlow;
     }
 
+    /**
+     * @return the time in nanoseconds when the publish was last written or 0 if it was not written or metrics are
+     * disabled.
+     */
+    public long getSentNanos() {
+        return sentNanos;
+    }
+
+    public void setSentNanos(final long sentNanos) {
+        this.sentNanos = sentNanos;
+    }
+
+    /**
+     * @return the trace of the stages of the publish or null if the publish is not sampled for tracing.
+     */
+    @Nullable
+    public MqttPublishTrace getTrace() {
+        return trace;
+    }
+
+    public void setTrace(@Nullable final MqttPublishTrace trace) {
+        this.trace = trace;
+    }
+
 }
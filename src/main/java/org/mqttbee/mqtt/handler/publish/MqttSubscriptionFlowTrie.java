@@ -0,0 +1,492 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.handler.publish;
+
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.annotations.Nullable;
+import org.mqttbee.mqtt.datatypes.MqttTopicFilterImpl;
+import org.mqttbee.mqtt.datatypes.MqttTopicImpl;
+import org.mqttbee.mqtt.datatypes.MqttTopicLevel;
+import org.mqttbee.util.ByteArray;
+import org.mqttbee.util.collections.ScNodeList;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * Subscription flows organized in a trie which is optimized for a large number of subscriptions.
+ * <p>
+ * Topic levels are interned to int ids and the children of a node are stored in an open addressing map from level id
+ * to node. Single level and multi level wildcards are stored in dedicated fields of a node. {@link
+ * #findMatching(MqttTopicImpl, ScNodeList)} resolves the id of every level of the topic once, even if multiple
+ * branches are matched because of wildcards, and then walks the trie with int comparisons only. It does not allocate
+ * per level.
+ *
+ * @author Silvio Giebl
+ */
+@NotThreadSafe
+public class MqttSubscriptionFlowTrie implements MqttSubscriptionFlows {
+
+    private static final int NO_LEVEL_ID = 0;
+
+    private final LevelIds levelIds = new LevelIds();
+    private final TrieNode rootNode = new TrieNode(NO_LEVEL_ID);
+    private int[] topicLevelIds = new int[16];
+
+    @Inject
+    MqttSubscriptionFlowTrie() {
+    }
+
+    @Override
+    public void subscribe(@NotNull final MqttTopicFilterImpl topicFilter, @NotNull final MqttSubscriptionFlow flow) {
+        final TrieEntry entry = new TrieEntry(flow, topicFilter);
+        TrieNode node = rootNode;
+        MqttTopicLevel level = MqttTopicLevel.root(topicFilter);
+        while (level != null) {
+            if (level.isMultiLevelWildcard()) {
+                node.multiLevelEntries = add(node.multiLevelEntries, entry);
+                node.hasMultiLevelSubscription = true;
+                return;
+            }
+            node = node.getOrCreateChild(level, levelIds);
+            level = level.next();
+        }
+        node.entries = add(node.entries, entry);
+        node.hasSubscription = true;
+    }
+
+    @Override
+    public void unsubscribe(
+            @NotNull final MqttTopicFilterImpl topicFilter,
+            @Nullable final Consumer<MqttSubscriptionFlow> unsubscribedCallback) {
+
+        unsubscribe(rootNode, MqttTopicLevel.root(topicFilter), unsubscribedCallback);
+    }
+
+    private boolean unsubscribe(
+            @NotNull final TrieNode node, @Nullable final MqttTopicLevel level,
+            @Nullable final Consumer<MqttSubscriptionFlow> unsubscribedCallback) {
+
+        if (level == null) {
+            unsubscribe(node.entries, unsubscribedCallback);
+            node.entries = null;
+            node.hasSubscription = false;
+            return node.isEmpty();
+        }
+        if (level.isMultiLevelWildcard()) {
+            unsubscribe(node.multiLevelEntries, unsubscribedCallback);
+            node.multiLevelEntries = null;
+            node.hasMultiLevelSubscription = false;
+            return node.isEmpty();
+        }
+        if (level.isSingleLevelWildcard()) {
+            final TrieNode child = node.singleLevelChild;
+            if ((child != null) && unsubscribe(child, level.next(), unsubscribedCallback)) {
+                node.singleLevelChild = null;
+            }
+        } else {
+            final int levelId = levelIds.get(level);
+            final TrieNode child = (levelId == NO_LEVEL_ID) ? null : node.getChild(levelId);
+            if (child != null) {
+                final ByteArray levelCopy = level.copy();
+                if (unsubscribe(child, level.next(), unsubscribedCallback)) {
+                    node.removeChild(levelId);
+                    levelIds.release(levelCopy);
+                }
+            }
+        }
+        return node.isEmpty();
+    }
+
+    private static void unsubscribe(
+            @Nullable final ScNodeList<TrieEntry> entries,
+            @Nullable final Consumer<MqttSubscriptionFlow> unsubscribedCallback) {
+
+        if (entries != null) {
+            for (final TrieEntry entry : entries) {
+                if (entry.handle.remove()) {
+                    final MqttSubscriptionFlow flow = entry.flow;
+                    flow.unsubscribe();
+                    if (unsubscribedCallback != null) {
+                        unsubscribedCallback.accept(flow);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void cancel(@NotNull final MqttSubscriptionFlow flow) {
+        for (final MqttTopicFilterImpl topicFilter : flow.getTopicFilters()) {
+            TrieNode node = rootNode;
+            MqttTopicLevel level = MqttTopicLevel.root(topicFilter);
+            while ((node != null) && (level != null) && !level.isMultiLevelWildcard()) {
+                if (level.isSingleLevelWildcard()) {
+                    node = node.singleLevelChild;
+                } else {
+                    final int levelId = levelIds.get(level);
+                    node = (levelId == NO_LEVEL_ID) ? null : node.getChild(levelId);
+                }
+                level = level.next();
+            }
+            if (node != null) {
+                if (level == null) {
+                    if (cancel(node.entries, flow)) {
+                        node.entries = null;
+                    }
+                } else if (cancel(node.multiLevelEntries, flow)) {
+                    node.multiLevelEntries = null;
+                }
+            }
+        }
+    }
+
+    private static boolean cancel(
+            @Nullable final ScNodeList<TrieEntry> entries, @NotNull final MqttSubscriptionFlow flow) {
+
+        if (entries != null) {
+            for (final Iterator<TrieEntry> iterator = entries.iterator(); iterator.hasNext(); ) {
+                final TrieEntry entry = iterator.next();
+                if (entry.flow == flow) {
+                    iterator.remove();
+                }
+            }
+            return entries.isEmpty();
+        }
+        return false;
+    }
+
+    @Override
+    public boolean findMatching(
+            @NotNull final MqttTopicImpl topic, @NotNull final ScNodeList<MqttIncomingPublishFlow> matchingFlows) {
+
+        int levelCount = 0;
+        MqttTopicLevel level = MqttTopicLevel.root(topic);
+        do {
+            if (levelCount == topicLevelIds.length) {
+                topicLevelIds = Arrays.copyOf(topicLevelIds, levelCount << 1);
+            }
+            topicLevelIds[levelCount++] = levelIds.get(level);
+            level = level.next();
+        } while (level != null);
+        return findMatching(rootNode, 0, levelCount, matchingFlows);
+    }
+
+    private boolean findMatching(
+            @NotNull final TrieNode node, final int levelIndex, final int levelCount,
+            @NotNull final ScNodeList<MqttIncomingPublishFlow> matchingFlows) {
+
+        if (levelIndex == levelCount) {
+            addAndReference(matchingFlows, node.entries);
+            addAndReference(matchingFlows, node.multiLevelEntries);
+            return node.hasSubscription || node.hasMultiLevelSubscription;
+        }
+        addAndReference(matchingFlows, node.multiLevelEntries);
+        boolean subscriptionFound = node.hasMultiLevelSubscription;
+        final TrieNode singleLevelChild = node.singleLevelChild;
+        if (singleLevelChild != null) {
+            subscriptionFound |= findMatching(singleLevelChild, levelIndex + 1, levelCount, matchingFlows);
+        }
+        final int levelId = topicLevelIds[levelIndex];
+        if (levelId != NO_LEVEL_ID) {
+            final TrieNode child = node.getChild(levelId);
+            if (child != null) {
+                subscriptionFound |= findMatching(child, levelIndex + 1, levelCount, matchingFlows);
+            }
+        }
+        return subscriptionFound;
+    }
+
+    @NotNull
+    private static ScNodeList<TrieEntry> add(
+            @Nullable ScNodeList<TrieEntry> entries, @NotNull final TrieEntry entry) {
+
+        if (entries == null) {
+            entries = new ScNodeList<>();
+        }
+        entries.add(entry);
+        return entries;
+    }
+
+    private static void addAndReference(
+            @NotNull final ScNodeList<MqttIncomingPublishFlow> target,
+            @Nullable final ScNodeList<TrieEntry> source) {
+
+        if (source != null) {
+            for (final TrieEntry entry : source) {
+                entry.flow.reference();
+                target.add(entry.flow);
+            }
+        }
+    }
+
+    private static int hash(final int hashCode) {
+        final int hash = hashCode * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+
+    private static class TrieEntry {
+
+        private final MqttSubscriptionFlow flow;
+        private final ScNodeList.Handle<MqttTopicFilterImpl> handle;
+
+        private TrieEntry(@NotNull final MqttSubscriptionFlow flow, @NotNull final MqttTopicFilterImpl topicFilter) {
+            this.flow = flow;
+            this.handle = flow.getTopicFilters().add(topicFilter);
+        }
+
+    }
+
+
+    /**
+     * Node of the trie. The children are stored in an open addressing map with linear probing and backward shift
+     * deletion, so lookups do not allocate and removals do not leave tombstones.
+     */
+    private static class TrieNode {
+
+        private static final int INITIAL_CAPACITY = 2;
+
+        private final int levelId;
+        @Nullable
+        private int[] childIds;
+        @Nullable
+        private TrieNode[] children;
+        private int childCount;
+        @Nullable
+        private TrieNode singleLevelChild;
+        @Nullable
+        private ScNodeList<TrieEntry> entries;
+        @Nullable
+        private ScNodeList<TrieEntry> multiLevelEntries;
+        private boolean hasSubscription;
+        private boolean hasMultiLevelSubscription;
+
+        private TrieNode(final int levelId) {
+            this.levelId = levelId;
+        }
+
+        @NotNull
+        private TrieNode getOrCreateChild(@NotNull final MqttTopicLevel level, @NotNull final LevelIds levelIds) {
+            if (level.isSingleLevelWildcard()) {
+                if (singleLevelChild == null) {
+                    singleLevelChild = new TrieNode(NO_LEVEL_ID);
+                }
+                return singleLevelChild;
+            }
+            int levelId = levelIds.get(level);
+            if (levelId != NO_LEVEL_ID) {
+                final TrieNode child = getChild(levelId);
+                if (child != null) {
+                    return child;
+                }
+            }
+            levelId = levelIds.intern(level);
+            final TrieNode child = new TrieNode(levelId);
+            putChild(child);
+            return child;
+        }
+
+        @Nullable
+        private TrieNode getChild(final int levelId) {
+            final int[] childIds = this.childIds;
+            if (childIds == null) {
+                return null;
+            }
+            final int mask = childIds.length - 1;
+            for (int i = hash(levelId) & mask; ; i = (i + 1) & mask) {
+                final int childId = childIds[i];
+                if (childId == levelId) {
+                    assert children != null;
+                    return children[i];
+                }
+                if (childId == NO_LEVEL_ID) {
+                    return null;
+                }
+            }
+        }
+
+        private void putChild(@NotNull final TrieNode child) {
+            if (childIds == null) {
+                childIds = new int[INITIAL_CAPACITY];
+                children = new TrieNode[INITIAL_CAPACITY];
+            } else if ((childCount + 1) * 4 > childIds.length * 3) {
+                resize(childIds.length << 1);
+            }
+            insert(childIds, children, child);
+            childCount++;
+        }
+
+        private void removeChild(final int levelId) {
+            final int[] childIds = this.childIds;
+            final TrieNode[] children = this.children;
+            assert (childIds != null) && (children != null);
+            final int mask = childIds.length - 1;
+            int hole = hash(levelId) & mask;
+            while (childIds[hole] != levelId) {
+                hole = (hole + 1) & mask;
+            }
+            for (int i = (hole + 1) & mask; childIds[i] != NO_LEVEL_ID; i = (i + 1) & mask) {
+                final int home = hash(childIds[i]) & mask;
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    childIds[hole] = childIds[i];
+                    children[hole] = children[i];
+                    hole = i;
+                }
+            }
+            childIds[hole] = NO_LEVEL_ID;
+            children[hole] = null;
+            if (--childCount == 0) {
+                this.childIds = null;
+                this.children = null;
+            }
+        }
+
+        private void resize(final int capacity) {
+            final TrieNode[] oldChildren = children;
+            assert oldChildren != null;
+            final int[] newChildIds = new int[capacity];
+            final TrieNode[] newChildren = new TrieNode[capacity];
+            for (final TrieNode child : oldChildren) {
+                if (child != null) {
+                    insert(newChildIds, newChildren, child);
+                }
+            }
+            childIds = newChildIds;
+            children = newChildren;
+        }
+
+        private static void insert(
+                @NotNull final int[] childIds, @NotNull final TrieNode[] children, @NotNull final TrieNode child) {
+
+            final int mask = childIds.length - 1;
+            int i = hash(child.levelId) & mask;
+            while (childIds[i] != NO_LEVEL_ID) {
+                i = (i + 1) & mask;
+            }
+            childIds[i] = child.levelId;
+            children[i] = child;
+        }
+
+        private boolean isEmpty() {
+            return !hasSubscription && !hasMultiLevelSubscription && (childCount == 0) && (singleLevelChild == null);
+        }
+
+    }
+
+
+    /**
+     * Interns topic levels to int ids. Each id is reference counted by the trie nodes of the level, so ids of levels
+     * which are no longer subscribed are removed. The table uses open addressing with linear probing.
+     */
+    private static class LevelIds {
+
+        private static final int INITIAL_CAPACITY = 64;
+
+        private ByteArray[] levels = new ByteArray[INITIAL_CAPACITY];
+        private int[] ids = new int[INITIAL_CAPACITY];
+        private int[] references = new int[INITIAL_CAPACITY];
+        private int size;
+        private int nextId = 1;
+
+        private int get(@NotNull final ByteArray level) {
+            final int index = indexOf(level);
+            return (index == -1) ? NO_LEVEL_ID : ids[index];
+        }
+
+        private int intern(@NotNull final MqttTopicLevel level) {
+            final int index = indexOf(level);
+            if (index != -1) {
+                references[index]++;
+                return ids[index];
+            }
+            if ((size + 1) * 2 > levels.length) {
+                resize(levels.length << 1);
+            }
+            final int id = nextId++;
+            insert(level.copy(), id, 1);
+            size++;
+            return id;
+        }
+
+        private void release(@NotNull final ByteArray level) {
+            int hole = indexOf(level);
+            assert hole != -1;
+            if (--references[hole] > 0) {
+                return;
+            }
+            final int mask = levels.length - 1;
+            for (int i = (hole + 1) & mask; levels[i] != null; i = (i + 1) & mask) {
+                final int home = hash(levels[i].hashCode()) & mask;
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    levels[hole] = levels[i];
+                    ids[hole] = ids[i];
+                    references[hole] = references[i];
+                    hole = i;
+                }
+            }
+            levels[hole] = null;
+            ids[hole] = NO_LEVEL_ID;
+            references[hole] = 0;
+            size--;
+        }
+
+        private int indexOf(@NotNull final ByteArray level) {
+            final int mask = levels.length - 1;
+            for (int i = hash(level.hashCode()) & mask; ; i = (i + 1) & mask) {
+                final ByteArray storedLevel = levels[i];
+                if (storedLevel == null) {
+                    return -1;
+                }
+                if (storedLevel.equals(level)) {
+                    return i;
+                }
+            }
+        }
+
+        private void insert(@NotNull final ByteArray level, final int id, final int references) {
+            final int mask = levels.length - 1;
+            int i = hash(level.hashCode()) & mask;
+            while (levels[i] != null) {
+                i = (i + 1) & mask;
+            }
+            levels[i] = level;
+            ids[i] = id;
+            this.references[i] = references;
+        }
+
+        private void resize(final int capacity) {
+            final ByteArray[] oldLevels = levels;
+            final int[] oldIds = ids;
+            final int[] oldReferences = references;
+            levels = new ByteArray[capacity];
+            ids = new int[capacity];
+            references = new int[capacity];
+            for (int i = 0; i < oldLevels.length; i++) {
+                if (oldLevels[i] != null) {
+                    insert(oldLevels[i], oldIds[i], oldReferences[i]);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.handler.publish;
+
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.annotations.Nullable;
+import org.mqttbee.util.ByteArrayUtil;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Bounded least recently used cache of the subscription flows matching a Topic Name.
+ * <p>
+ * The Topic Names are hashed and compared by their UTF-8 encoded representation in an open addressing table, so a
+ * lookup neither wraps nor copies them. The entries are kept in a doubly linked list of indices in the order of their
+ * last use, the least recently used entry is evicted if the cache is full.
+ *
+ * @author Silvio Giebl
+ */
+@NotThreadSafe
+class MqttTopicMatchCache {
+
+    private static final int EMPTY = 0;
+    private static final int HEAD = 0;
+
+    private final int size;
+    private final int mask;
+    private final int[] table;
+    private final int[] hashes;
+    private final byte[][] topics;
+    private final Match[] matches;
+    private final int[] previous;
+    private final int[] next;
+    private int count;
+
+    MqttTopicMatchCache(final int size) {
+        this.size = size;
+        final int capacity = Integer.highestOneBit(Math.max(2, size) - 1) << 2;
+        mask = capacity - 1;
+        table = new int[capacity];
+        hashes = new int[capacity];
+        topics = new byte[size + 1][];
+        matches = new Match[size + 1];
+        previous = new int[size + 1];
+        next = new int[size + 1];
+    }
+
+    /**
+     * Looks up the cached match of the given Topic Name and marks it as most recently used.
+     *
+     * @param topic the UTF-8 encoded Topic Name.
+     * @return the cached match or null if the Topic Name is not cached.
+     */
+    @Nullable
+    Match get(@NotNull final byte[] topic) {
+        final int slot = slotOf(topic, hash(topic));
+        if (slot < 0) {
+            return null;
+        }
+        final int entry = table[slot];
+        if (next[HEAD] != entry) {
+            unlink(entry);
+            linkFirst(entry);
+        }
+        return matches[entry];
+    }
+
+    /**
+     * Caches the match of the given Topic Name. Evicts the least recently used match if the cache is full.
+     * <p>
+     * Must only be called if the Topic Name is not cached, see {@link #get(byte[])}.
+     *
+     * @param topic the UTF-8 encoded Topic Name.
+     * @param match the match.
+     * @return whether the least recently used match was evicted.
+     */
+    boolean put(@NotNull final byte[] topic, @NotNull final Match match) {
+        final int entry;
+        final boolean evicted = count == size;
+        if (!evicted) {
+            entry = ++count;
+        } else {
+            entry = previous[HEAD];
+            removeSlot(topics[entry]);
+            unlink(entry);
+        }
+        final int hash = hash(topic);
+        int slot = hash & mask;
+        while (table[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = entry;
+        hashes[slot] = hash;
+        topics[entry] = topic;
+        matches[entry] = match;
+        linkFirst(entry);
+        return evicted;
+    }
+
+    /**
+     * Removes all cached matches, so they do not reference flows which were unsubscribed or cancelled. Only visits the
+     * used entries, so clearing is amortized by the puts.
+     */
+    void clear() {
+        for (int entry = next[HEAD]; entry != HEAD; entry = next[entry]) {
+            removeSlot(topics[entry]);
+            topics[entry] = null;
+            matches[entry] = null;
+        }
+        next[HEAD] = HEAD;
+        previous[HEAD] = HEAD;
+        count = 0;
+    }
+
+    int size() {
+        return count;
+    }
+
+    private int slotOf(@NotNull final byte[] topic, final int hash) {
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            final int entry = table[slot];
+            if (entry == EMPTY) {
+                return -1;
+            }
+            if ((hashes[slot] == hash) && equals(topics[entry], topic)) {
+                return slot;
+            }
+        }
+    }
+
+    private void removeSlot(@NotNull final byte[] topic) {
+        int slot = slotOf(topic, hash(topic));
+        if (slot < 0) {
+            return;
+        }
+        // backward shift deletion keeps the probe sequences intact without tombstones
+        for (int nextSlot = (slot + 1) & mask; table[nextSlot] != EMPTY; nextSlot = (nextSlot + 1) & mask) {
+            final int home = hashes[nextSlot] & mask;
+            if (((nextSlot - home) & mask) >= ((nextSlot - slot) & mask)) {
+                table[slot] = table[nextSlot];
+                hashes[slot] = hashes[nextSlot];
+                slot = nextSlot;
+            }
+        }
+        table[slot] = EMPTY;
+        hashes[slot] = 0;
+    }
+
+    private void linkFirst(final int entry) {
+        final int first = next[HEAD];
+        previous[entry] = HEAD;
+        next[entry] = first;
+        previous[first] = entry;
+        next[HEAD] = entry;
+    }
+
+    private void unlink(final int entry) {
+        final int before = previous[entry];
+        final int after = next[entry];
+        next[before] = after;
+        previous[after] = before;
+    }
+
+    private static int hash(@NotNull final byte[] topic) {
+        final int hash = ByteArrayUtil.hashCode(topic, 0, topic.length) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(@NotNull final byte[] topic1, @NotNull final byte[] topic2) {
+        return ByteArrayUtil.equals(topic1, 0, topic1.length, topic2, 0, topic2.length);
+    }
+
+
+    static class Match {
+
+        final MqttIncomingPublishFlow[] flows;
+        final boolean subscriptionFound;
+
+        Match(@NotNull final MqttIncomingPublishFlow[] flows, final boolean subscriptionFound) {
+            this.flows = flows;
+            this.subscriptionFound = subscriptionFound;
+        }
+
+    }
+
+}
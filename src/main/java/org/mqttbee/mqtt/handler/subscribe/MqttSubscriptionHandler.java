@@ -29,7 +29,7 @@ import org.mqttbee.api.mqtt.mqtt5.message.disconnect.Mqtt5DisconnectReasonCode;
 import org.mqttbee.api.mqtt.mqtt5.message.unsubscribe.unsuback.Mqtt5UnsubAck;
 import org.mqttbee.mqtt.MqttClientConnectionData;
 import org.mqttbee.mqtt.MqttClientData;
-import org.mqttbee.mqtt.MqttServerConnectionData;
+import org.mqttbee.mqtt.advanced.MqttAdvancedClientData;
 import org.mqttbee.mqtt.handler.publish.MqttOutgoingQoSHandler;
 import org.mqttbee.mqtt.message.subscribe.suback.MqttSubAck;
 import org.mqttbee.mqtt.message.unsubscribe.unsuback.MqttUnsubAck;
@@ -39,7 +39,10 @@ import org.mqttbee.mqtt.handler.publish.MqttSubscriptionFlow;
 import org.mqttbee.mqtt.handler.subscribe.MqttSubscribeWithFlow.MqttSubscribeWrapperWithFlow;
 import org.mqttbee.mqtt.handler.subscribe.MqttUnsubscribeWithFlow.MqttUnsubscribeWrapperWithFlow;
 import org.mqttbee.mqtt.ioc.ChannelScope;
+import org.mqttbee.util.IdAllocator;
+import org.mqttbee.util.IdBitmap;
 import org.mqttbee.util.Ranges;
+import org.mqttbee.util.UnsignedDataTypes;
 import org.mqttbee.util.collections.IntMap;
 
 import javax.inject.Inject;
@@ -58,7 +61,7 @@ public class MqttSubscriptionHandler extends ChannelInboundHandlerAdapter {
     private final MqttIncomingPublishFlows subscriptionFlows;
     private final Scheduler.Worker worker;
     private final int minPacketIdentifier;
-    private final Ranges packetIdentifiers;
+    private final IdAllocator packetIdentifiers;
     private final Ranges subscriptionIdentifiers;
     private final IntMap<MqttSubscribeWrapperWithFlow> subscribes;
     private final IntMap<MqttUnsubscribeWrapperWithFlow> unsubscribes;
@@ -77,12 +80,15 @@ public class MqttSubscriptionHandler extends ChannelInboundHandlerAdapter {
 
         final MqttClientConnectionData clientConnectionData = clientData.getRawClientConnectionData();
         assert clientConnectionData != null;
-        final MqttServerConnectionData serverConnectionData = clientData.getRawServerConnectionData();
-        assert serverConnectionData != null;
 
+        // the packet identifiers above the ones of publishes do not collide with publishes of a resumed session
         minPacketIdentifier =
-                MqttOutgoingQoSHandler.getPubReceiveMaximum(serverConnectionData.getReceiveMaximum()) + 1;
-        packetIdentifiers = new Ranges(minPacketIdentifier, minPacketIdentifier + MAX_SUB_PENDING - 1);
+                MqttOutgoingQoSHandler.getPubReceiveMaximum(UnsignedDataTypes.UNSIGNED_SHORT_MAX_VALUE) + 1;
+        final int maxPacketIdentifier = minPacketIdentifier + MAX_SUB_PENDING - 1;
+        final MqttAdvancedClientData advanced = clientData.getRawAdvancedClientData();
+        packetIdentifiers = ((advanced != null) && advanced.isPacketIdentifierBitmap()) ?
+                new IdBitmap(minPacketIdentifier, maxPacketIdentifier) :
+                new Ranges(minPacketIdentifier, maxPacketIdentifier);
         subscriptionIdentifiers = new Ranges(1, clientConnectionData.getSubscriptionIdentifierMaximum());
         subscribes = new IntMap<>(MAX_SUB_PENDING);
         unsubscribes = new IntMap<>(MAX_SUB_PENDING);
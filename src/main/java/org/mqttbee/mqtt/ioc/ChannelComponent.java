@@ -84,10 +84,6 @@ public interface ChannelComponent {
 
     MqttIncomingPublishService incomingPublishService();
 
-    MqttOutgoingPublishService outgoingPublishService();
-
-    MqttPublishFlowables publishFlowables();
-
 
     @Subcomponent.Builder
     interface Builder {
@@ -17,16 +17,17 @@
 
 package org.mqttbee.mqtt.ioc;
 
-import dagger.Binds;
 import dagger.Lazy;
 import dagger.Module;
 import dagger.Provides;
 import io.reactivex.Scheduler;
 import org.mqttbee.mqtt.MqttClientData;
+import org.mqttbee.mqtt.advanced.MqttAdvancedClientData;
 import org.mqttbee.mqtt.handler.disconnect.Mqtt3Disconnecter;
 import org.mqttbee.mqtt.handler.disconnect.Mqtt5Disconnecter;
 import org.mqttbee.mqtt.handler.disconnect.MqttDisconnecter;
 import org.mqttbee.mqtt.handler.publish.MqttSubscriptionFlowTree;
+import org.mqttbee.mqtt.handler.publish.MqttSubscriptionFlowTrie;
 import org.mqttbee.mqtt.handler.publish.MqttSubscriptionFlows;
 
 import javax.inject.Named;
@@ -61,20 +62,12 @@ public abstract class ChannelModule {
     }
 
     @Provides
-    @ChannelScope
-    @Named("outgoingPublish")
-    static Scheduler.Worker provideOutgoingPublishRxEventLoop(final MqttClientData clientData) {
-        return clientData.getExecutorConfig().getRxJavaScheduler().createWorker();
-    }
+    static MqttSubscriptionFlows provideSubscriptionFlows(
+            final MqttClientData clientData, final Lazy<MqttSubscriptionFlowTree> tree,
+            final Lazy<MqttSubscriptionFlowTrie> trie) {
 
-    @Provides
-    @ChannelScope
-    @Named("outgoingPublishFlows")
-    static Scheduler.Worker provideOutgoingPublishFlowsRxEventLoop(final MqttClientData clientData) {
-        return clientData.getExecutorConfig().getRxJavaScheduler().createWorker();
+        final MqttAdvancedClientData advanced = clientData.getRawAdvancedClientData();
+        return ((advanced != null) && advanced.isSubscriptionFlowTrie()) ? trie.get() : tree.get();
     }
 
-    @Binds
-    abstract MqttSubscriptionFlows provideSubscriptionFlows(final MqttSubscriptionFlowTree tree);
-
 }
@@ -66,6 +66,14 @@ public abstract class MqttWrappedMessage< //
         return encoderApplier.apply(getCodable());
     }
 
+    /**
+     * @return the encoder provider for this wrapped MQTT message.
+     */
+    @Nullable
+    protected MqttWrappedMessageEncoderProvider<M, W, P> getEncoderProvider() {
+        return encoderProvider;
+    }
+
     @NotNull
     public MqttUserPropertiesImpl getUserProperties() {
         return userProperties;
@@ -137,6 +137,21 @@ public class MqttConnect
         return willPublish;
     }
 
+    /**
+     * Returns this CONNECT message without Clean Start, so the session is resumed if it is sent for a reconnect.
+     *
+     * @return this CONNECT message without Clean Start.
+     */
+    @NotNull
+    public MqttConnect withoutCleanStart() {
+        if (!isCleanStart) {
+            return this;
+        }
+        return new MqttConnect(keepAlive, false, sessionExpiryInterval, isResponseInformationRequested,
+                isProblemInformationRequested, restrictions, simpleAuth, enhancedAuthProvider, willPublish,
+                getUserProperties(), getEncoderProvider());
+    }
+
     @NotNull
     @Override
     protected MqttConnect getCodable() {
@@ -18,6 +18,10 @@
 package org.mqttbee.mqtt.message.publish;
 
 import com.google.common.primitives.ImmutableIntArray;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ResourceLeakDetector;
+import io.netty.util.ResourceLeakDetectorFactory;
+import io.netty.util.ResourceLeakTracker;
 import org.mqttbee.annotations.NotNull;
 import org.mqttbee.annotations.Nullable;
 import org.mqttbee.api.mqtt.datatypes.MqttQoS;
@@ -26,6 +30,7 @@ import org.mqttbee.api.mqtt.datatypes.MqttUTF8String;
 import org.mqttbee.api.mqtt.mqtt5.message.publish.Mqtt5PayloadFormatIndicator;
 import org.mqttbee.api.mqtt.mqtt5.message.publish.Mqtt5Publish;
 import org.mqttbee.api.mqtt.mqtt5.message.publish.TopicAliasUsage;
+import org.mqttbee.mqtt.codec.encoder.mqtt5.Mqtt5PublishEncoder;
 import org.mqttbee.mqtt.codec.encoder.provider.MqttPublishEncoderProvider;
 import org.mqttbee.mqtt.codec.encoder.provider.MqttWrappedMessageEncoderProvider;
 import org.mqttbee.mqtt.datatypes.MqttTopicImpl;
@@ -47,6 +52,9 @@ public class MqttPublish extends MqttWrappedMessage<MqttPublish, MqttPublishWrap
 
     public static final long MESSAGE_EXPIRY_INTERVAL_INFINITY = Long.MAX_VALUE;
 
+    private static final ResourceLeakDetector<MqttPublish> LEAK_DETECTOR =
+            ResourceLeakDetectorFactory.instance().newResourceLeakDetector(MqttPublish.class);
+
     private final MqttTopicImpl topic;
     private final ByteBuffer payload;
     private final MqttQoS qos;
@@ -57,6 +65,9 @@ public class MqttPublish extends MqttWrappedMessage<MqttPublish, MqttPublishWrap
     private final MqttTopicImpl responseTopic;
     private final ByteBuffer correlationData;
     private final TopicAliasUsage topicAliasUsage;
+    private final ByteBuf payloadBuffer;
+    private final ByteBuf template;
+    private final ResourceLeakTracker<MqttPublish> leak;
 
     public MqttPublish(
             @NotNull final MqttTopicImpl topic, @Nullable final ByteBuffer payload, @NotNull final MqttQoS qos,
@@ -67,6 +78,40 @@ public class MqttPublish extends MqttWrappedMessage<MqttPublish, MqttPublishWrap
             @NotNull final MqttUserPropertiesImpl userProperties,
             @NotNull final MqttWrappedMessageEncoderProvider<MqttPublish, MqttPublishWrapper, MqttPublishEncoderProvider> encoderProvider) {
 
+        this(topic, payload, qos, isRetain, messageExpiryInterval, payloadFormatIndicator, contentType, responseTopic,
+                correlationData, topicAliasUsage, userProperties, encoderProvider, null);
+    }
+
+    /**
+     * Creates a PUBLISH message whose payload is a view of a retained buffer. The buffer is released by {@link
+     * #release()}.
+     *
+     * @param payloadBuffer the retained buffer which backs the payload or null if the payload is not retained.
+     */
+    public MqttPublish(
+            @NotNull final MqttTopicImpl topic, @Nullable final ByteBuffer payload, @NotNull final MqttQoS qos,
+            final boolean isRetain, final long messageExpiryInterval,
+            @Nullable final Mqtt5PayloadFormatIndicator payloadFormatIndicator,
+            @Nullable final MqttUTF8StringImpl contentType, @Nullable final MqttTopicImpl responseTopic,
+            @Nullable final ByteBuffer correlationData, @NotNull final TopicAliasUsage topicAliasUsage,
+            @NotNull final MqttUserPropertiesImpl userProperties,
+            @NotNull final MqttWrappedMessageEncoderProvider<MqttPublish, MqttPublishWrapper, MqttPublishEncoderProvider> encoderProvider,
+            @Nullable final ByteBuf payloadBuffer) {
+
+        this(topic, payload, qos, isRetain, messageExpiryInterval, payloadFormatIndicator, contentType, responseTopic,
+                correlationData, topicAliasUsage, userProperties, encoderProvider, payloadBuffer, null);
+    }
+
+    private MqttPublish(
+            @NotNull final MqttTopicImpl topic, @Nullable final ByteBuffer payload, @NotNull final MqttQoS qos,
+            final boolean isRetain, final long messageExpiryInterval,
+            @Nullable final Mqtt5PayloadFormatIndicator payloadFormatIndicator,
+            @Nullable final MqttUTF8StringImpl contentType, @Nullable final MqttTopicImpl responseTopic,
+            @Nullable final ByteBuffer correlationData, @NotNull final TopicAliasUsage topicAliasUsage,
+            @NotNull final MqttUserPropertiesImpl userProperties,
+            @NotNull final MqttWrappedMessageEncoderProvider<MqttPublish, MqttPublishWrapper, MqttPublishEncoderProvider> encoderProvider,
+            @Nullable final ByteBuf payloadBuffer, @Nullable final ByteBuf template) {
+
         super(userProperties, encoderProvider);
         this.topic = topic;
         this.payload = payload;
@@ -78,6 +123,9 @@ public class MqttPublish extends MqttWrappedMessage<MqttPublish, MqttPublishWrap
         this.responseTopic = responseTopic;
         this.correlationData = correlationData;
         this.topicAliasUsage = topicAliasUsage;
+        this.payloadBuffer = payloadBuffer;
+        this.template = template;
+        leak = (payloadBuffer == null) ? null : LEAK_DETECTOR.track(this);
     }
 
     @NotNull
@@ -178,6 +226,59 @@ public class MqttPublish extends MqttWrappedMessage<MqttPublish, MqttPublishWrap
         return topicAliasUsage;
     }
 
+    @Nullable
+    public ByteBuf getRawPayloadBuffer() {
+        return payloadBuffer;
+    }
+
+    /**
+     * @return the shared template containing the encoded properties and payload or null if this PUBLISH message was
+     *         not {@link #encodeOnce() encoded once}.
+     */
+    @Nullable
+    public ByteBuf getRawTemplate() {
+        return template;
+    }
+
+    @NotNull
+    @Override
+    public MqttPublish encodeOnce() {
+        if (template != null) {
+            template.retain();
+            return new MqttPublish(topic, payload, qos, isRetain, messageExpiryInterval, payloadFormatIndicator,
+                    contentType, responseTopic, correlationData, topicAliasUsage, getUserProperties(),
+                    Mqtt5PublishEncoder.PROVIDER, template, template);
+        }
+        final ByteBuf template = Mqtt5PublishEncoder.encodeTemplate(this);
+        final ByteBuffer payload = (this.payload == null) ? null :
+                template.nioBuffer(template.readableBytes() - this.payload.remaining(), this.payload.remaining());
+        return new MqttPublish(topic, payload, qos, isRetain, messageExpiryInterval, payloadFormatIndicator,
+                contentType, responseTopic, correlationData, topicAliasUsage, getUserProperties(),
+                Mqtt5PublishEncoder.PROVIDER, template, template);
+    }
+
+    /**
+     * Adds a reference to the retained payload buffer for one more consumer of this PUBLISH message. Does nothing if
+     * the payload is not retained.
+     */
+    public void retain() {
+        if (payloadBuffer != null) {
+            payloadBuffer.retain();
+            if (leak != null) {
+                leak.record();
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        if (payloadBuffer != null) {
+            if (payloadBuffer.release() && (leak != null)) {
+                leak.close(this);
+            }
+        }
+    }
+
     @NotNull
     @Override
     protected MqttPublish getCodable() {
@@ -17,6 +17,7 @@
 
 package org.mqttbee.mqtt.message.publish;
 
+import io.netty.util.Recycler;
 import org.mqttbee.annotations.NotNull;
 import org.mqttbee.annotations.Nullable;
 import org.mqttbee.api.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
@@ -24,18 +25,80 @@ import org.mqttbee.mqtt.message.publish.puback.MqttPubAck;
 import org.mqttbee.mqtt.message.publish.pubcomp.MqttPubComp;
 
 /**
+ * Result of an outgoing PUBLISH.
+ * <p>
+ * Results created with {@code recycle = true} are taken from a {@link Recycler} and returned to it by {@link
+ * #recycle()}. The subscriber of the results owns them, the client does not reference a result after emitting it.
+ *
  * @author Silvio Giebl
  */
 public class MqttPublishResult implements Mqtt5PublishResult {
 
+    private static final Recycler<MqttPublishResult> RECYCLER = new Recycler<MqttPublishResult>() {
+        @Override
+        protected MqttPublishResult newObject(final Handle<MqttPublishResult> handle) {
+            return new MqttPublishResult(handle);
+        }
+    };
+
     @NotNull
-    private final MqttPublish publish;
+    public static MqttPublishResult of(
+            @NotNull final MqttPublish publish, @Nullable final Throwable error, final boolean recycle) {
+
+        return of(publish, error, null, recycle);
+    }
+
+    @NotNull
+    public static MqttPublishResult of(
+            @NotNull final MqttPublish publish, @Nullable final Throwable error,
+            @Nullable final MqttPublishTrace trace, final boolean recycle) {
+
+        if (!recycle) {
+            return new MqttPublishResult(publish, error, trace);
+        }
+        final MqttPublishResult result = RECYCLER.get();
+        result.init(publish, error, trace);
+        return result;
+    }
+
+    private final Recycler.Handle<MqttPublishResult> handle;
+    private MqttPublish publish;
+    @Nullable
+    private Throwable error;
     @Nullable
-    private final Throwable error;
+    private MqttPublishTrace trace;
 
     public MqttPublishResult(@NotNull final MqttPublish publish, @Nullable final Throwable error) {
+        this(publish, error, null);
+    }
+
+    public MqttPublishResult(
+            @NotNull final MqttPublish publish, @Nullable final Throwable error,
+            @Nullable final MqttPublishTrace trace) {
+
+        this.handle = null;
+        this.publish = publish;
+        this.error = error;
+        this.trace = trace;
+    }
+
+    private MqttPublishResult(@Nullable final Recycler.Handle<MqttPublishResult> handle) {
+        this.handle = handle;
+    }
+
+    void init(
+            @NotNull final MqttPublish publish, @Nullable final Throwable error,
+            @Nullable final MqttPublishTrace trace) {
+
         this.publish = publish;
         this.error = error;
+        this.trace = trace;
+    }
+
+    void clear() {
+        publish = null;
+        error = null;
+        trace = null;
     }
 
     @NotNull
@@ -55,47 +118,134 @@ public class MqttPublishResult implements Mqtt5PublishResult {
         return error;
     }
 
+    @Nullable
+    @Override
+    public MqttPublishTrace getTrace() {
+        return trace;
+    }
+
+    @Override
+    public void recycle() {
+        if (handle != null) {
+            clear();
+            handle.recycle(this);
+        }
+    }
+
 
     public static class MqttQoS1Result extends MqttPublishResult implements Mqtt5QoS1Result {
 
+        private static final Recycler<MqttQoS1Result> RECYCLER = new Recycler<MqttQoS1Result>() {
+            @Override
+            protected MqttQoS1Result newObject(final Handle<MqttQoS1Result> handle) {
+                return new MqttQoS1Result(handle);
+            }
+        };
+
         @NotNull
-        private final MqttPubAck pubAck;
+        public static MqttQoS1Result of(
+                @NotNull final MqttPublish publish, @Nullable final Throwable error, @NotNull final MqttPubAck pubAck,
+                @Nullable final MqttPublishTrace trace, final boolean recycle) {
+
+            if (!recycle) {
+                return new MqttQoS1Result(publish, error, pubAck, trace);
+            }
+            final MqttQoS1Result result = RECYCLER.get();
+            result.init(publish, error, trace);
+            result.pubAck = pubAck;
+            return result;
+        }
+
+        private final Recycler.Handle<MqttQoS1Result> handle;
+        private MqttPubAck pubAck;
 
         public MqttQoS1Result(
-                @NotNull final MqttPublish publish, @Nullable final Throwable error, @NotNull final MqttPubAck pubAck) {
+                @NotNull final MqttPublish publish, @Nullable final Throwable error, @NotNull final MqttPubAck pubAck,
+                @Nullable final MqttPublishTrace trace) {
 
-            super(publish, error);
+            super(publish, error, trace);
+            this.handle = null;
             this.pubAck = pubAck;
         }
 
+        private MqttQoS1Result(@NotNull final Recycler.Handle<MqttQoS1Result> handle) {
+            super(null);
+            this.handle = handle;
+        }
+
         @NotNull
         @Override
         public MqttPubAck getPubAck() {
             return pubAck;
         }
 
+        @Override
+        public void recycle() {
+            if (handle != null) {
+                clear();
+                pubAck = null;
+                handle.recycle(this);
+            }
+        }
+
     }
 
 
     public static class MqttQoS2Result extends MqttPublishResult implements Mqtt5QoS2Result {
 
+        private static final Recycler<MqttQoS2Result> RECYCLER = new Recycler<MqttQoS2Result>() {
+            @Override
+            protected MqttQoS2Result newObject(final Handle<MqttQoS2Result> handle) {
+                return new MqttQoS2Result(handle);
+            }
+        };
+
         @NotNull
-        private final MqttPubComp pubComp;
+        public static MqttQoS2Result of(
+                @NotNull final MqttPublish publish, @Nullable final Throwable error,
+                @NotNull final MqttPubComp pubComp, @Nullable final MqttPublishTrace trace, final boolean recycle) {
+
+            if (!recycle) {
+                return new MqttQoS2Result(publish, error, pubComp, trace);
+            }
+            final MqttQoS2Result result = RECYCLER.get();
+            result.init(publish, error, trace);
+            result.pubComp = pubComp;
+            return result;
+        }
+
+        private final Recycler.Handle<MqttQoS2Result> handle;
+        private MqttPubComp pubComp;
 
         public MqttQoS2Result(
                 @NotNull final MqttPublish publish, @Nullable final Throwable error,
-                @NotNull final MqttPubComp pubComp) {
+                @NotNull final MqttPubComp pubComp, @Nullable final MqttPublishTrace trace) {
 
-            super(publish, error);
+            super(publish, error, trace);
+            this.handle = null;
             this.pubComp = pubComp;
         }
 
+        private MqttQoS2Result(@NotNull final Recycler.Handle<MqttQoS2Result> handle) {
+            super(null);
+            this.handle = handle;
+        }
+
         @NotNull
         @Override
         public MqttPubComp getPubComp() {
             return pubComp;
         }
 
+        @Override
+        public void recycle() {
+            if (handle != null) {
+                clear();
+                pubComp = null;
+                handle.recycle(this);
+            }
+        }
+
     }
 
 }
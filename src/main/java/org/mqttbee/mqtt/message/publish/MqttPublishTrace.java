@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.message.publish;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.Mqtt5PublishTrace;
+
+/**
+ * Trace of a sampled outgoing PUBLISH. The queued time is set by the producer before the PUBLISH is handed to the event
+ * loop, all other times are set on the event loop. The trace is added as listener to the write of the PUBLISH to
+ * record when it was written to the socket.
+ *
+ * @author Silvio Giebl
+ */
+public class MqttPublishTrace implements Mqtt5PublishTrace, ChannelFutureListener {
+
+    private final long queuedNanos;
+    private long dequeuedNanos;
+    private long packetIdentifierNanos;
+    private long writtenNanos;
+    private long flushedNanos;
+    private long acknowledgedNanos;
+
+    public MqttPublishTrace(final long queuedNanos) {
+        this.queuedNanos = queuedNanos;
+    }
+
+    public void onDequeued(final long nanos) {
+        dequeuedNanos = nanos;
+        packetIdentifierNanos = nanos;
+    }
+
+    public void onPacketIdentifier(final long nanos) {
+        packetIdentifierNanos = nanos;
+    }
+
+    public void onWritten(final long nanos) {
+        writtenNanos = nanos;
+        flushedNanos = 0;
+    }
+
+    public void onAcknowledged(final long nanos) {
+        acknowledgedNanos = nanos;
+    }
+
+    @Override
+    public void operationComplete(final ChannelFuture future) {
+        if (future.isSuccess()) {
+            flushedNanos = System.nanoTime();
+        }
+    }
+
+    @Override
+    public long getQueuedNanos() {
+        return queuedNanos;
+    }
+
+    @Override
+    public long getDequeuedNanos() {
+        return dequeuedNanos;
+    }
+
+    @Override
+    public long getPacketIdentifierNanos() {
+        return packetIdentifierNanos;
+    }
+
+    @Override
+    public long getWrittenNanos() {
+        return writtenNanos;
+    }
+
+    @Override
+    public long getFlushedNanos() {
+        return flushedNanos;
+    }
+
+    @Override
+    public long getAcknowledgedNanos() {
+        return acknowledgedNanos;
+    }
+
+}
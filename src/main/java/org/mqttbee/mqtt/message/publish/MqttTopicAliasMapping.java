@@ -20,51 +20,165 @@ package org.mqttbee.mqtt.message.publish;
 import org.mqttbee.annotations.NotNull;
 import org.mqttbee.api.mqtt.mqtt5.message.publish.TopicAliasUsage;
 import org.mqttbee.mqtt.datatypes.MqttTopicImpl;
-
-import java.util.HashMap;
-import java.util.Random;
+import org.mqttbee.util.ByteArrayUtil;
 
 /**
+ * Mapping of Topic Names to the Topic Aliases used for outgoing PUBLISH packets.
+ * <p>
+ * The Topic Names are hashed and compared by their UTF-8 encoded representation, so neither looking up nor assigning
+ * a Topic Alias converts them or allocates. If all Topic Aliases are assigned, a Topic Name with {@link
+ * TopicAliasUsage#MAY_OVERWRITE} takes over the least recently used Topic Alias.
+ * <p>
+ * Not thread safe, must only be used on the event loop of the channel.
+ *
  * @author Silvio Giebl
  */
 public class MqttTopicAliasMapping {
 
-    private static final Random random = new Random();
+    private static final int EMPTY = 0;
+    private static final int HEAD = 0;
 
     private final int size;
-    private final HashMap<String, Integer> hashMap;
+    private final int mask;
+    private final byte[][] keys;
+    private final int[] hashes;
+    private final int[] values;
+    private final byte[][] topics;
+    private final int[] previous;
+    private final int[] next;
     private int nextTopicAlias;
 
     public MqttTopicAliasMapping(final int size) {
         this.size = size;
-        hashMap = new HashMap<>(size);
+        final int capacity = Integer.highestOneBit(Math.max(2, size) - 1) << 2;
+        mask = capacity - 1;
+        keys = new byte[capacity][];
+        hashes = new int[capacity];
+        values = new int[capacity];
+        topics = new byte[size + 1][];
+        previous = new int[size + 1];
+        next = new int[size + 1];
         nextTopicAlias = 1;
     }
 
+    /**
+     * Assigns a Topic Alias to the given Topic Name if the Topic Alias usage allows it.
+     * <p>
+     * Must only be called if no Topic Alias is mapped to the Topic Name, see {@link #get(MqttTopicImpl)}.
+     *
+     * @param topic           the Topic Name.
+     * @param topicAliasUsage the Topic Alias usage of the PUBLISH packet.
+     * @return the assigned Topic Alias or {@link MqttPublishWrapper#DEFAULT_NO_TOPIC_ALIAS} if none was assigned.
+     */
     public int set(@NotNull final MqttTopicImpl topic, @NotNull final TopicAliasUsage topicAliasUsage) {
-        int topicAlias = MqttPublishWrapper.DEFAULT_NO_TOPIC_ALIAS;
-        if (topicAliasUsage != TopicAliasUsage.MUST_NOT) {
-            if (nextTopicAlias == size) {
-                if (topicAliasUsage == TopicAliasUsage.MAY_OVERWRITE) {
-                    topicAlias = random.nextInt(size) + 1;
-                    hashMap.put(topic.toString(), topicAlias);
-                }
-            } else {
-                topicAlias = nextTopicAlias;
-                hashMap.put(topic.toString(), topicAlias);
-                nextTopicAlias++;
-            }
+        final int topicAlias;
+        if (topicAliasUsage == TopicAliasUsage.MUST_NOT) {
+            return MqttPublishWrapper.DEFAULT_NO_TOPIC_ALIAS;
+        }
+        if (nextTopicAlias <= size) {
+            topicAlias = nextTopicAlias++;
+        } else if (topicAliasUsage == TopicAliasUsage.MAY_OVERWRITE) {
+            topicAlias = previous[HEAD];
+            remove(topics[topicAlias]);
+            unlink(topicAlias);
+        } else {
+            return MqttPublishWrapper.DEFAULT_NO_TOPIC_ALIAS;
         }
+        final byte[] binary = topic.toBinary();
+        put(binary, hash(binary), topicAlias);
+        topics[topicAlias] = binary;
+        linkFirst(topicAlias);
         return topicAlias;
     }
 
+    /**
+     * Looks up the Topic Alias mapped to the given Topic Name and marks it as most recently used.
+     *
+     * @param topic the Topic Name.
+     * @return the mapped Topic Alias or {@link MqttPublishWrapper#DEFAULT_NO_TOPIC_ALIAS} if none is mapped.
+     */
     public int get(@NotNull final MqttTopicImpl topic) {
-        final Integer topicAlias = hashMap.get(topic.toString());
-        return (topicAlias == null) ? MqttPublishWrapper.DEFAULT_NO_TOPIC_ALIAS : topicAlias;
+        final byte[] binary = topic.toBinary();
+        final int index = indexOf(binary, hash(binary));
+        if (index < 0) {
+            return MqttPublishWrapper.DEFAULT_NO_TOPIC_ALIAS;
+        }
+        final int topicAlias = values[index];
+        if (next[HEAD] != topicAlias) {
+            unlink(topicAlias);
+            linkFirst(topicAlias);
+        }
+        return topicAlias;
     }
 
     public int size() {
         return size;
     }
 
+    private int indexOf(@NotNull final byte[] binary, final int hash) {
+        for (int index = hash & mask; ; index = (index + 1) & mask) {
+            final int value = values[index];
+            if (value == EMPTY) {
+                return -1;
+            }
+            if ((hashes[index] == hash) && equals(keys[index], binary)) {
+                return index;
+            }
+        }
+    }
+
+    private void put(@NotNull final byte[] binary, final int hash, final int topicAlias) {
+        int index = hash & mask;
+        while (values[index] != EMPTY) {
+            index = (index + 1) & mask;
+        }
+        keys[index] = binary;
+        hashes[index] = hash;
+        values[index] = topicAlias;
+    }
+
+    private void remove(@NotNull final byte[] binary) {
+        int index = indexOf(binary, hash(binary));
+        if (index < 0) {
+            return;
+        }
+        // backward shift deletion keeps the probe sequences intact without tombstones
+        for (int nextIndex = (index + 1) & mask; values[nextIndex] != EMPTY; nextIndex = (nextIndex + 1) & mask) {
+            final int home = hashes[nextIndex] & mask;
+            if (((nextIndex - home) & mask) >= ((nextIndex - index) & mask)) {
+                keys[index] = keys[nextIndex];
+                hashes[index] = hashes[nextIndex];
+                values[index] = values[nextIndex];
+                index = nextIndex;
+            }
+        }
+        keys[index] = null;
+        hashes[index] = 0;
+        values[index] = EMPTY;
+    }
+
+    private void linkFirst(final int topicAlias) {
+        final int first = next[HEAD];
+        previous[topicAlias] = HEAD;
+        next[topicAlias] = first;
+        previous[first] = topicAlias;
+        next[HEAD] = topicAlias;
+    }
+
+    private void unlink(final int topicAlias) {
+        final int before = previous[topicAlias];
+        final int after = next[topicAlias];
+        next[before] = after;
+        previous[after] = before;
+    }
+
+    private static int hash(@NotNull final byte[] binary) {
+        final int hash = ByteArrayUtil.hashCode(binary, 0, binary.length) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(@NotNull final byte[] binary1, @NotNull final byte[] binary2) {
+        return ByteArrayUtil.equals(binary1, 0, binary1.length, binary2, 0, binary2.length);
+    }
+
 }
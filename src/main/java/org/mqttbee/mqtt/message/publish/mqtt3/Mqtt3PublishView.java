@@ -17,6 +17,7 @@
 
 package org.mqttbee.mqtt.message.publish.mqtt3;
 
+import io.netty.buffer.ByteBuf;
 import org.mqttbee.annotations.NotNull;
 import org.mqttbee.annotations.Nullable;
 import org.mqttbee.api.mqtt.datatypes.MqttQoS;
@@ -48,9 +49,17 @@ public class Mqtt3PublishView implements Mqtt3Publish {
             @NotNull final MqttTopicImpl topic, @Nullable final ByteBuffer payload, @NotNull final MqttQoS qos,
             final boolean isRetain) {
 
+        return wrapped(topic, payload, qos, isRetain, null);
+    }
+
+    @NotNull
+    public static MqttPublish wrapped(
+            @NotNull final MqttTopicImpl topic, @Nullable final ByteBuffer payload, @NotNull final MqttQoS qos,
+            final boolean isRetain, @Nullable final ByteBuf payloadBuffer) {
+
         return new MqttPublish(topic, payload, qos, isRetain, MqttPublish.MESSAGE_EXPIRY_INTERVAL_INFINITY, null, null,
                 null, null, TopicAliasUsage.MUST_NOT, MqttUserPropertiesImpl.NO_USER_PROPERTIES,
-                Mqtt3PublishEncoder.PROVIDER);
+                Mqtt3PublishEncoder.PROVIDER, payloadBuffer);
     }
 
     @NotNull
@@ -103,6 +112,11 @@ public class Mqtt3PublishView implements Mqtt3Publish {
         return wrapped.getPayloadAsBytes();
     }
 
+    @Override
+    public void release() {
+        wrapped.release();
+    }
+
     @NotNull
     @Override
     public MqttQoS getQos() {
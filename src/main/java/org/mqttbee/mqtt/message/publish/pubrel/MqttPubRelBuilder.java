@@ -32,7 +32,7 @@ import org.mqttbee.mqtt.util.MqttBuilderUtil;
  */
 public class MqttPubRelBuilder implements Mqtt5PubRelBuilder {
 
-    private final MqttPubRec pubRec;
+    private MqttPubRec pubRec;
     private Mqtt5PubRelReasonCode reasonCode = MqttPubRel.DEFAULT_REASON_CODE;
     private MqttUTF8StringImpl reasonString;
     private MqttUserPropertiesImpl userProperties = MqttUserPropertiesImpl.NO_USER_PROPERTIES;
@@ -41,6 +41,21 @@ public class MqttPubRelBuilder implements Mqtt5PubRelBuilder {
         this.pubRec = pubRec;
     }
 
+    /**
+     * Resets this builder to the defaults for the given PUBREC, so it can be reused for the next QoS 2 flow.
+     *
+     * @param pubRec the PUBREC the PUBREL is built for.
+     * @return this builder.
+     */
+    @NotNull
+    public MqttPubRelBuilder reset(@NotNull final MqttPubRec pubRec) {
+        this.pubRec = pubRec;
+        reasonCode = MqttPubRel.DEFAULT_REASON_CODE;
+        reasonString = null;
+        userProperties = MqttUserPropertiesImpl.NO_USER_PROPERTIES;
+        return this;
+    }
+
     @NotNull
     @Override
     public MqttPubRelBuilder withUserProperties(@NotNull final Mqtt5UserProperties userProperties) {
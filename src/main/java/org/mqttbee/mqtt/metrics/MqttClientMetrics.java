@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.metrics;
+
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.api.mqtt.mqtt5.advanced.metrics.Mqtt5Counter;
+import org.mqttbee.api.mqtt.mqtt5.advanced.metrics.Mqtt5Histogram;
+import org.mqttbee.api.mqtt.mqtt5.advanced.metrics.Mqtt5Metrics;
+import org.mqttbee.api.mqtt.mqtt5.message.Mqtt5MessageType;
+import org.mqttbee.mqtt.MqttClientSession;
+
+/**
+ * The counters and histograms of a client, requested once from its {@link Mqtt5Metrics} so the handlers do not look
+ * them up by name.
+ *
+ * @author Silvio Giebl
+ */
+public class MqttClientMetrics {
+
+    private final boolean enabled;
+    private final Mqtt5Histogram outgoingQoS1Latency;
+    private final Mqtt5Histogram outgoingQoS2Latency;
+    private final Mqtt5Counter incomingPublishesQueued;
+    private final Mqtt5Counter incomingFlowsBlocked;
+    private final Mqtt5Counter topicMatchCacheHits;
+    private final Mqtt5Counter topicMatchCacheMisses;
+    private final Mqtt5Counter topicMatchCacheEvictions;
+    private final Mqtt5Counter decodedBytes;
+    private final Mqtt5Counter[] decodedPackets;
+    private final Mqtt5Counter encodedBytes;
+    private final Mqtt5Counter[] encodedPackets;
+    private final Mqtt5Histogram pingRoundTripTime;
+
+    public MqttClientMetrics(@NotNull final Mqtt5Metrics metrics, @NotNull final MqttClientSession session) {
+        enabled = metrics != MqttNoopMetrics.INSTANCE;
+        metrics.gauge(Mqtt5Metrics.OUTGOING_PUBLISHES_IN_FLIGHT, () -> session.getOutgoingPublishes().size());
+        outgoingQoS1Latency = metrics.histogram(Mqtt5Metrics.OUTGOING_QOS1_LATENCY);
+        outgoingQoS2Latency = metrics.histogram(Mqtt5Metrics.OUTGOING_QOS2_LATENCY);
+        incomingPublishesQueued = metrics.counter(Mqtt5Metrics.INCOMING_PUBLISHES_QUEUED);
+        incomingFlowsBlocked = metrics.counter(Mqtt5Metrics.INCOMING_FLOWS_BLOCKED);
+        topicMatchCacheHits = metrics.counter(Mqtt5Metrics.TOPIC_MATCH_CACHE_HITS);
+        topicMatchCacheMisses = metrics.counter(Mqtt5Metrics.TOPIC_MATCH_CACHE_MISSES);
+        topicMatchCacheEvictions = metrics.counter(Mqtt5Metrics.TOPIC_MATCH_CACHE_EVICTIONS);
+        decodedBytes = metrics.counter(Mqtt5Metrics.DECODED_BYTES);
+        decodedPackets = packetCounters(metrics, Mqtt5Metrics.DECODED_PACKETS_PREFIX);
+        encodedBytes = metrics.counter(Mqtt5Metrics.ENCODED_BYTES);
+        encodedPackets = packetCounters(metrics, Mqtt5Metrics.ENCODED_PACKETS_PREFIX);
+        pingRoundTripTime = metrics.histogram(Mqtt5Metrics.PING_ROUND_TRIP_TIME);
+    }
+
+    @NotNull
+    private static Mqtt5Counter[] packetCounters(@NotNull final Mqtt5Metrics metrics, @NotNull final String prefix) {
+        final Mqtt5MessageType[] types = Mqtt5MessageType.values();
+        final Mqtt5Counter[] counters = new Mqtt5Counter[types.length];
+        for (final Mqtt5MessageType type : types) {
+            counters[type.getCode()] = metrics.counter(Mqtt5Metrics.packets(prefix, type));
+        }
+        return counters;
+    }
+
+    /**
+     * @return whether the metrics record anything. If not, the handlers skip reading the time for the histograms.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @NotNull
+    public Mqtt5Histogram getOutgoingQoS1Latency() {
+        return outgoingQoS1Latency;
+    }
+
+    @NotNull
+    public Mqtt5Histogram getOutgoingQoS2Latency() {
+        return outgoingQoS2Latency;
+    }
+
+    @NotNull
+    public Mqtt5Counter getIncomingPublishesQueued() {
+        return incomingPublishesQueued;
+    }
+
+    @NotNull
+    public Mqtt5Counter getIncomingFlowsBlocked() {
+        return incomingFlowsBlocked;
+    }
+
+    @NotNull
+    public Mqtt5Counter getTopicMatchCacheHits() {
+        return topicMatchCacheHits;
+    }
+
+    @NotNull
+    public Mqtt5Counter getTopicMatchCacheMisses() {
+        return topicMatchCacheMisses;
+    }
+
+    @NotNull
+    public Mqtt5Counter getTopicMatchCacheEvictions() {
+        return topicMatchCacheEvictions;
+    }
+
+    @NotNull
+    public Mqtt5Histogram getPingRoundTripTime() {
+        return pingRoundTripTime;
+    }
+
+    /**
+     * Records a decoded MQTT packet.
+     *
+     * @param messageTypeCode the code of the MQTT message type from the fixed header.
+     * @param packetSize      the size of the MQTT packet in bytes.
+     */
+    public void onDecoded(final int messageTypeCode, final int packetSize) {
+        decodedPackets[messageTypeCode].increment();
+        decodedBytes.add(packetSize);
+    }
+
+    /**
+     * Records an encoded MQTT packet.
+     *
+     * @param type       the MQTT message type.
+     * @param packetSize the size of the MQTT packet in bytes.
+     */
+    public void onEncoded(@NotNull final Mqtt5MessageType type, final int packetSize) {
+        encodedPackets[type.getCode()].increment();
+        encodedBytes.add(packetSize);
+    }
+
+}
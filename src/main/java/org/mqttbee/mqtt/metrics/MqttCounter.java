@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.metrics;
+
+import org.mqttbee.api.mqtt.mqtt5.advanced.metrics.Mqtt5Counter;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counter backed by a {@link LongAdder}, so concurrent updates are striped over multiple cells instead of contending
+ * on a single value.
+ *
+ * @author Silvio Giebl
+ */
+@ThreadSafe
+public class MqttCounter implements Mqtt5Counter {
+
+    private final LongAdder adder = new LongAdder();
+
+    @Override
+    public void increment() {
+        adder.increment();
+    }
+
+    @Override
+    public void decrement() {
+        adder.decrement();
+    }
+
+    @Override
+    public void add(final long amount) {
+        adder.add(amount);
+    }
+
+    @Override
+    public long get() {
+        return adder.sum();
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.metrics;
+
+import org.mqttbee.api.mqtt.mqtt5.advanced.metrics.Mqtt5Histogram;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram with log-linear buckets in the style of an HDR histogram.
+ * <p>
+ * Values below {@link #SUB_BUCKET_COUNT} have their own bucket. Every greater power of two range is divided into
+ * {@link #SUB_BUCKET_COUNT} linear buckets, so the relative error of a value is at most {@code 1 / SUB_BUCKET_COUNT}
+ * over the whole range of long values. All buckets are allocated up front, recording a value is a few bit operations
+ * and an atomic increment.
+ *
+ * @author Silvio Giebl
+ */
+@ThreadSafe
+public class MqttHistogram implements Mqtt5Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT = SUB_BUCKET_COUNT * (Long.SIZE - SUB_BUCKET_BITS + 1);
+
+    static int bucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (value < 0) ? 0 : (int) value;
+        }
+        final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    static long lowestValue(final int bucketIndex) {
+        if (bucketIndex < SUB_BUCKET_COUNT) {
+            return bucketIndex;
+        }
+        final int shift = (bucketIndex >> SUB_BUCKET_BITS) - 1;
+        return (long) (SUB_BUCKET_COUNT + (bucketIndex & (SUB_BUCKET_COUNT - 1))) << shift;
+    }
+
+    static long highestValue(final int bucketIndex) {
+        final long nextLowestValue = lowestValue(bucketIndex + 1);
+        return (nextLowestValue <= 0) ? Long.MAX_VALUE : nextLowestValue - 1;
+    }
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    @Override
+    public void record(final long value) {
+        buckets.incrementAndGet(bucketIndex(value));
+        count.increment();
+        max.accumulate(value);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getMax() {
+        return max.get();
+    }
+
+    @Override
+    public long getValueAtPercentile(final double percentile) {
+        final long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        final long max = getMax();
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += buckets.get(i);
+            if (cumulative >= rank) {
+                return Math.min(highestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+}
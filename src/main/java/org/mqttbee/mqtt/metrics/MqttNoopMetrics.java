@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.metrics;
+
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.api.mqtt.mqtt5.advanced.metrics.Mqtt5Counter;
+import org.mqttbee.api.mqtt.mqtt5.advanced.metrics.Mqtt5Histogram;
+import org.mqttbee.api.mqtt.mqtt5.advanced.metrics.Mqtt5Metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics which do not record anything. The client skips reading the time for its latency histograms if it uses these
+ * metrics.
+ *
+ * @author Silvio Giebl
+ */
+public class MqttNoopMetrics implements Mqtt5Metrics {
+
+    @NotNull
+    public static final MqttNoopMetrics INSTANCE = new MqttNoopMetrics();
+
+    private static final Mqtt5Counter COUNTER = new Mqtt5Counter() {
+        @Override
+        public void increment() {
+        }
+
+        @Override
+        public void decrement() {
+        }
+
+        @Override
+        public void add(final long amount) {
+        }
+
+        @Override
+        public long get() {
+            return 0;
+        }
+    };
+
+    private static final Mqtt5Histogram HISTOGRAM = new Mqtt5Histogram() {
+        @Override
+        public void record(final long value) {
+        }
+
+        @Override
+        public long getCount() {
+            return 0;
+        }
+
+        @Override
+        public long getMax() {
+            return 0;
+        }
+
+        @Override
+        public long getValueAtPercentile(final double percentile) {
+            return 0;
+        }
+    };
+
+    private MqttNoopMetrics() {
+    }
+
+    @NotNull
+    @Override
+    public Mqtt5Counter counter(@NotNull final String name) {
+        return COUNTER;
+    }
+
+    @NotNull
+    @Override
+    public Mqtt5Histogram histogram(@NotNull final String name) {
+        return HISTOGRAM;
+    }
+
+    @Override
+    public void gauge(@NotNull final String name, @NotNull final LongSupplier value) {
+    }
+
+}
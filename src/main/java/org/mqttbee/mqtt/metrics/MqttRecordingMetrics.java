@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.metrics;
+
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.annotations.Nullable;
+import org.mqttbee.api.mqtt.mqtt5.advanced.metrics.Mqtt5Counter;
+import org.mqttbee.api.mqtt.mqtt5.advanced.metrics.Mqtt5Histogram;
+import org.mqttbee.api.mqtt.mqtt5.advanced.metrics.Mqtt5Metrics;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics which record in memory with {@link MqttCounter}s and {@link MqttHistogram}s.
+ *
+ * @author Silvio Giebl
+ */
+@ThreadSafe
+public class MqttRecordingMetrics implements Mqtt5Metrics {
+
+    private final ConcurrentHashMap<String, MqttCounter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MqttHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    @NotNull
+    @Override
+    public Mqtt5Counter counter(@NotNull final String name) {
+        return counters.computeIfAbsent(name, n -> new MqttCounter());
+    }
+
+    @NotNull
+    @Override
+    public Mqtt5Histogram histogram(@NotNull final String name) {
+        return histograms.computeIfAbsent(name, n -> new MqttHistogram());
+    }
+
+    @Override
+    public void gauge(@NotNull final String name, @NotNull final LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Reads the gauge with the given name.
+     *
+     * @param name the name of the gauge.
+     * @return the current value of the gauge or null if no gauge with the name is registered.
+     */
+    @Nullable
+    public Long getGauge(@NotNull final String name) {
+        final LongSupplier gauge = gauges.get(name);
+        return (gauge == null) ? null : gauge.getAsLong();
+    }
+
+}
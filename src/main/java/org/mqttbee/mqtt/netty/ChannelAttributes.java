@@ -35,6 +35,9 @@ public class ChannelAttributes {
 
     private static final AttributeKey<Boolean> USE_DIRECT_BUFFER_FOR_PAYLOAD = AttributeKey.valueOf("direct.payload");
     private static final boolean USE_DIRECT_BUFFER_FOR_PAYLOAD_DEFAULT = false;
+    private static final AttributeKey<Boolean> RETAIN_INCOMING_PAYLOAD_BUFFER =
+            AttributeKey.valueOf("payload.incoming.retain");
+    private static final boolean RETAIN_INCOMING_PAYLOAD_BUFFER_DEFAULT = false;
     private static final AttributeKey<Boolean> USE_DIRECT_BUFFER_FOR_AUTH = AttributeKey.valueOf("direct.auth");
     private static final boolean USE_DIRECT_BUFFER_FOR_AUTH_DEFAULT = false;
     private static final AttributeKey<Boolean> USE_DIRECT_BUFFER_FOR_CORRELATION_DATA =
@@ -79,6 +82,14 @@ public class ChannelAttributes {
         set(channel, USE_DIRECT_BUFFER_FOR_PAYLOAD, use, USE_DIRECT_BUFFER_FOR_PAYLOAD_DEFAULT);
     }
 
+    public static boolean retainIncomingPayloadBuffer(@NotNull final Channel channel) {
+        return get(channel, RETAIN_INCOMING_PAYLOAD_BUFFER, RETAIN_INCOMING_PAYLOAD_BUFFER_DEFAULT);
+    }
+
+    public static void retainIncomingPayloadBuffer(final boolean retain, @NotNull final Channel channel) {
+        set(channel, RETAIN_INCOMING_PAYLOAD_BUFFER, retain, RETAIN_INCOMING_PAYLOAD_BUFFER_DEFAULT);
+    }
+
     public static boolean useDirectBufferForAuth(@NotNull final Channel channel) {
         return get(channel, USE_DIRECT_BUFFER_FOR_AUTH, USE_DIRECT_BUFFER_FOR_AUTH_DEFAULT);
     }
@@ -20,6 +20,7 @@ package org.mqttbee.mqtt.persistence;
 import org.mqttbee.annotations.NotNull;
 import org.mqttbee.mqtt.message.publish.pubrec.MqttPubRec;
 
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -36,4 +37,27 @@ public interface IncomingQoSFlowPersistence {
     @NotNull
     CompletableFuture<Void> discard(int packetIdentifier);
 
+    /**
+     * Stores a batch of PUBREC messages with a single write.
+     *
+     * @param pubRecs  the messages to store. The list is not used after this method returns, so it can be reused.
+     * @param callback the callback which is called once when all messages are stored.
+     */
+    void storeAll(@NotNull List<MqttPubRec> pubRecs, @NotNull PersistenceCallback callback);
+
+    /**
+     * Discards a batch of messages with a single write.
+     *
+     * @param packetIdentifiers the array containing the packet identifiers of the messages to discard. The array is
+     *                          not used after this method returns, so it can be reused.
+     * @param count             the count of packet identifiers in the array.
+     * @param callback          the callback which is called once when all messages are discarded.
+     */
+    void discardAll(@NotNull int[] packetIdentifiers, int count, @NotNull PersistenceCallback callback);
+
+    /**
+     * Discards all messages, for example because the server did not resume the session.
+     */
+    void clear();
+
 }
@@ -21,8 +21,10 @@ import dagger.Lazy;
 import dagger.Module;
 import dagger.Provides;
 import org.mqttbee.annotations.NotNull;
+import org.mqttbee.annotations.Nullable;
+import org.mqttbee.mqtt.MqttClientData;
 import org.mqttbee.mqtt.ioc.ChannelScope;
-import org.mqttbee.mqtt.persistence.memory.IncomingQoSFlowMemoryPersistence;
+import org.mqttbee.mqtt.persistence.file.OutgoingQoSFlowFilePersistence;
 import org.mqttbee.mqtt.persistence.memory.OutgoingQoSFlowMemoryPersistence;
 
 /**
@@ -34,17 +36,24 @@ public class MqttPersistenceModule {
     @Provides
     @ChannelScope
     static OutgoingQoSFlowPersistence provideOutgoingQoSFlowPersistence(
+            @NotNull final MqttClientData clientData,
             @NotNull final Lazy<OutgoingQoSFlowMemoryPersistence> memoryPersistence) {
 
-        return memoryPersistence.get(); // TODO file persistence
+        // the file persistence is opened once per client, as it contains the flows of all connections of the session
+        final OutgoingQoSFlowFilePersistence filePersistence = clientData.getSession().getOutgoingQoSFlowPersistence();
+        if (filePersistence != null) {
+            return filePersistence;
+        }
+        return memoryPersistence.get();
     }
 
     @Provides
     @ChannelScope
-    static IncomingQoSFlowPersistence provideIncomingQoSFlowPersistence(
-            @NotNull final Lazy<IncomingQoSFlowMemoryPersistence> memoryPersistence) {
-
-        return memoryPersistence.get(); // TODO file persistence
+    @Nullable
+    static IncomingQoSFlowPersistence provideIncomingQoSFlowPersistence(@NotNull final MqttClientData clientData) {
+        // the file persistence is opened once per client, without it the PUBRECs of a connection are only kept in the
+        // maps of the incoming QoS handler
+        return clientData.getSession().getIncomingQoSFlowPersistence();
     }
 
 }
@@ -22,6 +22,7 @@ import org.mqttbee.mqtt.message.publish.MqttPublishWrapper;
 import org.mqttbee.mqtt.message.publish.MqttQoSMessage;
 import org.mqttbee.mqtt.message.publish.pubrel.MqttPubRel;
 
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -41,4 +42,22 @@ public interface OutgoingQoSFlowPersistence {
     @NotNull
     CompletableFuture<Void> discard(int packetIdentifier);
 
+    /**
+     * Stores a batch of PUBLISH and PUBREL messages with a single write.
+     *
+     * @param messages the messages to store. The list is not used after this method returns, so it can be reused.
+     * @param callback the callback which is called once when all messages are stored.
+     */
+    void storeAll(@NotNull List<MqttQoSMessage> messages, @NotNull PersistenceCallback callback);
+
+    /**
+     * Discards a batch of messages with a single write.
+     *
+     * @param packetIdentifiers the array containing the packet identifiers of the messages to discard. The array is
+     *                          not used after this method returns, so it can be reused.
+     * @param count             the count of packet identifiers in the array.
+     * @param callback          the callback which is called once when all messages are discarded.
+     */
+    void discardAll(@NotNull int[] packetIdentifiers, int count, @NotNull PersistenceCallback callback);
+
 }
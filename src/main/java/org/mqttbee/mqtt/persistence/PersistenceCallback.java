@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.persistence;
+
+import org.mqttbee.annotations.NotNull;
+
+/**
+ * Callback for a batch of messages passed to a persistence.
+ * <p>
+ * Batches complete in the order they were passed to the persistence, so the caller can keep the messages in a queue
+ * and drain the given count of messages from its head. The callback may be called on any thread.
+ *
+ * @author Silvio Giebl
+ */
+public interface PersistenceCallback {
+
+    /**
+     * Called when all messages of a batch are persisted.
+     *
+     * @param count the count of messages in the batch.
+     */
+    void onPersisted(int count);
+
+    /**
+     * Called when persisting a batch failed.
+     *
+     * @param count the count of messages in the batch.
+     * @param cause the cause of the failure.
+     */
+    void onFailed(int count, @NotNull Throwable cause);
+
+}
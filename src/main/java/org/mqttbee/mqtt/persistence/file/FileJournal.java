@@ -0,0 +1,485 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.persistence.file;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.PlatformDependent;
+import org.mqttbee.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal which is split into memory-mapped segment files.
+ * <p>
+ * Records are appended by a single thread, usually the event loop of the channel. Appending only copies the record
+ * into the mapped segment, flushing the segments to disk happens on a sync thread which is shared by all journals.
+ * All {@link #sync()} futures which are requested while a flush is in progress are completed together by the next
+ * flush (group commit), so the amount of fsyncs does not grow with the message rate.
+ * <p>
+ * Record layout: length (4 bytes) | CRC32 (4 bytes) | type (1 byte) | packet identifier (2 bytes) | body. The length
+ * and CRC32 cover type, packet identifier and body. Recovery stops at the first record with an invalid length or
+ * checksum, which is how torn writes at the tail of the journal are detected.
+ *
+ * @author Silvio Giebl
+ */
+@NotThreadSafe
+public class FileJournal {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileJournal.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final int RECORD_HEADER_LENGTH = 8; // length + CRC32
+    private static final int RECORD_META_LENGTH = 3; // type + packet identifier
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    /**
+     * Single thread which flushes all memory-mapped persistence files, so no file I/O blocks the event loops.
+     */
+    static final Executor SYNC_EXECUTOR =
+            Executors.newSingleThreadExecutor(new DefaultThreadFactory("mqtt-bee-journal-sync", true));
+
+    /**
+     * Callback for the records which are read while recovering a journal.
+     */
+    @FunctionalInterface
+    interface RecordHandler {
+
+        /**
+         * Called for every valid record in the order in which the records were appended.
+         *
+         * @param segment          the segment which contains the record.
+         * @param type             the type of the record.
+         * @param packetIdentifier the packet identifier of the record.
+         * @param body             the body of the record, only valid for the duration of the call.
+         */
+        void onRecord(@NotNull Segment segment, int type, int packetIdentifier, @NotNull ByteBuf body);
+
+    }
+
+    private final Path directory;
+    private final String name;
+    private final int segmentSize;
+
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private Segment activeSegment;
+    private long nextSequence;
+    private final CRC32 crc = new CRC32();
+
+    private final ConcurrentLinkedQueue<CompletableFuture<Void>> pendingSyncs = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Segment> dirtySegments = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Segment> pendingDeletions = new ConcurrentLinkedQueue<>();
+    private final ArrayList<CompletableFuture<Void>> syncing = new ArrayList<>(); // only accessed by the sync thread
+    private final ArrayList<Segment> deleting = new ArrayList<>(); // only accessed by the sync thread
+    private final Runnable syncRunnable = this::runSync;
+    private final AtomicInteger wip = new AtomicInteger();
+
+    public FileJournal(@NotNull final Path directory, @NotNull final String name, final int segmentSize) {
+        this.directory = directory;
+        this.name = name;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Opens the journal and recovers all valid records of the existing segments.
+     * <p>
+     * Recovery runs on the sync thread, so it does not block the calling thread and is ordered after a previous {@link
+     * #close()} of a journal on the same files. The journal must not be used before the returned future completes.
+     *
+     * @param recordHandler the callback for the recovered records, called on the sync thread.
+     * @return a future which completes on the sync thread when all records are recovered, or exceptionally if the
+     * segment files can not be read or created.
+     */
+    @NotNull
+    CompletableFuture<Void> open(@NotNull final RecordHandler recordHandler) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        SYNC_EXECUTOR.execute(() -> {
+            try {
+                recover(recordHandler);
+                future.complete(null);
+            } catch (final Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    private void recover(@NotNull final RecordHandler recordHandler) throws IOException {
+        Files.createDirectories(directory);
+
+        final ArrayList<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, name + "-*" + SEGMENT_SUFFIX)) {
+            for (final Path path : stream) {
+                if (sequence(path) >= 0) {
+                    paths.add(path);
+                }
+            }
+        }
+        paths.sort((path1, path2) -> Long.compare(sequence(path1), sequence(path2)));
+
+        for (final Path path : paths) {
+            final long sequence = sequence(path);
+            final Segment segment = Segment.map(path, sequence, (int) Files.size(path));
+            scan(segment, recordHandler);
+            segments.add(segment);
+            nextSequence = sequence + 1;
+        }
+
+        if (segments.isEmpty()) {
+            activeSegment = newSegment(segmentSize);
+        } else {
+            activeSegment = segments.getLast();
+            clearTornRecord(activeSegment.buffer);
+        }
+    }
+
+    private void scan(@NotNull final Segment segment, @NotNull final RecordHandler recordHandler) {
+        final MappedByteBuffer buffer = segment.buffer;
+        final ByteBuf byteBuf = Unpooled.wrappedBuffer(buffer.duplicate());
+        final int capacity = buffer.capacity();
+
+        int position = 0;
+        while (position + RECORD_HEADER_LENGTH + RECORD_META_LENGTH <= capacity) {
+            final int length = byteBuf.getInt(position);
+            if ((length < RECORD_META_LENGTH) || (length > capacity - position - RECORD_HEADER_LENGTH)) {
+                break;
+            }
+            final int checksum = byteBuf.getInt(position + 4);
+            crc.reset();
+            crc.update(byteBuf.nioBuffer(position + RECORD_HEADER_LENGTH, length));
+            if ((int) crc.getValue() != checksum) {
+                LOGGER.warn("Journal segment {} contains a corrupt record at position {}, ignoring the rest",
+                        segment.path, position);
+                break;
+            }
+            final int type = byteBuf.getUnsignedByte(position + RECORD_HEADER_LENGTH);
+            final int packetIdentifier = byteBuf.getUnsignedShort(position + RECORD_HEADER_LENGTH + 1);
+            final ByteBuf body = byteBuf.slice(position + RECORD_HEADER_LENGTH + RECORD_META_LENGTH,
+                    length - RECORD_META_LENGTH);
+            recordHandler.onRecord(segment, type, packetIdentifier, body);
+            position += RECORD_HEADER_LENGTH + length;
+        }
+        buffer.position(position);
+    }
+
+    private static void clearTornRecord(@NotNull final MappedByteBuffer buffer) {
+        final int position = buffer.position();
+        if ((buffer.remaining() < 4) || (buffer.getInt(position) == 0)) {
+            return;
+        }
+        final int tornLength = buffer.getInt(position);
+        final int clearLength = ((tornLength < 0) || (tornLength > buffer.remaining() - RECORD_HEADER_LENGTH)) ?
+                buffer.remaining() : RECORD_HEADER_LENGTH + tornLength;
+        final byte[] zeros = new byte[Math.min(clearLength, 4096)];
+        for (int cleared = 0; cleared < clearLength; cleared += zeros.length) {
+            buffer.put(zeros, 0, Math.min(zeros.length, clearLength - cleared));
+        }
+        buffer.position(position);
+    }
+
+    /**
+     * Appends a record to the journal. The record is not durable until a following {@link #sync()} completes.
+     *
+     * @param type             the type of the record.
+     * @param packetIdentifier the packet identifier of the record.
+     * @param body             the heap byte buffer containing the body of the record between reader and writer index.
+     * @return the segment which contains the appended record.
+     * @throws IOException if a new segment file can not be created.
+     */
+    @NotNull
+    Segment append(final int type, final int packetIdentifier, @NotNull final ByteBuf body) throws IOException {
+        final int bodyLength = body.readableBytes();
+        final int length = RECORD_META_LENGTH + bodyLength;
+
+        Segment segment = activeSegment;
+        if (segment.buffer.remaining() < RECORD_HEADER_LENGTH + length) {
+            segment = newSegment(Math.max(segmentSize, RECORD_HEADER_LENGTH + length));
+            activeSegment = segment;
+        }
+
+        final byte[] array = body.array();
+        final int offset = body.arrayOffset() + body.readerIndex();
+        crc.reset();
+        crc.update(type);
+        crc.update(packetIdentifier >> 8);
+        crc.update(packetIdentifier);
+        crc.update(array, offset, bodyLength);
+
+        final MappedByteBuffer buffer = segment.buffer;
+        buffer.putInt(length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put((byte) type);
+        buffer.putShort((short) packetIdentifier);
+        buffer.put(array, offset, bodyLength);
+
+        if (segment.dirty.compareAndSet(false, true)) {
+            dirtySegments.offer(segment);
+        }
+        return segment;
+    }
+
+    /**
+     * Requests that all records appended until now are flushed to disk.
+     *
+     * @return a future which completes when the records are durable. It is completed on the sync thread together
+     * with all other futures which were requested while the previous flush was in progress.
+     */
+    @NotNull
+    CompletableFuture<Void> sync() {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        pendingSyncs.offer(future);
+        scheduleSync();
+        return future;
+    }
+
+    @NotNull
+    Segment getHeadSegment() {
+        return segments.getFirst();
+    }
+
+    @NotNull
+    Segment getActiveSegment() {
+        return activeSegment;
+    }
+
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Removes the oldest segment from the journal. Its file is deleted on the sync thread after all records which
+     * were appended until now are flushed, so records which were relocated out of the segment are durable before.
+     */
+    void deleteHeadSegment() {
+        final Segment segment = segments.getFirst();
+        assert segment != activeSegment;
+        segments.removeFirst();
+        pendingDeletions.offer(segment);
+        scheduleSync();
+    }
+
+    /**
+     * Closes the journal after all pending flushes. The journal must not be used afterwards.
+     *
+     * @return a future which completes when all segments are flushed and unmapped.
+     */
+    @NotNull
+    CompletableFuture<Void> close() {
+        final ArrayList<Segment> closing = new ArrayList<>(segments);
+        segments.clear();
+        return CompletableFuture.runAsync(() -> {
+            for (final Segment segment : closing) {
+                segment.close(false);
+            }
+        }, SYNC_EXECUTOR);
+    }
+
+    private void scheduleSync() {
+        if (wip.getAndIncrement() == 0) {
+            SYNC_EXECUTOR.execute(syncRunnable);
+        }
+    }
+
+    private void runSync() {
+        final int working = wip.get();
+
+        // futures and deletions must be polled before the dirty segments, as their records are appended before
+        CompletableFuture<Void> future;
+        while ((future = pendingSyncs.poll()) != null) {
+            syncing.add(future);
+        }
+        Segment segment;
+        while ((segment = pendingDeletions.poll()) != null) {
+            deleting.add(segment);
+        }
+
+        Throwable error = null;
+        while ((segment = dirtySegments.poll()) != null) {
+            segment.dirty.set(false);
+            try {
+                segment.force();
+            } catch (final Throwable t) {
+                error = t;
+            }
+        }
+
+        for (int i = 0; i < syncing.size(); i++) {
+            if (error == null) {
+                syncing.get(i).complete(null);
+            } else {
+                syncing.get(i).completeExceptionally(error);
+            }
+        }
+        syncing.clear();
+        if (error == null) {
+            for (int i = 0; i < deleting.size(); i++) {
+                deleting.get(i).close(true);
+            }
+        } else {
+            LOGGER.error("Flushing journal {} failed", name, error);
+            pendingDeletions.addAll(deleting);
+        }
+        deleting.clear();
+
+        if (wip.addAndGet(-working) > 0) {
+            SYNC_EXECUTOR.execute(syncRunnable);
+        }
+    }
+
+    @NotNull
+    private Segment newSegment(final int size) throws IOException {
+        final long sequence = nextSequence++;
+        final Path path = directory.resolve(String.format("%s-%016x%s", name, sequence, SEGMENT_SUFFIX));
+        final Segment segment = Segment.map(path, sequence, size);
+        segments.add(segment);
+        return segment;
+    }
+
+    private long sequence(@NotNull final Path path) {
+        final String fileName = path.getFileName().toString();
+        final int start = name.length() + 1;
+        final int end = fileName.length() - SEGMENT_SUFFIX.length();
+        if (end - start != 16) {
+            return -1;
+        }
+        try {
+            return Long.parseUnsignedLong(fileName.substring(start, end), 16);
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+
+    /**
+     * Memory-mapped segment file of a journal.
+     * <p>
+     * The position of the mapped buffer is the append position and is only accessed by the appending thread, as well
+     * as the live count and the first live packet identifier. The buffer is only flushed and unmapped on the sync
+     * thread.
+     */
+    static class Segment {
+
+        static final int NO_LIVE = -1;
+
+        @NotNull
+        private static Segment map(@NotNull final Path path, final long sequence, final int size) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+
+                return new Segment(path, sequence, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+
+        private final Path path;
+        private final long sequence;
+        private final MappedByteBuffer buffer;
+        private final AtomicBoolean dirty = new AtomicBoolean();
+        private int liveCount;
+        private int firstLive = NO_LIVE;
+        private boolean closed;
+
+        private Segment(@NotNull final Path path, final long sequence, @NotNull final MappedByteBuffer buffer) {
+            this.path = path;
+            this.sequence = sequence;
+            this.buffer = buffer;
+        }
+
+        long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return the amount of records in this segment which are not superseded by a record in a later segment.
+         */
+        int getLiveCount() {
+            return liveCount;
+        }
+
+        void retain() {
+            liveCount++;
+        }
+
+        void release() {
+            liveCount--;
+        }
+
+        /**
+         * @return the head of the list of the packet identifiers of the live records in this segment, which is
+         * maintained by the user of the journal, or {@link #NO_LIVE} if the list is empty.
+         */
+        int getFirstLive() {
+            return firstLive;
+        }
+
+        void setFirstLive(final int firstLive) {
+            this.firstLive = firstLive;
+        }
+
+        private void force() {
+            if (!closed) {
+                buffer.force();
+            }
+        }
+
+        private void close(final boolean delete) {
+            if (closed) {
+                return;
+            }
+            if (!delete) {
+                buffer.force();
+            }
+            closed = true;
+            PlatformDependent.freeDirectBuffer(buffer);
+            if (delete) {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (final IOException e) {
+                    LOGGER.error("Deleting journal segment {} failed", path, e);
+                }
+            }
+        }
+
+        @NotNull
+        @Override
+        public String toString() {
+            return path.toString();
+        }
+
+    }
+
+}
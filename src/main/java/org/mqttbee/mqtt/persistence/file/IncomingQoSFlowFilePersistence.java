@@ -0,0 +1,348 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.persistence.file;
+
+import io.netty.util.internal.PlatformDependent;
+import org.jctools.queues.MpscUnboundedArrayQueue;
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.pubrec.Mqtt5PubRecReasonCode;
+import org.mqttbee.mqtt.MqttVersion;
+import org.mqttbee.mqtt.codec.encoder.mqtt3.Mqtt3PubRecEncoder;
+import org.mqttbee.mqtt.codec.encoder.mqtt5.Mqtt5PubRecEncoder;
+import org.mqttbee.mqtt.codec.encoder.provider.MqttPubRecEncoderProvider;
+import org.mqttbee.mqtt.datatypes.MqttUserPropertiesImpl;
+import org.mqttbee.mqtt.message.publish.pubrec.MqttPubRec;
+import org.mqttbee.mqtt.persistence.IncomingQoSFlowPersistence;
+import org.mqttbee.mqtt.persistence.PersistenceCallback;
+import org.mqttbee.util.UnsignedDataTypes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Incoming QoS flow persistence which stores every PUBREC in a fixed size slot of a memory-mapped file.
+ * <p>
+ * The file consists of a header followed by one 8 byte slot per packet identifier. A slot is written with a single
+ * aligned long store, so it is either completely written or not at all. Only the packet identifier and the reason
+ * code of a PUBREC are stored, the reason string and user properties are not recovered.
+ * <p>
+ * The persistence belongs to the session and is opened once per client on the {@link FileJournal#SYNC_EXECUTOR sync
+ * thread}, see {@link #open()}. The magic number of the header is written last when the file is created, so an
+ * incompletely created file is detected and reinitialized. Recovery is a single sequential read over all slots.
+ * <p>
+ * Writes to the mapped file survive a crash of the process immediately. Flushing to the storage device happens on the
+ * sync thread coalesced for all writes since the last flush. The futures returned by {@link #store(MqttPubRec)}
+ * complete after the flush, so a PUBREC sent afterwards also survives a crash of the machine.
+ *
+ * @author Silvio Giebl
+ */
+public class IncomingQoSFlowFilePersistence implements IncomingQoSFlowPersistence {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IncomingQoSFlowFilePersistence.class);
+
+    private static final String FILE_NAME = "incoming.slots";
+    private static final int MAGIC = 0x4d514249; // MQBI
+    private static final int FORMAT_VERSION = 1;
+    private static final int SLOT_COUNT = UnsignedDataTypes.UNSIGNED_SHORT_MAX_VALUE + 1;
+    private static final int SLOT_SIZE = 8;
+    private static final int HEADER_SIZE = 64; // keeps the slots aligned
+    private static final int FILE_SIZE = HEADER_SIZE + SLOT_COUNT * SLOT_SIZE;
+
+    private static final int HEADER_MAGIC_OFFSET = 0;
+    private static final int HEADER_VERSION_OFFSET = 4;
+    private static final int HEADER_SLOT_COUNT_OFFSET = 8;
+    private static final int HEADER_SLOT_SIZE_OFFSET = 12;
+
+    private static final long SLOT_TAG = 0xA5L << 56;
+    private static final long SLOT_TAG_MASK = 0xFFL << 56;
+
+    @NotNull
+    private static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
+    @NotNull
+    private static final CompletableFuture<MqttPubRec> NOT_FOUND = CompletableFuture.completedFuture(null);
+
+    private final Path path;
+    private final MqttPubRecEncoderProvider encoderProvider;
+    private final MqttPubRec[] pubRecs;
+    private MappedByteBuffer buffer; // published to the event loop by the completion of the future of open
+
+    private final AtomicInteger wip = new AtomicInteger();
+    private final Runnable syncRunnable = this::runSync;
+    private final MpscUnboundedArrayQueue<CompletableFuture<Void>> unsyncedFutures = new MpscUnboundedArrayQueue<>(64);
+    private volatile boolean closed;
+
+    public IncomingQoSFlowFilePersistence(@NotNull final File directory, @NotNull final MqttVersion mqttVersion) {
+        path = directory.toPath().resolve(FILE_NAME);
+        encoderProvider =
+                (mqttVersion == MqttVersion.MQTT_5_0) ? Mqtt5PubRecEncoder.PROVIDER : Mqtt3PubRecEncoder.PROVIDER;
+        pubRecs = new MqttPubRec[SLOT_COUNT];
+    }
+
+    /**
+     * Opens, maps and recovers the file on the sync thread. The persistence must not be used before the returned future
+     * completed successfully.
+     *
+     * @return a future which completes when the PUBRECs of a previous run are recovered.
+     */
+    @NotNull
+    public CompletableFuture<Void> open() {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                buffer = map(path);
+            } catch (final IOException e) {
+                throw new IllegalStateException("Opening incoming QoS flow persistence failed", e);
+            }
+            if (isInitialized(buffer)) {
+                recover();
+            } else {
+                LOGGER.debug("Initializing incoming QoS flow persistence file {}", path);
+                initialize();
+            }
+        }, FileJournal.SYNC_EXECUTOR);
+    }
+
+    @NotNull
+    private static MappedByteBuffer map(@NotNull final Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+
+            if (channel.size() > FILE_SIZE) {
+                channel.truncate(FILE_SIZE);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+        }
+        return buffer;
+    }
+
+    private static boolean isInitialized(@NotNull final MappedByteBuffer buffer) {
+        return (buffer.getInt(HEADER_MAGIC_OFFSET) == MAGIC) &&
+                (buffer.getInt(HEADER_VERSION_OFFSET) == FORMAT_VERSION) &&
+                (buffer.getInt(HEADER_SLOT_COUNT_OFFSET) == SLOT_COUNT) &&
+                (buffer.getInt(HEADER_SLOT_SIZE_OFFSET) == SLOT_SIZE);
+    }
+
+    /**
+     * Clears all slots and writes the header. The magic number is written between two flushes, so it only reaches the
+     * storage device after the cleared slots.
+     */
+    private void initialize() {
+        buffer.putInt(HEADER_MAGIC_OFFSET, 0);
+        for (int offset = HEADER_SIZE; offset < FILE_SIZE; offset += SLOT_SIZE) {
+            buffer.putLong(offset, 0);
+        }
+        buffer.putInt(HEADER_VERSION_OFFSET, FORMAT_VERSION);
+        buffer.putInt(HEADER_SLOT_COUNT_OFFSET, SLOT_COUNT);
+        buffer.putInt(HEADER_SLOT_SIZE_OFFSET, SLOT_SIZE);
+        buffer.force();
+        buffer.putInt(HEADER_MAGIC_OFFSET, MAGIC);
+        buffer.force();
+    }
+
+    private void recover() {
+        for (int packetIdentifier = 0; packetIdentifier < SLOT_COUNT; packetIdentifier++) {
+            final long slot = buffer.getLong(slotOffset(packetIdentifier));
+            if (slot == 0) {
+                continue;
+            }
+            final Mqtt5PubRecReasonCode reasonCode = Mqtt5PubRecReasonCode.fromCode(reasonCode(slot));
+            if (((slot & SLOT_TAG_MASK) != SLOT_TAG) || (packetIdentifier(slot) != packetIdentifier) ||
+                    (reasonCode == null)) {
+
+                LOGGER.warn("Recovered slot for packet identifier {} can not be read, ignoring it", packetIdentifier);
+                buffer.putLong(slotOffset(packetIdentifier), 0);
+                continue;
+            }
+            pubRecs[packetIdentifier] =
+                    new MqttPubRec(packetIdentifier, reasonCode, null, MqttUserPropertiesImpl.NO_USER_PROPERTIES,
+                            encoderProvider);
+        }
+    }
+
+    /**
+     * Stores the PUBREC in its slot.
+     *
+     * @return a future which completes when the slot is flushed to the storage device.
+     */
+    @NotNull
+    @Override
+    public CompletableFuture<Void> store(@NotNull final MqttPubRec pubRec) {
+        write(pubRec);
+        return sync();
+    }
+
+    @NotNull
+    @Override
+    public CompletableFuture<MqttPubRec> get(final int packetIdentifier) {
+        final MqttPubRec pubRec = pubRecs[packetIdentifier];
+        return (pubRec == null) ? NOT_FOUND : CompletableFuture.completedFuture(pubRec);
+    }
+
+    @NotNull
+    @Override
+    public CompletableFuture<Void> discard(final int packetIdentifier) {
+        if (clear(packetIdentifier)) {
+            scheduleSync();
+        }
+        return COMPLETED;
+    }
+
+    @Override
+    public void storeAll(@NotNull final List<MqttPubRec> pubRecs, @NotNull final PersistenceCallback callback) {
+        final int count = pubRecs.size();
+        for (int i = 0; i < count; i++) {
+            write(pubRecs.get(i));
+        }
+        sync().whenComplete((ignored, throwable) -> {
+            if (throwable == null) {
+                callback.onPersisted(count);
+            } else {
+                callback.onFailed(count, throwable);
+            }
+        });
+    }
+
+    @Override
+    public void discardAll(
+            @NotNull final int[] packetIdentifiers, final int count, @NotNull final PersistenceCallback callback) {
+
+        boolean cleared = false;
+        for (int i = 0; i < count; i++) {
+            cleared |= clear(packetIdentifiers[i]);
+        }
+        if (cleared) {
+            scheduleSync();
+        }
+        callback.onPersisted(count);
+    }
+
+    @Override
+    public void clear() {
+        boolean cleared = false;
+        for (int packetIdentifier = 0; packetIdentifier < SLOT_COUNT; packetIdentifier++) {
+            cleared |= clear(packetIdentifier);
+        }
+        if (cleared) {
+            scheduleSync();
+        }
+    }
+
+    private void write(@NotNull final MqttPubRec pubRec) {
+        final int packetIdentifier = pubRec.getPacketIdentifier();
+        buffer.putLong(slotOffset(packetIdentifier), slot(packetIdentifier, pubRec.getReasonCode().getCode()));
+        pubRecs[packetIdentifier] = pubRec;
+    }
+
+    private boolean clear(final int packetIdentifier) {
+        if (pubRecs[packetIdentifier] == null) {
+            return false;
+        }
+        buffer.putLong(slotOffset(packetIdentifier), 0);
+        pubRecs[packetIdentifier] = null;
+        return true;
+    }
+
+    private static int slotOffset(final int packetIdentifier) {
+        return HEADER_SIZE + packetIdentifier * SLOT_SIZE;
+    }
+
+    private static long slot(final int packetIdentifier, final int reasonCode) {
+        return SLOT_TAG | ((long) reasonCode << 16) | packetIdentifier;
+    }
+
+    private static int packetIdentifier(final long slot) {
+        return (int) (slot & 0xFFFF);
+    }
+
+    private static int reasonCode(final long slot) {
+        return (int) ((slot >>> 16) & 0xFF);
+    }
+
+    @NotNull
+    private CompletableFuture<Void> sync() {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        unsyncedFutures.offer(future);
+        scheduleSync();
+        return future;
+    }
+
+    private void scheduleSync() {
+        if (wip.getAndIncrement() == 0) {
+            FileJournal.SYNC_EXECUTOR.execute(syncRunnable);
+        }
+    }
+
+    /**
+     * Flushes all writes since the last flush and completes the futures of the PUBRECs which were stored before the
+     * flush started.
+     */
+    private void runSync() {
+        final int working = wip.get();
+        final int futures = unsyncedFutures.size();
+        Throwable cause = null;
+        if (!closed) {
+            try {
+                buffer.force();
+            } catch (final Throwable t) {
+                LOGGER.error("Flushing incoming QoS flow persistence failed", t);
+                cause = t;
+            }
+        }
+        for (int i = 0; i < futures; i++) {
+            final CompletableFuture<Void> future = unsyncedFutures.poll();
+            if (cause == null) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(cause);
+            }
+        }
+        if (wip.addAndGet(-working) > 0) {
+            FileJournal.SYNC_EXECUTOR.execute(syncRunnable);
+        }
+    }
+
+    /**
+     * Closes the file after all pending flushes. The persistence must not be used afterwards.
+     *
+     * @return a future which completes when the file is closed.
+     */
+    @NotNull
+    public CompletableFuture<Void> close() {
+        return CompletableFuture.runAsync(() -> {
+            if (!closed) {
+                closed = true;
+                if (buffer != null) {
+                    buffer.force();
+                    PlatformDependent.freeDirectBuffer(buffer);
+                }
+            }
+        }, FileJournal.SYNC_EXECUTOR);
+    }
+
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.persistence.file;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.annotations.Nullable;
+import org.mqttbee.mqtt.MqttVersion;
+import org.mqttbee.mqtt.message.publish.MqttPublishWrapper;
+import org.mqttbee.mqtt.message.publish.MqttQoSMessage;
+import org.mqttbee.mqtt.message.publish.pubrel.MqttPubRel;
+import org.mqttbee.mqtt.persistence.OutgoingQoSFlowPersistence;
+import org.mqttbee.mqtt.persistence.PersistenceCallback;
+import org.mqttbee.util.UnsignedDataTypes;
+import org.mqttbee.util.collections.IntMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Outgoing QoS flow persistence which appends the stored messages to a {@link FileJournal}.
+ * <p>
+ * The messages are additionally kept in memory, so {@link #get(int)} does not read from the file. The file is only
+ * read once per client to recover the messages of a previous run, see {@link #open(Consumer)}. The persistence
+ * belongs to the client session and is used by the connections of the client one after another.
+ * <p>
+ * Every packet identifier maps to the segment containing its latest record. The packet identifiers of the live records
+ * of a segment are linked in a list, so the live records are found without scanning all packet identifiers.
+ * Discarding a packet identifier appends a tombstone record. Segments without live records are deleted. If the journal
+ * grows beyond {@link #MAX_SEGMENTS} the live records of the oldest segment are relocated to the active segment.
+ *
+ * @author Silvio Giebl
+ */
+@NotThreadSafe
+public class OutgoingQoSFlowFilePersistence implements OutgoingQoSFlowPersistence {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutgoingQoSFlowFilePersistence.class);
+
+    private static final String JOURNAL_NAME = "outgoing";
+    private static final int MAX_SEGMENTS = 4;
+
+    private static final int RECORD_PUBLISH = 1;
+    private static final int RECORD_PUBREL = 2;
+    private static final int RECORD_DISCARD = 3;
+
+    private final MqttVersion mqttVersion;
+    private final FileJournal journal;
+    private final IntMap<MqttQoSMessage> messages;
+    private final FileJournal.Segment[] segments;
+    // doubly linked lists of the packet identifiers of the live records of every segment
+    private final int[] nextLive;
+    private final int[] previousLive;
+    private final ByteBuf recordBuffer = Unpooled.buffer(256);
+
+    public OutgoingQoSFlowFilePersistence(@NotNull final File directory, @NotNull final MqttVersion mqttVersion) {
+        this(directory, mqttVersion, FileJournal.DEFAULT_SEGMENT_SIZE);
+    }
+
+    OutgoingQoSFlowFilePersistence(
+            @NotNull final File directory, @NotNull final MqttVersion mqttVersion, final int segmentSize) {
+
+        this.mqttVersion = mqttVersion;
+        messages = new IntMap<>(UnsignedDataTypes.UNSIGNED_SHORT_MAX_VALUE);
+        segments = new FileJournal.Segment[UnsignedDataTypes.UNSIGNED_SHORT_MAX_VALUE + 1];
+        nextLive = new int[UnsignedDataTypes.UNSIGNED_SHORT_MAX_VALUE + 1];
+        previousLive = new int[UnsignedDataTypes.UNSIGNED_SHORT_MAX_VALUE + 1];
+        journal = new FileJournal(directory.toPath(), JOURNAL_NAME, segmentSize);
+    }
+
+    /**
+     * Opens the journal and recovers the messages of a previous run without blocking the calling thread. The
+     * persistence must not be used before the returned future completes.
+     *
+     * @param recoveredConsumer the consumer of the recovered messages, called ordered by their packet identifier on the
+     *                          sync thread before the returned future completes.
+     * @return a future which completes when all messages are recovered.
+     */
+    @NotNull
+    public CompletableFuture<Void> open(@NotNull final Consumer<MqttQoSMessage> recoveredConsumer) {
+        return journal.open(this::recover).thenRun(() -> {
+            for (int packetIdentifier = 0; packetIdentifier < segments.length; packetIdentifier++) {
+                if (segments[packetIdentifier] != null) {
+                    recoveredConsumer.accept(messages.get(packetIdentifier));
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the journal after all pending flushes. The persistence must not be used afterwards.
+     *
+     * @return a future which completes when the journal is closed.
+     */
+    @NotNull
+    public CompletableFuture<Void> close() {
+        return journal.close();
+    }
+
+    private void recover(
+            @NotNull final FileJournal.Segment segment, final int type, final int packetIdentifier,
+            @NotNull final ByteBuf body) {
+
+        MqttQoSMessage message = null;
+        switch (type) {
+            case RECORD_PUBLISH:
+                message = QoSMessageSerializer.deserializePublish(packetIdentifier, body, mqttVersion);
+                break;
+            case RECORD_PUBREL:
+                message = QoSMessageSerializer.deserializePubRel(packetIdentifier, body, mqttVersion);
+                break;
+        }
+        if ((message == null) && (type != RECORD_DISCARD)) {
+            LOGGER.warn("Recovered record for packet identifier {} can not be read, ignoring it", packetIdentifier);
+        }
+        update(packetIdentifier, segment, message);
+    }
+
+    @NotNull
+    @Override
+    public CompletableFuture<Void> store(@NotNull final MqttPublishWrapper publishWrapper) {
+        return storeAndSync(publishWrapper);
+    }
+
+    @NotNull
+    @Override
+    public CompletableFuture<Void> store(@NotNull final MqttPubRel pubRel) {
+        return storeAndSync(pubRel);
+    }
+
+    @NotNull
+    @Override
+    public CompletableFuture<MqttQoSMessage> get(final int packetIdentifier) {
+        return CompletableFuture.completedFuture(messages.get(packetIdentifier));
+    }
+
+    @NotNull
+    @Override
+    public CompletableFuture<Void> discard(final int packetIdentifier) {
+        if (segments[packetIdentifier] == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        recordBuffer.clear();
+        return appendAndSync(RECORD_DISCARD, packetIdentifier, null);
+    }
+
+    @Override
+    public void storeAll(@NotNull final List<MqttQoSMessage> messages, @NotNull final PersistenceCallback callback) {
+        final int count = messages.size();
+        try {
+            for (int i = 0; i < count; i++) {
+                append(messages.get(i));
+            }
+            compact();
+        } catch (final IOException e) {
+            callback.onFailed(count, e);
+            return;
+        }
+        sync(count, callback);
+    }
+
+    @Override
+    public void discardAll(
+            @NotNull final int[] packetIdentifiers, final int count, @NotNull final PersistenceCallback callback) {
+
+        try {
+            for (int i = 0; i < count; i++) {
+                final int packetIdentifier = packetIdentifiers[i];
+                if (segments[packetIdentifier] != null) {
+                    recordBuffer.clear();
+                    append(RECORD_DISCARD, packetIdentifier, null);
+                }
+            }
+            compact();
+        } catch (final IOException e) {
+            callback.onFailed(count, e);
+            return;
+        }
+        sync(count, callback);
+    }
+
+    private void sync(final int count, @NotNull final PersistenceCallback callback) {
+        journal.sync().whenComplete((ignored, throwable) -> {
+            if (throwable == null) {
+                callback.onPersisted(count);
+            } else {
+                callback.onFailed(count, throwable);
+            }
+        });
+    }
+
+    @NotNull
+    private CompletableFuture<Void> storeAndSync(@NotNull final MqttQoSMessage message) {
+        try {
+            append(message);
+            compact();
+        } catch (final IOException e) {
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        return journal.sync();
+    }
+
+    @NotNull
+    private CompletableFuture<Void> appendAndSync(
+            final int type, final int packetIdentifier, @Nullable final MqttQoSMessage message) {
+
+        try {
+            append(type, packetIdentifier, message);
+            compact();
+        } catch (final IOException e) {
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        return journal.sync();
+    }
+
+    private void append(@NotNull final MqttQoSMessage message) throws IOException {
+        recordBuffer.clear();
+        if (message instanceof MqttPublishWrapper) {
+            QoSMessageSerializer.serialize((MqttPublishWrapper) message, recordBuffer);
+            append(RECORD_PUBLISH, message.getPacketIdentifier(), message);
+        } else if (message instanceof MqttPubRel) {
+            QoSMessageSerializer.serialize((MqttPubRel) message, recordBuffer);
+            append(RECORD_PUBREL, message.getPacketIdentifier(), message);
+        }
+    }
+
+    private void append(final int type, final int packetIdentifier, @Nullable final MqttQoSMessage message)
+            throws IOException {
+
+        update(packetIdentifier, journal.append(type, packetIdentifier, recordBuffer), message);
+    }
+
+    private void update(
+            final int packetIdentifier, @NotNull final FileJournal.Segment segment,
+            @Nullable final MqttQoSMessage message) {
+
+        final FileJournal.Segment previousSegment = segments[packetIdentifier];
+        if (previousSegment != null) {
+            unlink(previousSegment, packetIdentifier);
+            previousSegment.release();
+        }
+        if (message == null) {
+            segments[packetIdentifier] = null;
+            messages.remove(packetIdentifier);
+        } else {
+            segment.retain();
+            link(segment, packetIdentifier);
+            segments[packetIdentifier] = segment;
+            messages.put(packetIdentifier, message);
+        }
+    }
+
+    private void link(@NotNull final FileJournal.Segment segment, final int packetIdentifier) {
+        final int first = segment.getFirstLive();
+        nextLive[packetIdentifier] = first;
+        previousLive[packetIdentifier] = FileJournal.Segment.NO_LIVE;
+        if (first != FileJournal.Segment.NO_LIVE) {
+            previousLive[first] = packetIdentifier;
+        }
+        segment.setFirstLive(packetIdentifier);
+    }
+
+    private void unlink(@NotNull final FileJournal.Segment segment, final int packetIdentifier) {
+        final int next = nextLive[packetIdentifier];
+        final int previous = previousLive[packetIdentifier];
+        if (previous == FileJournal.Segment.NO_LIVE) {
+            segment.setFirstLive(next);
+        } else {
+            nextLive[previous] = next;
+        }
+        if (next != FileJournal.Segment.NO_LIVE) {
+            previousLive[next] = previous;
+        }
+    }
+
+    private void compact() throws IOException {
+        FileJournal.Segment head = journal.getHeadSegment();
+        while ((head != journal.getActiveSegment()) && (head.getLiveCount() == 0)) {
+            journal.deleteHeadSegment();
+            head = journal.getHeadSegment();
+        }
+        if (journal.getSegmentCount() > MAX_SEGMENTS) {
+            // relocating a record unlinks its packet identifier from the head segment
+            int packetIdentifier;
+            while ((packetIdentifier = head.getFirstLive()) != FileJournal.Segment.NO_LIVE) {
+                final MqttQoSMessage message = messages.get(packetIdentifier);
+                assert message != null;
+                append(message);
+            }
+            journal.deleteHeadSegment();
+        }
+    }
+
+}
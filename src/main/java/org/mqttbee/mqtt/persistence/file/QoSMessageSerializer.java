@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.persistence.file;
+
+import com.google.common.collect.ImmutableList;
+import io.netty.buffer.ByteBuf;
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.annotations.Nullable;
+import org.mqttbee.api.mqtt.datatypes.MqttQoS;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.Mqtt5PayloadFormatIndicator;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.TopicAliasUsage;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.pubrel.Mqtt5PubRelReasonCode;
+import org.mqttbee.mqtt.MqttVersion;
+import org.mqttbee.mqtt.codec.encoder.mqtt3.Mqtt3PubRelEncoder;
+import org.mqttbee.mqtt.codec.encoder.mqtt3.Mqtt3PublishEncoder;
+import org.mqttbee.mqtt.codec.encoder.mqtt5.Mqtt5PubRelEncoder;
+import org.mqttbee.mqtt.codec.encoder.mqtt5.Mqtt5PublishEncoder;
+import org.mqttbee.mqtt.datatypes.*;
+import org.mqttbee.mqtt.message.publish.MqttPublish;
+import org.mqttbee.mqtt.message.publish.MqttPublishWrapper;
+import org.mqttbee.mqtt.message.publish.pubrel.MqttPubRel;
+
+import java.nio.ByteBuffer;
+
+import static org.mqttbee.mqtt.message.publish.MqttPublishWrapper.DEFAULT_NO_SUBSCRIPTION_IDENTIFIERS;
+import static org.mqttbee.mqtt.message.publish.MqttPublishWrapper.DEFAULT_NO_TOPIC_ALIAS;
+
+/**
+ * Serializes the messages of outgoing QoS flows to the compact binary format used by the file persistence.
+ * <p>
+ * The format is not the MQTT wire format, as it must not depend on connection specific state like topic aliases or
+ * the maximum packet size of the server.
+ *
+ * @author Silvio Giebl
+ */
+class QoSMessageSerializer {
+
+    private static final int NULL = -1;
+
+    static void serialize(@NotNull final MqttPublishWrapper publishWrapper, @NotNull final ByteBuf out) {
+        final MqttPublish publish = publishWrapper.getWrapped();
+
+        int flags = publish.getQos().getCode();
+        if (publish.isRetain()) {
+            flags |= 0b100;
+        }
+        if (publishWrapper.isDup()) {
+            flags |= 0b1000;
+        }
+        out.writeByte(flags);
+        out.writeByte(publish.getTopicAliasUsage().ordinal());
+        publish.getTopic().to(out);
+        out.writeLong(publish.getRawMessageExpiryInterval());
+        final Mqtt5PayloadFormatIndicator payloadFormatIndicator = publish.getRawPayloadFormatIndicator();
+        out.writeByte((payloadFormatIndicator == null) ? NULL : payloadFormatIndicator.getCode());
+        serializeNullable(publish.getRawContentType(), out);
+        serializeNullable(publish.getRawResponseTopic(), out);
+        serializeNullable(publish.getRawCorrelationData(), out);
+        serialize(publish.getUserProperties(), out);
+
+        final ByteBuffer payload = publish.getRawPayload();
+        if (payload == null) {
+            out.writeInt(NULL);
+        } else {
+            out.writeInt(payload.remaining());
+            out.writeBytes(payload.duplicate());
+        }
+    }
+
+    static void serialize(@NotNull final MqttPubRel pubRel, @NotNull final ByteBuf out) {
+        out.writeByte(pubRel.getReasonCode().getCode());
+        serializeNullable(pubRel.getRawReasonString(), out);
+        serialize(pubRel.getUserProperties(), out);
+    }
+
+    @Nullable
+    static MqttPublishWrapper deserializePublish(
+            final int packetIdentifier, @NotNull final ByteBuf in, @NotNull final MqttVersion mqttVersion) {
+
+        final int flags = in.readUnsignedByte();
+        final MqttQoS qos = MqttQoS.fromCode(flags & 0b11);
+        final boolean isRetain = (flags & 0b100) != 0;
+        final boolean isDup = (flags & 0b1000) != 0;
+        final TopicAliasUsage topicAliasUsage = TopicAliasUsage.values()[in.readUnsignedByte()];
+        final MqttTopicImpl topic = MqttTopicImpl.from(in);
+        if ((qos == null) || (topic == null)) {
+            return null;
+        }
+        final long messageExpiryInterval = in.readLong();
+        final byte payloadFormatIndicatorCode = in.readByte();
+        final Mqtt5PayloadFormatIndicator payloadFormatIndicator =
+                (payloadFormatIndicatorCode == NULL) ? null :
+                        Mqtt5PayloadFormatIndicator.fromCode(payloadFormatIndicatorCode);
+        final MqttUTF8StringImpl contentType = in.readBoolean() ? MqttUTF8StringImpl.from(in) : null;
+        final MqttTopicImpl responseTopic = in.readBoolean() ? MqttTopicImpl.from(in) : null;
+        final ByteBuffer correlationData = in.readBoolean() ? MqttBinaryData.decode(in, false) : null;
+        final MqttUserPropertiesImpl userProperties = deserializeUserProperties(in);
+        if (userProperties == null) {
+            return null;
+        }
+
+        final int payloadLength = in.readInt();
+        ByteBuffer payload = null;
+        if (payloadLength != NULL) {
+            payload = ByteBuffer.allocate(payloadLength);
+            in.readBytes(payload);
+            payload.position(0);
+        }
+
+        final MqttPublish publish =
+                new MqttPublish(topic, payload, qos, isRetain, messageExpiryInterval, payloadFormatIndicator,
+                        contentType, responseTopic, correlationData, topicAliasUsage, userProperties,
+                        (mqttVersion == MqttVersion.MQTT_5_0) ? Mqtt5PublishEncoder.PROVIDER :
+                                Mqtt3PublishEncoder.PROVIDER);
+        return publish.wrap(packetIdentifier, isDup, DEFAULT_NO_TOPIC_ALIAS, false,
+                DEFAULT_NO_SUBSCRIPTION_IDENTIFIERS);
+    }
+
+    @Nullable
+    static MqttPubRel deserializePubRel(
+            final int packetIdentifier, @NotNull final ByteBuf in, @NotNull final MqttVersion mqttVersion) {
+
+        final Mqtt5PubRelReasonCode reasonCode = Mqtt5PubRelReasonCode.fromCode(in.readUnsignedByte());
+        final MqttUTF8StringImpl reasonString = in.readBoolean() ? MqttUTF8StringImpl.from(in) : null;
+        final MqttUserPropertiesImpl userProperties = deserializeUserProperties(in);
+        if ((reasonCode == null) || (userProperties == null)) {
+            return null;
+        }
+        return new MqttPubRel(packetIdentifier, reasonCode, reasonString, userProperties,
+                (mqttVersion == MqttVersion.MQTT_5_0) ? Mqtt5PubRelEncoder.PROVIDER : Mqtt3PubRelEncoder.PROVIDER);
+    }
+
+    private static void serializeNullable(@Nullable final MqttUTF8StringImpl string, @NotNull final ByteBuf out) {
+        out.writeBoolean(string != null);
+        if (string != null) {
+            string.to(out);
+        }
+    }
+
+    private static void serializeNullable(@Nullable final ByteBuffer binary, @NotNull final ByteBuf out) {
+        out.writeBoolean(binary != null);
+        if (binary != null) {
+            MqttBinaryData.encode(binary, out);
+        }
+    }
+
+    private static void serialize(@NotNull final MqttUserPropertiesImpl userProperties, @NotNull final ByteBuf out) {
+        final ImmutableList<MqttUserPropertyImpl> list = userProperties.asList();
+        out.writeShort(list.size());
+        for (int i = 0; i < list.size(); i++) {
+            final MqttUserPropertyImpl userProperty = list.get(i);
+            userProperty.getName().to(out);
+            userProperty.getValue().to(out);
+        }
+    }
+
+    @Nullable
+    private static MqttUserPropertiesImpl deserializeUserProperties(@NotNull final ByteBuf in) {
+        final int size = in.readUnsignedShort();
+        if (size == 0) {
+            return MqttUserPropertiesImpl.NO_USER_PROPERTIES;
+        }
+        final ImmutableList.Builder<MqttUserPropertyImpl> builder = ImmutableList.builder();
+        for (int i = 0; i < size; i++) {
+            final MqttUserPropertyImpl userProperty = MqttUserPropertyImpl.decode(in);
+            if (userProperty == null) {
+                return null;
+            }
+            builder.add(userProperty);
+        }
+        return MqttUserPropertiesImpl.of(builder.build());
+    }
+
+    private QoSMessageSerializer() {
+    }
+
+}
@@ -1,63 +0,0 @@
-/*
- * Copyright 2018 The MQTT Bee project
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *     http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- *
- */
-
-package org.mqttbee.mqtt.persistence.memory;
-
-import org.mqttbee.annotations.NotNull;
-import org.mqttbee.mqtt.message.publish.pubrec.MqttPubRec;
-import org.mqttbee.mqtt.ioc.ChannelScope;
-import org.mqttbee.mqtt.persistence.IncomingQoSFlowPersistence;
-
-import javax.inject.Inject;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.CompletableFuture;
-
-/**
- * @author Silvio Giebl
- */
-@ChannelScope
-public class IncomingQoSFlowMemoryPersistence implements IncomingQoSFlowPersistence {
-
-    private final Map<Integer, MqttPubRec> messages;
-
-    @Inject
-    IncomingQoSFlowMemoryPersistence() {
-        messages = new HashMap<>();
-    }
-
-    @NotNull
-    @Override
-    public CompletableFuture<Void> store(@NotNull final MqttPubRec pubRec) {
-        messages.put(pubRec.getPacketIdentifier(), pubRec);
-        return CompletableFuture.completedFuture(null);
-    }
-
-    @NotNull
-    @Override
-    public CompletableFuture<MqttPubRec> get(final int packetIdentifier) {
-        return CompletableFuture.completedFuture(messages.get(packetIdentifier));
-    }
-
-    @NotNull
-    @Override
-    public CompletableFuture<Void> discard(final int packetIdentifier) {
-        messages.remove(packetIdentifier);
-        return CompletableFuture.completedFuture(null);
-    }
-
-}
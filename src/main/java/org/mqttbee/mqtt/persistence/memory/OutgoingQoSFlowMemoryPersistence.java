@@ -18,16 +18,17 @@
 package org.mqttbee.mqtt.persistence.memory;
 
 import org.mqttbee.annotations.NotNull;
-import org.mqttbee.mqtt.MqttClientConnectionData;
 import org.mqttbee.mqtt.MqttClientData;
 import org.mqttbee.mqtt.message.publish.MqttPublishWrapper;
 import org.mqttbee.mqtt.message.publish.MqttQoSMessage;
 import org.mqttbee.mqtt.message.publish.pubrel.MqttPubRel;
 import org.mqttbee.mqtt.ioc.ChannelScope;
 import org.mqttbee.mqtt.persistence.OutgoingQoSFlowPersistence;
+import org.mqttbee.mqtt.persistence.PersistenceCallback;
 import org.mqttbee.util.collections.IntMap;
 
 import javax.inject.Inject;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -40,9 +41,8 @@ public class OutgoingQoSFlowMemoryPersistence implements OutgoingQoSFlowPersiste
 
     @Inject
     OutgoingQoSFlowMemoryPersistence(final MqttClientData clientData) {
-        final MqttClientConnectionData clientConnectionData = clientData.getRawClientConnectionData();
-        assert clientConnectionData != null;
-        this.messages = new IntMap<>(clientConnectionData.getReceiveMaximum());
+        // sized for all packet identifiers of the session, not only the receive maximum of this connection
+        this.messages = new IntMap<>(clientData.getSession().getMaxPacketIdentifier());
     }
 
     @NotNull
@@ -72,4 +72,23 @@ public class OutgoingQoSFlowMemoryPersistence implements OutgoingQoSFlowPersiste
         return CompletableFuture.completedFuture(null);
     }
 
+    @Override
+    public void storeAll(@NotNull final List<MqttQoSMessage> messages, @NotNull final PersistenceCallback callback) {
+        for (int i = 0; i < messages.size(); i++) {
+            final MqttQoSMessage message = messages.get(i);
+            this.messages.put(message.getPacketIdentifier(), message);
+        }
+        callback.onPersisted(messages.size());
+    }
+
+    @Override
+    public void discardAll(
+            @NotNull final int[] packetIdentifiers, final int count, @NotNull final PersistenceCallback callback) {
+
+        for (int i = 0; i < count; i++) {
+            messages.remove(packetIdentifiers[i]);
+        }
+        callback.onPersisted(count);
+    }
+
 }
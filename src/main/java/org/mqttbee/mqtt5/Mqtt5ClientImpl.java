@@ -18,6 +18,7 @@
 package org.mqttbee.mqtt5;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelOption;
 import io.reactivex.Completable;
 import io.reactivex.Flowable;
 import io.reactivex.Single;
@@ -37,6 +38,7 @@ import org.mqttbee.api.mqtt.mqtt5.message.unsubscribe.Mqtt5Unsubscribe;
 import org.mqttbee.api.mqtt.mqtt5.message.unsubscribe.unsuback.Mqtt5UnsubAck;
 import org.mqttbee.mqtt.MqttClientConnectionData;
 import org.mqttbee.mqtt.MqttClientData;
+import org.mqttbee.mqtt.advanced.MqttAdvancedClientData;
 import org.mqttbee.mqtt.message.connect.MqttConnect;
 import org.mqttbee.mqtt.message.disconnect.MqttDisconnect;
 import org.mqttbee.mqtt.message.publish.MqttPublish;
@@ -54,13 +56,23 @@ import org.mqttbee.mqtt.ioc.ChannelComponent;
 import org.mqttbee.mqtt.ioc.MqttBeeComponent;
 import org.mqttbee.rx.FlowableWithSingle;
 import org.mqttbee.util.MustNotBeImplementedUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Silvio Giebl
  */
 public class Mqtt5ClientImpl implements Mqtt5Client {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(Mqtt5ClientImpl.class);
+
     private final MqttClientData clientData;
+    // the CONNECT used for automatic reconnects, null if the client must not reconnect
+    private volatile MqttConnect reconnectConnect;
+    private volatile int reconnectAttempts;
 
     public Mqtt5ClientImpl(@NotNull final MqttClientData clientData) {
         this.clientData = clientData;
@@ -69,8 +81,11 @@ public class Mqtt5ClientImpl implements Mqtt5Client {
     @NotNull
     @Override
     public Single<Mqtt5ConnAck> connect(@NotNull final Mqtt5Connect connect) {
-        final MqttConnect mqttConnect = MustNotBeImplementedUtil.checkNotImplemented(connect, MqttConnect.class);
+        return connect(MustNotBeImplementedUtil.checkNotImplemented(connect, MqttConnect.class), false);
+    }
 
+    @NotNull
+    private Single<Mqtt5ConnAck> connect(@NotNull final MqttConnect mqttConnect, final boolean isReconnect) {
         return Single.<Mqtt5ConnAck>create(connAckEmitter -> {
             if (!clientData.setConnecting(true)) {
                 connAckEmitter.onError(new AlreadyConnectedException(true));
@@ -84,6 +99,7 @@ public class Mqtt5ClientImpl implements Mqtt5Client {
 
             final Bootstrap bootstrap =
                     MqttBeeComponent.INSTANCE.nettyBootstrap().bootstrap(clientData.getExecutorConfig());
+            bootstrap.option(ChannelOption.WRITE_BUFFER_WATER_MARK, clientData.getWriteBufferWaterMark());
 
             bootstrap.handler(MqttBeeComponent.INSTANCE.channelInitializerProvider()
                     .get(mqttConnect, connAckEmitter, clientData));
@@ -99,11 +115,22 @@ public class Mqtt5ClientImpl implements Mqtt5Client {
 
             final MqttClientConnectionData clientConnectionData = clientData.getRawClientConnectionData();
             assert clientConnectionData != null;
+            final MqttAdvancedClientData advanced = clientData.getRawAdvancedClientData();
+            if ((advanced != null) && advanced.isAutomaticReconnect() && (!isReconnect || (reconnectConnect != null))) {
+                reconnectConnect = (clientConnectionData.getSessionExpiryInterval() > 0) ?
+                        mqttConnect.withoutCleanStart() : mqttConnect;
+                reconnectAttempts = 0;
+            }
             clientConnectionData.getChannel().closeFuture().addListener(future -> {
                 MqttBeeComponent.INSTANCE.nettyBootstrap().free(clientData.getExecutorConfig());
                 clientData.setClientConnectionData(null);
                 clientData.setServerConnectionData(null);
                 clientData.setConnected(false);
+                if (reconnectConnect != null) {
+                    scheduleReconnect();
+                } else {
+                    clientData.getSession().close();
+                }
             });
         }).doOnError(throwable -> {
             if (!(throwable instanceof AlreadyConnectedException)) {
@@ -111,10 +138,57 @@ public class Mqtt5ClientImpl implements Mqtt5Client {
                 clientData.setClientConnectionData(null);
                 clientData.setServerConnectionData(null);
                 clientData.setConnecting(false);
+                if (reconnectConnect == null) {
+                    clientData.getSession().close();
+                }
             }
         }).observeOn(clientData.getExecutorConfig().getRxJavaScheduler());
     }
 
+    private void scheduleReconnect() {
+        final MqttAdvancedClientData advanced = clientData.getRawAdvancedClientData();
+        assert advanced != null;
+        final long delayNanos = reconnectDelayNanos(advanced.getReconnectInitialDelayNanos(),
+                advanced.getReconnectMaxDelayNanos(), reconnectAttempts++);
+        clientData.getExecutorConfig()
+                .getRxJavaScheduler()
+                .scheduleDirect(this::reconnect, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void reconnect() {
+        final MqttConnect connect = reconnectConnect;
+        if (connect == null) {
+            return;
+        }
+        connect(connect, true).subscribe(connAck -> LOGGER.debug("Reconnected with {}", connAck), throwable -> {
+            if (throwable instanceof AlreadyConnectedException) {
+                return; // connected by the user in the meantime
+            }
+            LOGGER.debug("Reconnect attempt {} failed", reconnectAttempts, throwable);
+            if (reconnectConnect != null) {
+                scheduleReconnect();
+            }
+        });
+    }
+
+    /**
+     * Calculates the delay before a reconnect attempt. The delay doubles with every attempt up to the maximum delay and
+     * is randomized between half and the full delay.
+     *
+     * @param initialDelayNanos the delay before the first attempt in nanoseconds.
+     * @param maxDelayNanos     the maximum delay in nanoseconds.
+     * @param attempt           the count of the previous failed attempts.
+     * @return the delay in nanoseconds.
+     */
+    static long reconnectDelayNanos(final long initialDelayNanos, final long maxDelayNanos, final int attempt) {
+        final long delayNanos = (attempt >= Long.numberOfLeadingZeros(initialDelayNanos) - 1) ? maxDelayNanos :
+                Math.min(initialDelayNanos << attempt, maxDelayNanos);
+        final long halfDelayNanos = delayNanos >> 1;
+        // the bound is exclusive, but it must not overflow if the delay is unlimited
+        return ThreadLocalRandom.current()
+                .nextLong(halfDelayNanos, (delayNanos == Long.MAX_VALUE) ? delayNanos : delayNanos + 1);
+    }
+
     @NotNull
     @Override
     public FlowableWithSingle<Mqtt5SubscribeResult, Mqtt5SubAck, Mqtt5Publish> subscribe(
@@ -191,6 +265,7 @@ public class Mqtt5ClientImpl implements Mqtt5Client {
                 MustNotBeImplementedUtil.checkNotImplemented(disconnect, MqttDisconnect.class);
 
         return Completable.create(emitter -> {
+            reconnectConnect = null;
             final MqttClientConnectionData clientConnectionData = clientData.getRawClientConnectionData();
             if (clientConnectionData != null) {
                 MqttDisconnectUtil.disconnect(clientConnectionData.getChannel(), mqttDisconnect).addListener(future -> {
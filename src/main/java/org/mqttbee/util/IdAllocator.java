@@ -0,0 +1,40 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.mqttbee.util;
+
+/**
+ * Allocator of unique integer identifiers from a fixed range, for example packet identifiers.
+ *
+ * @author Silvio Giebl
+ */
+public interface IdAllocator {
+
+    /**
+     * Allocates the lowest free identifier.
+     *
+     * @return the allocated identifier or -1 if all identifiers are allocated.
+     */
+    int getId();
+
+    /**
+     * Returns an allocated identifier, so it can be allocated again.
+     *
+     * @param id the identifier to return. Must be currently allocated.
+     */
+    void returnId(int id);
+
+}
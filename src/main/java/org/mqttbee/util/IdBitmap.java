@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.mqttbee.util;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Identifier allocator which stores the free identifiers as bits of a bitmap.
+ * <p>
+ * A summary level contains one bit per word of the bitmap which is set if the word contains a free identifier. So
+ * {@link #getId()} scans at most one summary word per 4096 identifiers and {@link #returnId(int)} is constant time,
+ * independent of the order in which identifiers are returned. Neither allocates.
+ *
+ * @author Silvio Giebl
+ */
+@NotThreadSafe
+public class IdBitmap implements IdAllocator {
+
+    private final int minId;
+    private final long[] words; // bit set if the identifier is free
+    private final long[] summary; // bit set if the word contains a free identifier
+    private int summaryIndex; // all summary words below this index are 0
+
+    public IdBitmap(final int minId, final int maxId) {
+        this.minId = minId;
+        final int idCount = maxId - minId + 1;
+        final int wordCount = (idCount + 63) >>> 6;
+        words = new long[wordCount];
+        summary = new long[(wordCount + 63) >>> 6];
+        fill(words, idCount);
+        fill(summary, wordCount);
+    }
+
+    private static void fill(final long[] array, final int bitCount) {
+        final int fullWords = bitCount >>> 6;
+        for (int i = 0; i < fullWords; i++) {
+            array[i] = -1L;
+        }
+        if ((bitCount & 63) != 0) {
+            array[fullWords] = (1L << bitCount) - 1;
+        }
+    }
+
+    @Override
+    public int getId() {
+        for (int i = summaryIndex; i < summary.length; i++) {
+            final long summaryWord = summary[i];
+            if (summaryWord != 0) {
+                summaryIndex = i;
+                final int wordIndex = (i << 6) + Long.numberOfTrailingZeros(summaryWord);
+                final long word = words[wordIndex];
+                final long remainingWord = word & (word - 1);
+                words[wordIndex] = remainingWord;
+                if (remainingWord == 0) {
+                    summary[i] = summaryWord & ~(1L << wordIndex);
+                }
+                return minId + (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        summaryIndex = summary.length;
+        return -1;
+    }
+
+    @Override
+    public void returnId(final int id) {
+        final int index = id - minId;
+        final int wordIndex = index >>> 6;
+        final long word = words[wordIndex];
+        words[wordIndex] = word | (1L << index);
+        if (word == 0) {
+            final int summaryWordIndex = wordIndex >>> 6;
+            summary[summaryWordIndex] |= 1L << wordIndex;
+            if (summaryWordIndex < summaryIndex) {
+                summaryIndex = summaryWordIndex;
+            }
+        }
+    }
+
+}
@@ -22,10 +22,12 @@ import org.mqttbee.annotations.NotNull;
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
+ * Identifier allocator which stores the free identifiers as a linked list of ranges.
+ *
  * @author Silvio Giebl
  */
 @NotThreadSafe
-public class Ranges {
+public class Ranges implements IdAllocator {
 
     private Range rootRange;
 
@@ -37,10 +39,12 @@ public class Ranges {
         rootRange = new Range(minId, maxId + 1);
     }
 
+    @Override
     public int getId() {
         return rootRange.getId();
     }
 
+    @Override
     public void returnId(final int id) {
         rootRange = rootRange.returnId(id);
     }
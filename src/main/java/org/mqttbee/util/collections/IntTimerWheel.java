@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.util.collections;
+
+import org.mqttbee.annotations.NotNull;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Hashed timer wheel for int keys in the range 0 to a maximum key, for example for the acknowledgement deadlines of
+ * packet identifiers.
+ * <p>
+ * Deadlines are given in ticks. Every scheduled key is linked into the bucket of its deadline tick with index arrays,
+ * so scheduling and cancelling take constant time and do not allocate. Advancing visits only the buckets of the
+ * passed ticks, keys with a deadline one or more rounds of the wheel later stay in their bucket. Ticks are compared
+ * with overflow, so they may wrap around as long as deadlines are less than {@link Integer#MAX_VALUE} ticks ahead.
+ *
+ * @author Silvio Giebl
+ */
+@NotThreadSafe
+public class IntTimerWheel {
+
+    private static final int NONE = -1;
+    private static final int UNSCHEDULED = -2;
+
+    private final int[] buckets;
+    private final int[] next;
+    private final int[] prev;
+    private final int[] deadlines;
+    private final int mask;
+    private int tick;
+    private int size;
+
+    /**
+     * Creates a timer wheel.
+     *
+     * @param maxKey    the maximum key.
+     * @param wheelSize the amount of buckets, must be a power of two.
+     * @param startTick the current tick.
+     */
+    public IntTimerWheel(final int maxKey, final int wheelSize, final int startTick) {
+        if ((maxKey < 0) || (wheelSize <= 0) || (Integer.bitCount(wheelSize) != 1)) {
+            throw new IllegalArgumentException();
+        }
+        buckets = new int[wheelSize];
+        Arrays.fill(buckets, NONE);
+        next = new int[maxKey + 1];
+        prev = new int[maxKey + 1];
+        Arrays.fill(prev, UNSCHEDULED);
+        deadlines = new int[maxKey + 1];
+        mask = wheelSize - 1;
+        tick = startTick;
+    }
+
+    /**
+     * Schedules the given key for the given deadline. A previous deadline of the key is replaced. A deadline which is
+     * not after the current tick expires with the next tick.
+     *
+     * @param key          the key.
+     * @param deadlineTick the tick when the key expires.
+     */
+    public void schedule(final int key, final int deadlineTick) {
+        cancel(key);
+        final int deadline = ((deadlineTick - tick) > 0) ? deadlineTick : tick + 1;
+        final int bucket = deadline & mask;
+        final int head = buckets[bucket];
+        next[key] = head;
+        prev[key] = NONE;
+        if (head != NONE) {
+            prev[head] = key;
+        }
+        buckets[bucket] = key;
+        deadlines[key] = deadline;
+        size++;
+    }
+
+    /**
+     * Cancels the deadline of the given key.
+     *
+     * @param key the key.
+     * @return whether the key was scheduled.
+     */
+    public boolean cancel(final int key) {
+        final int prevKey = prev[key];
+        if (prevKey == UNSCHEDULED) {
+            return false;
+        }
+        final int nextKey = next[key];
+        if (prevKey == NONE) {
+            buckets[deadlines[key] & mask] = nextKey;
+        } else {
+            next[prevKey] = nextKey;
+        }
+        if (nextKey != NONE) {
+            prev[nextKey] = prevKey;
+        }
+        prev[key] = UNSCHEDULED;
+        size--;
+        return true;
+    }
+
+    public boolean isScheduled(final int key) {
+        return prev[key] != UNSCHEDULED;
+    }
+
+    /**
+     * Advances the wheel to the given tick and calls the given consumer for every key whose deadline passed. An expired
+     * key is not scheduled anymore when the consumer is called, the consumer may schedule it again but must not cancel
+     * other keys.
+     *
+     * @param toTick  the current tick.
+     * @param expired the consumer of the expired keys.
+     */
+    public void advance(final int toTick, @NotNull final IntConsumer expired) {
+        final int ticks = toTick - tick;
+        if (ticks <= 0) {
+            return;
+        }
+        final int visit = Math.min(ticks, buckets.length);
+        for (int i = 1; i <= visit; i++) {
+            int key = buckets[(tick + i) & mask];
+            while (key != NONE) {
+                final int nextKey = next[key];
+                if ((deadlines[key] - toTick) <= 0) {
+                    cancel(key);
+                    expired.accept(key);
+                }
+                key = nextKey;
+            }
+        }
+        tick = toTick;
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+}
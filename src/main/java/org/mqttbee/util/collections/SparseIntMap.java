@@ -0,0 +1,264 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.util.collections;
+
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.annotations.Nullable;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Map from int keys in the range 0 to a maximum key to values, for example from packet identifiers to in-flight
+ * messages.
+ * <p>
+ * In contrast to {@link IntMap} the entries are stored in an open addressing hash table which grows and shrinks with
+ * the amount of entries, so the footprint is small if only a few of many possible keys are used. Additionally a bitmap
+ * of the used keys with a summary level of one bit per 64-bit word allows to iterate the entries ordered by their key
+ * in time proportional to the amount of entries. The size is tracked in constant time.
+ *
+ * @param <E> the type of the values.
+ * @author Silvio Giebl
+ */
+@NotThreadSafe
+public class SparseIntMap<E> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final int maxKey;
+    private final long[] keyBits;
+    private final long[] keyBitsSummary;
+
+    private int[] keys;
+    private E[] values;
+    private int mask;
+    private int shift;
+    private int size;
+
+    public SparseIntMap(final int maxKey) {
+        if (maxKey < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxKey = maxKey;
+        keyBits = new long[(maxKey >>> 6) + 1];
+        keyBitsSummary = new long[(keyBits.length + 63) >>> 6];
+        allocate(MIN_CAPACITY);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocate(final int capacity) {
+        keys = new int[capacity];
+        values = (E[]) new Object[capacity];
+        mask = capacity - 1;
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    @Nullable
+    public E put(final int key, @NotNull final E value) {
+        checkKey(key);
+        int index = slot(key);
+        E currentValue;
+        while ((currentValue = values[index]) != null) {
+            if (keys[index] == key) {
+                values[index] = value;
+                return currentValue;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        setKeyBit(key);
+        if (++size > (values.length >> 1)) {
+            resize(values.length << 1);
+        }
+        return null;
+    }
+
+    @Nullable
+    public E get(final int key) {
+        checkKey(key);
+        final int index = find(key);
+        return (index < 0) ? null : values[index];
+    }
+
+    @Nullable
+    public E remove(final int key) {
+        checkKey(key);
+        final int index = find(key);
+        if (index < 0) {
+            return null;
+        }
+        final E value = values[index];
+        delete(index);
+        clearKeyBit(key);
+        if ((--size < (values.length >> 3)) && (values.length > MIN_CAPACITY)) {
+            resize(values.length >> 1);
+        }
+        return value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the lowest key of an entry which is greater than or equal to the given key.
+     *
+     * @param fromKey the key to start searching from.
+     * @return the lowest key of an entry greater than or equal to the given key or -1 if there is none.
+     */
+    public int nextKey(final int fromKey) {
+        if (fromKey > maxKey) {
+            return -1;
+        }
+        final int from = Math.max(fromKey, 0);
+        int wordIndex = from >>> 6;
+        long word = keyBits[wordIndex] & (-1L << from);
+        while (word == 0) {
+            wordIndex = nextWordIndex(wordIndex + 1);
+            if (wordIndex < 0) {
+                return -1;
+            }
+            word = keyBits[wordIndex];
+        }
+        return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * Calls the given consumer for all entries ordered by their key. Entries may be removed by the consumer, removed
+     * entries which were not visited yet are not visited. Entries put by the consumer may not be visited.
+     *
+     * @param consumer the consumer of the values and their keys.
+     */
+    public void forEach(@NotNull final ObjIntConsumer<? super E> consumer) {
+        for (int key = nextKey(0); key >= 0; key = nextKey(key + 1)) {
+            final E value = get(key);
+            assert value != null;
+            consumer.accept(value, key);
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < keyBits.length; i++) {
+            keyBits[i] = 0;
+        }
+        for (int i = 0; i < keyBitsSummary.length; i++) {
+            keyBitsSummary[i] = 0;
+        }
+        size = 0;
+        allocate(MIN_CAPACITY);
+    }
+
+    private void checkKey(final int key) {
+        if (key > maxKey || key < 0) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    private int slot(final int key) {
+        return (key * 0x9E3779B9) >>> shift;
+    }
+
+    private int find(final int key) {
+        int index = slot(key);
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Deletes the entry at the given index and shifts back following entries of the same probe sequence, so lookups
+     * do not need tombstones.
+     */
+    private void delete(final int index) {
+        int hole = index;
+        int next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            if (values[next] == null) {
+                break;
+            }
+            final int slot = slot(keys[next]);
+            if (((next - slot) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        values[hole] = null;
+    }
+
+    private void resize(final int capacity) {
+        final int[] oldKeys = keys;
+        final E[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            final E value = oldValues[i];
+            if (value != null) {
+                int index = slot(oldKeys[i]);
+                while (values[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = value;
+            }
+        }
+    }
+
+    private void setKeyBit(final int key) {
+        final int wordIndex = key >>> 6;
+        final long word = keyBits[wordIndex];
+        keyBits[wordIndex] = word | (1L << key);
+        if (word == 0) {
+            keyBitsSummary[wordIndex >>> 6] |= 1L << wordIndex;
+        }
+    }
+
+    private void clearKeyBit(final int key) {
+        final int wordIndex = key >>> 6;
+        final long word = keyBits[wordIndex] & ~(1L << key);
+        keyBits[wordIndex] = word;
+        if (word == 0) {
+            keyBitsSummary[wordIndex >>> 6] &= ~(1L << wordIndex);
+        }
+    }
+
+    private int nextWordIndex(final int fromWordIndex) {
+        if (fromWordIndex >= keyBits.length) {
+            return -1;
+        }
+        int summaryIndex = fromWordIndex >>> 6;
+        long summaryWord = keyBitsSummary[summaryIndex] & (-1L << fromWordIndex);
+        while (summaryWord == 0) {
+            if (++summaryIndex == keyBitsSummary.length) {
+                return -1;
+            }
+            summaryWord = keyBitsSummary[summaryIndex];
+        }
+        return (summaryIndex << 6) + Long.numberOfTrailingZeros(summaryWord);
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt;
+
+import io.reactivex.schedulers.Schedulers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.api.mqtt.datatypes.MqttQoS;
+import org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5AdvancedClientDataBuilder;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.TopicAliasUsage;
+import org.mqttbee.mqtt.advanced.MqttAdvancedClientData;
+import org.mqttbee.mqtt.codec.encoder.mqtt5.Mqtt5PublishEncoder;
+import org.mqttbee.mqtt.datatypes.MqttTopicImpl;
+import org.mqttbee.mqtt.datatypes.MqttUserPropertiesImpl;
+import org.mqttbee.mqtt.message.publish.MqttPublish;
+import org.mqttbee.mqtt.message.publish.MqttPublishWrapper;
+import org.mqttbee.mqtt.persistence.file.IncomingQoSFlowFilePersistence;
+import org.mqttbee.mqtt.persistence.file.OutgoingQoSFlowFilePersistence;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import static org.junit.Assert.*;
+import static org.mqttbee.mqtt.message.publish.MqttPublishWrapper.DEFAULT_NO_SUBSCRIPTION_IDENTIFIERS;
+import static org.mqttbee.mqtt.message.publish.MqttPublishWrapper.DEFAULT_NO_TOPIC_ALIAS;
+
+/**
+ * @author Silvio Giebl
+ */
+public class MqttClientSessionTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void close_closesPersistencesUntilTheyAreReopened() throws Exception {
+        final MqttClientSession session = new MqttClientSession(MqttVersion.MQTT_5_0, Schedulers.trampoline(),
+                (MqttAdvancedClientData) new Mqtt5AdvancedClientDataBuilder().withOutgoingQoSFlowPersistence(
+                        folder.newFolder()).withIncomingQoSFlowPersistence(folder.newFolder()).builder());
+        session.getRecovery().join();
+        final OutgoingQoSFlowFilePersistence outgoing = session.getOutgoingQoSFlowPersistence();
+        final IncomingQoSFlowFilePersistence incoming = session.getIncomingQoSFlowPersistence();
+        assertNotNull(outgoing);
+        assertNotNull(incoming);
+        outgoing.store(publish(1)).join();
+
+        session.close().join();
+        assertNull(session.getOutgoingQoSFlowPersistence());
+        assertNull(session.getIncomingQoSFlowPersistence());
+        // closing twice does not close the persistences again
+        session.close().join();
+
+        session.getRecovery().join();
+        final OutgoingQoSFlowFilePersistence reopened = session.getOutgoingQoSFlowPersistence();
+        assertNotNull(reopened);
+        assertNotSame(outgoing, reopened);
+        assertNotNull(session.getIncomingQoSFlowPersistence());
+        assertNotNull(reopened.get(1).join());
+        // the session already contains all flows, so the stored messages are not recovered into it again
+        assertNull(session.getOutgoingPublishes().get(1));
+        session.close().join();
+    }
+
+    @NotNull
+    private static MqttPublishWrapper publish(final int packetIdentifier) {
+        return new MqttPublish(Objects.requireNonNull(MqttTopicImpl.from("topic")), ByteBuffer.wrap(new byte[]{1}),
+                MqttQoS.AT_LEAST_ONCE, false, MqttPublish.MESSAGE_EXPIRY_INTERVAL_INFINITY, null, null, null, null,
+                TopicAliasUsage.HAS_NOT, MqttUserPropertiesImpl.NO_USER_PROPERTIES, Mqtt5PublishEncoder.PROVIDER)
+                .wrap(packetIdentifier, false, DEFAULT_NO_TOPIC_ALIAS, false, DEFAULT_NO_SUBSCRIPTION_IDENTIFIERS);
+    }
+
+}
@@ -17,6 +17,7 @@
 
 package org.mqttbee.mqtt.codec.decoder.mqtt3;
 
+import io.netty.channel.WriteBufferWaterMark;
 import org.mqttbee.annotations.NotNull;
 import org.mqttbee.api.mqtt.mqtt5.message.connect.Mqtt5Connect;
 import org.mqttbee.api.mqtt.mqtt5.message.connect.Mqtt5ConnectRestrictions;
@@ -43,7 +44,7 @@ abstract class AbstractMqtt3DecoderTest extends AbstractMqttDecoderTest {
         super(decoders);
         clientData = new MqttClientData(MqttVersion.MQTT_3_1_1,
                 Objects.requireNonNull(MqttClientIdentifierImpl.from("test")), "localhost", 1883, false, false, false,
-                MqttClientExecutorConfigImpl.DEFAULT, null);
+                MqttClientExecutorConfigImpl.DEFAULT, WriteBufferWaterMark.DEFAULT, null);
     }
 
     @Override
@@ -17,6 +17,7 @@
 
 package org.mqttbee.mqtt.codec.decoder.mqtt5;
 
+import io.netty.channel.WriteBufferWaterMark;
 import org.mqttbee.annotations.NotNull;
 import org.mqttbee.api.mqtt.mqtt5.message.connect.Mqtt5ConnectRestrictions;
 import org.mqttbee.mqtt.MqttClientConnectionData;
@@ -41,7 +42,8 @@ abstract class AbstractMqtt5DecoderTest extends AbstractMqttDecoderTest {
         super(decoders);
         clientData =
                 new MqttClientData(MqttVersion.MQTT_5_0, Objects.requireNonNull(MqttClientIdentifierImpl.from("test")),
-                        "localhost", 1883, false, false, false, MqttClientExecutorConfigImpl.DEFAULT, null);
+                        "localhost", 1883, false, false, false, MqttClientExecutorConfigImpl.DEFAULT,
+                        WriteBufferWaterMark.DEFAULT, null);
     }
 
     @Override
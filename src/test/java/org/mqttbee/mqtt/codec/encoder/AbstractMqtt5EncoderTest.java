@@ -18,6 +18,7 @@
 package org.mqttbee.mqtt.codec.encoder;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.embedded.EmbeddedChannel;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -47,7 +48,8 @@ public class AbstractMqtt5EncoderTest {
         this.connected = connected;
         clientData =
                 new MqttClientData(MqttVersion.MQTT_5_0, Objects.requireNonNull(MqttClientIdentifierImpl.from("test")),
-                        "localhost", 1883, false, false, false, MqttClientExecutorConfigImpl.DEFAULT, null);
+                        "localhost", 1883, false, false, false, MqttClientExecutorConfigImpl.DEFAULT,
+                        WriteBufferWaterMark.DEFAULT, null);
     }
 
     @BeforeEach
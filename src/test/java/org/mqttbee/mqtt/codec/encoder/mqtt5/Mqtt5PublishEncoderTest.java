@@ -20,6 +20,7 @@ package org.mqttbee.mqtt.codec.encoder.mqtt5;
 import com.google.common.collect.ImmutableList;
 import com.google.common.primitives.ImmutableIntArray;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.EncoderException;
 import org.junit.jupiter.api.Test;
@@ -34,6 +35,7 @@ import java.nio.ByteBuffer;
 
 import static java.util.Objects.requireNonNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mqttbee.api.mqtt.mqtt5.message.publish.Mqtt5Publish.DEFAULT_TOPIC_ALIAS_USAGE;
 import static org.mqttbee.api.mqtt.mqtt5.message.publish.TopicAliasUsage.*;
@@ -722,6 +724,145 @@ class Mqtt5PublishEncoderTest extends AbstractMqtt5EncoderWithUserPropertiesTest
         expected.release();
     }
 
+    @Test
+    void encode_largeDirectPayload_wrapsPayload() {
+        final int payloadLength = 2000;
+        final byte[] header = {
+                // fixed header
+                //   type, flags
+                0b0011_0000,
+                //   remaining length (2010)
+                (byte) (128 + 90), 15,
+                // variable header
+                //   topic name
+                0, 5, 't', 'o', 'p', 'i', 'c',
+                //   properties
+                2,
+                //     payload format indicator
+                0x01, 0,
+        };
+        final byte[] expected = new byte[header.length + payloadLength];
+        System.arraycopy(header, 0, expected, 0, header.length);
+        final ByteBuffer payload = ByteBuffer.allocateDirect(payloadLength);
+        for (int i = 0; i < payloadLength; i++) {
+            expected[header.length + i] = (byte) i;
+            payload.put((byte) i);
+        }
+        payload.flip();
+
+        final MqttPublish publish =
+                new MqttPublish(requireNonNull(MqttTopicImpl.from("topic")), payload, MqttQoS.AT_MOST_ONCE, false,
+                        MqttPublish.MESSAGE_EXPIRY_INTERVAL_INFINITY, Mqtt5PayloadFormatIndicator.UNSPECIFIED, null,
+                        null, null, HAS_NOT, NO_USER_PROPERTIES, Mqtt5PublishEncoder.PROVIDER);
+
+        channel.writeOutbound(publish.wrap(-1, false, DEFAULT_NO_TOPIC_ALIAS, false, ImmutableIntArray.of()));
+        final ByteBuf actual = channel.readOutbound();
+        try {
+            assertTrue(actual instanceof CompositeByteBuf);
+            assertEquals(expected.length, actual.readableBytes());
+            for (int i = 0; i < expected.length; i++) {
+                final int index = i;
+                assertEquals(expected[i], actual.readByte(), () -> ("ByteBuf differed at index " + index));
+            }
+        } finally {
+            actual.release();
+        }
+        assertEquals(0, payload.position());
+    }
+
+    @Test
+    void encode_encodedOnce_sameAsEncodedPerConnection() {
+        final MqttPublish publish =
+                new MqttPublish(requireNonNull(MqttTopicImpl.from("topic")), ByteBuffer.wrap(new byte[]{1, 2, 3, 4}),
+                        MqttQoS.AT_LEAST_ONCE, true, 10, Mqtt5PayloadFormatIndicator.UTF_8,
+                        MqttUTF8StringImpl.from("content"), null, null, HAS_NOT,
+                        MqttUserPropertiesImpl.of(ImmutableList.of(
+                                new MqttUserPropertyImpl(requireNonNull(MqttUTF8StringImpl.from("name")),
+                                        requireNonNull(MqttUTF8StringImpl.from("value"))))),
+                        Mqtt5PublishEncoder.PROVIDER);
+        final MqttPublish encodedOnce = publish.encodeOnce();
+
+        channel.writeOutbound(publish.wrap(5, true, DEFAULT_NO_TOPIC_ALIAS, false, ImmutableIntArray.of()));
+        final ByteBuf expected = channel.readOutbound();
+        channel.writeOutbound(encodedOnce.wrap(5, true, DEFAULT_NO_TOPIC_ALIAS, false, ImmutableIntArray.of()));
+        final ByteBuf actual = channel.readOutbound();
+        try {
+            assertTrue(actual instanceof CompositeByteBuf);
+            assertEquals(expected, actual);
+        } finally {
+            expected.release();
+            actual.release();
+        }
+
+        final ByteBuf template = encodedOnce.getRawTemplate();
+        assertEquals(1, requireNonNull(template).refCnt());
+        assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), encodedOnce.getRawPayload());
+        encodedOnce.release();
+        assertEquals(0, template.refCnt());
+    }
+
+    @Test
+    void encode_encodedOnce_topicAliasAndPacketIdentifierPerConnection() {
+        final byte[] expected1 = {
+                // fixed header
+                //   type, flags
+                0b0011_0010,
+                //   remaining length
+                18,
+                // variable header
+                //   topic name
+                0, 5, 't', 'o', 'p', 'i', 'c',
+                //   packet identifier
+                0, 7,
+                //   properties
+                5,
+                //     topic alias
+                0x23, 0, 2,
+                //     payload format indicator
+                0x01, 0,
+                // payload
+                1, 2, 3
+        };
+        final byte[] expected2 = {
+                // fixed header
+                //   type, flags
+                0b0011_0010,
+                //   remaining length
+                13,
+                // variable header
+                //   topic name
+                0, 0,
+                //   packet identifier
+                0, 8,
+                //   properties
+                5,
+                //     topic alias
+                0x23, 0, 2,
+                //     payload format indicator
+                0x01, 0,
+                // payload
+                1, 2, 3
+        };
+
+        final MqttPublish publish = new MqttPublish(requireNonNull(MqttTopicImpl.from("topic")),
+                ByteBuffer.wrap(new byte[]{1, 2, 3}), MqttQoS.AT_LEAST_ONCE, false,
+                MqttPublish.MESSAGE_EXPIRY_INTERVAL_INFINITY, Mqtt5PayloadFormatIndicator.UNSPECIFIED, null, null,
+                null, MAY, NO_USER_PROPERTIES, Mqtt5PublishEncoder.PROVIDER).encodeOnce();
+
+        channel.writeOutbound(publish.wrap(7, false, 2, true, ImmutableIntArray.of()));
+        channel.writeOutbound(publish.wrap(8, false, 2, false, ImmutableIntArray.of()));
+        final ByteBuf actual1 = channel.readOutbound();
+        final ByteBuf actual2 = channel.readOutbound();
+        try {
+            assertEquals(Unpooled.wrappedBuffer(expected1), actual1);
+            assertEquals(Unpooled.wrappedBuffer(expected2), actual2);
+        } finally {
+            actual1.release();
+            actual2.release();
+        }
+        publish.release();
+    }
+
     private void encode(
             final byte[] expected, final MqttPublish publish, final int packetIdentifier, final boolean isDup,
             final ImmutableIntArray subscriptionIdentifiers) {
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.handler.publish;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author Silvio Giebl
+ */
+class MqttInFlightWindowTest {
+
+    private static final long RTT = 1000;
+
+    private long nowNanos = 1_000_000;
+
+    @Test
+    void get_initialWindow() {
+        assertEquals(MqttInFlightWindow.INITIAL_WINDOW, new MqttInFlightWindow(100).get());
+        assertEquals(4, new MqttInFlightWindow(4).get());
+    }
+
+    @Test
+    void onRoundTrip_slowStart_increasesPerAck() {
+        final MqttInFlightWindow window = new MqttInFlightWindow(100);
+        acks(window, 50);
+        assertEquals(66, window.get());
+    }
+
+    @Test
+    void onRoundTrip_queueing_halvesWindow() {
+        final MqttInFlightWindow window = new MqttInFlightWindow(100);
+        acks(window, 50);
+        window.onRoundTrip(2 * RTT + 1, nowNanos);
+        assertEquals(33, window.get());
+    }
+
+    @Test
+    void onRoundTrip_rttBelowQueueingFactor_doesNotDecrease() {
+        final MqttInFlightWindow window = new MqttInFlightWindow(100);
+        acks(window, 4);
+        window.onRoundTrip(2 * RTT, nowNanos);
+        assertEquals(21, window.get());
+    }
+
+    @Test
+    void onRoundTrip_decreasesAtMostOncePerRoundTrip() {
+        final MqttInFlightWindow window = new MqttInFlightWindow(100);
+        acks(window, 50);
+        window.onRoundTrip(3 * RTT, nowNanos);
+        assertEquals(33, window.get());
+
+        window.onRoundTrip(3 * RTT, nowNanos + 3 * RTT - 1);
+        assertEquals(33, window.get());
+
+        window.onRoundTrip(3 * RTT, nowNanos + 3 * RTT);
+        assertEquals(16, window.get());
+    }
+
+    @Test
+    void onRoundTrip_congestionAvoidance_increasesPerWindowOfAcks() {
+        final MqttInFlightWindow window = new MqttInFlightWindow(100);
+        acks(window, 50);
+        window.onRoundTrip(3 * RTT, nowNanos);
+        assertEquals(33, window.get());
+
+        acks(window, 32);
+        assertEquals(33, window.get());
+        acks(window, 1);
+        assertEquals(34, window.get());
+        acks(window, 34);
+        assertEquals(35, window.get());
+    }
+
+    @Test
+    void onLoss_halvesWindow() {
+        final MqttInFlightWindow window = new MqttInFlightWindow(100);
+        acks(window, 50);
+        window.onLoss(nowNanos);
+        assertEquals(33, window.get());
+
+        acks(window, 33);
+        assertEquals(34, window.get());
+    }
+
+    @Test
+    void onLoss_doesNotShrinkBelowMinimum() {
+        final MqttInFlightWindow window = new MqttInFlightWindow(100);
+        for (int i = 0; i < 10; i++) {
+            nowNanos += RTT;
+            window.onLoss(nowNanos);
+        }
+        assertEquals(MqttInFlightWindow.MIN_WINDOW, window.get());
+    }
+
+    @Test
+    void onRoundTrip_cappedAtMaxWindow() {
+        final MqttInFlightWindow window = new MqttInFlightWindow(20);
+        acks(window, 100);
+        assertEquals(20, window.get());
+
+        window.onLoss(nowNanos);
+        acks(window, 1000);
+        assertEquals(20, window.get());
+    }
+
+    private void acks(final MqttInFlightWindow window, final int count) {
+        for (int i = 0; i < count; i++) {
+            window.onRoundTrip(RTT, nowNanos);
+        }
+    }
+
+}
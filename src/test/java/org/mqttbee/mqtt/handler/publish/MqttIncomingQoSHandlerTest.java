@@ -0,0 +1,256 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.handler.publish;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.reactivex.schedulers.Schedulers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.annotations.Nullable;
+import org.mqttbee.api.mqtt.datatypes.MqttQoS;
+import org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5AdvancedClientDataBuilder;
+import org.mqttbee.api.mqtt.mqtt5.message.connect.Mqtt5ConnectRestrictions;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.TopicAliasUsage;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.pubrel.Mqtt5PubRelReasonCode;
+import org.mqttbee.mqtt.MqttClientConnectionData;
+import org.mqttbee.mqtt.MqttClientData;
+import org.mqttbee.mqtt.MqttClientExecutorConfigImpl;
+import org.mqttbee.mqtt.MqttVersion;
+import org.mqttbee.mqtt.advanced.MqttAdvancedClientData;
+import org.mqttbee.mqtt.codec.encoder.mqtt5.Mqtt5PubRelEncoder;
+import org.mqttbee.mqtt.codec.encoder.mqtt5.Mqtt5PublishEncoder;
+import org.mqttbee.mqtt.datatypes.MqttClientIdentifierImpl;
+import org.mqttbee.mqtt.datatypes.MqttTopicImpl;
+import org.mqttbee.mqtt.datatypes.MqttUserPropertiesImpl;
+import org.mqttbee.mqtt.message.publish.MqttPublish;
+import org.mqttbee.mqtt.message.publish.MqttPublishWrapper;
+import org.mqttbee.mqtt.message.publish.puback.MqttPubAck;
+import org.mqttbee.mqtt.message.publish.pubcomp.MqttPubComp;
+import org.mqttbee.mqtt.message.publish.pubrec.MqttPubRec;
+import org.mqttbee.mqtt.message.publish.pubrel.MqttPubRel;
+import org.mqttbee.mqtt.persistence.IncomingQoSFlowPersistence;
+import org.mqttbee.mqtt.persistence.PersistenceCallback;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mqttbee.mqtt.message.publish.MqttPublishWrapper.DEFAULT_NO_SUBSCRIPTION_IDENTIFIERS;
+import static org.mqttbee.mqtt.message.publish.MqttPublishWrapper.DEFAULT_NO_TOPIC_ALIAS;
+
+/**
+ * @author Silvio Giebl
+ */
+class MqttIncomingQoSHandlerTest {
+
+    private MqttClientData clientData;
+    private EmbeddedChannel channel;
+    private MqttIncomingQoSHandler handler;
+    private int flushes;
+    private final MqttIncomingPublishService incomingPublishService = mock(MqttIncomingPublishService.class);
+    private final DeferredPersistence persistence = new DeferredPersistence();
+
+    @BeforeEach
+    void setUp() {
+        setUp(null);
+    }
+
+    private void setUp(@Nullable final MqttAdvancedClientData advanced) {
+        clientData =
+                new MqttClientData(MqttVersion.MQTT_5_0, Objects.requireNonNull(MqttClientIdentifierImpl.from("test")),
+                        "localhost", 1883, false, false, false,
+                        new MqttClientExecutorConfigImpl(null, MqttClientExecutorConfigImpl.DEFAULT_NETTY_THREADS,
+                                Schedulers.trampoline()), WriteBufferWaterMark.DEFAULT, advanced);
+        channel = new EmbeddedChannel();
+        clientData.to(channel);
+        clientData.setClientConnectionData(
+                new MqttClientConnectionData(10, 10, Mqtt5ConnectRestrictions.DEFAULT_RECEIVE_MAXIMUM, 3,
+                        Mqtt5ConnectRestrictions.DEFAULT_MAXIMUM_PACKET_SIZE_NO_LIMIT, null, false, true, true,
+                        channel));
+        handler = new MqttIncomingQoSHandler(() -> incomingPublishService, clientData, persistence);
+        channel.pipeline().addLast(new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void flush(final ChannelHandlerContext ctx) {
+                flushes++;
+                ctx.flush();
+            }
+        });
+        channel.pipeline().addLast(handler);
+    }
+
+    @AfterEach
+    void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void publishQoS2_writesPubRecAfterItIsPersisted() {
+        channel.writeInbound(publish(1, MqttQoS.EXACTLY_ONCE));
+        channel.runPendingTasks();
+        assertEquals(1, persistence.stored.size());
+        assertNull(channel.readOutbound());
+
+        persistence.futures.get(0).complete(null);
+        channel.runPendingTasks();
+        final Object pubRec = channel.readOutbound();
+        assertTrue(pubRec instanceof MqttPubRec, String.valueOf(pubRec));
+        assertEquals(1, ((MqttPubRec) pubRec).getPacketIdentifier());
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    void pubRel_flushAcksOnReadComplete_flushesOncePerRead() {
+        channel.finishAndReleaseAll();
+        setUp((MqttAdvancedClientData) new Mqtt5AdvancedClientDataBuilder().withFlushAcksOnReadComplete(true)
+                .builder());
+
+        channel.writeInbound(pubRel(1), pubRel(2), pubRel(3));
+
+        assertEquals(1, flushes);
+        for (int packetIdentifier = 1; packetIdentifier <= 3; packetIdentifier++) {
+            final Object pubComp = channel.readOutbound();
+            assertTrue(pubComp instanceof MqttPubComp, String.valueOf(pubComp));
+            assertEquals(packetIdentifier, ((MqttPubComp) pubComp).getPacketIdentifier());
+        }
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    void pubRel_withoutFlushAcksOnReadComplete_flushesEveryAck() {
+        channel.writeInbound(pubRel(1), pubRel(2), pubRel(3));
+
+        assertEquals(3, flushes);
+    }
+
+    @Test
+    void ack_flushesOncePerBatch() {
+        channel.finishAndReleaseAll();
+        setUp((MqttAdvancedClientData) new Mqtt5AdvancedClientDataBuilder().withFlushAcksOnReadComplete(true)
+                .builder());
+
+        for (int packetIdentifier = 1; packetIdentifier <= 3; packetIdentifier++) {
+            handler.ack(publish(packetIdentifier, MqttQoS.AT_LEAST_ONCE));
+        }
+        channel.runPendingTasks();
+
+        assertEquals(1, flushes);
+        for (int packetIdentifier = 1; packetIdentifier <= 3; packetIdentifier++) {
+            final Object pubAck = channel.readOutbound();
+            assertTrue(pubAck instanceof MqttPubAck, String.valueOf(pubAck));
+            assertEquals(packetIdentifier, ((MqttPubAck) pubAck).getPacketIdentifier());
+        }
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    void ack_releasesPayloadAfterQoS1ControlProvider() {
+        channel.finishAndReleaseAll();
+        final ByteBuf payloadBuffer = Unpooled.buffer().writeByte(1);
+        final AtomicInteger refCntInControlProvider = new AtomicInteger(-1);
+        setUp((MqttAdvancedClientData) new Mqtt5AdvancedClientDataBuilder().withIncomingQoS1ControlProvider(
+                (publish, pubAckBuilder) -> refCntInControlProvider.set(payloadBuffer.refCnt())).builder());
+
+        handler.ack(publish(1, MqttQoS.AT_LEAST_ONCE, payloadBuffer));
+        channel.runPendingTasks();
+
+        assertEquals(1, refCntInControlProvider.get());
+        assertEquals(0, payloadBuffer.refCnt());
+        final Object pubAck = channel.readOutbound();
+        assertTrue(pubAck instanceof MqttPubAck, String.valueOf(pubAck));
+    }
+
+    @NotNull
+    private static MqttPubRel pubRel(final int packetIdentifier) {
+        return new MqttPubRel(packetIdentifier, Mqtt5PubRelReasonCode.SUCCESS, null,
+                MqttUserPropertiesImpl.NO_USER_PROPERTIES, Mqtt5PubRelEncoder.PROVIDER);
+    }
+
+    @NotNull
+    private static MqttPublishWrapper publish(final int packetIdentifier, @NotNull final MqttQoS qos) {
+        return publish(packetIdentifier, qos, null);
+    }
+
+    @NotNull
+    private static MqttPublishWrapper publish(
+            final int packetIdentifier, @NotNull final MqttQoS qos, @Nullable final ByteBuf payloadBuffer) {
+
+        final ByteBuffer payload = (payloadBuffer == null) ? ByteBuffer.wrap(new byte[]{1}) : payloadBuffer.nioBuffer();
+        return new MqttPublish(Objects.requireNonNull(MqttTopicImpl.from("topic")), payload, qos, false,
+                MqttPublish.MESSAGE_EXPIRY_INTERVAL_INFINITY, null, null, null, null, TopicAliasUsage.HAS_NOT,
+                MqttUserPropertiesImpl.NO_USER_PROPERTIES, Mqtt5PublishEncoder.PROVIDER, payloadBuffer).wrap(
+                packetIdentifier, false, DEFAULT_NO_TOPIC_ALIAS, false, DEFAULT_NO_SUBSCRIPTION_IDENTIFIERS);
+    }
+
+    private static class DeferredPersistence implements IncomingQoSFlowPersistence {
+
+        final List<MqttPubRec> stored = new ArrayList<>();
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        @NotNull
+        @Override
+        public CompletableFuture<Void> store(@NotNull final MqttPubRec pubRec) {
+            stored.add(pubRec);
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            futures.add(future);
+            return future;
+        }
+
+        @NotNull
+        @Override
+        public CompletableFuture<MqttPubRec> get(final int packetIdentifier) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @NotNull
+        @Override
+        public CompletableFuture<Void> discard(final int packetIdentifier) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void storeAll(@NotNull final List<MqttPubRec> pubRecs, @NotNull final PersistenceCallback callback) {
+            stored.addAll(pubRecs);
+            callback.onPersisted(pubRecs.size());
+        }
+
+        @Override
+        public void discardAll(
+                @NotNull final int[] packetIdentifiers, final int count, @NotNull final PersistenceCallback callback) {
+
+            callback.onPersisted(count);
+        }
+
+        @Override
+        public void clear() {
+        }
+
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.handler.publish;
+
+import io.reactivex.Emitter;
+import org.junit.jupiter.api.Test;
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.api.mqtt.datatypes.MqttQoS;
+import org.mqttbee.api.mqtt.exceptions.NotConnectedException;
+import org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5OfflinePublishOverflow;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.TopicAliasUsage;
+import org.mqttbee.mqtt.codec.encoder.mqtt5.Mqtt5PublishEncoder;
+import org.mqttbee.mqtt.datatypes.MqttTopicImpl;
+import org.mqttbee.mqtt.datatypes.MqttUserPropertiesImpl;
+import org.mqttbee.mqtt.message.publish.MqttPublish;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Silvio Giebl
+ */
+class MqttOfflinePublishQueueTest {
+
+    private final List<Mqtt5PublishResult> results = new CopyOnWriteArrayList<>();
+
+    @Test
+    void offer_dropOldest_dropsOldestPublish() {
+        final MqttOfflinePublishQueue queue =
+                new MqttOfflinePublishQueue(2, Long.MAX_VALUE, Mqtt5OfflinePublishOverflow.DROP_OLDEST, false);
+        final MqttPublishWithFlow first = publish();
+        final MqttPublishWithFlow second = publish();
+        final MqttPublishWithFlow third = publish();
+        queue.offer(first, true);
+        queue.offer(second, true);
+        queue.offer(third, true);
+
+        assertDropped(first);
+        assertSame(second, queue.poll());
+        assertSame(third, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void offer_dropNewest_dropsNewPublish() {
+        final MqttOfflinePublishQueue queue =
+                new MqttOfflinePublishQueue(2, Long.MAX_VALUE, Mqtt5OfflinePublishOverflow.DROP_NEWEST, false);
+        final MqttPublishWithFlow first = publish();
+        final MqttPublishWithFlow second = publish();
+        final MqttPublishWithFlow third = publish();
+        queue.offer(first, true);
+        queue.offer(second, true);
+        queue.offer(third, true);
+
+        assertDropped(third);
+        assertSame(first, queue.poll());
+        assertSame(second, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void offer_bytesExceeded_dropsPublish() {
+        final MqttOfflinePublishQueue queue =
+                new MqttOfflinePublishQueue(10, 10, Mqtt5OfflinePublishOverflow.DROP_NEWEST, false);
+        final MqttPublishWithFlow first = publish();
+        final MqttPublishWithFlow second = publish();
+        queue.offer(first, true);
+        queue.offer(second, true);
+
+        assertDropped(second);
+        assertSame(first, queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void offer_block_waitsUntilPolled() throws InterruptedException {
+        final MqttOfflinePublishQueue queue =
+                new MqttOfflinePublishQueue(1, Long.MAX_VALUE, Mqtt5OfflinePublishOverflow.BLOCK, false);
+        final MqttPublishWithFlow first = publish();
+        final MqttPublishWithFlow second = publish();
+        queue.offer(first, true);
+
+        final Thread producer = new Thread(() -> queue.offer(second, true));
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+
+        assertSame(first, queue.poll());
+        producer.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(producer.isAlive());
+        assertSame(second, queue.poll());
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    void offer_blockButMayNotBlock_exceedsLimits() {
+        final MqttOfflinePublishQueue queue =
+                new MqttOfflinePublishQueue(1, Long.MAX_VALUE, Mqtt5OfflinePublishOverflow.BLOCK, false);
+        final MqttPublishWithFlow first = publish();
+        final MqttPublishWithFlow second = publish();
+        queue.offer(first, true);
+        queue.offer(second, false);
+
+        assertSame(first, queue.poll());
+        assertSame(second, queue.poll());
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    void offer_block_interrupted_dropsPublish() throws InterruptedException {
+        final MqttOfflinePublishQueue queue =
+                new MqttOfflinePublishQueue(1, Long.MAX_VALUE, Mqtt5OfflinePublishOverflow.BLOCK, false);
+        final MqttPublishWithFlow second = publish();
+        queue.offer(publish(), true);
+
+        final Thread producer = new Thread(() -> queue.offer(second, true));
+        producer.start();
+        producer.interrupt();
+        producer.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(producer.isAlive());
+        assertDropped(second);
+    }
+
+    private void assertDropped(@NotNull final MqttPublishWithFlow publishWithFlow) {
+        assertEquals(1, results.size());
+        assertSame(publishWithFlow.getPublish(), results.get(0).getPublish());
+        assertTrue(results.get(0).getError() instanceof NotConnectedException);
+    }
+
+    @NotNull
+    private MqttPublishWithFlow publish() {
+        final MqttPublish publish =
+                new MqttPublish(Objects.requireNonNull(MqttTopicImpl.from("topic")), ByteBuffer.wrap(new byte[]{1}),
+                        MqttQoS.AT_LEAST_ONCE, false, MqttPublish.MESSAGE_EXPIRY_INTERVAL_INFINITY, null, null, null,
+                        null, TopicAliasUsage.HAS_NOT, MqttUserPropertiesImpl.NO_USER_PROPERTIES,
+                        Mqtt5PublishEncoder.PROVIDER);
+        return new MqttPublishWithFlow(publish, new Emitter<Mqtt5PublishResult>() {
+            @Override
+            public void onNext(@NotNull final Mqtt5PublishResult result) {
+                results.add(result);
+            }
+
+            @Override
+            public void onError(@NotNull final Throwable error) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.handler.publish;
+
+import io.reactivex.Emitter;
+import io.reactivex.Flowable;
+import io.reactivex.schedulers.Schedulers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.api.mqtt.datatypes.MqttQoS;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.TopicAliasUsage;
+import org.mqttbee.mqtt.codec.encoder.mqtt5.Mqtt5PublishEncoder;
+import org.mqttbee.mqtt.datatypes.MqttTopicImpl;
+import org.mqttbee.mqtt.datatypes.MqttUserPropertiesImpl;
+import org.mqttbee.mqtt.message.publish.MqttPublish;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Silvio Giebl
+ */
+class MqttOutgoingPublishServiceTest {
+
+    private MqttOutgoingQoSHandler handler;
+    private MqttOutgoingPublishService service;
+    private final List<MqttPublishWithFlow> published = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        handler = mock(MqttOutgoingQoSHandler.class);
+        when(handler.isWritable()).thenReturn(true);
+        doAnswer(invocation -> published.add(invocation.getArgument(0))).when(handler).publish(any());
+        service = new MqttOutgoingPublishService(Schedulers.trampoline(), false);
+    }
+
+    @Test
+    void attach_grantsReceiveMaximum() {
+        add(flow(), 10);
+        service.attach(handler, 3);
+        assertEquals(3, published.size());
+
+        service.request(1);
+        assertEquals(4, published.size());
+
+        service.request(2);
+        assertEquals(6, published.size());
+    }
+
+    @Test
+    void request_slowProducer_doesNotStarveOthers() {
+        final AtomicLong slowRequested = new AtomicLong();
+        service.getPublishFlowables()
+                .add(Flowable.<MqttPublishWithFlow>never().doOnRequest(slowRequested::addAndGet));
+        final Emitter<Mqtt5PublishResult> flow = flow();
+        add(flow, 100);
+        service.attach(handler, 8);
+
+        assertEquals(4, slowRequested.get());
+        assertEquals(4, count(flow));
+    }
+
+    @Test
+    void request_grantsAtLeastOneToEachWaitingProducer() {
+        final Emitter<Mqtt5PublishResult> flow1 = flow();
+        final Emitter<Mqtt5PublishResult> flow2 = flow();
+        final Emitter<Mqtt5PublishResult> flow3 = flow();
+        add(flow1, 100);
+        add(flow2, 100);
+        add(flow3, 100);
+        service.attach(handler, 2);
+
+        assertEquals(1, count(flow1));
+        assertEquals(1, count(flow2));
+        assertEquals(0, count(flow3));
+
+        service.request(1);
+        assertEquals(1, count(flow3));
+    }
+
+    @Test
+    void request_returnsCreditOfCompletedProducers() {
+        final Emitter<Mqtt5PublishResult> flow1 = flow();
+        final Emitter<Mqtt5PublishResult> flow2 = flow();
+        add(flow1, 1);
+        add(flow2, 10);
+        service.attach(handler, 4);
+
+        assertEquals(1, count(flow1));
+        assertEquals(3, count(flow2));
+    }
+
+    @Test
+    void attach_notWritable_grantsNoCredit() {
+        when(handler.isWritable()).thenReturn(false);
+        add(flow(), 10);
+        service.attach(handler, 3);
+        assertEquals(0, published.size());
+
+        when(handler.isWritable()).thenReturn(true);
+        service.request(0);
+        assertEquals(3, published.size());
+    }
+
+    @Test
+    void attach_closedWithoutOfflinePublishQueue_grantsNoCredit() {
+        when(handler.isClosed()).thenReturn(true);
+        add(flow(), 10);
+        service.attach(handler, 3);
+        assertEquals(0, published.size());
+    }
+
+    private void add(@NotNull final Emitter<Mqtt5PublishResult> flow, final int count) {
+        service.getPublishFlowables()
+                .add(Flowable.range(0, count).map(i -> new MqttPublishWithFlow(publish(), flow)));
+    }
+
+    private int count(@NotNull final Emitter<Mqtt5PublishResult> flow) {
+        int count = 0;
+        for (final MqttPublishWithFlow publishWithFlow : published) {
+            if (publishWithFlow.getIncomingAckFlow() == flow) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @NotNull
+    @SuppressWarnings("unchecked")
+    private static Emitter<Mqtt5PublishResult> flow() {
+        return mock(Emitter.class);
+    }
+
+    @NotNull
+    private static MqttPublish publish() {
+        return new MqttPublish(Objects.requireNonNull(MqttTopicImpl.from("topic")), ByteBuffer.wrap(new byte[]{1}),
+                MqttQoS.AT_LEAST_ONCE, false, MqttPublish.MESSAGE_EXPIRY_INTERVAL_INFINITY, null, null, null, null,
+                TopicAliasUsage.HAS_NOT, MqttUserPropertiesImpl.NO_USER_PROPERTIES, Mqtt5PublishEncoder.PROVIDER);
+    }
+
+}
@@ -0,0 +1,689 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.handler.publish;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.reactivex.Emitter;
+import io.reactivex.Flowable;
+import io.reactivex.processors.UnicastProcessor;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subscribers.TestSubscriber;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.annotations.Nullable;
+import org.mqttbee.api.mqtt.datatypes.MqttQoS;
+import org.mqttbee.api.mqtt.exceptions.AckTimeoutException;
+import org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5AckTimeoutPolicy;
+import org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5AdvancedClientDataBuilder;
+import org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5FlushStrategy;
+import org.mqttbee.api.mqtt.mqtt5.advanced.Mqtt5OfflinePublishOverflow;
+import org.mqttbee.api.mqtt.mqtt5.message.connect.Mqtt5ConnectRestrictions;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.TopicAliasUsage;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.puback.Mqtt5PubAckReasonCode;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.pubcomp.Mqtt5PubCompReasonCode;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.pubrec.Mqtt5PubRecReasonCode;
+import org.mqttbee.mqtt.MqttClientConnectionData;
+import org.mqttbee.mqtt.MqttClientData;
+import org.mqttbee.mqtt.MqttClientExecutorConfigImpl;
+import org.mqttbee.mqtt.MqttClientSession;
+import org.mqttbee.mqtt.MqttServerConnectionData;
+import org.mqttbee.mqtt.MqttVersion;
+import org.mqttbee.mqtt.advanced.MqttAdvancedClientData;
+import org.mqttbee.mqtt.codec.encoder.mqtt5.Mqtt5PubAckEncoder;
+import org.mqttbee.mqtt.codec.encoder.mqtt5.Mqtt5PubCompEncoder;
+import org.mqttbee.mqtt.codec.encoder.mqtt5.Mqtt5PubRecEncoder;
+import org.mqttbee.mqtt.codec.encoder.mqtt5.Mqtt5PublishEncoder;
+import org.mqttbee.mqtt.datatypes.MqttClientIdentifierImpl;
+import org.mqttbee.mqtt.datatypes.MqttTopicImpl;
+import org.mqttbee.mqtt.datatypes.MqttUserPropertiesImpl;
+import org.mqttbee.mqtt.datatypes.MqttVariableByteInteger;
+import org.mqttbee.mqtt.message.publish.MqttPublish;
+import org.mqttbee.mqtt.message.publish.MqttPublishWrapper;
+import org.mqttbee.mqtt.message.publish.MqttQoSMessage;
+import org.mqttbee.mqtt.message.publish.puback.MqttPubAck;
+import org.mqttbee.mqtt.message.publish.pubcomp.MqttPubComp;
+import org.mqttbee.mqtt.message.publish.pubrec.MqttPubRec;
+import org.mqttbee.mqtt.message.publish.pubrel.MqttPubRel;
+import org.mqttbee.mqtt.persistence.OutgoingQoSFlowPersistence;
+import org.mqttbee.mqtt.persistence.PersistenceCallback;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Silvio Giebl
+ */
+class MqttOutgoingQoSHandlerTest {
+
+    private static final int RECEIVE_MAXIMUM = 2;
+
+    private MqttClientData clientData;
+    private EmbeddedChannel channel;
+    private MqttOutgoingQoSHandler handler;
+    private int flushes;
+    private final MemoryPersistence persistence = new MemoryPersistence();
+    private final List<Mqtt5PublishResult> results = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        setUp(null);
+    }
+
+    private void setUp(@Nullable final MqttAdvancedClientData advanced) {
+        setUp(advanced, WriteBufferWaterMark.DEFAULT);
+    }
+
+    private void setUp(
+            @Nullable final MqttAdvancedClientData advanced,
+            @NotNull final WriteBufferWaterMark writeBufferWaterMark) {
+
+        clientData =
+                new MqttClientData(MqttVersion.MQTT_5_0, Objects.requireNonNull(MqttClientIdentifierImpl.from("test")),
+                        "localhost", 1883, false, false, false,
+                        new MqttClientExecutorConfigImpl(null, MqttClientExecutorConfigImpl.DEFAULT_NETTY_THREADS,
+                                Schedulers.trampoline()), writeBufferWaterMark, advanced);
+        connect();
+    }
+
+    @AfterEach
+    void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    private void connect() {
+        connect(RECEIVE_MAXIMUM);
+    }
+
+    private void connect(final int receiveMaximum) {
+        clientData.setServerConnectionData(
+                new MqttServerConnectionData(receiveMaximum, 0, MqttVariableByteInteger.MAXIMUM_PACKET_SIZE_LIMIT,
+                        MqttQoS.EXACTLY_ONCE, true, true, true, true));
+        handler = new MqttOutgoingQoSHandler(clientData, persistence);
+        flushes = 0;
+        channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void flush(final ChannelHandlerContext ctx) {
+                flushes++;
+                ctx.flush();
+            }
+        }, handler);
+        channel.config().setWriteBufferWaterMark(clientData.getWriteBufferWaterMark());
+        clientData.to(channel);
+        clientData.setClientConnectionData(
+                new MqttClientConnectionData(10, 10, Mqtt5ConnectRestrictions.DEFAULT_RECEIVE_MAXIMUM, 3,
+                        Mqtt5ConnectRestrictions.DEFAULT_MAXIMUM_PACKET_SIZE_NO_LIMIT, null, false, true, true,
+                        channel));
+    }
+
+    @Test
+    void resumeSession_resendsAtMostReceiveMaximumFlows() {
+        final MqttClientSession session = clientData.getSession();
+        for (int i = 0; i < 5; i++) {
+            final int packetIdentifier = session.getPacketIdentifiers().getId();
+            session.getOutgoingPublishes().put(packetIdentifier, new MqttPublishWithFlow(publish(), resultEmitter()));
+        }
+
+        handler.resumeSession(true);
+
+        assertResent(1, 2);
+        assertNull(channel.readOutbound());
+
+        channel.writeInbound(pubAck(1));
+        channel.runPendingTasks();
+        assertResent(3);
+        assertNull(channel.readOutbound());
+
+        channel.writeInbound(pubAck(2), pubAck(3));
+        channel.runPendingTasks();
+        assertResent(4, 5);
+        assertNull(channel.readOutbound());
+        assertEquals(3, results.size());
+    }
+
+    @Test
+    void publish_continuesAfterReconnect() {
+        handler.resumeSession(false);
+        final TestSubscriber<Mqtt5PublishResult> subscriber =
+                new MqttIncomingAckFlowable(Flowable.range(0, 10).map(i -> publish()), clientData).test();
+
+        channel.runPendingTasks();
+        assertEquals(1, readPublish().getPacketIdentifier());
+        assertEquals(2, readPublish().getPacketIdentifier());
+        assertNull(channel.readOutbound());
+
+        channel.writeInbound(pubAck(1));
+        channel.runPendingTasks();
+        assertEquals(1, readPublish().getPacketIdentifier());
+        assertNull(channel.readOutbound());
+        subscriber.assertValueCount(1);
+
+        channel.close();
+        connect();
+        handler.resumeSession(true);
+        channel.runPendingTasks();
+        assertResent(1, 2);
+        assertNull(channel.readOutbound());
+
+        // the results of the flows of the previous connection return their credit to the session
+        for (int i = 1; i < 10; i++) {
+            channel.writeInbound(pubAck((i % 2 == 1) ? 1 : 2));
+            channel.runPendingTasks();
+            if (i < 8) {
+                assertEquals((i % 2 == 1) ? 1 : 2, readPublish().getPacketIdentifier());
+            }
+        }
+        assertNull(channel.readOutbound());
+        subscriber.assertValueCount(10);
+        subscriber.assertNoErrors();
+    }
+
+    @Test
+    void publish_beyondReceiveMaximum_isParkedAndWrittenInOrderWhenPacketIdentifiersAreFreed() {
+        handler.resumeSession(false);
+        final List<MqttPublish> publishes = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            publishes.add(publish());
+        }
+        final TestSubscriber<Mqtt5PublishResult> subscriber =
+                new MqttIncomingAckFlowable(Flowable.fromIterable(publishes), clientData).test();
+
+        channel.runPendingTasks();
+        assertSame(publishes.get(0), assertPublish(1).getWrapped());
+        assertSame(publishes.get(1), assertPublish(2).getWrapped());
+        assertNull(channel.readOutbound());
+
+        // every removed flow releases the next parked publish with its packet identifier
+        channel.writeInbound(pubAck(2));
+        channel.runPendingTasks();
+        assertSame(publishes.get(2), assertPublish(2).getWrapped());
+        assertNull(channel.readOutbound());
+
+        channel.writeInbound(pubAck(1));
+        channel.runPendingTasks();
+        assertSame(publishes.get(3), assertPublish(1).getWrapped());
+        assertNull(channel.readOutbound());
+
+        channel.writeInbound(pubAck(2));
+        channel.runPendingTasks();
+        assertSame(publishes.get(4), assertPublish(2).getWrapped());
+        assertNull(channel.readOutbound());
+
+        channel.writeInbound(pubAck(1));
+        channel.writeInbound(pubAck(2));
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound());
+        // the results are emitted in the order of the acknowledgements
+        final int[] ackOrder = {1, 0, 2, 3, 4};
+        subscriber.assertValueCount(5);
+        for (int i = 0; i < 5; i++) {
+            assertSame(publishes.get(ackOrder[i]), subscriber.values().get(i).getPublish());
+            assertNull(subscriber.values().get(i).getError());
+        }
+    }
+
+    @Test
+    void offlinePublishQueue_subscribedWhileDisconnected_drainsOnReconnect() {
+        channel.finishAndReleaseAll();
+        setUp((MqttAdvancedClientData) new Mqtt5AdvancedClientDataBuilder().withOfflinePublishQueue(10, Long.MAX_VALUE,
+                Mqtt5OfflinePublishOverflow.DROP_OLDEST).builder());
+        handler.resumeSession(false);
+        channel.close();
+        clientData.setClientConnectionData(null);
+        clientData.setServerConnectionData(null);
+
+        final TestSubscriber<Mqtt5PublishResult> subscriber =
+                new MqttIncomingAckFlowable(Flowable.range(0, 3).map(i -> publish()), clientData).test();
+        subscriber.assertNoErrors();
+        subscriber.assertNoValues();
+        final MqttOfflinePublishQueue offlinePublishes = clientData.getSession().getOfflinePublishes();
+        assertNotNull(offlinePublishes);
+        assertFalse(offlinePublishes.isEmpty());
+
+        connect();
+        handler.resumeSession(true);
+        channel.runPendingTasks();
+        assertTrue(offlinePublishes.isEmpty());
+        assertEquals(1, readPublish().getPacketIdentifier());
+        assertEquals(2, readPublish().getPacketIdentifier());
+        assertNull(channel.readOutbound());
+
+        channel.writeInbound(pubAck(1));
+        channel.runPendingTasks();
+        assertEquals(1, readPublish().getPacketIdentifier());
+        channel.writeInbound(pubAck(2));
+        channel.writeInbound(pubAck(1));
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound());
+        subscriber.assertValueCount(3);
+        subscriber.assertNoErrors();
+        for (final Mqtt5PublishResult result : subscriber.values()) {
+            assertNull(result.getError());
+        }
+    }
+
+    @Test
+    void publish_afterReconnectWithSmallerReceiveMaximum_usesCreditOfPreviousConnection() {
+        channel.close();
+        connect(200);
+        handler.resumeSession(false);
+        final List<UnicastProcessor<MqttPublish>> producers = new ArrayList<>();
+        final List<AtomicLong> requested = new ArrayList<>();
+        final List<TestSubscriber<Mqtt5PublishResult>> subscribers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final UnicastProcessor<MqttPublish> producer = UnicastProcessor.create();
+            final AtomicLong producerRequested = new AtomicLong();
+            producers.add(producer);
+            requested.add(producerRequested);
+            subscribers.add(new MqttIncomingAckFlowable(producer.doOnRequest(producerRequested::addAndGet),
+                    clientData).test());
+        }
+        channel.runPendingTasks();
+        final long[] grantedPerProducer = requested.stream().mapToLong(AtomicLong::get).toArray();
+        final long granted = Arrays.stream(grantedPerProducer).sum();
+        assertTrue(granted > 128, String.valueOf(granted));
+
+        channel.close();
+        connect(RECEIVE_MAXIMUM);
+        handler.resumeSession(true);
+        // the credit granted on the previous connection is used at once before the event loop drains the publishes
+        for (int i = 0; i < producers.size(); i++) {
+            for (long j = 0; j < grantedPerProducer[i]; j++) {
+                producers.get(i).onNext(publish());
+            }
+        }
+        channel.runPendingTasks();
+
+        // only receive maximum flows are in flight, the others are parked until packet identifiers are acknowledged
+        assertEquals(1, readPublish().getPacketIdentifier());
+        assertEquals(2, readPublish().getPacketIdentifier());
+        assertNull(channel.readOutbound());
+        for (long i = 0; i < granted; i++) {
+            channel.writeInbound(pubAck((i % 2 == 0) ? 1 : 2));
+            channel.runPendingTasks();
+            if (i < granted - 2) {
+                assertEquals((i % 2 == 0) ? 1 : 2, readPublish().getPacketIdentifier());
+            }
+            assertNull(channel.readOutbound());
+        }
+        for (int i = 0; i < subscribers.size(); i++) {
+            subscribers.get(i).assertValueCount((int) grantedPerProducer[i]);
+            subscribers.get(i).assertNoErrors();
+        }
+    }
+
+    @Test
+    void ackTimeout_fail_quarantinesPacketIdentifierUntilLateAck() throws InterruptedException {
+        channel.finishAndReleaseAll();
+        setUp((MqttAdvancedClientData) new Mqtt5AdvancedClientDataBuilder().withAckTimeout(100, TimeUnit.MILLISECONDS,
+                Mqtt5AckTimeoutPolicy.FAIL).builder());
+        handler.resumeSession(false);
+        final UnicastProcessor<MqttPublish> publishes = UnicastProcessor.create();
+        final TestSubscriber<Mqtt5PublishResult> subscriber =
+                new MqttIncomingAckFlowable(publishes, clientData).test();
+
+        publishes.onNext(publish());
+        publishes.onNext(publish());
+        channel.runPendingTasks();
+        assertEquals(1, readPublish().getPacketIdentifier());
+        assertEquals(2, readPublish().getPacketIdentifier());
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((subscriber.valueCount() < 2) && (System.nanoTime() < deadline)) {
+            Thread.sleep(1);
+            channel.runPendingTasks();
+        }
+        subscriber.assertValueCount(2);
+        assertTrue(subscriber.values().get(0).getError() instanceof AckTimeoutException);
+
+        // the server may still use the packet identifiers of the failed flows
+        publishes.onNext(publish());
+        channel.runPendingTasks();
+        assertEquals(3, readPublish().getPacketIdentifier());
+
+        // the late PUBACK only returns the packet identifier
+        channel.writeInbound(pubAck(1));
+        channel.runPendingTasks();
+        subscriber.assertValueCount(2);
+
+        publishes.onNext(publish());
+        channel.runPendingTasks();
+        assertEquals(1, readPublish().getPacketIdentifier());
+        assertNull(channel.readOutbound());
+
+        channel.writeInbound(pubAck(1));
+        subscriber.assertValueCount(3);
+        assertNull(subscriber.values().get(2).getError());
+
+        final List<String> operations = persistence.operations;
+        assertEquals(7, operations.size());
+        assertEquals(Arrays.asList("store 1", "store 2"), operations.subList(0, 2));
+        assertTrue(operations.subList(2, 4).containsAll(Arrays.asList("discard 1", "discard 2")));
+        assertEquals(Arrays.asList("store 3", "store 1", "discard 1"), operations.subList(4, 7));
+    }
+
+    @Test
+    void acks_withoutFlowInFlight_areDropped() {
+        handler.resumeSession(false);
+        final UnicastProcessor<MqttPublish> publishes = UnicastProcessor.create();
+        final TestSubscriber<Mqtt5PublishResult> subscriber =
+                new MqttIncomingAckFlowable(publishes, clientData).test();
+
+        publishes.onNext(publish());
+        channel.runPendingTasks();
+        assertEquals(1, readPublish().getPacketIdentifier());
+
+        // a PUBREC or PUBCOMP does not complete a QoS 1 flow and no PUBREL is sent for it
+        channel.writeInbound(pubRec(1), pubComp(1), pubAck(2), pubRec(3));
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound());
+        subscriber.assertValueCount(0);
+
+        channel.writeInbound(pubAck(1));
+        subscriber.assertValueCount(1);
+
+        // a duplicate PUBACK must not return the reused packet identifier a second time
+        channel.writeInbound(pubAck(1));
+        publishes.onNext(publish());
+        publishes.onNext(publish());
+        channel.runPendingTasks();
+        assertEquals(1, readPublish().getPacketIdentifier());
+        assertEquals(2, readPublish().getPacketIdentifier());
+
+        channel.writeInbound(pubAck(1));
+        channel.runPendingTasks();
+        publishes.onNext(publish());
+        channel.runPendingTasks();
+        assertEquals(1, readPublish().getPacketIdentifier());
+        subscriber.assertValueCount(2);
+    }
+
+    @Test
+    void publish_latencyFirst_flushesEveryPass() {
+        setUp((MqttAdvancedClientData) new Mqtt5AdvancedClientDataBuilder().withFlushStrategy(
+                Mqtt5FlushStrategy.LATENCY_FIRST).builder());
+        handler.resumeSession(false);
+
+        publishQoS0(200);
+        channel.runPendingTasks();
+
+        // passes of 64, 64, 64 and 8 publishes
+        assertEquals(4, flushes);
+        assertPublishesQoS0(200);
+    }
+
+    @Test
+    void publish_throughputFirst_flushesOnceWhenDrained() {
+        setUp((MqttAdvancedClientData) new Mqtt5AdvancedClientDataBuilder().withFlushStrategy(
+                Mqtt5FlushStrategy.THROUGHPUT_FIRST).builder());
+        // the outbound buffer must stay writable with a whole pass unflushed
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(1024 * 1024, 2 * 1024 * 1024));
+        handler.resumeSession(false);
+
+        publishQoS0(1500);
+        channel.runPendingTasks();
+
+        // passes of 1024 and 476 publishes, the first one is not flushed as the byte budget is not exceeded
+        assertEquals(1, flushes);
+        assertPublishesQoS0(1500);
+    }
+
+    @Test
+    void publish_notWritable_pausesUntilWritable() {
+        handler.resumeSession(false);
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+
+        publishQoS0(10);
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound());
+        assertEquals(0, flushes);
+
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        channel.runPendingTasks();
+        assertEquals(1, flushes);
+        assertPublishesQoS0(10);
+    }
+
+    @Test
+    void publish_aboveHighWaterMark_grantsNoCreditUntilBelowLowWaterMark() {
+        setUp(null, new WriteBufferWaterMark(500, 1000));
+        handler.resumeSession(false);
+        final UnicastProcessor<MqttPublish> producer = UnicastProcessor.create();
+        final AtomicLong requested = new AtomicLong();
+        final TestSubscriber<Mqtt5PublishResult> subscriber =
+                new MqttIncomingAckFlowable(producer.doOnRequest(requested::addAndGet), clientData).test();
+        channel.runPendingTasks();
+        assertEquals(RECEIVE_MAXIMUM, requested.get());
+
+        producer.onNext(publish());
+        producer.onNext(publish());
+        channel.runPendingTasks();
+        assertEquals(1, readPublish().getPacketIdentifier());
+        assertEquals(2, readPublish().getPacketIdentifier());
+
+        // each unflushed buffer occupies 600 bytes and the entry overhead of the outbound buffer
+        channel.write(Unpooled.buffer(600).writeZero(600));
+        channel.write(Unpooled.buffer(600).writeZero(600));
+        assertFalse(channel.isWritable());
+
+        // the credit of the completed flows is returned but not granted while above the high water mark
+        channel.writeInbound(pubAck(1), pubAck(2));
+        channel.runPendingTasks();
+        subscriber.assertValueCount(2);
+        assertEquals(RECEIVE_MAXIMUM, requested.get());
+
+        final ChannelOutboundBuffer outboundBuffer = channel.unsafe().outboundBuffer();
+        outboundBuffer.addFlush();
+        outboundBuffer.remove();
+        assertFalse(channel.isWritable());
+        assertEquals(RECEIVE_MAXIMUM, requested.get());
+
+        outboundBuffer.remove();
+        assertTrue(channel.isWritable());
+        assertEquals(2 * RECEIVE_MAXIMUM, requested.get());
+        subscriber.assertNoErrors();
+    }
+
+    @Test
+    void pubRec_writesPubRelAfterItIsPersisted() {
+        handler.resumeSession(false);
+        final UnicastProcessor<MqttPublish> publishes = UnicastProcessor.create();
+        final TestSubscriber<Mqtt5PublishResult> subscriber =
+                new MqttIncomingAckFlowable(publishes, clientData).test();
+
+        publishes.onNext(publish(MqttQoS.EXACTLY_ONCE));
+        channel.runPendingTasks();
+        assertEquals(1, readPublish().getPacketIdentifier());
+
+        persistence.deferredCallbacks = new ArrayList<>();
+        channel.writeInbound(pubRec(1));
+        channel.runPendingTasks();
+        assertEquals(Arrays.asList("store 1", "store 1"), persistence.operations);
+        assertNull(channel.readOutbound());
+
+        persistence.deferredCallbacks.forEach(Runnable::run);
+        channel.runPendingTasks();
+        final Object message = channel.readOutbound();
+        assertTrue(message instanceof MqttPubRel, String.valueOf(message));
+        assertEquals(1, ((MqttPubRel) message).getPacketIdentifier());
+
+        channel.writeInbound(pubComp(1));
+        subscriber.assertValueCount(1);
+    }
+
+    @NotNull
+    private MqttPublishWrapper readPublish() {
+        final Object message = channel.readOutbound();
+        assertTrue(message instanceof MqttPublishWrapper, String.valueOf(message));
+        return (MqttPublishWrapper) message;
+    }
+
+    @NotNull
+    private MqttPublishWrapper assertPublish(final int packetIdentifier) {
+        final MqttPublishWrapper publishWrapper = readPublish();
+        assertEquals(packetIdentifier, publishWrapper.getPacketIdentifier());
+        assertFalse(publishWrapper.isDup());
+        return publishWrapper;
+    }
+
+    private void publishQoS0(final int count) {
+        for (int i = 0; i < count; i++) {
+            handler.publish(new MqttPublishWithFlow(publish(MqttQoS.AT_MOST_ONCE), resultEmitter()));
+        }
+    }
+
+    private void assertPublishesQoS0(final int count) {
+        for (int i = 0; i < count; i++) {
+            assertEquals(MqttPublishWrapper.NO_PACKET_IDENTIFIER_QOS_0, readPublish().getPacketIdentifier());
+        }
+        assertNull(channel.readOutbound());
+        assertEquals(count, results.size());
+    }
+
+    private void assertResent(final int... packetIdentifiers) {
+        for (final int packetIdentifier : packetIdentifiers) {
+            final Object message = channel.readOutbound();
+            assertTrue(message instanceof MqttPublishWrapper, String.valueOf(message));
+            final MqttPublishWrapper publishWrapper = (MqttPublishWrapper) message;
+            assertEquals(packetIdentifier, publishWrapper.getPacketIdentifier());
+            assertTrue(publishWrapper.isDup());
+        }
+    }
+
+    @NotNull
+    private Emitter<Mqtt5PublishResult> resultEmitter() {
+        return new Emitter<Mqtt5PublishResult>() {
+            @Override
+            public void onNext(@NotNull final Mqtt5PublishResult result) {
+                results.add(result);
+            }
+
+            @Override
+            public void onError(@NotNull final Throwable error) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        };
+    }
+
+    @NotNull
+    private static MqttPublish publish() {
+        return publish(MqttQoS.AT_LEAST_ONCE);
+    }
+
+    @NotNull
+    private static MqttPublish publish(@NotNull final MqttQoS qos) {
+        return new MqttPublish(Objects.requireNonNull(MqttTopicImpl.from("topic")), ByteBuffer.wrap(new byte[]{1}),
+                qos, false, MqttPublish.MESSAGE_EXPIRY_INTERVAL_INFINITY, null, null, null, null,
+                TopicAliasUsage.HAS_NOT, MqttUserPropertiesImpl.NO_USER_PROPERTIES, Mqtt5PublishEncoder.PROVIDER);
+    }
+
+    @NotNull
+    private static MqttPubAck pubAck(final int packetIdentifier) {
+        return new MqttPubAck(packetIdentifier, Mqtt5PubAckReasonCode.SUCCESS, null,
+                MqttUserPropertiesImpl.NO_USER_PROPERTIES, Mqtt5PubAckEncoder.PROVIDER);
+    }
+
+    @NotNull
+    private static MqttPubRec pubRec(final int packetIdentifier) {
+        return new MqttPubRec(packetIdentifier, Mqtt5PubRecReasonCode.SUCCESS, null,
+                MqttUserPropertiesImpl.NO_USER_PROPERTIES, Mqtt5PubRecEncoder.PROVIDER);
+    }
+
+    @NotNull
+    private static MqttPubComp pubComp(final int packetIdentifier) {
+        return new MqttPubComp(packetIdentifier, Mqtt5PubCompReasonCode.SUCCESS, null,
+                MqttUserPropertiesImpl.NO_USER_PROPERTIES, Mqtt5PubCompEncoder.PROVIDER);
+    }
+
+
+    private static class MemoryPersistence implements OutgoingQoSFlowPersistence {
+
+        private final List<String> operations = new ArrayList<>();
+        // callbacks of stored batches which are not completed yet, null if batches complete immediately
+        private List<Runnable> deferredCallbacks;
+
+        @NotNull
+        @Override
+        public CompletableFuture<Void> store(@NotNull final MqttPublishWrapper publishWrapper) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @NotNull
+        @Override
+        public CompletableFuture<Void> store(@NotNull final MqttPubRel pubRel) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @NotNull
+        @Override
+        public CompletableFuture<MqttQoSMessage> get(final int packetIdentifier) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @NotNull
+        @Override
+        public CompletableFuture<Void> discard(final int packetIdentifier) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void storeAll(
+                @NotNull final List<MqttQoSMessage> messages, @NotNull final PersistenceCallback callback) {
+
+            for (final MqttQoSMessage message : messages) {
+                operations.add("store " + message.getPacketIdentifier());
+            }
+            final int count = messages.size();
+            if (deferredCallbacks == null) {
+                callback.onPersisted(count);
+            } else {
+                deferredCallbacks.add(() -> callback.onPersisted(count));
+            }
+        }
+
+        @Override
+        public void discardAll(
+                @NotNull final int[] packetIdentifiers, final int count, @NotNull final PersistenceCallback callback) {
+
+            for (int i = 0; i < count; i++) {
+                operations.add("discard " + packetIdentifiers[i]);
+            }
+            callback.onPersisted(count);
+        }
+
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.handler.publish;
+
+import io.reactivex.Scheduler;
+import io.reactivex.subscribers.TestSubscriber;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.mqtt.datatypes.MqttTopicFilterImpl;
+import org.mqttbee.mqtt.datatypes.MqttTopicImpl;
+import org.mqttbee.util.collections.ScNodeList;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Silvio Giebl
+ */
+class MqttSubscriptionFlowTrieTest {
+
+    private MqttIncomingPublishService incomingPublishService;
+    private MqttSubscriptionFlowTrie trie;
+
+    @BeforeEach
+    void setUp() {
+        incomingPublishService = mock(MqttIncomingPublishService.class);
+        when(incomingPublishService.getRxEventLoop()).thenReturn(mock(Scheduler.Worker.class));
+        trie = new MqttSubscriptionFlowTrie();
+    }
+
+    @Test
+    void findMatching_exactTopic() {
+        final MqttSubscriptionFlow flow = flow();
+        trie.subscribe(filter("a/b/c"), flow);
+
+        assertMatching("a/b/c", flow);
+        assertNotMatching("a/b");
+        assertNotMatching("a/b/c/d");
+        assertNotMatching("a/b/d");
+    }
+
+    @Test
+    void findMatching_singleLevelWildcard() {
+        final MqttSubscriptionFlow flow1 = flow();
+        final MqttSubscriptionFlow flow2 = flow();
+        trie.subscribe(filter("a/+/c"), flow1);
+        trie.subscribe(filter("+/+"), flow2);
+
+        assertMatching("a/b/c", flow1);
+        assertMatching("a/x/c", flow1);
+        assertMatching("a/b", flow2);
+        assertMatching("a/", flow2);
+        assertNotMatching("a/b/c/d");
+        assertNotMatching("a");
+    }
+
+    @Test
+    void findMatching_multiLevelWildcard_matchesParentLevel() {
+        final MqttSubscriptionFlow flow1 = flow();
+        final MqttSubscriptionFlow flow2 = flow();
+        trie.subscribe(filter("a/#"), flow1);
+        trie.subscribe(filter("#"), flow2);
+
+        assertMatching("a", flow1, flow2);
+        assertMatching("a/b/c", flow1, flow2);
+        assertMatching("b", flow2);
+    }
+
+    @Test
+    void findMatching_unknownLevel_doesNotMatch() {
+        trie.subscribe(filter("a/b"), flow());
+
+        assertNotMatching("x/y");
+    }
+
+    @Test
+    void findMatching_flowWithMultipleMatchingFilters_isAddedPerFilter() {
+        final MqttSubscriptionFlow flow = flow();
+        trie.subscribe(filter("a/b"), flow);
+        trie.subscribe(filter("a/+"), flow);
+
+        final List<MqttIncomingPublishFlow> matching = findMatching("a/b");
+        assertEquals(2, matching.size());
+        assertSame(flow, matching.get(0));
+        assertSame(flow, matching.get(1));
+    }
+
+    @Test
+    void unsubscribe_removesOnlyTheTopicFilter() {
+        final MqttSubscriptionFlow flow1 = flow();
+        final MqttSubscriptionFlow flow2 = flow();
+        trie.subscribe(filter("a/b"), flow1);
+        trie.subscribe(filter("a/+"), flow2);
+
+        final List<MqttSubscriptionFlow> unsubscribed = new ArrayList<>();
+        trie.unsubscribe(filter("a/b"), unsubscribed::add);
+
+        assertEquals(1, unsubscribed.size());
+        assertSame(flow1, unsubscribed.get(0));
+        assertTrue(flow1.isUnsubscribed());
+        assertFalse(flow2.isUnsubscribed());
+        assertMatching("a/b", flow2);
+    }
+
+    @Test
+    void unsubscribe_releasesLevels() {
+        trie.subscribe(filter("a/b/c"), flow());
+        trie.unsubscribe(filter("a/b/c"), null);
+
+        assertNotMatching("a/b/c");
+
+        final MqttSubscriptionFlow flow = flow();
+        trie.subscribe(filter("a/b/c"), flow);
+        assertMatching("a/b/c", flow);
+    }
+
+    @Test
+    void unsubscribe_multiLevelWildcard() {
+        final MqttSubscriptionFlow flow = flow();
+        trie.subscribe(filter("a/#"), flow);
+        trie.unsubscribe(filter("a/#"), null);
+
+        assertTrue(flow.isUnsubscribed());
+        assertNotMatching("a/b");
+    }
+
+    @Test
+    void cancel_removesAllTopicFiltersOfTheFlow() {
+        final MqttSubscriptionFlow flow1 = flow();
+        final MqttSubscriptionFlow flow2 = flow();
+        trie.subscribe(filter("a/b"), flow1);
+        trie.subscribe(filter("a/#"), flow1);
+        trie.subscribe(filter("+/b"), flow1);
+        trie.subscribe(filter("a/b"), flow2);
+
+        trie.cancel(flow1);
+
+        assertMatching("a/b", flow2);
+        assertEquals(0, findMatching("a/c").size());
+    }
+
+    @Test
+    void findMatching_sameResultAsLevelByLevelMatching() {
+        final String[] filters = {"a/b/c", "a/+/c", "a/#", "+/b/+", "#", "a/b", "b/+", "+", "a/b/c/#", "/+", "+/+/+/+"};
+        final String[] topics = {"a", "a/b", "a/b/c", "a/x/c", "a/b/c/d", "b/b/b", "b/x", "c", "/a", "x/y/z", "a/"};
+        final MqttSubscriptionFlow[] flows = new MqttSubscriptionFlow[filters.length];
+        for (int i = 0; i < filters.length; i++) {
+            flows[i] = flow();
+            trie.subscribe(filter(filters[i]), flows[i]);
+        }
+        for (final String topic : topics) {
+            final Set<MqttIncomingPublishFlow> expected = new HashSet<>();
+            for (int i = 0; i < filters.length; i++) {
+                if (matches(filters[i], topic)) {
+                    expected.add(flows[i]);
+                }
+            }
+            final ScNodeList<MqttIncomingPublishFlow> matchingFlows = new ScNodeList<>();
+            assertEquals(!expected.isEmpty(), trie.findMatching(topic(topic), matchingFlows), topic);
+            assertEquals(expected, toSet(matchingFlows), topic);
+        }
+    }
+
+    private static boolean matches(@NotNull final String topicFilter, @NotNull final String topic) {
+        final String[] filterLevels = topicFilter.split("/", -1);
+        final String[] topicLevels = topic.split("/", -1);
+        for (int i = 0; i < filterLevels.length; i++) {
+            if (filterLevels[i].equals("#")) {
+                return true;
+            }
+            if (i == topicLevels.length) {
+                return false;
+            }
+            if (!filterLevels[i].equals("+") && !filterLevels[i].equals(topicLevels[i])) {
+                return false;
+            }
+        }
+        return filterLevels.length == topicLevels.length;
+    }
+
+    @NotNull
+    private MqttSubscriptionFlow flow() {
+        return new MqttSubscriptionFlow(new TestSubscriber<>(), incomingPublishService);
+    }
+
+    @NotNull
+    private static MqttTopicFilterImpl filter(@NotNull final String topicFilter) {
+        return Objects.requireNonNull(MqttTopicFilterImpl.from(topicFilter));
+    }
+
+    @NotNull
+    private static MqttTopicImpl topic(@NotNull final String topic) {
+        return Objects.requireNonNull(MqttTopicImpl.from(topic));
+    }
+
+    @NotNull
+    private List<MqttIncomingPublishFlow> findMatching(@NotNull final String topic) {
+        final ScNodeList<MqttIncomingPublishFlow> matchingFlows = new ScNodeList<>();
+        trie.findMatching(topic(topic), matchingFlows);
+        final List<MqttIncomingPublishFlow> list = new ArrayList<>();
+        matchingFlows.forEach(list::add);
+        return list;
+    }
+
+    private void assertMatching(@NotNull final String topic, @NotNull final MqttSubscriptionFlow... flows) {
+        final ScNodeList<MqttIncomingPublishFlow> matchingFlows = new ScNodeList<>();
+        assertTrue(trie.findMatching(topic(topic), matchingFlows), topic);
+        final Set<MqttIncomingPublishFlow> expected = new HashSet<>();
+        for (final MqttSubscriptionFlow flow : flows) {
+            expected.add(flow);
+        }
+        assertEquals(expected, toSet(matchingFlows), topic);
+    }
+
+    private void assertNotMatching(@NotNull final String topic) {
+        final ScNodeList<MqttIncomingPublishFlow> matchingFlows = new ScNodeList<>();
+        assertFalse(trie.findMatching(topic(topic), matchingFlows), topic);
+        assertTrue(matchingFlows.isEmpty(), topic);
+    }
+
+    @NotNull
+    private static Set<MqttIncomingPublishFlow> toSet(@NotNull final ScNodeList<MqttIncomingPublishFlow> flows) {
+        final Set<MqttIncomingPublishFlow> set = new HashSet<>();
+        flows.forEach(set::add);
+        return set;
+    }
+
+}
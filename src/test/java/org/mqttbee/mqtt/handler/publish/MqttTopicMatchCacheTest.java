@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.handler.publish;
+
+import org.junit.jupiter.api.Test;
+import org.mqttbee.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Silvio Giebl
+ */
+class MqttTopicMatchCacheTest {
+
+    @Test
+    void get_equalTopicBytes_returnsCachedMatch() {
+        final MqttTopicMatchCache cache = new MqttTopicMatchCache(4);
+        final MqttTopicMatchCache.Match match = match();
+        cache.put(topic("a/b"), match);
+
+        assertSame(match, cache.get(topic("a/b")));
+        assertNull(cache.get(topic("a/c")));
+    }
+
+    @Test
+    void put_full_evictsLeastRecentlyUsed() {
+        final MqttTopicMatchCache cache = new MqttTopicMatchCache(3);
+        final MqttTopicMatchCache.Match match1 = match();
+        final MqttTopicMatchCache.Match match2 = match();
+        final MqttTopicMatchCache.Match match3 = match();
+        assertFalse(cache.put(topic("1"), match1));
+        assertFalse(cache.put(topic("2"), match2));
+        assertFalse(cache.put(topic("3"), match3));
+        cache.get(topic("1"));
+
+        final MqttTopicMatchCache.Match match4 = match();
+        assertTrue(cache.put(topic("4"), match4));
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get(topic("2")));
+        assertSame(match1, cache.get(topic("1")));
+        assertSame(match3, cache.get(topic("3")));
+        assertSame(match4, cache.get(topic("4")));
+    }
+
+    @Test
+    void clear_removesAllMatches() {
+        final MqttTopicMatchCache cache = new MqttTopicMatchCache(8);
+        for (int i = 0; i < 8; i++) {
+            cache.put(topic("topic/" + i), match());
+        }
+
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        for (int i = 0; i < 8; i++) {
+            assertNull(cache.get(topic("topic/" + i)));
+        }
+        final MqttTopicMatchCache.Match match = match();
+        assertFalse(cache.put(topic("topic/0"), match));
+        assertSame(match, cache.get(topic("topic/0")));
+    }
+
+    @Test
+    void put_manyTopics_keepsMostRecentlyUsedTopicsFindable() {
+        final int size = 64;
+        final MqttTopicMatchCache cache = new MqttTopicMatchCache(size);
+        final MqttTopicMatchCache.Match[] matches = new MqttTopicMatchCache.Match[1000];
+        int evictions = 0;
+        for (int i = 0; i < matches.length; i++) {
+            matches[i] = match();
+            if (cache.put(topic("topic/" + i), matches[i])) {
+                evictions++;
+            }
+        }
+
+        assertEquals(size, cache.size());
+        assertEquals(matches.length - size, evictions);
+        for (int i = 0; i < matches.length - size; i++) {
+            assertNull(cache.get(topic("topic/" + i)));
+        }
+        for (int i = matches.length - size; i < matches.length; i++) {
+            assertSame(matches[i], cache.get(topic("topic/" + i)));
+        }
+    }
+
+    @NotNull
+    private static byte[] topic(@NotNull final String topic) {
+        return topic.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @NotNull
+    private static MqttTopicMatchCache.Match match() {
+        return new MqttTopicMatchCache.Match(new MqttIncomingPublishFlow[0], true);
+    }
+
+}
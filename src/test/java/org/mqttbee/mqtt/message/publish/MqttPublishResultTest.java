@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.message.publish;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mqttbee.mqtt.message.publish.MqttPublishTest.createPublishFromPayload;
+
+/**
+ * @author Silvio Giebl
+ */
+public class MqttPublishResultTest {
+
+    @Test
+    public void of_recycle_reusesRecycledResult() {
+        final MqttPublish publish1 = createPublishFromPayload(null);
+        final MqttPublishResult result1 = MqttPublishResult.of(publish1, null, true);
+        assertSame(publish1, result1.getPublish());
+        assertTrue(result1.isSuccess());
+        result1.recycle();
+
+        final MqttPublish publish2 = createPublishFromPayload(null);
+        final Throwable error = new Exception();
+        final MqttPublishResult result2 = MqttPublishResult.of(publish2, error, true);
+        assertSame(result1, result2);
+        assertSame(publish2, result2.getPublish());
+        assertFalse(result2.isSuccess());
+        assertSame(error, result2.getError());
+    }
+
+    @Test
+    public void of_noRecycle_allocatesNewResult() {
+        final MqttPublish publish = createPublishFromPayload(null);
+        final MqttPublishResult result1 = MqttPublishResult.of(publish, null, false);
+        result1.recycle();
+        final MqttPublishResult result2 = MqttPublishResult.of(publish, null, false);
+        assertNotSame(result1, result2);
+        assertSame(publish, result1.getPublish());
+    }
+
+    @Test
+    public void of_withTrace() {
+        final MqttPublish publish = createPublishFromPayload(null);
+        final MqttPublishTrace trace = new MqttPublishTrace(1);
+        assertSame(trace, MqttPublishResult.of(publish, null, trace, false).getTrace());
+        assertNull(MqttPublishResult.of(publish, null, false).getTrace());
+    }
+
+}
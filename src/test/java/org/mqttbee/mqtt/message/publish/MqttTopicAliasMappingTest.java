@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.message.publish;
+
+import org.junit.Test;
+import org.mqttbee.mqtt.datatypes.MqttTopicImpl;
+
+import static java.util.Objects.requireNonNull;
+import static org.junit.Assert.assertEquals;
+import static org.mqttbee.api.mqtt.mqtt5.message.publish.TopicAliasUsage.*;
+import static org.mqttbee.mqtt.message.publish.MqttPublishWrapper.DEFAULT_NO_TOPIC_ALIAS;
+
+/**
+ * @author Silvio Giebl
+ */
+public class MqttTopicAliasMappingTest {
+
+    private static MqttTopicImpl topic(final String string) {
+        return requireNonNull(MqttTopicImpl.from(string));
+    }
+
+    @Test
+    public void set_assignsAllTopicAliases() {
+        final MqttTopicAliasMapping mapping = new MqttTopicAliasMapping(3);
+        assertEquals(1, mapping.set(topic("a"), MAY));
+        assertEquals(2, mapping.set(topic("b"), MAY));
+        assertEquals(3, mapping.set(topic("c"), MAY));
+        assertEquals(DEFAULT_NO_TOPIC_ALIAS, mapping.set(topic("d"), MAY));
+        assertEquals(1, mapping.get(topic("a")));
+        assertEquals(2, mapping.get(topic("b")));
+        assertEquals(3, mapping.get(topic("c")));
+        assertEquals(DEFAULT_NO_TOPIC_ALIAS, mapping.get(topic("d")));
+    }
+
+    @Test
+    public void set_mustNot() {
+        final MqttTopicAliasMapping mapping = new MqttTopicAliasMapping(3);
+        assertEquals(DEFAULT_NO_TOPIC_ALIAS, mapping.set(topic("a"), MUST_NOT));
+        assertEquals(DEFAULT_NO_TOPIC_ALIAS, mapping.get(topic("a")));
+    }
+
+    @Test
+    public void get_comparesEncodedTopic() {
+        final MqttTopicAliasMapping mapping = new MqttTopicAliasMapping(3);
+        mapping.set(topic("a/b"), MAY);
+        assertEquals(1, mapping.get(requireNonNull(MqttTopicImpl.from(new byte[]{'a', '/', 'b'}))));
+    }
+
+    @Test
+    public void set_mayOverwrite_replacesLeastRecentlyUsed() {
+        final MqttTopicAliasMapping mapping = new MqttTopicAliasMapping(3);
+        mapping.set(topic("a"), MAY);
+        mapping.set(topic("b"), MAY);
+        mapping.set(topic("c"), MAY);
+        mapping.get(topic("a"));
+        mapping.get(topic("c"));
+
+        assertEquals(2, mapping.set(topic("d"), MAY_OVERWRITE));
+        assertEquals(DEFAULT_NO_TOPIC_ALIAS, mapping.get(topic("b")));
+        assertEquals(2, mapping.get(topic("d")));
+
+        assertEquals(1, mapping.set(topic("e"), MAY_OVERWRITE));
+        assertEquals(DEFAULT_NO_TOPIC_ALIAS, mapping.get(topic("a")));
+        assertEquals(3, mapping.get(topic("c")));
+        assertEquals(2, mapping.get(topic("d")));
+        assertEquals(1, mapping.get(topic("e")));
+    }
+
+    @Test
+    public void set_mayOverwrite_manyTopics() {
+        final int size = 16;
+        final MqttTopicAliasMapping mapping = new MqttTopicAliasMapping(size);
+        for (int i = 0; i < 1000; i++) {
+            final MqttTopicImpl topic = topic("topic/" + i);
+            assertEquals(DEFAULT_NO_TOPIC_ALIAS, mapping.get(topic));
+            final int topicAlias = mapping.set(topic, MAY_OVERWRITE);
+            assertEquals((i % size) + 1, topicAlias);
+            assertEquals(topicAlias, mapping.get(topic));
+        }
+        for (int i = 1000 - size; i < 1000; i++) {
+            assertEquals((i % size) + 1, mapping.get(topic("topic/" + i)));
+        }
+        assertEquals(DEFAULT_NO_TOPIC_ALIAS, mapping.get(topic("topic/" + (999 - size))));
+    }
+
+}
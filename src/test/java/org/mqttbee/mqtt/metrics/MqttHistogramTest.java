@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.metrics;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Silvio Giebl
+ */
+public class MqttHistogramTest {
+
+    @Test
+    public void bucketIndex_smallValuesAreExact() {
+        for (int i = 0; i < 2 * MqttHistogram.SUB_BUCKET_COUNT; i++) {
+            assertEquals(i, MqttHistogram.bucketIndex(i));
+            assertEquals(i, MqttHistogram.lowestValue(i));
+            assertEquals(i, MqttHistogram.highestValue(i));
+        }
+    }
+
+    @Test
+    public void bucketIndex_negativeValue() {
+        assertEquals(0, MqttHistogram.bucketIndex(-5));
+    }
+
+    @Test
+    public void bucketIndex_valueWithinBucketBounds() {
+        final Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            final long value = random.nextLong() >>> (1 + random.nextInt(63));
+            final int index = MqttHistogram.bucketIndex(value);
+            assertTrue(index < MqttHistogram.BUCKET_COUNT);
+            assertTrue(MqttHistogram.lowestValue(index) <= value);
+            assertTrue(MqttHistogram.highestValue(index) >= value);
+        }
+        assertTrue(MqttHistogram.bucketIndex(Long.MAX_VALUE) < MqttHistogram.BUCKET_COUNT);
+        assertEquals(Long.MAX_VALUE, MqttHistogram.highestValue(MqttHistogram.bucketIndex(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void bucketIndex_bucketsAreContiguous() {
+        for (int i = 0; i < MqttHistogram.bucketIndex(Long.MAX_VALUE); i++) {
+            assertEquals(MqttHistogram.highestValue(i) + 1, MqttHistogram.lowestValue(i + 1));
+        }
+    }
+
+    @Test
+    public void getValueAtPercentile_relativeError() {
+        final MqttHistogram histogram = new MqttHistogram();
+        for (int i = 1; i <= 1_000_000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1_000_000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(1_000_000, histogram.getValueAtPercentile(100));
+        assertWithin(500_000, histogram.getValueAtPercentile(50));
+        assertWithin(990_000, histogram.getValueAtPercentile(99));
+        assertWithin(1, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void getValueAtPercentile_empty() {
+        final MqttHistogram histogram = new MqttHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    private static void assertWithin(final long expected, final long actual) {
+        assertTrue(actual + " is not within 1/32 of " + expected,
+                Math.abs(actual - expected) <= expected / MqttHistogram.SUB_BUCKET_COUNT);
+    }
+
+}
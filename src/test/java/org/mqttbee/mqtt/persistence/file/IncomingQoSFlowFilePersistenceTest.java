@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.persistence.file;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.pubrec.Mqtt5PubRecReasonCode;
+import org.mqttbee.mqtt.MqttVersion;
+import org.mqttbee.mqtt.codec.encoder.mqtt5.Mqtt5PubRecEncoder;
+import org.mqttbee.mqtt.datatypes.MqttUserPropertiesImpl;
+import org.mqttbee.mqtt.message.publish.pubrec.MqttPubRec;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Silvio Giebl
+ */
+public class IncomingQoSFlowFilePersistenceTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void open_recoversStoredPubRecs() throws Exception {
+        final File directory = folder.newFolder();
+        final IncomingQoSFlowFilePersistence persistence = open(directory);
+        persistence.store(pubRec(1, Mqtt5PubRecReasonCode.SUCCESS));
+        persistence.store(pubRec(2, Mqtt5PubRecReasonCode.QUOTA_EXCEEDED));
+        persistence.store(pubRec(65535, Mqtt5PubRecReasonCode.SUCCESS));
+        persistence.discard(1);
+        close(persistence);
+
+        final IncomingQoSFlowFilePersistence reopened = open(directory);
+        assertNull(reopened.get(1).join());
+        final MqttPubRec pubRec = reopened.get(2).join();
+        assertNotNull(pubRec);
+        assertEquals(2, pubRec.getPacketIdentifier());
+        assertEquals(Mqtt5PubRecReasonCode.QUOTA_EXCEEDED, pubRec.getReasonCode());
+        assertNotNull(reopened.get(65535).join());
+        close(reopened);
+    }
+
+    @Test
+    public void store_completesAfterFlush() throws Exception {
+        final File directory = folder.newFolder();
+        final IncomingQoSFlowFilePersistence persistence = open(directory);
+        final CompletableFuture<Void> future = persistence.store(pubRec(3, Mqtt5PubRecReasonCode.SUCCESS));
+        future.get(5, TimeUnit.SECONDS);
+        close(persistence);
+
+        final IncomingQoSFlowFilePersistence reopened = open(directory);
+        assertNotNull(reopened.get(3).join());
+        close(reopened);
+    }
+
+    @Test
+    public void get_notStored_doesNotAllocate() throws Exception {
+        final IncomingQoSFlowFilePersistence persistence = open(folder.newFolder());
+        assertSame(persistence.get(1), persistence.get(2));
+        assertNull(persistence.get(1).join());
+        close(persistence);
+    }
+
+    @Test
+    public void clear_discardsAllPubRecs() throws Exception {
+        final File directory = folder.newFolder();
+        final IncomingQoSFlowFilePersistence persistence = open(directory);
+        persistence.store(pubRec(1, Mqtt5PubRecReasonCode.SUCCESS));
+        persistence.store(pubRec(7, Mqtt5PubRecReasonCode.SUCCESS));
+        persistence.clear();
+        assertNull(persistence.get(1).join());
+        assertNull(persistence.get(7).join());
+        close(persistence);
+
+        final IncomingQoSFlowFilePersistence reopened = open(directory);
+        assertNull(reopened.get(1).join());
+        assertNull(reopened.get(7).join());
+        close(reopened);
+    }
+
+    @NotNull
+    private static IncomingQoSFlowFilePersistence open(@NotNull final File directory) {
+        final IncomingQoSFlowFilePersistence persistence =
+                new IncomingQoSFlowFilePersistence(directory, MqttVersion.MQTT_5_0);
+        persistence.open().join();
+        return persistence;
+    }
+
+    private static void close(@NotNull final IncomingQoSFlowFilePersistence persistence) {
+        persistence.close().join();
+    }
+
+    @NotNull
+    private static MqttPubRec pubRec(final int packetIdentifier, @NotNull final Mqtt5PubRecReasonCode reasonCode) {
+        return new MqttPubRec(packetIdentifier, reasonCode, null, MqttUserPropertiesImpl.NO_USER_PROPERTIES,
+                Mqtt5PubRecEncoder.PROVIDER);
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.persistence.file;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mqttbee.annotations.NotNull;
+import org.mqttbee.api.mqtt.datatypes.MqttQoS;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.TopicAliasUsage;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.pubrel.Mqtt5PubRelReasonCode;
+import org.mqttbee.mqtt.MqttVersion;
+import org.mqttbee.mqtt.codec.encoder.mqtt5.Mqtt5PubRelEncoder;
+import org.mqttbee.mqtt.codec.encoder.mqtt5.Mqtt5PublishEncoder;
+import org.mqttbee.mqtt.datatypes.MqttTopicImpl;
+import org.mqttbee.mqtt.datatypes.MqttUserPropertiesImpl;
+import org.mqttbee.mqtt.message.publish.MqttPublish;
+import org.mqttbee.mqtt.message.publish.MqttPublishWrapper;
+import org.mqttbee.mqtt.message.publish.MqttQoSMessage;
+import org.mqttbee.mqtt.message.publish.pubrel.MqttPubRel;
+import org.mqttbee.mqtt.persistence.PersistenceCallback;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+import static org.mqttbee.mqtt.message.publish.MqttPublishWrapper.DEFAULT_NO_SUBSCRIPTION_IDENTIFIERS;
+import static org.mqttbee.mqtt.message.publish.MqttPublishWrapper.DEFAULT_NO_TOPIC_ALIAS;
+
+/**
+ * @author Silvio Giebl
+ */
+public class OutgoingQoSFlowFilePersistenceTest {
+
+    private static final int SMALL_SEGMENT_SIZE = 1024;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void open_recoversLatestRecordOfEveryPacketIdentifier() throws Exception {
+        final File directory = folder.newFolder();
+        final OutgoingQoSFlowFilePersistence persistence = open(directory, FileJournal.DEFAULT_SEGMENT_SIZE, null);
+        storeAll(persistence, Arrays.asList(publish(1), publish(2), publish(3), publish(4)));
+        storeAll(persistence, Arrays.asList(pubRel(2), publish(5)));
+        discardAll(persistence, 3, 5);
+        persistence.close().join();
+
+        final TreeMap<Integer, MqttQoSMessage> recovered = new TreeMap<>();
+        final OutgoingQoSFlowFilePersistence reopened = open(directory, FileJournal.DEFAULT_SEGMENT_SIZE, recovered);
+        assertEquals(Arrays.asList(1, 2, 4), new ArrayList<>(recovered.keySet()));
+        assertTopic("topic/1", recovered.get(1));
+        assertTrue(recovered.get(2) instanceof MqttPubRel);
+        assertTopic("topic/4", recovered.get(4));
+        assertSame(recovered.get(4), reopened.get(4).join());
+        assertNull(reopened.get(3).join());
+        reopened.close().join();
+    }
+
+    @Test
+    public void discard_afterRecovery_appendsTombstone() throws Exception {
+        final File directory = folder.newFolder();
+        final OutgoingQoSFlowFilePersistence persistence = open(directory, FileJournal.DEFAULT_SEGMENT_SIZE, null);
+        storeAll(persistence, Arrays.asList(publish(1), publish(2)));
+        persistence.close().join();
+
+        final OutgoingQoSFlowFilePersistence reopened = open(directory, FileJournal.DEFAULT_SEGMENT_SIZE, null);
+        reopened.discard(1).join();
+        reopened.close().join();
+
+        final TreeMap<Integer, MqttQoSMessage> recovered = new TreeMap<>();
+        open(directory, FileJournal.DEFAULT_SEGMENT_SIZE, recovered).close().join();
+        assertEquals(Arrays.asList(2), new ArrayList<>(recovered.keySet()));
+    }
+
+    @Test
+    public void compaction_relocatesLiveRecordsAndBoundsSegments() throws Exception {
+        final File directory = folder.newFolder();
+        final OutgoingQoSFlowFilePersistence persistence = open(directory, SMALL_SEGMENT_SIZE, null);
+        storeAll(persistence, Arrays.asList(publish(1), publish(2), publish(3)));
+        storeAll(persistence, Arrays.asList(pubRel(2)));
+        for (int i = 0; i < 200; i++) {
+            final int packetIdentifier = 10 + (i % 20);
+            storeAll(persistence, Arrays.asList(publish(packetIdentifier)));
+            if ((i % 3) != 0) {
+                discardAll(persistence, packetIdentifier);
+            }
+        }
+        // wait until the segment deletions queued on the sync thread are done
+        CompletableFuture.runAsync(() -> {}, FileJournal.SYNC_EXECUTOR).join();
+        final File[] segmentFiles = Objects.requireNonNull(directory.listFiles());
+        assertTrue("segment count " + segmentFiles.length, segmentFiles.length <= 5);
+
+        final TreeMap<Integer, MqttQoSMessage> expected = new TreeMap<>();
+        for (int packetIdentifier = 0; packetIdentifier < 65536; packetIdentifier++) {
+            final MqttQoSMessage message = persistence.get(packetIdentifier).join();
+            if (message != null) {
+                expected.put(packetIdentifier, message);
+            }
+        }
+        assertTrue(expected.containsKey(1));
+        assertTrue(expected.get(2) instanceof MqttPubRel);
+        persistence.close().join();
+
+        final TreeMap<Integer, MqttQoSMessage> recovered = new TreeMap<>();
+        open(directory, SMALL_SEGMENT_SIZE, recovered).close().join();
+        assertEquals(expected.keySet(), recovered.keySet());
+        assertTopic("topic/1", recovered.get(1));
+        assertTopic("topic/3", recovered.get(3));
+        assertTrue(recovered.get(2) instanceof MqttPubRel);
+    }
+
+    @NotNull
+    private static OutgoingQoSFlowFilePersistence open(
+            @NotNull final File directory, final int segmentSize, final TreeMap<Integer, MqttQoSMessage> recovered) {
+
+        final OutgoingQoSFlowFilePersistence persistence =
+                new OutgoingQoSFlowFilePersistence(directory, MqttVersion.MQTT_5_0, segmentSize);
+        persistence.open(message -> {
+            if (recovered != null) {
+                assertNull(recovered.put(message.getPacketIdentifier(), message));
+            }
+        }).join();
+        return persistence;
+    }
+
+    private static void storeAll(
+            @NotNull final OutgoingQoSFlowFilePersistence persistence, @NotNull final List<MqttQoSMessage> messages) {
+
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+        persistence.storeAll(messages, callback(future));
+        assertEquals(messages.size(), (int) future.join());
+    }
+
+    private static void discardAll(
+            @NotNull final OutgoingQoSFlowFilePersistence persistence, @NotNull final int... packetIdentifiers) {
+
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+        persistence.discardAll(packetIdentifiers, packetIdentifiers.length, callback(future));
+        assertEquals(packetIdentifiers.length, (int) future.join());
+    }
+
+    @NotNull
+    private static PersistenceCallback callback(@NotNull final CompletableFuture<Integer> future) {
+        return new PersistenceCallback() {
+            @Override
+            public void onPersisted(final int count) {
+                future.complete(count);
+            }
+
+            @Override
+            public void onFailed(final int count, @NotNull final Throwable cause) {
+                future.completeExceptionally(cause);
+            }
+        };
+    }
+
+    @NotNull
+    private static MqttPublishWrapper publish(final int packetIdentifier) {
+        final MqttPublish publish =
+                new MqttPublish(Objects.requireNonNull(MqttTopicImpl.from("topic/" + packetIdentifier)),
+                        ByteBuffer.wrap(new byte[]{(byte) packetIdentifier}), MqttQoS.EXACTLY_ONCE, false,
+                        MqttPublish.MESSAGE_EXPIRY_INTERVAL_INFINITY, null, null, null, null, TopicAliasUsage.HAS_NOT,
+                        MqttUserPropertiesImpl.NO_USER_PROPERTIES, Mqtt5PublishEncoder.PROVIDER);
+        return publish.wrap(packetIdentifier, false, DEFAULT_NO_TOPIC_ALIAS, false,
+                DEFAULT_NO_SUBSCRIPTION_IDENTIFIERS);
+    }
+
+    @NotNull
+    private static MqttPubRel pubRel(final int packetIdentifier) {
+        return new MqttPubRel(packetIdentifier, Mqtt5PubRelReasonCode.SUCCESS, null,
+                MqttUserPropertiesImpl.NO_USER_PROPERTIES, Mqtt5PubRelEncoder.PROVIDER);
+    }
+
+    private static void assertTopic(@NotNull final String expected, final MqttQoSMessage message) {
+        assertTrue(message instanceof MqttPublishWrapper);
+        assertEquals(expected, ((MqttPublishWrapper) message).getWrapped().getTopic().toString());
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt.persistence.memory;
+
+import io.netty.channel.WriteBufferWaterMark;
+import org.junit.jupiter.api.Test;
+import org.mqttbee.api.mqtt.datatypes.MqttQoS;
+import org.mqttbee.api.mqtt.mqtt5.message.publish.pubrel.Mqtt5PubRelReasonCode;
+import org.mqttbee.mqtt.MqttClientData;
+import org.mqttbee.mqtt.MqttClientExecutorConfigImpl;
+import org.mqttbee.mqtt.MqttServerConnectionData;
+import org.mqttbee.mqtt.MqttVersion;
+import org.mqttbee.mqtt.codec.encoder.mqtt5.Mqtt5PubRelEncoder;
+import org.mqttbee.mqtt.datatypes.MqttClientIdentifierImpl;
+import org.mqttbee.mqtt.datatypes.MqttUserPropertiesImpl;
+import org.mqttbee.mqtt.datatypes.MqttVariableByteInteger;
+import org.mqttbee.mqtt.message.publish.pubrel.MqttPubRel;
+
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * @author Silvio Giebl
+ */
+class OutgoingQoSFlowMemoryPersistenceTest {
+
+    @Test
+    void store_packetIdentifierOfPreviousConnectionAboveReceiveMaximum() {
+        final MqttClientData clientData =
+                new MqttClientData(MqttVersion.MQTT_5_0, Objects.requireNonNull(MqttClientIdentifierImpl.from("test")),
+                        "localhost", 1883, false, false, false, MqttClientExecutorConfigImpl.DEFAULT,
+                        WriteBufferWaterMark.DEFAULT, null);
+        clientData.setServerConnectionData(
+                new MqttServerConnectionData(10, 0, MqttVariableByteInteger.MAXIMUM_PACKET_SIZE_LIMIT,
+                        MqttQoS.EXACTLY_ONCE, true, true, true, true));
+        final OutgoingQoSFlowMemoryPersistence persistence = new OutgoingQoSFlowMemoryPersistence(clientData);
+        final int packetIdentifier = clientData.getSession().getMaxPacketIdentifier();
+        final MqttPubRel pubRel = new MqttPubRel(packetIdentifier, Mqtt5PubRelReasonCode.SUCCESS, null,
+                MqttUserPropertiesImpl.NO_USER_PROPERTIES, Mqtt5PubRelEncoder.PROVIDER);
+
+        persistence.store(pubRel);
+        assertSame(pubRel, persistence.get(packetIdentifier).join());
+        persistence.discard(packetIdentifier);
+        assertNull(persistence.get(packetIdentifier).join());
+    }
+
+}
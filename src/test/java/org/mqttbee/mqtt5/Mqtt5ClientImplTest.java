@@ -0,0 +1,49 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.mqtt5;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Silvio Giebl
+ */
+class Mqtt5ClientImplTest {
+
+    @Test
+    void reconnectDelayNanos_isBetweenHalfAndFullDelay() {
+        for (int attempt = 0; attempt < 10; attempt++) {
+            final long delayNanos = Math.min(1_000L << attempt, 100_000L);
+            final long randomizedNanos = Mqtt5ClientImpl.reconnectDelayNanos(1_000, 100_000, attempt);
+            assertTrue((randomizedNanos >= delayNanos / 2) && (randomizedNanos <= delayNanos),
+                    attempt + ": " + randomizedNanos);
+        }
+    }
+
+    @Test
+    void reconnectDelayNanos_maxDelayUnlimited_doesNotOverflow() {
+        for (final int attempt : new int[]{0, 1, 62, 63, 64, Integer.MAX_VALUE}) {
+            final long randomizedNanos = Mqtt5ClientImpl.reconnectDelayNanos(Long.MAX_VALUE, Long.MAX_VALUE, attempt);
+            assertTrue(randomizedNanos >= Long.MAX_VALUE / 2, attempt + ": " + randomizedNanos);
+        }
+        final long randomizedNanos = Mqtt5ClientImpl.reconnectDelayNanos(1, Long.MAX_VALUE, 100);
+        assertTrue(randomizedNanos >= Long.MAX_VALUE / 2, String.valueOf(randomizedNanos));
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Silvio Giebl
+ */
+public class IdBitmapTest {
+
+    @Test
+    public void getId_allocatesAllIdsInOrder() {
+        final IdBitmap ids = new IdBitmap(1, 200);
+        for (int i = 1; i <= 200; i++) {
+            assertEquals(i, ids.getId());
+        }
+        assertEquals(-1, ids.getId());
+    }
+
+    @Test
+    public void getId_withMinId() {
+        final IdBitmap ids = new IdBitmap(65520, 65535);
+        for (int i = 65520; i <= 65535; i++) {
+            assertEquals(i, ids.getId());
+        }
+        assertEquals(-1, ids.getId());
+    }
+
+    @Test
+    public void returnId_lowestReturnedIdIsAllocatedFirst() {
+        final IdBitmap ids = new IdBitmap(1, 65535);
+        for (int i = 1; i <= 65535; i++) {
+            assertEquals(i, ids.getId());
+        }
+        ids.returnId(40000);
+        ids.returnId(70);
+        ids.returnId(5000);
+        assertEquals(70, ids.getId());
+        assertEquals(5000, ids.getId());
+        assertEquals(40000, ids.getId());
+        assertEquals(-1, ids.getId());
+    }
+
+    @Test
+    public void returnId_outOfOrder_sameAsRanges() {
+        final IdBitmap ids = new IdBitmap(1, 10000);
+        final Ranges ranges = new Ranges(1, 10000);
+        final int[] inFlight = new int[3000];
+        for (int i = 0; i < inFlight.length; i++) {
+            inFlight[i] = ids.getId();
+            assertEquals(inFlight[i], ranges.getId());
+        }
+        final Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            final int index = random.nextInt(inFlight.length);
+            ids.returnId(inFlight[index]);
+            ranges.returnId(inFlight[index]);
+            inFlight[index] = ids.getId();
+            assertEquals(inFlight[index], ranges.getId());
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.util.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Silvio Giebl
+ */
+public class IntTimerWheelTest {
+
+    @Test
+    public void advance_expiresKeysAtTheirDeadline() {
+        final IntTimerWheel wheel = new IntTimerWheel(100, 8, 0);
+        wheel.schedule(1, 3);
+        wheel.schedule(2, 5);
+        wheel.schedule(3, 3);
+        assertEquals(3, wheel.size());
+
+        assertEquals(Collections.emptyList(), advance(wheel, 2));
+        assertEquals(Arrays.asList(1, 3), sorted(advance(wheel, 3)));
+        assertFalse(wheel.isScheduled(1));
+        assertTrue(wheel.isScheduled(2));
+        assertEquals(Collections.singletonList(2), advance(wheel, 10));
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void advance_keepsKeysOfLaterRounds() {
+        final IntTimerWheel wheel = new IntTimerWheel(100, 8, 0);
+        wheel.schedule(1, 4);
+        wheel.schedule(2, 12);
+        wheel.schedule(3, 20);
+        assertEquals(Collections.singletonList(1), advance(wheel, 4));
+        assertEquals(Collections.emptyList(), advance(wheel, 11));
+        assertEquals(Collections.singletonList(2), advance(wheel, 12));
+        assertEquals(Collections.singletonList(3), advance(wheel, 100));
+    }
+
+    @Test
+    public void schedule_replacesPreviousDeadline() {
+        final IntTimerWheel wheel = new IntTimerWheel(100, 8, 0);
+        wheel.schedule(1, 2);
+        wheel.schedule(1, 6);
+        assertEquals(1, wheel.size());
+        assertEquals(Collections.emptyList(), advance(wheel, 5));
+        assertEquals(Collections.singletonList(1), advance(wheel, 6));
+    }
+
+    @Test
+    public void schedule_pastDeadlineExpiresWithNextTick() {
+        final IntTimerWheel wheel = new IntTimerWheel(100, 8, 10);
+        wheel.schedule(1, 5);
+        assertEquals(Collections.singletonList(1), advance(wheel, 11));
+    }
+
+    @Test
+    public void cancel() {
+        final IntTimerWheel wheel = new IntTimerWheel(100, 8, 0);
+        wheel.schedule(1, 3);
+        wheel.schedule(2, 3);
+        wheel.schedule(3, 3);
+        assertTrue(wheel.cancel(2));
+        assertFalse(wheel.cancel(2));
+        assertFalse(wheel.cancel(4));
+        assertEquals(2, wheel.size());
+        assertEquals(Arrays.asList(1, 3), sorted(advance(wheel, 3)));
+    }
+
+    @Test
+    public void advance_consumerMayScheduleExpiredKeyAgain() {
+        final IntTimerWheel wheel = new IntTimerWheel(100, 8, 0);
+        wheel.schedule(1, 1);
+        wheel.schedule(2, 1);
+        final List<Integer> expired = new ArrayList<>();
+        wheel.advance(1, key -> {
+            expired.add(key);
+            wheel.schedule(key, 9);
+        });
+        assertEquals(Arrays.asList(1, 2), sorted(expired));
+        assertEquals(2, wheel.size());
+        assertEquals(Arrays.asList(1, 2), sorted(advance(wheel, 9)));
+    }
+
+    @Test
+    public void advance_tickOverflow() {
+        final IntTimerWheel wheel = new IntTimerWheel(100, 8, Integer.MAX_VALUE - 2);
+        wheel.schedule(1, Integer.MAX_VALUE + 3);
+        assertEquals(Collections.emptyList(), advance(wheel, Integer.MAX_VALUE));
+        assertEquals(Collections.singletonList(1), advance(wheel, Integer.MAX_VALUE + 3));
+    }
+
+    private static List<Integer> advance(final IntTimerWheel wheel, final int toTick) {
+        final List<Integer> expired = new ArrayList<>();
+        wheel.advance(toTick, expired::add);
+        return expired;
+    }
+
+    private static List<Integer> sorted(final List<Integer> list) {
+        Collections.sort(list);
+        return list;
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 The MQTT Bee project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.mqttbee.util.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Silvio Giebl
+ */
+public class SparseIntMapTest {
+
+    @Test
+    public void put_get_remove() {
+        final SparseIntMap<String> map = new SparseIntMap<>(65535);
+        assertNull(map.put(1, "a"));
+        assertNull(map.put(65535, "b"));
+        assertEquals("a", map.put(1, "c"));
+        assertEquals(2, map.size());
+        assertEquals("c", map.get(1));
+        assertEquals("b", map.get(65535));
+        assertNull(map.get(2));
+        assertEquals("c", map.remove(1));
+        assertNull(map.remove(1));
+        assertEquals(1, map.size());
+        assertNull(map.get(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void put_keyGreaterThanMaxKey_throws() {
+        new SparseIntMap<String>(100).put(101, "a");
+    }
+
+    @Test
+    public void forEach_orderedByKey_removalAllowed() {
+        final SparseIntMap<Integer> map = new SparseIntMap<>(65535);
+        final int[] keys = {60000, 3, 64, 63, 4095, 4096, 0, 128, 65535};
+        for (final int key : keys) {
+            map.put(key, key);
+        }
+        final List<Integer> visited = new ArrayList<>();
+        map.forEach((value, key) -> {
+            assertEquals(key, (int) value);
+            visited.add(key);
+            if (key == 64) {
+                map.remove(64);
+                map.remove(4095);
+            }
+        });
+        assertArrayEquals(new Object[]{0, 3, 63, 64, 128, 4096, 60000, 65535}, visited.toArray());
+        assertEquals(keys.length - 2, map.size());
+    }
+
+    @Test
+    public void nextKey() {
+        final SparseIntMap<String> map = new SparseIntMap<>(10000);
+        assertEquals(-1, map.nextKey(0));
+        map.put(5000, "a");
+        map.put(10000, "b");
+        assertEquals(5000, map.nextKey(0));
+        assertEquals(5000, map.nextKey(5000));
+        assertEquals(10000, map.nextKey(5001));
+        assertEquals(-1, map.nextKey(10001));
+    }
+
+    @Test
+    public void randomOperations_sameAsTreeMap() {
+        final SparseIntMap<Integer> map = new SparseIntMap<>(65535);
+        final TreeMap<Integer, Integer> expected = new TreeMap<>();
+        final Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            // alternate between growing and shrinking phases to cover resizing in both directions
+            final boolean growing = (i / 20000) % 2 == 0;
+            final int key = random.nextInt(4096);
+            if (random.nextInt(4) < (growing ? 1 : 3)) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int key = 0; key <= 65535; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+        final List<Integer> keys = new ArrayList<>();
+        map.forEach((value, key) -> keys.add(key));
+        assertEquals(new ArrayList<>(expected.keySet()), keys);
+        for (final Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.remove(entry.getKey()));
+        }
+        assertTrue(map.isEmpty());
+        assertEquals(-1, map.nextKey(0));
+    }
+
+}